@@ -16,6 +16,7 @@ package com.mkulesh.micromath.dialogs;
 import android.app.Activity;
 import android.view.View;
 import android.widget.CheckBox;
+import android.widget.RadioButton;
 
 import androidx.appcompat.widget.AppCompatEditText;
 
@@ -30,7 +31,8 @@ public class DialogDocumentSettings extends DialogBase
     private final DocumentProperties documentSettings;
     private final AppCompatEditText author, title, description;
     private final HorizontalNumberPicker textWidthPicker, significantDigitsPicker;
-    private final CheckBox reformatBox, redefineAllowed;
+    private final CheckBox reformatBox, redefineAllowed, cacheFunctions;
+    private final RadioButton integrationSimpson, integrationGaussKronrod;
 
     public DialogDocumentSettings(Activity context, DocumentPropertiesChangeIf changeIf,
                                   DocumentProperties documentSettings)
@@ -67,6 +69,16 @@ public class DialogDocumentSettings extends DialogBase
 
         redefineAllowed = findViewById(R.id.dialog_checkbox_redefine_allowed);
         redefineAllowed.setChecked(documentSettings.redefineAllowed);
+
+        cacheFunctions = findViewById(R.id.dialog_checkbox_cache_functions);
+        cacheFunctions.setChecked(documentSettings.cacheFunctions);
+
+        integrationSimpson = findViewById(R.id.dialog_integration_simpson);
+        integrationSimpson.setChecked(
+                documentSettings.integrationMethod == DocumentProperties.IntegrationMethod.SIMPSON);
+        integrationGaussKronrod = findViewById(R.id.dialog_integration_gauss_kronrod);
+        integrationGaussKronrod.setChecked(
+                documentSettings.integrationMethod == DocumentProperties.IntegrationMethod.GAUSS_KRONROD);
     }
 
     @Override
@@ -108,6 +120,18 @@ public class DialogDocumentSettings extends DialogBase
                     documentSettings.redefineAllowed = redefineAllowed.isChecked();
                     isChanged = true;
                 }
+                if (documentSettings.cacheFunctions != cacheFunctions.isChecked())
+                {
+                    documentSettings.cacheFunctions = cacheFunctions.isChecked();
+                    isChanged = true;
+                }
+                final DocumentProperties.IntegrationMethod integrationMethod = integrationGaussKronrod.isChecked() ?
+                        DocumentProperties.IntegrationMethod.GAUSS_KRONROD : DocumentProperties.IntegrationMethod.SIMPSON;
+                if (documentSettings.integrationMethod != integrationMethod)
+                {
+                    documentSettings.integrationMethod = integrationMethod;
+                    isChanged = true;
+                }
                 changeIf.onDocumentPropertiesChange(isChanged);
             }
         }
@@ -32,7 +32,7 @@ public class DialogPlotSettings extends DialogBase
     private HorizontalNumberPicker pickerWidth = null, pickerHeight = null, pickerRotation = null,
             pickerElevation = null;
     private OpacityBar pickerMeshOpacity = null;
-    private CheckBox cbMeshLines = null, cbMeshFill = null;
+    private CheckBox cbMeshLines = null, cbMeshFill = null, cbAdaptiveSampling = null;
 
     public DialogPlotSettings(Activity context, PlotPropertiesChangeIf changeIf, PlotProperties parameters)
     {
@@ -84,6 +84,15 @@ public class DialogPlotSettings extends DialogBase
             pickerElevation.maxValue = 360;
         }
 
+        (findViewById(R.id.dialog_sampling_layout))
+                .setVisibility((changeIf.getDimension() == PlotPropertiesChangeIf.Dimension.ONE_D) ? View.VISIBLE
+                        : View.GONE);
+        if (changeIf.getDimension() == PlotPropertiesChangeIf.Dimension.ONE_D)
+        {
+            cbAdaptiveSampling = findViewById(R.id.dialog_checkbox_adaptive_sampling);
+            cbAdaptiveSampling.setChecked(parameters.adaptiveSampling);
+        }
+
         switch (parameters.axesStyle)
         {
         case BOXED:
@@ -155,6 +164,13 @@ public class DialogPlotSettings extends DialogBase
                 parameters.axesStyle = axesStyle;
             }
 
+            if (changeIf.getDimension() == PlotPropertiesChangeIf.Dimension.ONE_D
+                    && parameters.adaptiveSampling != cbAdaptiveSampling.isChecked())
+            {
+                isChanged = true;
+                parameters.adaptiveSampling = cbAdaptiveSampling.isChecked();
+            }
+
             if (changeIf.getDimension() == PlotPropertiesChangeIf.Dimension.TWO_D)
             {
                 PlotProperties.TwoDPlotStyle twoDPlotStyle;
@@ -25,6 +25,7 @@ import android.widget.ArrayAdapter;
 import android.widget.ListView;
 import android.widget.TextView;
 
+import com.mkulesh.micromath.eval.FunctionCache;
 import com.mkulesh.micromath.formula.TermParser;
 import com.mkulesh.micromath.math.CalculatedValue;
 import com.mkulesh.micromath.math.EquationArrayResult;
@@ -64,6 +65,8 @@ public class DialogResultDetails extends DialogBase
         }
     }
 
+    private TextView itemsNumber = null;
+
     public DialogResultDetails(Context context, EquationArrayResult args, EquationArrayResult vals,
                                DocumentProperties docProp, ResultProperties resProp)
     {
@@ -128,11 +131,25 @@ public class DialogResultDetails extends DialogBase
         listView.setAdapter(argumentValueAdapter);
 
         // Show number of items
-        final TextView itemsNumber = findViewById(R.id.result_details_items_number);
+        itemsNumber = findViewById(R.id.result_details_items_number);
         itemsNumber.setText(calculatedItems.size() + " "
                 + getContext().getString(R.string.dialog_list_items));
     }
 
+    /**
+     * Procedure shows the counters of the function cache collected during the calculation of the result
+     */
+    @SuppressLint("SetTextI18n")
+    public void setCacheStatistics(FunctionCache.Statistics statistics)
+    {
+        if (statistics != null && !statistics.isEmpty())
+        {
+            itemsNumber.setText(itemsNumber.getText() + ", " + String.format(
+                    getContext().getString(R.string.dialog_result_details_cache),
+                    statistics.getHits(), statistics.getMisses()));
+        }
+    }
+
     private static final class ArgumentValueAdapter extends ArrayAdapter<ArgumentValueItem>
     {
         private final DocumentProperties docProp;
@@ -0,0 +1,165 @@
+/*
+ * microMathematics - Extended Visual Calculator
+ * Copyright (C) 2014-2022 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+package com.mkulesh.micromath.eval;
+
+import com.mkulesh.micromath.formula.ArgumentHolderIf;
+import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
+import com.mkulesh.micromath.math.CalculatedValue;
+
+/**
+ * A term compiled into the tree of evaluation nodes
+ */
+public class CompiledTerm
+{
+    private final EvalNode root;
+    private final ArgumentHolderIf argumentHolder;
+    private final int argNumber;
+    private final boolean legacyNodes;
+    private Boolean pure = null;
+    private Boolean concurrent = null;
+    private Boolean cacheable = null;
+
+    /*--------------------------------------------------------*
+     * Constructors
+     *--------------------------------------------------------*/
+
+    CompiledTerm(EvalNode root, ArgumentHolderIf argumentHolder, int argNumber, boolean legacyNodes)
+    {
+        this.root = root;
+        this.argumentHolder = argumentHolder;
+        this.argNumber = argNumber;
+        this.legacyNodes = legacyNodes;
+    }
+
+    /*--------------------------------------------------------*
+     * Getters
+     *--------------------------------------------------------*/
+
+    public EvalNode getRoot()
+    {
+        return root;
+    }
+
+    public int getArgNumber()
+    {
+        return argNumber;
+    }
+
+    /**
+     * Procedure returns whether some nodes of this term are evaluated using the formula view tree.
+     * Such nodes use the scratch values of the terms and can not be evaluated by several threads concurrently
+     */
+    public boolean hasLegacyNodes()
+    {
+        return legacyNodes;
+    }
+
+    /**
+     * Procedure returns whether the value of this term only depends on its arguments, so that
+     * the calculated values can be reused for the same arguments
+     */
+    public boolean isPure()
+    {
+        Boolean p = pure;
+        if (p == null)
+        {
+            p = root.isPure();
+            pure = p;
+        }
+        return p;
+    }
+
+    /**
+     * Procedure returns whether the calculated values of this term shall be cached: the term shall be pure
+     * and contain loops or calls of other functions, otherwise the cache lookup is more expensive than
+     * the calculation itself
+     */
+    public boolean isCacheable()
+    {
+        Boolean c = cacheable;
+        if (c == null)
+        {
+            c = isPure() && root.hasLoopsOrCalls();
+            cacheable = c;
+        }
+        return c;
+    }
+
+    /**
+     * Procedure returns whether this term and all functions called from it can be evaluated by several
+     * threads concurrently
+     */
+    public boolean isConcurrent()
+    {
+        Boolean c = concurrent;
+        if (c == null)
+        {
+            c = !legacyNodes && root.isConcurrent();
+            concurrent = c;
+        }
+        return c;
+    }
+
+    public boolean isConstant()
+    {
+        return root.isConstant();
+    }
+
+    /*--------------------------------------------------------*
+     * Evaluation
+     *--------------------------------------------------------*/
+
+    /**
+     * Procedure calculates the term value for given argument values
+     */
+    public CalculatedValue.ValueType getValue(EvalContext context, CalculatedValue[] argValues,
+                                              CalculatedValue outValue) throws CancelException
+    {
+        if (argumentHolder == null || argValues == null)
+        {
+            return root.getValue(context, outValue);
+        }
+        context.pushFrame(argumentHolder, argValues);
+        try
+        {
+            return root.getValue(context, outValue);
+        }
+        finally
+        {
+            context.popFrame();
+        }
+    }
+
+    /**
+     * Procedure calculates the term value and its derivative for given argument values and their derivatives.
+     * It returns false if the derivative is identically zero
+     */
+    public boolean getDualValue(EvalContext context, CalculatedValue[] argValues, CalculatedValue[] argDerivatives,
+                                CalculatedValue outValue, CalculatedValue outDerivative) throws CancelException
+    {
+        if (argumentHolder == null || argValues == null)
+        {
+            return root.getDualValue(context, outValue, outDerivative);
+        }
+        context.pushFrame(argumentHolder, argValues, argDerivatives);
+        try
+        {
+            return root.getDualValue(context, outValue, outDerivative);
+        }
+        finally
+        {
+            context.popFrame();
+        }
+    }
+}
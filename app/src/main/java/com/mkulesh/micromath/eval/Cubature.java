@@ -0,0 +1,598 @@
+/*
+ * microMathematics - Extended Visual Calculator
+ * Copyright (C) 2014-2022 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+package com.mkulesh.micromath.eval;
+
+import com.mkulesh.micromath.formula.ArgumentHolderIf;
+import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
+import com.mkulesh.micromath.math.CalculatedValue;
+
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import javax.measure.unit.Unit;
+
+/**
+ * Integration of a term over a multidimensional box. Each dimension is the index of an own argument holder.
+ * Up to MAX_CUBATURE_DIMENSION dimensions, the adaptive Genz-Malik cubature rule is used: the box with the
+ * largest error estimate is bisected along the axis with the largest fourth difference. For more dimensions,
+ * the quasi-Monte Carlo method with randomly shifted Halton sequences is used. In both cases, the integrand
+ * is calculated in blocks that are distributed over all processor cores if the integrand allows it.
+ * The result does not depend on the number of processor cores.
+ */
+public class Cubature
+{
+    public static final int MAX_CUBATURE_DIMENSION = 3;
+
+    private static final int MAX_EVALUATIONS = 1 << 20;
+
+    // Number of boxes that are bisected within one step of the adaptive cubature
+    private static final int BOXES_PER_STEP = 16;
+
+    // Parameters of the quasi-Monte Carlo method
+    private static final int QMC_SHIFTS = 8;
+    private static final int QMC_BLOCK_SIZE = 512;
+    private static final long QMC_SEED = 0x5DEECE66DL;
+    private static final int[] PRIMES = new int[]{ 2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47 };
+
+    // Genz-Malik rule of degree 7 with embedded rule of degree 5
+    private static final double LAMBDA2 = FastMath.sqrt(9.0 / 70.0);
+    private static final double LAMBDA4 = FastMath.sqrt(9.0 / 10.0);
+    private static final double LAMBDA5 = FastMath.sqrt(9.0 / 19.0);
+    private static final double WEIGHT2 = 980.0 / 6561.0;
+    private static final double WEIGHT4 = 200.0 / 19683.0;
+    private static final double WEIGHT_E2 = 245.0 / 486.0;
+    private static final double WEIGHT_E4 = 25.0 / 729.0;
+    private static final double RATIO = (LAMBDA2 * LAMBDA2) / (LAMBDA4 * LAMBDA4);
+
+    private final EvalContext context;
+    private final EvalNode integrand;
+    private final ArgumentHolderIf[] holders;
+    private final Unit<?>[] argUnits;
+    private final int dim;
+    private final double[] min, max;
+    private final double sign;
+    private final boolean concurrent;
+
+    // Results of the integrand evaluation merged from all samplers
+    private int evaluations = 0;
+    private double error = 0.0;
+    private boolean isValid = true;
+    private boolean isComplex = false;
+    private boolean isUnitSet = false;
+    private boolean isUnitValid = true;
+    private Unit<?> unit = null;
+
+    /**
+     * A box of the adaptive cubature
+     */
+    private static final class Box implements Comparable<Box>
+    {
+        final double[] center, halfWidth;
+        double re, im, error;
+        int splitAxis;
+
+        Box(double[] center, double[] halfWidth)
+        {
+            this.center = center;
+            this.halfWidth = halfWidth;
+        }
+
+        @Override
+        public int compareTo(Box b)
+        {
+            // the box with the largest error is the head of the queue
+            return Double.compare(b.error, error);
+        }
+    }
+
+    /**
+     * Interface to be implemented by a block of integrand evaluations
+     */
+    private interface BlockIf
+    {
+        void calculate(Sampler sampler, int block) throws CancelException;
+    }
+
+    /**
+     * Helper class that binds the integration variables in a context and calculates the integrand. Each
+     * thread uses its own sampler
+     */
+    private final class Sampler
+    {
+        final EvalContext ctx;
+        final CalculatedValue[][] frames = new CalculatedValue[dim][];
+        final CalculatedValue fVal = new CalculatedValue();
+        final double[] x = new double[dim];
+        int evaluations = 0;
+        boolean isValid = true;
+        boolean isComplex = false;
+        boolean isUnitSet = false;
+        boolean isUnitValid = true;
+        Unit<?> unit = null;
+        double re, im;
+
+        Sampler(EvalContext ctx)
+        {
+            this.ctx = ctx;
+            for (int i = 0; i < dim; i++)
+            {
+                frames[i] = new CalculatedValue[]{ new CalculatedValue() };
+                ctx.pushFrame(holders[i], frames[i]);
+            }
+        }
+
+        /**
+         * Procedure unbinds the integration variables and merges the statistics of this sampler
+         */
+        void release()
+        {
+            for (int i = 0; i < dim; i++)
+            {
+                ctx.popFrame();
+            }
+            synchronized (Cubature.this)
+            {
+                Cubature.this.evaluations += evaluations;
+                Cubature.this.isValid &= isValid;
+                Cubature.this.isComplex |= isComplex;
+                Cubature.this.isUnitValid &= isUnitValid;
+                if (isUnitSet)
+                {
+                    mergeUnit(unit);
+                }
+            }
+        }
+
+        /**
+         * Procedure calculates the integrand in the point x and stores it into re and im fields
+         */
+        void calculate() throws CancelException
+        {
+            for (int i = 0; i < dim; i++)
+            {
+                frames[i][0].setValue(x[i], argUnits[i]);
+            }
+            integrand.getValue(ctx, fVal);
+            evaluations++;
+            if (fVal.isNaN())
+            {
+                isValid = false;
+                re = im = 0.0;
+                return;
+            }
+            if (!isUnitSet)
+            {
+                unit = fVal.getUnit();
+                isUnitSet = true;
+            }
+            else if (!isCompatible(unit, fVal.getUnit()))
+            {
+                isUnitValid = false;
+            }
+            isComplex |= fVal.isComplex();
+            re = fVal.getReal();
+            im = fVal.getImaginary();
+        }
+    }
+
+    /*--------------------------------------------------------*
+     * Constructors
+     *--------------------------------------------------------*/
+
+    /**
+     * Constructor: the bounds shall be finite. If the lower bound is greater than the upper one,
+     * the integral over this dimension changes its sign
+     */
+    public Cubature(EvalContext context, EvalNode integrand, ArgumentHolderIf[] holders, Unit<?>[] argUnits,
+                    double[] lowerBounds, double[] upperBounds)
+    {
+        this.context = context;
+        this.integrand = integrand;
+        this.holders = holders;
+        this.argUnits = argUnits;
+        dim = holders.length;
+        min = new double[dim];
+        max = new double[dim];
+        double s = 1.0;
+        for (int i = 0; i < dim; i++)
+        {
+            min[i] = FastMath.min(lowerBounds[i], upperBounds[i]);
+            max[i] = FastMath.max(lowerBounds[i], upperBounds[i]);
+            if (lowerBounds[i] > upperBounds[i])
+            {
+                s = -s;
+            }
+        }
+        sign = s;
+        concurrent = ParallelRunner.getThreadsNumber() > 1 && integrand.isConcurrent();
+    }
+
+    /*--------------------------------------------------------*
+     * Methods
+     *--------------------------------------------------------*/
+
+    public int getEvaluations()
+    {
+        return evaluations;
+    }
+
+    public double getError()
+    {
+        return error;
+    }
+
+    /**
+     * Procedure calculates the integral. The unit of the result is the unit of the integrand:
+     * the units of the integration variables are not applied
+     */
+    public CalculatedValue.ValueType integrate(double absoluteAccuracy, CalculatedValue outValue)
+            throws CancelException
+    {
+        double volume = 1.0;
+        for (int i = 0; i < dim; i++)
+        {
+            volume *= max[i] - min[i];
+        }
+        if (volume == 0.0)
+        {
+            return outValue.setValue(0.0);
+        }
+        final double[] res = (dim <= MAX_CUBATURE_DIMENSION) ?
+                integrateGenzMalik(absoluteAccuracy) : integrateQuasiMonteCarlo(absoluteAccuracy, volume);
+        if (!isValid)
+        {
+            return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
+        }
+        if (!isUnitValid)
+        {
+            return outValue.invalidate(CalculatedValue.ErrorType.INCOMPATIBLE_UNIT);
+        }
+        if (isComplex)
+        {
+            outValue.setComplexValue(sign * res[0], sign * res[1]);
+        }
+        else
+        {
+            outValue.setValue(sign * res[0]);
+        }
+        outValue.setUnit(unit);
+        return outValue.getValueType();
+    }
+
+    private void mergeUnit(Unit<?> u)
+    {
+        if (!isUnitSet)
+        {
+            unit = u;
+            isUnitSet = true;
+        }
+        else if (!isCompatible(unit, u))
+        {
+            isUnitValid = false;
+        }
+    }
+
+    /**
+     * Procedure checks whether the integrand values with given units can be summed up
+     */
+    private static boolean isCompatible(Unit<?> u1, Unit<?> u2)
+    {
+        return (u1 == null) ? u2 == null : (u2 != null && u1.isCompatible(u2));
+    }
+
+    /**
+     * Procedure calculates the given number of blocks, concurrently if possible
+     */
+    private void calculateBlocks(int blocksNumber, final BlockIf block) throws CancelException
+    {
+        if (concurrent && blocksNumber > 1)
+        {
+            ParallelRunner.run(context.getThread(), blocksNumber, (tileContext, tile) ->
+            {
+                final Sampler sampler = new Sampler(tileContext);
+                try
+                {
+                    block.calculate(sampler, tile);
+                }
+                finally
+                {
+                    sampler.release();
+                }
+            });
+        }
+        else
+        {
+            final Sampler sampler = new Sampler(context);
+            try
+            {
+                for (int i = 0; i < blocksNumber; i++)
+                {
+                    block.calculate(sampler, i);
+                }
+            }
+            finally
+            {
+                sampler.release();
+            }
+        }
+    }
+
+    /*--------------------------------------------------------*
+     * Adaptive cubature
+     *--------------------------------------------------------*/
+
+    private double[] integrateGenzMalik(double absoluteAccuracy) throws CancelException
+    {
+        final double[] center = new double[dim];
+        final double[] halfWidth = new double[dim];
+        for (int i = 0; i < dim; i++)
+        {
+            center[i] = 0.5 * (min[i] + max[i]);
+            halfWidth[i] = 0.5 * (max[i] - min[i]);
+        }
+        final Box[] first = new Box[]{ new Box(center, halfWidth) };
+        calculateBlocks(1, (sampler, block) -> applyGenzMalik(sampler, first[block]));
+
+        final PriorityQueue<Box> boxes = new PriorityQueue<>();
+        boxes.add(first[0]);
+        double re = first[0].re, im = first[0].im, err = first[0].error;
+        final ArrayList<Box> split = new ArrayList<>();
+        while (isValid && evaluations < MAX_EVALUATIONS &&
+                err > FastMath.max(absoluteAccuracy, 1.0E-14 * FastMath.hypot(re, im)))
+        {
+            split.clear();
+            while (split.size() < BOXES_PER_STEP && !boxes.isEmpty())
+            {
+                split.add(boxes.poll());
+            }
+            final Box[] children = new Box[2 * split.size()];
+            for (int i = 0; i < split.size(); i++)
+            {
+                final Box b = split.get(i);
+                final int axis = b.splitAxis;
+                final double[] h = b.halfWidth.clone();
+                h[axis] *= 0.5;
+                final double[] c1 = b.center.clone();
+                c1[axis] -= h[axis];
+                final double[] c2 = b.center.clone();
+                c2[axis] += h[axis];
+                children[2 * i] = new Box(c1, h);
+                children[2 * i + 1] = new Box(c2, h);
+                re -= b.re;
+                im -= b.im;
+                err -= b.error;
+            }
+            calculateBlocks(children.length, (sampler, block) -> applyGenzMalik(sampler, children[block]));
+            for (Box b : children)
+            {
+                boxes.add(b);
+                re += b.re;
+                im += b.im;
+                err += b.error;
+            }
+        }
+
+        // the final sum is re-calculated in order to avoid the accumulation of rounding errors
+        re = im = err = 0.0;
+        for (Box b : boxes)
+        {
+            re += b.re;
+            im += b.im;
+            err += b.error;
+        }
+        error = err;
+        return new double[]{ re, im };
+    }
+
+    /**
+     * Procedure applies the Genz-Malik rule to the given box and selects the axis to be bisected
+     */
+    private void applyGenzMalik(Sampler s, Box b) throws CancelException
+    {
+        final double[] c = b.center;
+        final double[] h = b.halfWidth;
+        final double[] x = s.x;
+        System.arraycopy(c, 0, x, 0, dim);
+
+        s.calculate();
+        final double f0Re = s.re, f0Im = s.im;
+        double sum2Re = 0, sum2Im = 0, sum3Re = 0, sum3Im = 0, sum4Re = 0, sum4Im = 0, sum5Re = 0, sum5Im = 0;
+        double maxDiff = -1.0;
+        for (int i = 0; i < dim; i++)
+        {
+            x[i] = c[i] - LAMBDA2 * h[i];
+            s.calculate();
+            double f2Re = s.re, f2Im = s.im;
+            x[i] = c[i] + LAMBDA2 * h[i];
+            s.calculate();
+            f2Re += s.re;
+            f2Im += s.im;
+            x[i] = c[i] - LAMBDA4 * h[i];
+            s.calculate();
+            double f3Re = s.re, f3Im = s.im;
+            x[i] = c[i] + LAMBDA4 * h[i];
+            s.calculate();
+            f3Re += s.re;
+            f3Im += s.im;
+            x[i] = c[i];
+            sum2Re += f2Re;
+            sum2Im += f2Im;
+            sum3Re += f3Re;
+            sum3Im += f3Im;
+
+            // the fourth difference along this axis
+            final double diff = FastMath.abs(f2Re - 2.0 * f0Re - RATIO * (f3Re - 2.0 * f0Re)) +
+                    FastMath.abs(f2Im - 2.0 * f0Im - RATIO * (f3Im - 2.0 * f0Im));
+            if (diff > maxDiff || (diff == maxDiff && h[i] > h[b.splitAxis]))
+            {
+                maxDiff = diff;
+                b.splitAxis = i;
+            }
+        }
+        for (int i = 0; i < dim; i++)
+        {
+            for (int j = i + 1; j < dim; j++)
+            {
+                for (int k = 0; k < 4; k++)
+                {
+                    x[i] = c[i] + ((k & 1) == 0 ? -LAMBDA4 : LAMBDA4) * h[i];
+                    x[j] = c[j] + ((k & 2) == 0 ? -LAMBDA4 : LAMBDA4) * h[j];
+                    s.calculate();
+                    sum4Re += s.re;
+                    sum4Im += s.im;
+                }
+                x[i] = c[i];
+                x[j] = c[j];
+            }
+        }
+        for (int k = 0; k < (1 << dim); k++)
+        {
+            for (int i = 0; i < dim; i++)
+            {
+                x[i] = c[i] + ((k & (1 << i)) == 0 ? -LAMBDA5 : LAMBDA5) * h[i];
+            }
+            s.calculate();
+            sum5Re += s.re;
+            sum5Im += s.im;
+        }
+
+        double volume = 1.0;
+        for (int i = 0; i < dim; i++)
+        {
+            volume *= 2.0 * h[i];
+        }
+        final double weight1 = (12824.0 - 9120.0 * dim + 400.0 * dim * dim) / 19683.0;
+        final double weight3 = (1820.0 - 400.0 * dim) / 19683.0;
+        final double weight5 = 6859.0 / 19683.0 / (1 << dim);
+        final double weightE1 = (729.0 - 950.0 * dim + 50.0 * dim * dim) / 729.0;
+        final double weightE3 = (265.0 - 100.0 * dim) / 1458.0;
+        b.re = volume * (weight1 * f0Re + WEIGHT2 * sum2Re + weight3 * sum3Re + WEIGHT4 * sum4Re
+                + weight5 * sum5Re);
+        b.im = volume * (weight1 * f0Im + WEIGHT2 * sum2Im + weight3 * sum3Im + WEIGHT4 * sum4Im
+                + weight5 * sum5Im);
+        final double e5Re = volume * (weightE1 * f0Re + WEIGHT_E2 * sum2Re + weightE3 * sum3Re + WEIGHT_E4 * sum4Re);
+        final double e5Im = volume * (weightE1 * f0Im + WEIGHT_E2 * sum2Im + weightE3 * sum3Im + WEIGHT_E4 * sum4Im);
+        b.error = FastMath.hypot(b.re - e5Re, b.im - e5Im);
+    }
+
+    /*--------------------------------------------------------*
+     * Quasi-Monte Carlo method
+     *--------------------------------------------------------*/
+
+    private double[] integrateQuasiMonteCarlo(double absoluteAccuracy, final double volume) throws CancelException
+    {
+        // random shifts of the Halton sequence: the seed is fixed in order to get reproducible results
+        final Random random = new Random(QMC_SEED);
+        final double[][] shifts = new double[QMC_SHIFTS][dim];
+        for (double[] shift : shifts)
+        {
+            for (int i = 0; i < dim; i++)
+            {
+                shift[i] = random.nextDouble();
+            }
+        }
+
+        // partial sums of all blocks for each shift
+        final ArrayList<double[]> blockSums = new ArrayList<>();
+        final double[] estimateRe = new double[QMC_SHIFTS];
+        final double[] estimateIm = new double[QMC_SHIFTS];
+        double re = 0.0, im = 0.0;
+        int newBlocks = 1;
+        while (isValid)
+        {
+            final int firstBlock = blockSums.size();
+            final double[][] sums = new double[newBlocks][2 * QMC_SHIFTS];
+            calculateBlocks(newBlocks, (sampler, block) ->
+                    sampleHalton(sampler, shifts, firstBlock + block, sums[block]));
+            for (double[] s : sums)
+            {
+                blockSums.add(s);
+            }
+
+            // estimate of each shift and the standard error of their mean
+            final long points = (long) blockSums.size() * QMC_BLOCK_SIZE;
+            re = im = 0.0;
+            for (int r = 0; r < QMC_SHIFTS; r++)
+            {
+                double sRe = 0.0, sIm = 0.0;
+                for (double[] s : blockSums)
+                {
+                    sRe += s[2 * r];
+                    sIm += s[2 * r + 1];
+                }
+                estimateRe[r] = volume * sRe / points;
+                estimateIm[r] = volume * sIm / points;
+                re += estimateRe[r] / QMC_SHIFTS;
+                im += estimateIm[r] / QMC_SHIFTS;
+            }
+            double variance = 0.0;
+            for (int r = 0; r < QMC_SHIFTS; r++)
+            {
+                variance += (estimateRe[r] - re) * (estimateRe[r] - re) + (estimateIm[r] - im) * (estimateIm[r] - im);
+            }
+            error = FastMath.sqrt(variance / (QMC_SHIFTS * (QMC_SHIFTS - 1)));
+            if (error <= FastMath.max(absoluteAccuracy, 1.0E-14 * FastMath.hypot(re, im)) ||
+                    evaluations >= MAX_EVALUATIONS)
+            {
+                break;
+            }
+            // the number of points is doubled in each iteration
+            newBlocks = blockSums.size();
+        }
+        return new double[]{ re, im };
+    }
+
+    /**
+     * Procedure calculates the sums of the integrand values within the given block of the Halton sequence
+     * for all shifts
+     */
+    private void sampleHalton(Sampler s, double[][] shifts, int block, double[] sums) throws CancelException
+    {
+        final double[] halton = new double[dim];
+        for (int k = 0; k < QMC_BLOCK_SIZE; k++)
+        {
+            final long index = (long) block * QMC_BLOCK_SIZE + k + 1;
+            for (int i = 0; i < dim; i++)
+            {
+                halton[i] = radicalInverse(index, PRIMES[i % PRIMES.length]);
+            }
+            for (int r = 0; r < shifts.length; r++)
+            {
+                for (int i = 0; i < dim; i++)
+                {
+                    final double u = halton[i] + shifts[r][i];
+                    s.x[i] = min[i] + (max[i] - min[i]) * (u >= 1.0 ? u - 1.0 : u);
+                }
+                s.calculate();
+                sums[2 * r] += s.re;
+                sums[2 * r + 1] += s.im;
+            }
+        }
+    }
+
+    private static double radicalInverse(long index, int base)
+    {
+        double result = 0.0;
+        double f = 1.0 / base;
+        for (long i = index; i > 0; i /= base)
+        {
+            result += f * (i % base);
+            f /= base;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * microMathematics - Extended Visual Calculator
+ * Copyright (C) 2014-2022 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+package com.mkulesh.micromath.eval;
+
+import com.mkulesh.micromath.formula.ArgumentHolderIf;
+import com.mkulesh.micromath.formula.CalculaterTask;
+import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
+import com.mkulesh.micromath.math.CalculatedValue;
+
+import java.util.ArrayList;
+
+/**
+ * Evaluation state of the compiled terms owned by a single calculation thread
+ */
+public class EvalContext
+{
+    // Argument arrays with more elements are not pooled
+    private static final int MAX_POOLED_SIZE = 16;
+
+    // Context used by the threads that are not calculater tasks
+    private static final ThreadLocal<EvalContext> defaultContext = new ThreadLocal<EvalContext>()
+    {
+        @Override
+        protected EvalContext initialValue()
+        {
+            return new EvalContext(null);
+        }
+    };
+
+    private final CalculaterTask thread;
+
+    // Pool of argument arrays: the first index is the nesting depth, the second one is the array size
+    private final ArrayList<CalculatedValue[][]> argumentPool = new ArrayList<>();
+    private int depth = 0;
+
+    // Pool of primitive argument arrays used by the real fast path
+    private final ArrayList<double[][]> realPool = new ArrayList<>();
+    private int realDepth = 0;
+
+    // Stack of evaluation frames: argument values bound to their holders (functions, loops, intervals)
+    private ArgumentHolderIf[] frameHolders = new ArgumentHolderIf[8];
+    private CalculatedValue[][] frameValues = new CalculatedValue[8][];
+    private CalculatedValue[][] frameDerivatives = new CalculatedValue[8][];
+    private int frameDepth = 0;
+
+    // Counters of the function cache for the result calculated by this thread
+    private FunctionCache.Statistics statistics = null;
+
+    /**
+     * A copy of the frame stack: used to evaluate a term in another thread within the same frames
+     */
+    public static final class Frames
+    {
+        private final ArgumentHolderIf[] holders;
+        private final CalculatedValue[][] values;
+        private final CalculatedValue[][] derivatives;
+
+        private Frames(int size)
+        {
+            holders = new ArgumentHolderIf[size];
+            values = new CalculatedValue[size][];
+            derivatives = new CalculatedValue[size][];
+        }
+    }
+
+    /*--------------------------------------------------------*
+     * Constructors
+     *--------------------------------------------------------*/
+
+    public EvalContext(CalculaterTask thread)
+    {
+        this.thread = thread;
+    }
+
+    /**
+     * Procedure returns the evaluation context of the given thread. Within the same thread, the same context
+     * is always returned, so that the terms that are not compiled see the frames bound by the compiled ones
+     */
+    public static EvalContext get(CalculaterTask thread)
+    {
+        return thread != null ? thread.getEvalContext() : defaultContext.get();
+    }
+
+    /*--------------------------------------------------------*
+     * Methods
+     *--------------------------------------------------------*/
+
+    public CalculaterTask getThread()
+    {
+        return thread;
+    }
+
+    /**
+     * Procedure returns the cache of function values for the calculation that owns this context, or null
+     * if the function values are not cached
+     */
+    public FunctionCache getFunctionCache()
+    {
+        return thread != null ? thread.getFunctionCache() : null;
+    }
+
+    public FunctionCache.Statistics getStatistics()
+    {
+        return statistics;
+    }
+
+    public void setStatistics(FunctionCache.Statistics statistics)
+    {
+        this.statistics = statistics;
+    }
+
+    public void checkCancelation() throws CancelException
+    {
+        if (thread != null)
+        {
+            thread.checkCancelation();
+        }
+    }
+
+    /**
+     * Procedure binds the given argument values to their holder until the matching call of popFrame.
+     * The values are not copied: the caller can change them while the frame is bound
+     */
+    public void pushFrame(ArgumentHolderIf holder, CalculatedValue[] values)
+    {
+        pushFrame(holder, values, null);
+    }
+
+    /**
+     * Procedure binds the given argument values together with their derivatives. A null derivative array or
+     * a null element means that the derivative is identically zero
+     */
+    public void pushFrame(ArgumentHolderIf holder, CalculatedValue[] values, CalculatedValue[] derivatives)
+    {
+        if (frameDepth == frameHolders.length)
+        {
+            final ArgumentHolderIf[] holders = new ArgumentHolderIf[2 * frameDepth];
+            final CalculatedValue[][] frames = new CalculatedValue[2 * frameDepth][];
+            final CalculatedValue[][] frameDers = new CalculatedValue[2 * frameDepth][];
+            System.arraycopy(frameHolders, 0, holders, 0, frameDepth);
+            System.arraycopy(frameValues, 0, frames, 0, frameDepth);
+            System.arraycopy(frameDerivatives, 0, frameDers, 0, frameDepth);
+            frameHolders = holders;
+            frameValues = frames;
+            frameDerivatives = frameDers;
+        }
+        frameHolders[frameDepth] = holder;
+        frameValues[frameDepth] = values;
+        frameDerivatives[frameDepth] = derivatives;
+        frameDepth++;
+    }
+
+    public void popFrame()
+    {
+        frameDepth--;
+        frameHolders[frameDepth] = null;
+        frameValues[frameDepth] = null;
+        frameDerivatives[frameDepth] = null;
+    }
+
+    /**
+     * Procedure returns a copy of the current frame stack. The argument values are not copied
+     */
+    public Frames getFrames()
+    {
+        final Frames frames = new Frames(frameDepth);
+        System.arraycopy(frameHolders, 0, frames.holders, 0, frameDepth);
+        System.arraycopy(frameValues, 0, frames.values, 0, frameDepth);
+        System.arraycopy(frameDerivatives, 0, frames.derivatives, 0, frameDepth);
+        return frames;
+    }
+
+    /**
+     * Procedure binds all frames of the given stack until the matching call of popFrames
+     */
+    public void pushFrames(Frames frames)
+    {
+        for (int i = 0; i < frames.holders.length; i++)
+        {
+            pushFrame(frames.holders[i], frames.values[i], frames.derivatives[i]);
+        }
+    }
+
+    public void popFrames(Frames frames)
+    {
+        for (int i = 0; i < frames.holders.length; i++)
+        {
+            popFrame();
+        }
+    }
+
+    /**
+     * Procedure returns the innermost argument values bound to the given holder, or null if there are no such values
+     */
+    public CalculatedValue[] getFrame(ArgumentHolderIf holder)
+    {
+        for (int i = frameDepth - 1; i >= 0; i--)
+        {
+            if (frameHolders[i] == holder)
+            {
+                return frameValues[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Procedure returns the current value of the given argument, or NaN if the argument is not bound
+     */
+    public CalculatedValue getArgument(ArgumentHolderIf holder, int idx)
+    {
+        final CalculatedValue[] frame = getFrame(holder);
+        if (frame != null && idx >= 0 && idx < frame.length && frame[idx] != null)
+        {
+            return frame[idx];
+        }
+        return CalculatedValue.NaN;
+    }
+
+    /**
+     * Procedure returns the derivative of the given argument bound in the innermost frame of its holder,
+     * or null if this derivative is identically zero
+     */
+    public CalculatedValue getDerivative(ArgumentHolderIf holder, int idx)
+    {
+        for (int i = frameDepth - 1; i >= 0; i--)
+        {
+            if (frameHolders[i] == holder)
+            {
+                final CalculatedValue[] derivatives = frameDerivatives[i];
+                return (derivatives != null && idx >= 0 && idx < derivatives.length) ? derivatives[idx] : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Procedure checks whether the value of the given node can depend on an argument that has a bound derivative
+     */
+    public boolean isDifferentiated(EvalNode node)
+    {
+        for (int i = 0; i < frameDepth; i++)
+        {
+            if (frameDerivatives[i] != null && node.dependsOn(frameHolders[i]))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Procedure returns an array of the given size that can be used to store the argument values
+     * until the matching call of releaseArguments
+     */
+    public CalculatedValue[] acquireArguments(int size)
+    {
+        if (size > MAX_POOLED_SIZE)
+        {
+            depth++;
+            return newArguments(size);
+        }
+        while (argumentPool.size() <= depth)
+        {
+            argumentPool.add(new CalculatedValue[MAX_POOLED_SIZE + 1][]);
+        }
+        final CalculatedValue[][] level = argumentPool.get(depth++);
+        if (level[size] == null)
+        {
+            level[size] = newArguments(size);
+        }
+        return level[size];
+    }
+
+    public void releaseArguments()
+    {
+        depth--;
+    }
+
+    /**
+     * Procedure returns a primitive array of the given size that can be used to store the real argument values
+     * until the matching call of releaseReals
+     */
+    public double[] acquireReals(int size)
+    {
+        if (size > MAX_POOLED_SIZE)
+        {
+            realDepth++;
+            return new double[size];
+        }
+        while (realPool.size() <= realDepth)
+        {
+            realPool.add(new double[MAX_POOLED_SIZE + 1][]);
+        }
+        final double[][] level = realPool.get(realDepth++);
+        if (level[size] == null)
+        {
+            level[size] = new double[size];
+        }
+        return level[size];
+    }
+
+    public void releaseReals()
+    {
+        realDepth--;
+    }
+
+    private static CalculatedValue[] newArguments(int size)
+    {
+        final CalculatedValue[] args = new CalculatedValue[size];
+        for (int i = 0; i < size; i++)
+        {
+            args[i] = new CalculatedValue();
+        }
+        return args;
+    }
+}
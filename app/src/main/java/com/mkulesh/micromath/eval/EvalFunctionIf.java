@@ -0,0 +1,30 @@
+/*
+ * microMathematics - Extended Visual Calculator
+ * Copyright (C) 2014-2022 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+package com.mkulesh.micromath.eval;
+
+import com.mkulesh.micromath.math.CalculatedValue;
+
+public interface EvalFunctionIf
+{
+    /**
+     * Procedure calculates the function value from the given argument values. The argument values are
+     * owned by the caller and can be used as a scratch memory by the implementation
+     */
+    CalculatedValue.ValueType apply(CalculatedValue[] args, CalculatedValue outValue);
+
+    /**
+     * Procedure returns whether the function always returns the same value for the same arguments
+     */
+    boolean isDeterministic();
+}
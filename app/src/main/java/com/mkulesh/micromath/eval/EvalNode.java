@@ -0,0 +1,628 @@
+/*
+ * microMathematics - Extended Visual Calculator
+ * Copyright (C) 2014-2022 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+package com.mkulesh.micromath.eval;
+
+import com.mkulesh.micromath.formula.ArgumentHolderIf;
+import com.mkulesh.micromath.formula.CalculatableIf;
+import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
+import com.mkulesh.micromath.formula.Equation;
+import com.mkulesh.micromath.math.CalculatedValue;
+import com.mkulesh.micromath.math.UnitConversion;
+
+/**
+ * Immutable node of a compiled term, apart from the cache of the last unit conversion. The node does not refer
+ * to any view and can be evaluated by several threads, each one using its own evaluation context
+ */
+public final class EvalNode
+{
+    private final OpCode opCode;
+    private final EvalNode[] args;
+    private final CalculatedValue constant;
+    private final int slot;
+    private final ArgumentHolderIf holder;
+    private final UnitConversion unitConversion;
+    private final double sign;
+    private final Equation link;
+    private final EvalFunctionIf function;
+    private final EvalLoopIf loop;
+    private final CalculatableIf legacy;
+
+    // The last conversion of a linked value into the unit of this node. It is only a cache: a reference
+    // to an immutable conversion can be replaced by any thread
+    private volatile UnitConversion linkedConversion = null;
+
+    // Primitive representation used by the real fast path
+    private final double realConstant;
+    private final RealFunctionIf realFunction;
+
+    /*--------------------------------------------------------*
+     * Constructors
+     *--------------------------------------------------------*/
+
+    EvalNode(OpCode opCode, EvalNode[] args, CalculatedValue constant, int slot, ArgumentHolderIf holder,
+             UnitConversion unitConversion, double sign, Equation link, EvalFunctionIf function, EvalLoopIf loop,
+             CalculatableIf legacy)
+    {
+        this.opCode = opCode;
+        this.args = args;
+        this.constant = constant;
+        this.slot = slot;
+        this.holder = holder;
+        this.unitConversion = unitConversion;
+        this.sign = sign;
+        this.link = link;
+        this.function = function;
+        this.loop = loop;
+        this.legacy = legacy;
+        this.realConstant = toReal(constant);
+        this.realFunction = (function instanceof RealFunctionIf && ((RealFunctionIf) function).isRealFunction()) ?
+                (RealFunctionIf) function : null;
+    }
+
+    /*--------------------------------------------------------*
+     * Getters
+     *--------------------------------------------------------*/
+
+    public OpCode getOpCode()
+    {
+        return opCode;
+    }
+
+    public boolean isConstant()
+    {
+        return opCode == OpCode.CONSTANT;
+    }
+
+    CalculatedValue getConstant()
+    {
+        return constant;
+    }
+
+    public int getArgNumber()
+    {
+        return args == null ? 0 : args.length;
+    }
+
+    public EvalNode getArg(int idx)
+    {
+        return args[idx];
+    }
+
+    public EvalLoopIf getLoop()
+    {
+        return loop;
+    }
+
+    /**
+     * Procedure checks whether the value of this node only depends on the arguments of the enclosing function.
+     * It is not the case for the intervals, the functions that are not deterministic, and the nodes
+     * that are evaluated using the formula view tree
+     */
+    boolean isPure()
+    {
+        switch (opCode)
+        {
+        case INTERVAL:
+        case LEGACY:
+            return false;
+        case VARIABLE:
+        case CALL:
+            if (!link.getCompiledTerm().isPure())
+            {
+                return false;
+            }
+            break;
+        case APPLY:
+            if (!function.isDeterministic())
+            {
+                return false;
+            }
+            break;
+        default:
+            break;
+        }
+        if (args != null)
+        {
+            for (EvalNode a : args)
+            {
+                if (!a.isPure())
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Procedure checks whether this node contains loops (sums, integrals, etc.) or calls of other functions,
+     * i.e. whether its calculation is expensive enough to be cached
+     */
+    boolean hasLoopsOrCalls()
+    {
+        if (opCode == OpCode.LOOP || opCode == OpCode.CALL)
+        {
+            return true;
+        }
+        if (args != null)
+        {
+            for (EvalNode a : args)
+            {
+                if (a.hasLoopsOrCalls())
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Procedure checks whether the value of this node can depend on the arguments of the given holder.
+     * The nodes that are evaluated using the formula view tree are assumed to depend on all arguments
+     */
+    public boolean dependsOn(ArgumentHolderIf argumentHolder)
+    {
+        if (opCode == OpCode.LEGACY || (opCode == OpCode.ARGUMENT && holder == argumentHolder))
+        {
+            return true;
+        }
+        if (args != null)
+        {
+            for (EvalNode a : args)
+            {
+                if (a.dependsOn(argumentHolder))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Procedure checks whether this node uses the value of the given interval or the arguments of the given
+     * function as an array index. The array elements within the called functions are also taken into account
+     */
+    public boolean usesAsArrayIndex(ArgumentHolderIf source)
+    {
+        switch (opCode)
+        {
+        case ARRAY_ELEMENT:
+            for (EvalNode a : args)
+            {
+                if (a.readsSource(source))
+                {
+                    return true;
+                }
+            }
+            break;
+        case CALL:
+            for (EvalNode a : args)
+            {
+                if (a.readsSource(source) && link.getCompiledTerm().getRoot().usesAsArrayIndex(link))
+                {
+                    return true;
+                }
+            }
+            break;
+        case VARIABLE:
+            if (link.getCompiledTerm().getRoot().usesAsArrayIndex(source))
+            {
+                return true;
+            }
+            break;
+        default:
+            break;
+        }
+        if (args != null)
+        {
+            for (EvalNode a : args)
+            {
+                if (a.usesAsArrayIndex(source))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Procedure checks whether the value of this node depends on the value of the given interval or the arguments
+     * of the given function
+     */
+    private boolean readsSource(ArgumentHolderIf source)
+    {
+        if ((opCode == OpCode.INTERVAL && link == source) || (opCode == OpCode.ARGUMENT && holder == source))
+        {
+            return true;
+        }
+        if (opCode == OpCode.VARIABLE && link.getCompiledTerm().getRoot().readsSource(source))
+        {
+            return true;
+        }
+        if (args != null)
+        {
+            for (EvalNode a : args)
+            {
+                if (a.readsSource(source))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Procedure checks whether this node can be evaluated by several threads concurrently. It is not the case
+     * for the nodes that are evaluated using the formula view tree, also within the called functions
+     */
+    public boolean isConcurrent()
+    {
+        switch (opCode)
+        {
+        case LEGACY:
+            return false;
+        case VARIABLE:
+        case CALL:
+            if (!link.getCompiledTerm().isConcurrent())
+            {
+                return false;
+            }
+            break;
+        default:
+            break;
+        }
+        if (args != null)
+        {
+            for (EvalNode a : args)
+            {
+                if (!a.isConcurrent())
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /*--------------------------------------------------------*
+     * Evaluation
+     *--------------------------------------------------------*/
+
+    /**
+     * Procedure calculates recursively the node value. A node that applies a function having a real
+     * implementation is first calculated using primitive values; if this is not possible, the value
+     * is calculated using CalculatedValue. In the latter case, the values already calculated on the real
+     * path are reused, i.e. no sub-node is calculated twice
+     */
+    public CalculatedValue.ValueType getValue(EvalContext context, CalculatedValue outValue) throws CancelException
+    {
+        if (realFunction != null)
+        {
+            final double v = getRealValue(context, outValue);
+            return Double.isNaN(v) ? outValue.getValueType() : outValue.setValue(v, null);
+        }
+        return calculate(context, outValue);
+    }
+
+    /**
+     * Procedure calculates recursively the node value for the case that it is real and unit-free.
+     * If the real value can not be calculated, the NaN value is returned and the complete value of this
+     * node is stored in the given outValue. Otherwise, outValue can be used as a temporary value
+     */
+    private double getRealValue(EvalContext context, CalculatedValue outValue) throws CancelException
+    {
+        switch (opCode)
+        {
+        case CONSTANT:
+            if (!Double.isNaN(realConstant))
+            {
+                return realConstant;
+            }
+            break;
+        case ARGUMENT:
+            if (unitConversion == null)
+            {
+                final double v = toReal(context.getArgument(holder, slot)) * sign;
+                if (!Double.isNaN(v))
+                {
+                    return v;
+                }
+            }
+            break;
+        case INTERVAL:
+            if (unitConversion == null)
+            {
+                final double v = toReal(context.getArgument(link, 0)) * sign;
+                if (!Double.isNaN(v))
+                {
+                    return v;
+                }
+            }
+            break;
+        case APPLY:
+            if (realFunction != null)
+            {
+                context.checkCancelation();
+                final double[] argValues = context.acquireReals(args.length);
+                try
+                {
+                    for (int i = 0; i < args.length; i++)
+                    {
+                        final double v = args[i].getRealValue(context, outValue);
+                        if (Double.isNaN(v))
+                        {
+                            // outValue holds the complete value of the failed argument
+                            return applyFromRealArgs(context, argValues, i, outValue);
+                        }
+                        argValues[i] = v;
+                    }
+                    final double v = realFunction.applyReal(argValues);
+                    if (!Double.isNaN(v))
+                    {
+                        return v;
+                    }
+                    return applyFromRealArgs(context, argValues, args.length, outValue);
+                }
+                finally
+                {
+                    context.releaseReals();
+                }
+            }
+            break;
+        default:
+            break;
+        }
+        // all other nodes are calculated as CalculatedValue
+        outValue.setUnit(null);
+        calculate(context, outValue);
+        return toReal(outValue);
+    }
+
+    /**
+     * Procedure applies the function of this node using CalculatedValue after the real path failed at the argument
+     * with the given index. The arguments before this index are taken from the given real values, the argument
+     * with this index from outValue, and only the remaining arguments are calculated. The result is stored in
+     * outValue; NaN is returned if it is not a real unit-free value
+     */
+    private double applyFromRealArgs(EvalContext context, double[] realValues, int failedIdx,
+                                     CalculatedValue outValue) throws CancelException
+    {
+        final CalculatedValue[] argValues = context.acquireArguments(args.length);
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                if (i < failedIdx)
+                {
+                    argValues[i].setValue(realValues[i], null);
+                }
+                else if (i == failedIdx)
+                {
+                    argValues[i].assign(outValue);
+                }
+                else
+                {
+                    // a pooled value can hold the unit of a previous calculation
+                    argValues[i].setUnit(null);
+                    args[i].getValue(context, argValues[i]);
+                }
+            }
+            function.apply(argValues, outValue);
+            return toReal(outValue);
+        }
+        finally
+        {
+            context.releaseArguments();
+        }
+    }
+
+    /**
+     * Procedure calculates recursively the node value using CalculatedValue
+     */
+    private CalculatedValue.ValueType calculate(EvalContext context, CalculatedValue outValue)
+            throws CancelException
+    {
+        switch (opCode)
+        {
+        case CONSTANT:
+            return outValue.assign(constant);
+        case ARGUMENT:
+            outValue.assign(context.getArgument(holder, slot));
+            if (unitConversion != null)
+            {
+                outValue.convertUnit(unitConversion);
+            }
+            return outValue.multiply(sign);
+        case INTERVAL:
+            outValue.assign(context.getArgument(link, 0));
+            return convertLinkedValue(outValue);
+        case VARIABLE:
+            link.getValue(context, null, outValue);
+            return convertLinkedValue(outValue);
+        case CALL:
+        case ARRAY_ELEMENT:
+        case APPLY:
+        {
+            context.checkCancelation();
+            final CalculatedValue[] argValues = context.acquireArguments(args.length);
+            try
+            {
+                for (int i = 0; i < args.length; i++)
+                {
+                    // a pooled value can hold the unit of a previous calculation
+                    argValues[i].setUnit(null);
+                    args[i].getValue(context, argValues[i]);
+                }
+                return (opCode == OpCode.APPLY) ? function.apply(argValues, outValue) :
+                        link.getValue(context, argValues, outValue);
+            }
+            finally
+            {
+                context.releaseArguments();
+            }
+        }
+        case LOOP:
+            context.checkCancelation();
+            return loop.getValue(context, args, outValue);
+        case LEGACY:
+            return legacy.getValue(context.getThread(), outValue);
+        }
+        return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
+    }
+
+    /**
+     * Procedure calculates recursively the node value together with its derivative (forward-mode automatic
+     * differentiation). The derivative is taken with respect to the arguments whose derivatives are bound
+     * in the given context. The procedure returns false if the derivative is identically zero; in this case,
+     * the derivative value is not changed. An invalid derivative is calculated if the node can not be
+     * differentiated analytically
+     */
+    public boolean getDualValue(EvalContext context, CalculatedValue outValue, CalculatedValue outDerivative)
+            throws CancelException
+    {
+        switch (opCode)
+        {
+        case ARGUMENT:
+        {
+            calculate(context, outValue);
+            final CalculatedValue der = context.getDerivative(holder, slot);
+            if (der == null)
+            {
+                return false;
+            }
+            if (unitConversion != null)
+            {
+                outDerivative.invalidate(CalculatedValue.ErrorType.INCOMPATIBLE_UNIT);
+                return true;
+            }
+            outDerivative.assign(der);
+            outDerivative.multiply(sign);
+            return true;
+        }
+        case CALL:
+        case APPLY:
+        {
+            context.checkCancelation();
+            final CalculatedValue[] argValues = context.acquireArguments(args.length);
+            final CalculatedValue[] argDers = context.acquireArguments(args.length);
+            try
+            {
+                boolean isDifferentiated = false;
+                for (int i = 0; i < args.length; i++)
+                {
+                    argValues[i].setUnit(null);
+                    if (args[i].getDualValue(context, argValues[i], argDers[i]))
+                    {
+                        isDifferentiated = true;
+                    }
+                    else
+                    {
+                        argDers[i].assign(CalculatedValue.ZERO);
+                    }
+                }
+                if (!isDifferentiated)
+                {
+                    if (opCode == OpCode.APPLY)
+                    {
+                        function.apply(argValues, outValue);
+                    }
+                    else
+                    {
+                        link.getValue(context, argValues, outValue);
+                    }
+                    return false;
+                }
+                if (opCode == OpCode.CALL)
+                {
+                    return link.getDualValue(context, argValues, argDers, outValue, outDerivative);
+                }
+                // the argument values can be changed by the function: they are copied
+                final CalculatedValue[] tmpValues = context.acquireArguments(args.length);
+                try
+                {
+                    for (int i = 0; i < args.length; i++)
+                    {
+                        tmpValues[i].assign(argValues[i]);
+                    }
+                    function.apply(tmpValues, outValue);
+                }
+                finally
+                {
+                    context.releaseArguments();
+                }
+                if (function instanceof DifferentiableFunctionIf)
+                {
+                    ((DifferentiableFunctionIf) function).derivative(argValues, argDers, outDerivative);
+                }
+                else
+                {
+                    outDerivative.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
+                }
+                return true;
+            }
+            finally
+            {
+                context.releaseArguments();
+                context.releaseArguments();
+            }
+        }
+        case LOOP:
+        case LEGACY:
+            if (!context.isDifferentiated(this))
+            {
+                break;
+            }
+            if (opCode == OpCode.LOOP && loop instanceof DifferentiableLoopIf)
+            {
+                context.checkCancelation();
+                return ((DifferentiableLoopIf) loop).getDualValue(context, args, outValue, outDerivative);
+            }
+            calculate(context, outValue);
+            outDerivative.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
+            return true;
+        default:
+            break;
+        }
+        // constants, intervals, variables and array elements do not depend on the differentiated arguments
+        getValue(context, outValue);
+        return false;
+    }
+
+    private CalculatedValue.ValueType convertLinkedValue(CalculatedValue outValue)
+    {
+        if (unitConversion != null)
+        {
+            if (outValue.getUnit() != null)
+            {
+                final UnitConversion c = unitConversion.fromSource(outValue.getUnit(), linkedConversion);
+                linkedConversion = c;
+                outValue.convertUnit(c);
+            }
+            else
+            {
+                outValue.convertUnit(unitConversion);
+            }
+        }
+        return outValue.multiply(sign);
+    }
+
+    private static double toReal(CalculatedValue v)
+    {
+        return (v != null && v.isReal() && v.getUnit() == null) ? v.getReal() : Double.NaN;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * microMathematics - Extended Visual Calculator
+ * Copyright (C) 2014-2022 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+package com.mkulesh.micromath.eval;
+
+import com.mkulesh.micromath.formula.Equation;
+import com.mkulesh.micromath.math.CalculatedValue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the user function values owned by a single calculation. The cache is divided into segments
+ * that are locked independently, so that it can be used by several threads concurrently
+ */
+public class FunctionCache
+{
+    private static final int MAX_ENTRIES = 10000;
+    private static final int SEGMENTS = 16;
+
+    /**
+     * Counters of cache hits and misses collected during the calculation of a single result
+     */
+    public static final class Statistics
+    {
+        private final AtomicLong hits = new AtomicLong(0);
+        private final AtomicLong misses = new AtomicLong(0);
+
+        public void countHit()
+        {
+            hits.incrementAndGet();
+        }
+
+        public void countMiss()
+        {
+            misses.incrementAndGet();
+        }
+
+        public long getHits()
+        {
+            return hits.get();
+        }
+
+        public long getMisses()
+        {
+            return misses.get();
+        }
+
+        public boolean isEmpty()
+        {
+            return getHits() == 0 && getMisses() == 0;
+        }
+    }
+
+    /**
+     * Cache key: the function and its argument values including units. A probe key only refers to the argument
+     * values of a call, the key stored in the cache holds their copies
+     */
+    private static final class Key
+    {
+        private Equation function;
+        private CalculatedValue[] args;
+        private int hash;
+
+        void set(Equation function, CalculatedValue[] argValues)
+        {
+            this.function = function;
+            this.args = argValues;
+            int h = function.hashCode();
+            for (CalculatedValue a : argValues)
+            {
+                h = 31 * h + a.getValueType().hashCode();
+                h = 31 * h + hashCode(a.getReal());
+                h = 31 * h + hashCode(a.getImaginary());
+                h = 31 * h + (a.getUnit() == null ? 0 : a.getUnit().hashCode());
+            }
+            this.hash = h;
+        }
+
+        Key copy()
+        {
+            final Key k = new Key();
+            k.function = function;
+            k.args = new CalculatedValue[args.length];
+            for (int i = 0; i < args.length; i++)
+            {
+                k.args[i] = new CalculatedValue();
+                k.args[i].assign(args[i]);
+            }
+            k.hash = hash;
+            return k;
+        }
+
+        private static int hashCode(double v)
+        {
+            final long bits = Double.doubleToLongBits(v);
+            return (int) (bits ^ (bits >>> 32));
+        }
+
+        private static boolean isEqual(CalculatedValue a1, CalculatedValue a2)
+        {
+            return a1.getValueType() == a2.getValueType()
+                    && Double.doubleToLongBits(a1.getReal()) == Double.doubleToLongBits(a2.getReal())
+                    && Double.doubleToLongBits(a1.getImaginary()) == Double.doubleToLongBits(a2.getImaginary())
+                    && (a1.getUnit() == null ? a2.getUnit() == null : a1.getUnit().equals(a2.getUnit()));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+            final Key k = (Key) o;
+            if (k.hash != hash || k.function != function || k.args.length != args.length)
+            {
+                return false;
+            }
+            for (int i = 0; i < args.length; i++)
+            {
+                if (!isEqual(args[i], k.args[i]))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Independently locked part of the cache. If the segment is full, its least recently used entry is removed
+     */
+    private static final class Segment extends LinkedHashMap<Key, CalculatedValue>
+    {
+        private static final long serialVersionUID = 5274812904417L;
+
+        Segment()
+        {
+            super(16, 0.75f, /*accessOrder=*/true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, CalculatedValue> eldest)
+        {
+            return size() > MAX_ENTRIES / SEGMENTS;
+        }
+    }
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    // probe key of the calling thread that refers to the arguments of the last looked up call
+    private final ThreadLocal<Key> probe = new ThreadLocal<Key>()
+    {
+        @Override
+        protected Key initialValue()
+        {
+            return new Key();
+        }
+    };
+
+    public FunctionCache()
+    {
+        for (int i = 0; i < SEGMENTS; i++)
+        {
+            segments[i] = new Segment();
+        }
+    }
+
+    /*--------------------------------------------------------*
+     * Methods
+     *--------------------------------------------------------*/
+
+    private Segment getSegment(Key key)
+    {
+        final int h = key.hash ^ (key.hash >>> 16);
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Procedure copies the cached value of the given function call into the output value. It returns false
+     * if this call is not yet cached. The lookup does not allocate any memory
+     */
+    public boolean getValue(Equation function, CalculatedValue[] argValues, CalculatedValue outValue)
+    {
+        final Key key = probe.get();
+        key.set(function, argValues);
+        final Segment segment = getSegment(key);
+        synchronized (segment)
+        {
+            final CalculatedValue v = segment.get(key);
+            if (v == null)
+            {
+                return false;
+            }
+            outValue.assign(v);
+            return true;
+        }
+    }
+
+    /**
+     * Procedure stores a copy of the calculated value of the given function call. Only the stored key and value
+     * are allocated. The probe key is set again since nested calls may have used it after the lookup
+     */
+    public void putValue(Equation function, CalculatedValue[] argValues, CalculatedValue value)
+    {
+        final Key probeKey = probe.get();
+        probeKey.set(function, argValues);
+        final Key key = probeKey.copy();
+        final CalculatedValue v = new CalculatedValue();
+        v.assign(value);
+        final Segment segment = getSegment(key);
+        synchronized (segment)
+        {
+            segment.put(key, v);
+        }
+    }
+}
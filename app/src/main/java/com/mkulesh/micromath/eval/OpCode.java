@@ -0,0 +1,39 @@
+/*
+ * microMathematics - Extended Visual Calculator
+ * Copyright (C) 2014-2022 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+package com.mkulesh.micromath.eval;
+
+/**
+ * Operation codes of the compiled expression nodes
+ */
+public enum OpCode
+{
+    // a literal or folded constant value
+    CONSTANT,
+    // an argument slot of the innermost evaluation frame bound to the argument holder
+    ARGUMENT,
+    // current value of a linked interval
+    INTERVAL,
+    // value of a linked equation without arguments
+    VARIABLE,
+    // call of a linked user-defined function
+    CALL,
+    // element of a linked array
+    ARRAY_ELEMENT,
+    // application of a built-in function or operator to the argument nodes
+    APPLY,
+    // a loop that evaluates its argument nodes several times (summation, integral, ...)
+    LOOP,
+    // a term that is not compiled and is evaluated using the formula view tree
+    LEGACY
+}
@@ -0,0 +1,205 @@
+/*
+ * microMathematics - Extended Visual Calculator
+ * Copyright (C) 2014-2022 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+package com.mkulesh.micromath.eval;
+
+import com.mkulesh.micromath.formula.CalculaterTask;
+import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helper class that splits a calculation into independent tiles and evaluates them on all processor cores
+ */
+public final class ParallelRunner
+{
+    /**
+     * Interface to be implemented by a calculation that is split into tiles
+     */
+    public interface TileIf
+    {
+        /**
+         * Procedure calculates a single tile. The given context belongs to the current thread and
+         * shall be used for all evaluations within this tile
+         */
+        void calculate(EvalContext context, int tile) throws CancelException;
+    }
+
+    private static final int THREADS_NUMBER = Runtime.getRuntime().availableProcessors();
+    private static final long KEEP_ALIVE_TIME = 30L;
+    private static ThreadPoolExecutor executor = null;
+
+    private final CalculaterTask thread;
+    private final int tilesNumber;
+    private final TileIf tile;
+
+    // Counters of the function cache of the calling thread: they are also used by the worker threads
+    private final FunctionCache.Statistics statistics;
+
+    // Context and frames of the calling thread: the frames are bound in the contexts of the worker threads
+    private final EvalContext callerContext;
+    private final EvalContext.Frames frames;
+
+    // State of the calculation: it is only changed under the lock of this object
+    private int nextTile = 0;
+    private int activeTiles = 0;
+    private Throwable error = null;
+
+    /*--------------------------------------------------------*
+     * Constructors
+     *--------------------------------------------------------*/
+
+    private ParallelRunner(CalculaterTask thread, int tilesNumber, TileIf tile)
+    {
+        this.thread = thread;
+        this.tilesNumber = tilesNumber;
+        this.tile = tile;
+        this.callerContext = EvalContext.get(thread);
+        this.statistics = callerContext.getStatistics();
+        this.frames = callerContext.getFrames();
+    }
+
+    /*--------------------------------------------------------*
+     * Methods
+     *--------------------------------------------------------*/
+
+    public static int getThreadsNumber()
+    {
+        return THREADS_NUMBER;
+    }
+
+    /**
+     * Procedure calculates all tiles and returns when all of them are finished. The calling thread takes
+     * part in the calculation: the tiles that are not yet started by the worker threads are calculated by the
+     * calling thread itself. Therefore, this procedure can be called from a worker thread as well.
+     */
+    public static void run(CalculaterTask thread, int tilesNumber, TileIf tile) throws CancelException
+    {
+        if (tilesNumber <= 0)
+        {
+            return;
+        }
+        final ParallelRunner runner = new ParallelRunner(thread, tilesNumber, tile);
+        final int helpers = Math.min(THREADS_NUMBER, tilesNumber) - 1;
+        for (int i = 0; i < helpers; i++)
+        {
+            getExecutor().execute(runner::calculateTiles);
+        }
+        runner.calculateTiles();
+        runner.waitForTiles();
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor()
+    {
+        if (executor == null)
+        {
+            executor = new ThreadPoolExecutor(THREADS_NUMBER, THREADS_NUMBER, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>());
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Procedure calculates the tiles until all tiles are taken or an error occurs
+     */
+    private void calculateTiles()
+    {
+        while (true)
+        {
+            final int idx;
+            synchronized (this)
+            {
+                if (error != null || nextTile >= tilesNumber)
+                {
+                    return;
+                }
+                idx = nextTile++;
+                activeTiles++;
+            }
+            Throwable tileError = null;
+            final EvalContext context = EvalContext.get(thread);
+            final FunctionCache.Statistics ownStatistics = context.getStatistics();
+            context.setStatistics(statistics);
+            final boolean isWorker = context != callerContext;
+            if (isWorker)
+            {
+                context.pushFrames(frames);
+            }
+            try
+            {
+                if (thread != null)
+                {
+                    thread.checkCancelation();
+                }
+                tile.calculate(context, idx);
+            }
+            catch (CancelException | RuntimeException | Error e)
+            {
+                tileError = e;
+            }
+            finally
+            {
+                if (isWorker)
+                {
+                    context.popFrames(frames);
+                }
+                context.setStatistics(ownStatistics);
+            }
+            synchronized (this)
+            {
+                if (error == null)
+                {
+                    error = tileError;
+                }
+                activeTiles--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Procedure waits until the worker threads have finished their tiles and re-throws the first error
+     */
+    private void waitForTiles() throws CancelException
+    {
+        synchronized (this)
+        {
+            while (activeTiles > 0)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    // the running tiles shall be finished anyway since they write into the shared result
+                }
+            }
+        }
+        if (error instanceof CancelException)
+        {
+            throw (CancelException) error;
+        }
+        if (error instanceof RuntimeException)
+        {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error)
+        {
+            throw (Error) error;
+        }
+    }
+}
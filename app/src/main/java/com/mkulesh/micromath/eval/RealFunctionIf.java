@@ -0,0 +1,28 @@
+/*
+ * microMathematics - Extended Visual Calculator
+ * Copyright (C) 2014-2022 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+package com.mkulesh.micromath.eval;
+
+public interface RealFunctionIf
+{
+    /**
+     * Procedure returns whether the function can be calculated for real unit-free arguments using primitive values
+     */
+    boolean isRealFunction();
+
+    /**
+     * Procedure calculates the function value for real unit-free arguments. The NaN value means that the result
+     * can not be represented by a real unit-free number and shall be calculated using CalculatedValue
+     */
+    double applyReal(double[] args);
+}
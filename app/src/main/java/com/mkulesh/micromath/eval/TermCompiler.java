@@ -0,0 +1,164 @@
+/*
+ * microMathematics - Extended Visual Calculator
+ * Copyright (C) 2014-2022 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+package com.mkulesh.micromath.eval;
+
+import com.mkulesh.micromath.formula.ArgumentHolderIf;
+import com.mkulesh.micromath.formula.CalculatableIf;
+import com.mkulesh.micromath.formula.Equation;
+import com.mkulesh.micromath.formula.TermField;
+import com.mkulesh.micromath.math.CalculatedValue;
+import com.mkulesh.micromath.math.UnitConversion;
+
+/**
+ * Compiler that translates the term views into the tree of evaluation nodes
+ */
+public class TermCompiler
+{
+    // Argument holder that binds the argument values of the compiled term
+    private final ArgumentHolderIf argumentHolder;
+    private boolean legacyNodes = false;
+
+    /*--------------------------------------------------------*
+     * Constructors
+     *--------------------------------------------------------*/
+
+    public TermCompiler(ArgumentHolderIf argumentHolder)
+    {
+        this.argumentHolder = argumentHolder;
+    }
+
+    /*--------------------------------------------------------*
+     * Compilation
+     *--------------------------------------------------------*/
+
+    /**
+     * Procedure compiles the given root term
+     */
+    public CompiledTerm compileTerm(TermField term, int argNumber)
+    {
+        legacyNodes = false;
+        final EvalNode root = compile(term);
+        return new CompiledTerm(root, argumentHolder, argNumber, legacyNodes);
+    }
+
+    /**
+     * Procedure compiles recursively the given term
+     */
+    public EvalNode compile(TermField term)
+    {
+        return term.compile(this);
+    }
+
+    /*--------------------------------------------------------*
+     * Node factory
+     *--------------------------------------------------------*/
+
+    /**
+     * Procedure creates a constant node. The value shall be already converted into its standard unit
+     */
+    public EvalNode constant(CalculatedValue value)
+    {
+        final CalculatedValue c = new CalculatedValue();
+        c.assign(value);
+        return new EvalNode(OpCode.CONSTANT, null, c, -1, null, null, 1.0, null, null, null, null);
+    }
+
+    public EvalNode invalid()
+    {
+        return constant(CalculatedValue.NaN);
+    }
+
+    /**
+     * Procedure creates a node that reads an argument of the given holder (a function or a loop) from the
+     * innermost evaluation frame bound to this holder
+     */
+    public EvalNode argument(ArgumentHolderIf holder, int idx, UnitConversion unitConversion, double sign, CalculatableIf term)
+    {
+        if (holder == null || idx < 0)
+        {
+            return legacy(term);
+        }
+        return new EvalNode(OpCode.ARGUMENT, null, null, idx, holder, unitConversion, sign, null, null, null, null);
+    }
+
+    public EvalNode interval(Equation link, UnitConversion unitConversion, double sign)
+    {
+        return new EvalNode(OpCode.INTERVAL, null, null, -1, null, unitConversion, sign, link, null, null, null);
+    }
+
+    public EvalNode variable(Equation link, UnitConversion unitConversion, double sign)
+    {
+        return new EvalNode(OpCode.VARIABLE, null, null, -1, null, unitConversion, sign, link, null, null, null);
+    }
+
+    public EvalNode call(Equation link, TermField... terms)
+    {
+        return new EvalNode(OpCode.CALL, compileAll(terms), null, -1, null, null, 1.0, link, null, null, null);
+    }
+
+    public EvalNode arrayElement(Equation link, TermField... terms)
+    {
+        return new EvalNode(OpCode.ARRAY_ELEMENT, compileAll(terms), null, -1, null, null, 1.0, link, null, null, null);
+    }
+
+    /**
+     * Procedure creates the node that applies the given function to the given terms. If the function is
+     * deterministic and all its arguments are constant, the function value is calculated immediately
+     */
+    public EvalNode apply(EvalFunctionIf function, TermField... terms)
+    {
+        final EvalNode[] args = compileAll(terms);
+        if (function.isDeterministic())
+        {
+            final CalculatedValue[] argValues = new CalculatedValue[args.length];
+            for (int i = 0; i < args.length; i++)
+            {
+                if (!args[i].isConstant())
+                {
+                    return new EvalNode(OpCode.APPLY, args, null, -1, null, null, 1.0, null, function, null, null);
+                }
+                argValues[i] = new CalculatedValue();
+                argValues[i].assign(args[i].getConstant());
+            }
+            final CalculatedValue c = new CalculatedValue();
+            function.apply(argValues, c);
+            return new EvalNode(OpCode.CONSTANT, null, c, -1, null, null, 1.0, null, null, null, null);
+        }
+        return new EvalNode(OpCode.APPLY, args, null, -1, null, null, 1.0, null, function, null, null);
+    }
+
+    /**
+     * Procedure creates a loop node. The given terms are compiled but evaluated by the loop itself
+     */
+    public EvalNode loop(EvalLoopIf loop, TermField... terms)
+    {
+        return new EvalNode(OpCode.LOOP, compileAll(terms), null, -1, null, null, 1.0, null, null, loop, null);
+    }
+
+    public EvalNode legacy(CalculatableIf term)
+    {
+        legacyNodes = true;
+        return new EvalNode(OpCode.LEGACY, null, null, -1, null, null, 1.0, null, null, null, term);
+    }
+
+    private EvalNode[] compileAll(TermField[] terms)
+    {
+        final EvalNode[] args = new EvalNode[terms.length];
+        for (int i = 0; i < terms.length; i++)
+        {
+            args[i] = compile(terms[i]);
+        }
+        return args;
+    }
+}
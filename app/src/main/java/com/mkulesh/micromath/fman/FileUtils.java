@@ -19,6 +19,8 @@ import android.content.pm.ApplicationInfo;
 import android.content.res.AssetManager;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
 import android.provider.OpenableColumns;
 import android.text.TextUtils;
 import android.webkit.MimeTypeMap;
@@ -28,10 +30,14 @@ import com.mkulesh.micromath.plus.R;
 import com.mkulesh.micromath.utils.CompatUtils;
 import com.mkulesh.micromath.utils.ViewUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -356,6 +362,80 @@ public final class FileUtils
         return null;
     }
 
+    /**
+     * Procedure maps the given file into memory for reading. Since assets can not be mapped, their content
+     * is copied into a buffer. Null is returned if the file can not be read
+     */
+    public static ByteBuffer mapFile(final Context c, final Uri u)
+    {
+        if (isAssetUri(u))
+        {
+            final InputStream is = getInputStream(c, u, false);
+            if (is == null)
+            {
+                return null;
+            }
+            try
+            {
+                final ByteArrayOutputStream os = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[8192];
+                int n;
+                while ((n = is.read(buffer)) > 0)
+                {
+                    os.write(buffer, 0, n);
+                }
+                return ByteBuffer.wrap(os.toByteArray());
+            }
+            catch (Exception e)
+            {
+                ViewUtils.Debug(c, "cannot read asset: " + e.getLocalizedMessage());
+            }
+            finally
+            {
+                closeStream(is);
+            }
+            return null;
+        }
+        ParcelFileDescriptor pfd = null;
+        FileInputStream is = null;
+        try
+        {
+            pfd = c.getContentResolver().openFileDescriptor(u, "r");
+            if (pfd == null)
+            {
+                return null;
+            }
+            is = new FileInputStream(pfd.getFileDescriptor());
+            final FileChannel channel = is.getChannel();
+            ViewUtils.Debug(c, "mapping uri: " + u.toString());
+            // the mapping remains valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        catch (Exception e)
+        {
+            ViewUtils.Debug(c, "cannot map file: " + e.getLocalizedMessage());
+        }
+        finally
+        {
+            if (is != null)
+            {
+                closeStream(is);
+            }
+            try
+            {
+                if (pfd != null)
+                {
+                    pfd.close();
+                }
+            }
+            catch (Exception e)
+            {
+                // nothing to do
+            }
+        }
+        return null;
+    }
+
     public static OutputStream getOutputStream(final Context c, final Uri u)
     {
         try
@@ -461,6 +541,61 @@ public final class FileUtils
         return result;
     }
 
+    /**
+     * Procedure returns the size (index 0) and the modification time (index 1) of the given file. An attribute
+     * that can not be resolved is set to -1. The assets can only change together with the application
+     */
+    public static long[] getFileAttributes(final Context c, final Uri uri)
+    {
+        final long[] result = new long[]{ -1, -1 };
+        if (isAssetUri(uri))
+        {
+            result[1] = getAppTimeStamp(c);
+        }
+        else if (isFileUri(uri) && uri.getPath() != null)
+        {
+            final File f = new File(uri.getPath());
+            if (f.exists())
+            {
+                result[0] = f.length();
+                result[1] = f.lastModified();
+            }
+        }
+        else if (isContentUri(uri))
+        {
+            Cursor cursor = null;
+            try
+            {
+                cursor = c.getContentResolver().query(uri, null, null, null, null);
+                if (cursor != null && cursor.moveToFirst())
+                {
+                    final int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+                    if (sizeIndex >= 0 && !cursor.isNull(sizeIndex))
+                    {
+                        result[0] = cursor.getLong(sizeIndex);
+                    }
+                    final int dateIndex = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                    if (dateIndex >= 0 && !cursor.isNull(dateIndex))
+                    {
+                        result[1] = cursor.getLong(dateIndex);
+                    }
+                }
+            }
+            catch (Exception e)
+            {
+                ViewUtils.Debug(c, "cannot resolve file attributes: " + e.getLocalizedMessage());
+            }
+            finally
+            {
+                if (cursor != null)
+                {
+                    cursor.close();
+                }
+            }
+        }
+        return result;
+    }
+
     static public Uri getParentDirectory(final Uri uri)
     {
         final List<String> segments = uri.getPathSegments();
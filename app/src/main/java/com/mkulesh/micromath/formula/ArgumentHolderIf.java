@@ -13,8 +13,6 @@
  */
 package com.mkulesh.micromath.formula;
 
-import com.mkulesh.micromath.math.CalculatedValue;
-
 import java.util.ArrayList;
 
 public interface ArgumentHolderIf
@@ -28,10 +26,4 @@ public interface ArgumentHolderIf
      * Procedure returns argument index for the given string representing an argument
      */
     int getArgumentIndex(String text);
-
-    /**
-     * Procedure returns argument value for given argument index
-     */
-    CalculatedValue getArgumentValue(int idx);
-
 }
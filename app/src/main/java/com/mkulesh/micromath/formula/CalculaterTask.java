@@ -18,11 +18,16 @@ import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.Toast;
 
+import com.mkulesh.micromath.eval.EvalContext;
+import com.mkulesh.micromath.eval.FunctionCache;
 import com.mkulesh.micromath.plus.R;
 import com.mkulesh.micromath.utils.AppTask;
 import com.mkulesh.micromath.utils.ViewUtils;
 
 import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class CalculaterTask extends AppTask implements Runnable, OnClickListener
 {
@@ -37,7 +42,21 @@ public class CalculaterTask extends AppTask implements Runnable, OnClickListener
     }
 
     private final FormulaList list;
-    private final ArrayList<CalculationResult> formulas;
+    private final CalculationScheduler scheduler;
+    private ThreadPoolExecutor executor = null;
+
+    // Function values cached during this calculation, or null if caching is disabled in the document settings
+    private final FunctionCache functionCache;
+
+    // Each worker thread evaluates the compiled terms within its own context
+    private final ThreadLocal<EvalContext> evalContext = new ThreadLocal<EvalContext>()
+    {
+        @Override
+        protected EvalContext initialValue()
+        {
+            return new EvalContext(CalculaterTask.this);
+        }
+    };
 
     CalculaterTask(FormulaList list, ArrayList<CalculationResult> formulas)
     {
@@ -47,7 +66,8 @@ public class CalculaterTask extends AppTask implements Runnable, OnClickListener
         StrictMode.setThreadPolicy(policy);
 
         this.list = list;
-        this.formulas = formulas;
+        this.scheduler = new CalculationScheduler(formulas);
+        this.functionCache = list.getDocumentSettings().cacheFunctions ? new FunctionCache() : null;
     }
 
     protected void onPreExecute()
@@ -60,32 +80,114 @@ public class CalculaterTask extends AppTask implements Runnable, OnClickListener
     public void run()
     {
         onPreExecute();
-        for (CalculationResult f : formulas)
+        final int threads = Math.max(1, Math.min(scheduler.size(), Runtime.getRuntime().availableProcessors()));
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>());
+        synchronized (scheduler)
         {
-            if (isCancelled())
-            {
-                break;
-            }
-            if (!f.isEmpty())
+            startReady();
+            while (!scheduler.isDone())
             {
                 try
                 {
-                    f.calculate(this);
+                    scheduler.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    cancel();
                 }
-                catch (CancelException e)
+            }
+        }
+        executor.shutdown();
+        onPostExecute();
+    }
+
+    /**
+     * Procedure submits all formulas that do not wait for other formulas anymore.
+     * It shall be called under the lock of the scheduler
+     */
+    private void startReady()
+    {
+        for (Integer idx : scheduler.takeReady())
+        {
+            executor.execute(() -> calculate(idx));
+        }
+    }
+
+    /**
+     * Procedure calculates a single formula within a worker thread
+     */
+    private void calculate(int idx)
+    {
+        final CalculationResult f = scheduler.get(idx);
+        boolean success = false;
+        try
+        {
+            if (!isCancelled())
+            {
+                success = calculateFormula(f);
+            }
+        }
+        finally
+        {
+            // the formula shall be finished in any case, otherwise the scheduler waits for it forever
+            synchronized (scheduler)
+            {
+                // results are shown in the document order regardless of the order of calculation
+                for (CalculationResult r : scheduler.finish(idx, success))
                 {
-                    break;
+                    publishProgress(r);
                 }
-                catch (OutOfMemoryError ex)
+                if (isCancelled())
                 {
-                    String error = list.getActivity().getResources().getString(R.string.error_out_of_memory);
-                    Toast.makeText(list.getActivity(), error, Toast.LENGTH_LONG).show();
-                    break;
+                    scheduler.stop();
                 }
-                publishProgress(f);
+                startReady();
+                scheduler.notifyAll();
             }
         }
-        onPostExecute();
+    }
+
+    /**
+     * Procedure calculates the given formula and returns whether the calculation was successful
+     */
+    private boolean calculateFormula(CalculationResult f)
+    {
+        final EvalContext context = getEvalContext();
+        final FunctionCache.Statistics statistics = new FunctionCache.Statistics();
+        context.setStatistics(statistics);
+        f.setCacheStatistics(functionCache != null ? statistics : null);
+        try
+        {
+            f.calculate(this);
+            return true;
+        }
+        catch (CancelException e)
+        {
+            // nothing to do
+        }
+        catch (OutOfMemoryError ex)
+        {
+            list.getActivity().runOnUiThread(() ->
+            {
+                String error = list.getActivity().getResources().getString(R.string.error_out_of_memory);
+                Toast.makeText(list.getActivity(), error, Toast.LENGTH_LONG).show();
+            });
+        }
+        catch (RuntimeException ex)
+        {
+            ViewUtils.Debug(this, "Calculation failed: " + ex.getLocalizedMessage());
+            list.getActivity().runOnUiThread(() ->
+            {
+                String error = list.getActivity().getResources().getString(R.string.error_calculation_aborted);
+                Toast.makeText(list.getActivity(), error, Toast.LENGTH_LONG).show();
+            });
+        }
+        finally
+        {
+            context.setStatistics(null);
+        }
+        return false;
     }
 
     protected void publishProgress(CalculationResult f)
@@ -95,6 +197,7 @@ public class CalculaterTask extends AppTask implements Runnable, OnClickListener
             if (f != null)
             {
                 f.showResult();
+                list.onResultShown(f);
             }
         });
     }
@@ -119,6 +222,16 @@ public class CalculaterTask extends AppTask implements Runnable, OnClickListener
         cancel();
     }
 
+    public EvalContext getEvalContext()
+    {
+        return evalContext.get();
+    }
+
+    public FunctionCache getFunctionCache()
+    {
+        return functionCache;
+    }
+
     public void checkCancelation() throws CancelException
     {
         if (isCancelled())
@@ -17,6 +17,7 @@ import android.content.Context;
 import android.util.AttributeSet;
 import android.widget.LinearLayout;
 
+import com.mkulesh.micromath.eval.FunctionCache;
 import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
 import com.mkulesh.micromath.math.AxisTypeConverter;
 import com.mkulesh.micromath.math.CalculatedValue;
@@ -32,6 +33,9 @@ import androidx.annotation.NonNull;
 
 public abstract class CalculationResult extends LinkHolder
 {
+    // counters of the function cache collected during the last calculation of this result
+    private FunctionCache.Statistics cacheStatistics = null;
+
     /*--------------------------------------------------------*
      * Constructors
      *--------------------------------------------------------*/
@@ -78,6 +82,25 @@ public abstract class CalculationResult extends LinkHolder
      */
     public abstract void showResult();
 
+    /**
+     * Procedure checks whether the result of the previous calculation can be kept for this object if neither the
+     * object itself nor any of its dependencies were changed since this calculation
+     */
+    public boolean isResultReusable()
+    {
+        return true;
+    }
+
+    /**
+     * Procedure restores the result of the previous calculation after the content validation.
+     *
+     * This method is called from UI thread
+     */
+    public void reuseResult()
+    {
+        // empty
+    }
+
     /**
      * Procedure returns true if the calculation and content checking shall be skipped for this formula
      */
@@ -118,6 +141,16 @@ public abstract class CalculationResult extends LinkHolder
      * Helper methods
      *--------------------------------------------------------*/
 
+    void setCacheStatistics(FunctionCache.Statistics cacheStatistics)
+    {
+        this.cacheStatistics = cacheStatistics;
+    }
+
+    public FunctionCache.Statistics getCacheStatistics()
+    {
+        return cacheStatistics;
+    }
+
     protected boolean setEmptyBorders(double[] minMaxValues, TermField fMin, TermField fMax)
     {
         if (minMaxValues == null || fMin == null || fMax == null)
@@ -0,0 +1,249 @@
+/*
+ * microMathematics - Extended Visual Calculator
+ * Copyright (C) 2014-2022 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+package com.mkulesh.micromath.formula;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Dependency graph of the calculation results that shall be calculated by one calculater task.
+ *
+ * A result depends on the formulas that calculate the intervals and arrays used by it: these formulas shall be
+ * finished before the result is started. Functions are evaluated using their compiled terms that keep no state,
+ * therefore results that share a function, an interval or an array are calculated concurrently. The only
+ * exception are functions whose compiled terms are not concurrent since they are partially evaluated using the
+ * formula view tree: all results that use such a function form a chain in the document order. Formulas that read
+ * or write files form such a chain too since a file written by one formula can be read by a later one. This class
+ * is not thread-safe: all methods shall be called under the lock of its instance.
+ */
+class CalculationScheduler
+{
+    private final ArrayList<CalculationResult> formulas = new ArrayList<>();
+
+    // Number of unfinished predecessors for each formula
+    private final int[] predecessors;
+
+    // Formulas that wait for the given formula
+    private final ArrayList<ArrayList<Integer>> successors = new ArrayList<>();
+
+    private final boolean[] finished;
+    private final boolean[] succeeded;
+    private final ArrayList<Integer> ready = new ArrayList<>();
+    private int running = 0;
+    private int nextToPublish = 0;
+    private boolean stopped = false;
+
+    /*--------------------------------------------------------*
+     * Constructors
+     *--------------------------------------------------------*/
+
+    /**
+     * Procedure builds the graph for given formulas. It shall be called from UI thread after the content validation
+     */
+    CalculationScheduler(ArrayList<CalculationResult> fList)
+    {
+        for (CalculationResult f : fList)
+        {
+            if (!f.isEmpty())
+            {
+                formulas.add(f);
+            }
+        }
+        final int n = formulas.size();
+        predecessors = new int[n];
+        finished = new boolean[n];
+        succeeded = new boolean[n];
+
+        // formulas that calculate an interval or an array
+        final HashMap<Equation, Integer> producers = new HashMap<>();
+        for (int i = 0; i < n; i++)
+        {
+            if (formulas.get(i) instanceof Equation)
+            {
+                producers.put((Equation) formulas.get(i), i);
+            }
+        }
+
+        // all formulas that use a function with a non-concurrent term form a chain in the document order:
+        // it is enough to wait for the last previous formula that uses the same function
+        final HashMap<Equation, Integer> lastUsage = new HashMap<>();
+        int lastFileAccess = -1;
+        for (int i = 0; i < n; i++)
+        {
+            successors.add(new ArrayList<>());
+            final HashSet<Integer> prev = new HashSet<>();
+            for (Equation e : getReadEquations(formulas.get(i)))
+            {
+                final Integer p = producers.get(e);
+                if (p != null && p < i)
+                {
+                    prev.add(p);
+                }
+            }
+            for (Equation e : formulas.get(i).getAllFunctions())
+            {
+                if (e.getCompiledTerm().isConcurrent())
+                {
+                    continue;
+                }
+                final Integer p = lastUsage.put(e, i);
+                if (p != null && p != i)
+                {
+                    prev.add(p);
+                }
+            }
+            if (isFileAccess(formulas.get(i)))
+            {
+                if (lastFileAccess >= 0)
+                {
+                    prev.add(lastFileAccess);
+                }
+                lastFileAccess = i;
+            }
+            for (Integer p : prev)
+            {
+                successors.get(p).add(i);
+            }
+            predecessors[i] = prev.size();
+            if (predecessors[i] == 0)
+            {
+                ready.add(i);
+            }
+        }
+    }
+
+    /*--------------------------------------------------------*
+     * Scheduling
+     *--------------------------------------------------------*/
+
+    int size()
+    {
+        return formulas.size();
+    }
+
+    CalculationResult get(int idx)
+    {
+        return formulas.get(idx);
+    }
+
+    /**
+     * Procedure returns indices of formulas that can be started now and marks them as running
+     */
+    ArrayList<Integer> takeReady()
+    {
+        final ArrayList<Integer> retValue = new ArrayList<>();
+        if (!stopped)
+        {
+            retValue.addAll(ready);
+            running += ready.size();
+        }
+        ready.clear();
+        return retValue;
+    }
+
+    /**
+     * Procedure marks the given formula as finished. If the calculation of this formula failed, no further formulas
+     * will be started. Procedure returns the formulas whose results can be shown now, in the document order
+     */
+    ArrayList<CalculationResult> finish(int idx, boolean success)
+    {
+        running--;
+        finished[idx] = true;
+        succeeded[idx] = success;
+        if (!success)
+        {
+            stopped = true;
+        }
+        for (Integer s : successors.get(idx))
+        {
+            predecessors[s]--;
+            if (predecessors[s] == 0)
+            {
+                ready.add(s);
+            }
+        }
+        final ArrayList<CalculationResult> retValue = new ArrayList<>();
+        while (nextToPublish < formulas.size() && finished[nextToPublish] && succeeded[nextToPublish])
+        {
+            retValue.add(formulas.get(nextToPublish));
+            nextToPublish++;
+        }
+        return retValue;
+    }
+
+    /**
+     * Procedure stops starting of new formulas
+     */
+    void stop()
+    {
+        stopped = true;
+    }
+
+    /**
+     * Procedure returns true if there are no running formulas and no formula can be started anymore
+     */
+    boolean isDone()
+    {
+        return running == 0 && (stopped || ready.isEmpty());
+    }
+
+    /*--------------------------------------------------------*
+     * Helper methods
+     *--------------------------------------------------------*/
+
+    /**
+     * Procedure checks whether the given formula or any function called by it reads or writes a file
+     */
+    private static boolean isFileAccess(CalculationResult f)
+    {
+        if (f.isFileAccess())
+        {
+            return true;
+        }
+        for (Equation e : f.getAllFunctions())
+        {
+            if (e.isFileAccess())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Procedure returns all equations whose calculated intervals or arrays are read during the calculation of
+     * the given formula
+     */
+    private static ArrayList<Equation> getReadEquations(CalculationResult f)
+    {
+        final ArrayList<Equation> retValue = new ArrayList<>(f.getAllIntervals());
+        // array operands are read as a whole and shall be completely calculated before
+        retValue.addAll(f.getDirectOperands());
+        for (Equation e : f.getAllFunctions())
+        {
+            retValue.addAll(e.getDirectOperands());
+        }
+        if (f instanceof Equation)
+        {
+            // the previous definition of an array is merged into this array
+            final Equation prevArray = ((Equation) f).findPreviousArray();
+            if (prevArray != null)
+            {
+                retValue.add(prevArray);
+            }
+        }
+        return retValue;
+    }
+}
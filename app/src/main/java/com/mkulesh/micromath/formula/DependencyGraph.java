@@ -0,0 +1,197 @@
+/*
+ * microMathematics - Extended Visual Calculator
+ * Copyright (C) 2014-2022 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+package com.mkulesh.micromath.formula;
+
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+
+/**
+ * Dependency graph between calculation results of a document. It stores the state of each formula at the
+ * moment its result was shown and is used to recalculate only the formulas that were changed since the
+ * previous calculation together with all formulas that directly or transitively depend on them
+ */
+class DependencyGraph
+{
+    private static final class Node
+    {
+        final CalculationResult formula;
+        final String content;
+        final int[] links;
+
+        Node(CalculationResult formula, String content, int[] links)
+        {
+            this.formula = formula;
+            this.content = content;
+            this.links = links;
+        }
+    }
+
+    private final HashMap<Integer, Node> calculated = new HashMap<>();
+
+    /*--------------------------------------------------------*
+     * Graph maintenance
+     *--------------------------------------------------------*/
+
+    /**
+     * Procedure forgets all calculated states: the next calculation will recalculate the whole document
+     */
+    void clear()
+    {
+        calculated.clear();
+    }
+
+    /**
+     * Procedure shall be called from UI thread after the result of the given formula was shown
+     */
+    void setCalculated(CalculationResult f)
+    {
+        calculated.put(f.getId(), new Node(f, getContent(f), getLinks(f)));
+    }
+
+    /**
+     * Procedure returns the formulas from the given list (in the same order) that were changed since their last
+     * calculation or depend on a changed formula. The calculated state of these formulas is dropped, and all other
+     * formulas restore their previous results. Procedure expects that the links are already validated.
+     */
+    ArrayList<CalculationResult> getDirtyFormulas(ArrayList<CalculationResult> fList)
+    {
+        // reverse edges: equation id -> ids of formulas that use this equation
+        final HashMap<Integer, ArrayList<Integer>> dependents = new HashMap<>();
+        final ArrayList<Integer> pending = new ArrayList<>();
+        final HashSet<Integer> dirty = new HashSet<>();
+        for (CalculationResult f : fList)
+        {
+            final int[] links = getLinks(f);
+            for (int id : links)
+            {
+                ArrayList<Integer> d = dependents.get(id);
+                if (d == null)
+                {
+                    d = new ArrayList<>();
+                    dependents.put(id, d);
+                }
+                d.add(f.getId());
+            }
+            if (isChanged(f, links) && dirty.add(f.getId()))
+            {
+                pending.add(f.getId());
+            }
+        }
+
+        // transitive closure over dependent formulas
+        while (!pending.isEmpty())
+        {
+            final ArrayList<Integer> d = dependents.get(pending.remove(pending.size() - 1));
+            if (d == null)
+            {
+                continue;
+            }
+            for (Integer id : d)
+            {
+                if (dirty.add(id))
+                {
+                    pending.add(id);
+                }
+            }
+        }
+
+        final ArrayList<CalculationResult> retValue = new ArrayList<>();
+        for (CalculationResult f : fList)
+        {
+            if (dirty.contains(f.getId()))
+            {
+                calculated.remove(f.getId());
+                retValue.add(f);
+            }
+            else
+            {
+                f.reuseResult();
+            }
+        }
+        return retValue;
+    }
+
+    /*--------------------------------------------------------*
+     * Helper methods
+     *--------------------------------------------------------*/
+
+    private boolean isChanged(CalculationResult f, int[] links)
+    {
+        final Node n = calculated.get(f.getId());
+        if (n == null || n.formula != f || !Arrays.equals(n.links, links))
+        {
+            return true;
+        }
+        if (f.isVolatile() || !f.isResultReusable())
+        {
+            return true;
+        }
+        return n.content == null || !n.content.equals(getContent(f));
+    }
+
+    private static int[] getLinks(CalculationResult f)
+    {
+        final ArrayList<Equation> equations = new ArrayList<>(f.getDirectIntervals());
+        equations.addAll(f.getDirectFunctions());
+        equations.addAll(f.getDirectOperands());
+        if (f instanceof Equation)
+        {
+            final Equation prevArray = ((Equation) f).findPreviousArray();
+            if (prevArray != null)
+            {
+                equations.add(prevArray);
+            }
+        }
+        final int[] links = new int[equations.size()];
+        for (int i = 0; i < links.length; i++)
+        {
+            links[i] = equations.get(i).getId();
+        }
+        Arrays.sort(links);
+        return links;
+    }
+
+    /**
+     * Procedure returns XML representation of the given formula that is used to detect its modifications
+     */
+    private static String getContent(CalculationResult f)
+    {
+        try
+        {
+            final StringWriter writer = new StringWriter();
+            final XmlSerializer serializer = Xml.newSerializer();
+            serializer.setOutput(writer);
+            serializer.startDocument("UTF-8", true);
+            serializer.setPrefix(FormulaList.XML_PROP_MMT, FormulaList.XML_MMT_SCHEMA);
+            final String term = f.getBaseType().toString().toLowerCase(Locale.ENGLISH);
+            serializer.startTag(FormulaList.XML_NS, term);
+            f.writeToXml(serializer, String.valueOf(f.getId()));
+            serializer.endTag(FormulaList.XML_NS, term);
+            serializer.endDocument();
+            return writer.toString();
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }
+}
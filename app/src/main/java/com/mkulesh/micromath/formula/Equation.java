@@ -19,6 +19,10 @@ import android.util.AttributeSet;
 import android.view.View;
 
 import com.mkulesh.micromath.dialogs.DialogResultDetails;
+import com.mkulesh.micromath.eval.CompiledTerm;
+import com.mkulesh.micromath.eval.EvalContext;
+import com.mkulesh.micromath.eval.FunctionCache;
+import com.mkulesh.micromath.eval.TermCompiler;
 import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
 import com.mkulesh.micromath.formula.TermField.ErrorNotification;
 import com.mkulesh.micromath.formula.terms.ArrayFunctions;
@@ -45,7 +49,6 @@ public class Equation extends CalculationResult implements ArgumentHolderIf, Cal
 
     private TermField leftTerm = null;
     private TermField rightTerm = null;
-    private CalculatedValue[] argumentValues = null;
 
     /*--------------------------------------------------------*
      * Constant result
@@ -55,12 +58,13 @@ public class Equation extends CalculationResult implements ArgumentHolderIf, Cal
     {
         private CalculatedValue value = null;
 
-        CalculatedValue getValue(CalculaterTask thread) throws CancelException
+        CalculatedValue getValue(EvalContext context) throws CancelException
         {
             if (value == null)
             {
-                value = new CalculatedValue();
-                rightTerm.getValue(thread, value);
+                final CalculatedValue v = new CalculatedValue();
+                getCompiledTerm().getValue(context, null, v);
+                value = v;
             }
             return value;
         }
@@ -68,6 +72,8 @@ public class Equation extends CalculationResult implements ArgumentHolderIf, Cal
 
     private EquationConstantResult constantResult = null;
     private EquationArrayResult arrayResult = null;
+    private EquationArrayResult calculatedResult = null;
+    private CompiledTerm compiledTerm = null;
 
     /*--------------------------------------------------------*
      * Constructors
@@ -153,6 +159,7 @@ public class Equation extends CalculationResult implements ArgumentHolderIf, Cal
         boolean isValid = super.isContentValid(type);
         constantResult = null;
         arrayResult = null;
+        compiledTerm = null;
 
         switch (type)
         {
@@ -295,21 +302,6 @@ public class Equation extends CalculationResult implements ArgumentHolderIf, Cal
         return ViewUtils.INVALID_INDEX;
     }
 
-    @Override
-    public CalculatedValue getArgumentValue(int idx)
-    {
-        if (argumentValues != null && idx < argumentValues.length && argumentValues[idx] != null)
-        {
-            return argumentValues[idx];
-        }
-        return CalculatedValue.NaN;
-    }
-
-    public CalculatedValue[] getArgumentValues()
-    {
-        return argumentValues;
-    }
-
 
     /*--------------------------------------------------------*
      * Re-implementation for methods for Calculatable interface
@@ -318,15 +310,7 @@ public class Equation extends CalculationResult implements ArgumentHolderIf, Cal
     @Override
     public CalculatedValue.ValueType getValue(CalculaterTask thread, CalculatedValue outValue) throws CancelException
     {
-        if (constantResult != null && argumentValues == null)
-        {
-            return outValue.assign(constantResult.getValue(thread));
-        }
-        else if (arrayResult != null && argumentValues != null)
-        {
-            return outValue.assign(arrayResult.getValue(argumentValues));
-        }
-        return rightTerm.getValue(thread, outValue);
+        return getValue(EvalContext.get(thread), null, outValue);
     }
 
     @Override
@@ -349,12 +333,29 @@ public class Equation extends CalculationResult implements ArgumentHolderIf, Cal
     @Override
     public void invalidateResult()
     {
-        arrayResult = null;
+        // the array holder itself is re-created by the content validation
+        calculatedResult = null;
+    }
+
+    @Override
+    public boolean isResultReusable()
+    {
+        return arrayResult == null || calculatedResult != null;
+    }
+
+    @Override
+    public void reuseResult()
+    {
+        if (arrayResult != null && calculatedResult != null)
+        {
+            arrayResult = calculatedResult;
+        }
     }
 
     @Override
     public void calculate(CalculaterTask thread) throws CancelException
     {
+        calculatedResult = null;
         if (arrayResult == null)
         {
             return;
@@ -365,7 +366,7 @@ public class Equation extends CalculationResult implements ArgumentHolderIf, Cal
         }
         else
         {
-            arrayOperation(true);
+            arrayOperation(thread, true);
             final MatrixProperties mp = rightTerm.getArrayDimension();
             if (getArguments() == null && mp != null)
             {
@@ -379,20 +380,23 @@ public class Equation extends CalculationResult implements ArgumentHolderIf, Cal
             }
             else
             {
-                arrayResult.calculate(thread, getArguments(), false, findPreviousArray());
+                final Equation prevArray = findPreviousArray();
+                arrayResult.calculate(thread, getArguments(), false,
+                        prevArray != null ? prevArray.arrayResult : null);
             }
-            arrayOperation(false);
+            arrayOperation(thread, false);
         }
+        calculatedResult = arrayResult;
     }
 
-    private void arrayOperation(boolean status)
+    private void arrayOperation(CalculaterTask thread, boolean status) throws CancelException
     {
         FormulaTerm t = rightTerm.getTerm();
         if (t instanceof ArrayFunctions)
         {
             if (status)
             {
-                ((ArrayFunctions) t).startArrayOperation();
+                ((ArrayFunctions) t).startArrayOperation(thread);
             }
             else
             {
@@ -421,6 +425,7 @@ public class Equation extends CalculationResult implements ArgumentHolderIf, Cal
             DialogResultDetails d = new DialogResultDetails(getFormulaList().getActivity(),
                     arrayResult,
                     getFormulaList().getDocumentSettings(), null);
+            d.setCacheStatistics(getCacheStatistics());
             d.show();
         }
     }
@@ -463,12 +468,72 @@ public class Equation extends CalculationResult implements ArgumentHolderIf, Cal
     }
 
     /**
-     * Procedure sets the list of argument values
+     * Procedure calculates the equation value for given argument values using the compiled right term
      */
-    public boolean setArgumentValues(CalculatedValue[] argumentValues)
+    public CalculatedValue.ValueType getValue(EvalContext context, CalculatedValue[] argValues,
+                                              CalculatedValue outValue) throws CancelException
     {
-        this.argumentValues = argumentValues;
-        return this.argumentValues != null;
+        if (constantResult != null && argValues == null)
+        {
+            return outValue.assign(constantResult.getValue(context));
+        }
+        else if (arrayResult != null && argValues != null)
+        {
+            return arrayResult.getValue(argValues, outValue);
+        }
+        final CompiledTerm term = getCompiledTerm();
+        final FunctionCache cache = context.getFunctionCache();
+        if (cache == null || argValues == null || !term.isCacheable())
+        {
+            return term.getValue(context, argValues, outValue);
+        }
+        final FunctionCache.Statistics statistics = context.getStatistics();
+        if (cache.getValue(this, argValues, outValue))
+        {
+            if (statistics != null)
+            {
+                statistics.countHit();
+            }
+            return outValue.getValueType();
+        }
+        if (statistics != null)
+        {
+            statistics.countMiss();
+        }
+        term.getValue(context, argValues, outValue);
+        cache.putValue(this, argValues, outValue);
+        return outValue.getValueType();
+    }
+
+    /**
+     * Procedure calculates the equation value and its derivative for given argument values and their
+     * derivatives. The derivative of an array element with respect to its indices is zero
+     */
+    public boolean getDualValue(EvalContext context, CalculatedValue[] argValues, CalculatedValue[] argDerivatives,
+                                CalculatedValue outValue, CalculatedValue outDerivative) throws CancelException
+    {
+        if (arrayResult != null || (constantResult != null && argValues == null))
+        {
+            getValue(context, argValues, outValue);
+            return false;
+        }
+        return getCompiledTerm().getDualValue(context, argValues, argDerivatives, outValue, outDerivative);
+    }
+
+    /**
+     * Procedure returns the right term compiled into the evaluation nodes. The compiled term is
+     * invalidated when the content of this equation is validated
+     */
+    public CompiledTerm getCompiledTerm()
+    {
+        CompiledTerm term = compiledTerm;
+        if (term == null)
+        {
+            final ArrayList<String> arguments = getArguments();
+            term = new TermCompiler(this).compileTerm(rightTerm, arguments == null ? 0 : arguments.size());
+            compiledTerm = term;
+        }
+        return term;
     }
 
     /**
@@ -599,7 +664,10 @@ public class Equation extends CalculationResult implements ArgumentHolderIf, Cal
         }
     }
 
-    private EquationArrayResult findPreviousArray()
+    /**
+     * Procedure returns the previous definition of the same array that is merged into this array
+     */
+    Equation findPreviousArray()
     {
         if (!isArray())
         {
@@ -629,6 +697,6 @@ public class Equation extends CalculationResult implements ArgumentHolderIf, Cal
                 prevArray = eq;
             }
         }
-        return (prevArray != null) ? prevArray.arrayResult : null;
+        return prevArray;
     }
 }
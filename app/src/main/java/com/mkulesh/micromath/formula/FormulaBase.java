@@ -176,6 +176,14 @@ public abstract class FormulaBase extends CustomLayout implements FormulaChangeI
         this.inRightOfPrevious = inRightOfPrevious;
     }
 
+    /**
+     * Procedure is called if this formula enters or leaves the area near the visible part of the list
+     */
+    public void setInViewport(boolean inViewport)
+    {
+        // empty
+    }
+
     /*--------------------------------------------------------*
      * Re-implementation for methods for View superclass
      *--------------------------------------------------------*/
@@ -972,6 +980,22 @@ public abstract class FormulaBase extends CustomLayout implements FormulaChangeI
         return true;
     }
 
+    /**
+     * Procedure checks whether this formula contains a term whose value can change between two calculations
+     * even if the formula itself was not changed (random numbers, data read from a file)
+     */
+    public boolean isVolatile()
+    {
+        for (TermField t : terms)
+        {
+            if (t.isTerm() && t.getTerm().isVolatile())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Procedure sets the focus to the first editable element
      */
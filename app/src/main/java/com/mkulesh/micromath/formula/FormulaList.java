@@ -130,6 +130,7 @@ public class FormulaList implements OnClickListener, ListChangeIf, DocumentPrope
     private final UndoState undoState;
     private TestSession taSession = null;
     private final MatrixProperties matrixProperties = new MatrixProperties();
+    private final DependencyGraph dependencyGraph = new DependencyGraph();
 
     @SuppressLint("UseSparseArrays")
     private final HashMap<Integer, FormulaBase> formulas = new HashMap<>();
@@ -424,6 +425,12 @@ public class FormulaList implements OnClickListener, ListChangeIf, DocumentPrope
         }
     }
 
+    @Override
+    public void onViewportChanged(int top, int bottom)
+    {
+        formulaListView.updateViewport(top, bottom);
+    }
+
     @Override
     public void onPalettePressed(String code)
     {
@@ -594,6 +601,8 @@ public class FormulaList implements OnClickListener, ListChangeIf, DocumentPrope
         }
         if (isChanged)
         {
+            // document settings can affect any result
+            dependencyGraph.clear();
             calculate();
         }
     }
@@ -918,6 +927,7 @@ public class FormulaList implements OnClickListener, ListChangeIf, DocumentPrope
         selectedFormulaId = ViewUtils.INVALID_INDEX;
         formulaListView.clear();
         formulas.clear();
+        dependencyGraph.clear();
         getDimen().reset();
         IdGenerator.reset();
     }
@@ -1217,21 +1227,37 @@ public class FormulaList implements OnClickListener, ListChangeIf, DocumentPrope
     }
 
     /**
-     * Procedure performs calculation for all result formulae
+     * Procedure performs calculation for all result formulae that were changed since the previous calculation
+     * or depend on a changed formula
      */
     public void calculate()
     {
         formulaListView.clearFocus();
         final ArrayList<CalculationResult> fList = formulaListView.getFormulas(CalculationResult.class);
-        for (CalculationResult f : fList)
+        if (!isContentValid())
         {
-            f.invalidateResult();
+            dependencyGraph.clear();
+            for (CalculationResult f : fList)
+            {
+                f.invalidateResult();
+            }
+            return;
         }
-        if (isContentValid())
+        final ArrayList<CalculationResult> dirtyList = dependencyGraph.getDirtyFormulas(fList);
+        for (CalculationResult f : dirtyList)
         {
-            CalculaterTask calculaterTask = new CalculaterTask(this, fList);
-            calculaterTask.start();
+            f.invalidateResult();
         }
+        CalculaterTask calculaterTask = new CalculaterTask(this, dirtyList);
+        calculaterTask.start();
+    }
+
+    /**
+     * Procedure shall be called from UI thread after the result of the given formula was shown
+     */
+    void onResultShown(CalculationResult f)
+    {
+        dependencyGraph.setCalculated(f);
     }
 
     /**
@@ -1344,6 +1370,11 @@ public class FormulaList implements OnClickListener, ListChangeIf, DocumentPrope
 
     public Uri getParentDirectory()
     {
+        if (taSession != null)
+        {
+            // relative file names in a test script refer to the working directory of the test session
+            return taSession.getWorkingDirectory();
+        }
         final SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(getActivity());
         final String str = pref.getString(BaseFragment.OPENED_URI, null);
         final Uri docUri = str == null ? null : Uri.parse(str);
@@ -35,6 +35,11 @@ public class FormulaListView
     private final LinearLayout list;
     private boolean termDeleted = false;
 
+    // the rows near the visible area, as found by the last update of the viewport. This range is only valid
+    // until the list is laid out again since the rows can be added, removed or moved
+    private boolean nearRowsValid = false;
+    private int firstNearRow = 0, lastNearRow = -1;
+
     /**
      * Default constructor
      */
@@ -43,6 +48,7 @@ public class FormulaListView
         this.context = context;
         list = layout;
         list.setSaveEnabled(false);
+        list.addOnLayoutChangeListener((v, l, t, r, b, oldL, oldT, oldR, oldB) -> nearRowsValid = false);
     }
 
     /**
@@ -101,6 +107,87 @@ public class FormulaListView
         return retValue;
     }
 
+    /**
+     * Procedure updates the visible area of the list and notifies all formulas that enter or leave the
+     * area near it. Since the rows are sorted by their position, the near rows are found using a binary
+     * search, and only the rows that enter or leave this area are notified
+     */
+    public void updateViewport(int top, int bottom)
+    {
+        // the area near the visible area includes one viewport height above and below it
+        final int margin = bottom - top;
+        final int viewportTop = top - margin;
+        final int viewportBottom = bottom + margin;
+        final int n = list.getChildCount();
+
+        // search the first row that ends within or below the near area
+        int first = 0, end = n;
+        while (first < end)
+        {
+            final int mid = (first + end) >>> 1;
+            if (list.getChildAt(mid).getBottom() < viewportTop)
+            {
+                first = mid + 1;
+            }
+            else
+            {
+                end = mid;
+            }
+        }
+        int last = first - 1;
+        while (last + 1 < n && list.getChildAt(last + 1).getTop() <= viewportBottom)
+        {
+            last++;
+        }
+
+        if (!nearRowsValid)
+        {
+            for (int i = 0; i < n; i++)
+            {
+                setInViewport(list.getChildAt(i), i >= first && i <= last);
+            }
+        }
+        else
+        {
+            for (int i = firstNearRow; i <= Math.min(lastNearRow, n - 1); i++)
+            {
+                if (i < first || i > last)
+                {
+                    setInViewport(list.getChildAt(i), false);
+                }
+            }
+            for (int i = first; i <= last; i++)
+            {
+                if (i < firstNearRow || i > lastNearRow)
+                {
+                    setInViewport(list.getChildAt(i), true);
+                }
+            }
+        }
+        firstNearRow = first;
+        lastNearRow = last;
+        nearRowsValid = true;
+    }
+
+    private static void setInViewport(View v, boolean inViewport)
+    {
+        if (v instanceof ListRow)
+        {
+            final ListRow row = (ListRow) v;
+            for (int j = 0; j < row.getChildCount(); j++)
+            {
+                if (row.getChildAt(j) instanceof FormulaBase)
+                {
+                    ((FormulaBase) row.getChildAt(j)).setInViewport(inViewport);
+                }
+            }
+        }
+        else if (v instanceof FormulaBase)
+        {
+            ((FormulaBase) v).setInViewport(inViewport);
+        }
+    }
+
     /**
      * Procedure adds given formula to the list with respect to the given coordinates
      */
@@ -21,6 +21,9 @@ import android.view.View;
 
 import com.mkulesh.micromath.dialogs.DialogResultDetails;
 import com.mkulesh.micromath.dialogs.DialogResultSettings;
+import com.mkulesh.micromath.eval.CompiledTerm;
+import com.mkulesh.micromath.eval.EvalContext;
+import com.mkulesh.micromath.eval.TermCompiler;
 import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
 import com.mkulesh.micromath.formula.TermField.ErrorNotification;
 import com.mkulesh.micromath.math.CalculatedValue;
@@ -255,7 +258,8 @@ public class FormulaResult extends CalculationResult implements ResultProperties
             // trigger re-calculations for constant
             resultType = ResultType.CONSTANT;
             constantResult = new CalculatedValue();
-            leftTerm.getValue(thread, constantResult);
+            final CompiledTerm term = new TermCompiler(null).compileTerm(leftTerm, 0);
+            term.getValue(EvalContext.get(thread), null, constantResult);
         }
         else
         {
@@ -280,10 +284,12 @@ public class FormulaResult extends CalculationResult implements ResultProperties
             resultType = ResultType.ARRAY_1D;
             arrayArgument = new EquationArrayResult(xLength);
             arrayResult = new EquationArrayResult(xLength, 1);
+            final CalculatedValue index = new CalculatedValue();
             for (int xIndex = 0; xIndex < xLength; xIndex++)
             {
-                arrayArgument.getValue1D(xIndex).setValue(xIndex);
-                arrayResult.getValue2D(xIndex, 0).assign(arrayLink.getArrayResult().getValue1D(xIndex));
+                index.setValue(xIndex);
+                arrayArgument.setValue1D(xIndex, index);
+                arrayResult.setValue2D(xIndex, 0, arrayLink.getArrayResult().getValue1D(xIndex));
             }
             return;
         }
@@ -299,7 +305,7 @@ public class FormulaResult extends CalculationResult implements ResultProperties
             {
                 for (int yIndex = 0; yIndex < yLength; yIndex++)
                 {
-                    arrayResult.getValue2D(xIndex, yIndex).assign(arrayLink.getArrayResult().getValue2D(xIndex, yIndex));
+                    arrayResult.setValue2D(xIndex, yIndex, arrayLink.getArrayResult().getValue2D(xIndex, yIndex));
                 }
             }
         }
@@ -310,6 +316,8 @@ public class FormulaResult extends CalculationResult implements ResultProperties
     private void collectIntervalResults(CalculaterTask thread, ArrayList<Equation> linkedIntervals) throws CancelException
     {
         resultType = ResultType.NAN;
+        final EvalContext context = EvalContext.get(thread);
+        final CompiledTerm term = new TermCompiler(null).compileTerm(leftTerm, 0);
 
         // A vector
         if (linkedIntervals.size() == 1)
@@ -323,12 +331,21 @@ public class FormulaResult extends CalculationResult implements ResultProperties
                 resultType = ResultType.ARRAY_1D;
                 arrayArgument = new EquationArrayResult(xLength);
                 arrayResult = new EquationArrayResult(xLength, 1);
-                for (int xIndex = 0; xIndex < xLength; xIndex++)
+                final CalculatedValue value = new CalculatedValue();
+                context.pushFrame(linkedIntervals.get(0), argValues);
+                try
                 {
-                    argValues[0].assign(xValues[xIndex]);
-                    arrayArgument.getValue1D(xIndex).assign(argValues[0]);
-                    linkedIntervals.get(0).setArgumentValues(argValues);
-                    leftTerm.getValue(thread, arrayResult.getValue2D(xIndex, 0));
+                    for (int xIndex = 0; xIndex < xLength; xIndex++)
+                    {
+                        argValues[0].assign(xValues[xIndex]);
+                        arrayArgument.setValue1D(xIndex, argValues[0]);
+                        term.getValue(context, null, value);
+                        arrayResult.setValue2D(xIndex, 0, value);
+                    }
+                }
+                finally
+                {
+                    context.popFrame();
                 }
             }
             return;
@@ -348,17 +365,27 @@ public class FormulaResult extends CalculationResult implements ResultProperties
                 final int yLength = yValues.length;
                 resultType = ResultType.ARRAY_2D;
                 arrayResult = new EquationArrayResult(xLength, yLength);
-                for (int xIndex = 0; xIndex < xLength; xIndex++)
+                final CalculatedValue value = new CalculatedValue();
+                context.pushFrame(linkedIntervals.get(0), argValues[0]);
+                context.pushFrame(linkedIntervals.get(1), argValues[1]);
+                try
                 {
-                    argValues[0][0].assign(xValues[xIndex]);
-                    linkedIntervals.get(0).setArgumentValues(argValues[0]);
-                    for (int yIndex = 0; yIndex < yLength; yIndex++)
+                    for (int xIndex = 0; xIndex < xLength; xIndex++)
                     {
-                        argValues[1][0].assign(yValues[yIndex]);
-                        linkedIntervals.get(1).setArgumentValues(argValues[1]);
-                        leftTerm.getValue(thread, arrayResult.getValue2D(xIndex, yIndex));
+                        argValues[0][0].assign(xValues[xIndex]);
+                        for (int yIndex = 0; yIndex < yLength; yIndex++)
+                        {
+                            argValues[1][0].assign(yValues[yIndex]);
+                            term.getValue(context, null, value);
+                            arrayResult.setValue2D(xIndex, yIndex, value);
+                        }
                     }
                 }
+                finally
+                {
+                    context.popFrame();
+                    context.popFrame();
+                }
             }
         }
 
@@ -418,6 +445,7 @@ public class FormulaResult extends CalculationResult implements ResultProperties
             DialogResultDetails d = new DialogResultDetails(getFormulaList().getActivity(),
                     arrayArgument, arrayResult,
                     getFormulaList().getDocumentSettings(), properties);
+            d.setCacheStatistics(getCacheStatistics());
             d.show();
         }
     }
@@ -16,6 +16,8 @@ package com.mkulesh.micromath.formula;
 import android.view.View;
 import android.widget.LinearLayout;
 
+import com.mkulesh.micromath.eval.EvalNode;
+import com.mkulesh.micromath.eval.TermCompiler;
 import com.mkulesh.micromath.formula.terms.TermTypeIf;
 import com.mkulesh.micromath.plus.R;
 import com.mkulesh.micromath.utils.ClipboardManager;
@@ -342,7 +344,7 @@ public abstract class FormulaTerm extends FormulaBase implements CalculatableIf
     /**
      * Procedure performs re-index of terms
      */
-    private void reIndexTerms()
+    protected void reIndexTerms()
     {
         if (terms.size() == 1)
         {
@@ -373,6 +375,15 @@ public abstract class FormulaTerm extends FormulaBase implements CalculatableIf
         return false;
     }
 
+    /**
+     * Procedure compiles this term into an evaluation node. The terms that are not supported by the compiler
+     * are evaluated using the formula view tree
+     */
+    public EvalNode compile(TermCompiler compiler)
+    {
+        return compiler.legacy(this);
+    }
+
     protected void initializeMainLayout()
     {
         // store the main layout in order to show errors
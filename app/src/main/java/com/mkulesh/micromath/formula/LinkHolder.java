@@ -16,6 +16,8 @@ package com.mkulesh.micromath.formula;
 import android.content.Context;
 import android.widget.LinearLayout;
 
+import com.mkulesh.micromath.eval.CompiledTerm;
+
 import java.util.ArrayList;
 
 public abstract class LinkHolder extends FormulaBase
@@ -26,6 +28,10 @@ public abstract class LinkHolder extends FormulaBase
     private final ArrayList<Equation> directFunctions = new ArrayList<>();
     private final ArrayList<Equation> allFunctions = new ArrayList<>();
 
+    private final ArrayList<Equation> directOperands = new ArrayList<>();
+
+    private boolean fileAccess = false;
+
     /*--------------------------------------------------------*
      * Constructors
      *--------------------------------------------------------*/
@@ -59,6 +65,8 @@ public abstract class LinkHolder extends FormulaBase
             allIntervals.clear();
             directFunctions.clear();
             allFunctions.clear();
+            directOperands.clear();
+            fileAccess = false;
             isValid = super.isContentValid(type);
             break;
         case VALIDATE_LINKS:
@@ -90,6 +98,14 @@ public abstract class LinkHolder extends FormulaBase
         return allIntervals;
     }
 
+    /**
+     * Procedure returns the list of directly linked functions
+     */
+    ArrayList<Equation> getDirectFunctions()
+    {
+        return directFunctions;
+    }
+
     /**
      * Procedure returns the list of all linked functions
      */
@@ -98,6 +114,42 @@ public abstract class LinkHolder extends FormulaBase
         return allFunctions;
     }
 
+    /**
+     * Procedure returns the list of equations whose values are directly used as operands of array functions
+     */
+    ArrayList<Equation> getDirectOperands()
+    {
+        return directOperands;
+    }
+
+    /**
+     * Procedure checks whether this formula itself reads or writes a file
+     */
+    boolean isFileAccess()
+    {
+        return fileAccess;
+    }
+
+    /**
+     * Procedure checks whether the given term of this formula can be evaluated by several threads concurrently.
+     * It is only possible if neither this term nor any linked function uses the formula view tree for evaluation
+     */
+    protected boolean isConcurrentlyCalculable(CompiledTerm term)
+    {
+        if (term.hasLegacyNodes())
+        {
+            return false;
+        }
+        for (Equation e : allFunctions)
+        {
+            if (e.getCompiledTerm().hasLegacyNodes())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Procedure returns the list of indirectly linked intervals
      */
@@ -137,6 +189,27 @@ public abstract class LinkHolder extends FormulaBase
         }
     }
 
+    /**
+     * Procedure shall be called from a child term in order to inform this object that it uses the value of the
+     * given equation as a whole, like an array function does with its array operand. Such an equation is a
+     * dependency of this object but is neither an argument interval nor a called function
+     */
+    public void addLinkedOperand(Equation linkedEquation)
+    {
+        if (linkedEquation != null && !directOperands.contains(linkedEquation))
+        {
+            directOperands.add(linkedEquation);
+        }
+    }
+
+    /**
+     * Procedure shall be called from a child term in order to inform this object that it reads or writes a file
+     */
+    public void setFileAccess()
+    {
+        fileAccess = true;
+    }
+
     /**
      * Procedure recursively collects linked intervals
      */
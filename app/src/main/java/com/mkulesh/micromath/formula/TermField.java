@@ -21,6 +21,9 @@ import android.view.View;
 import android.widget.LinearLayout;
 import android.widget.Toast;
 
+import com.mkulesh.micromath.eval.EvalContext;
+import com.mkulesh.micromath.eval.EvalNode;
+import com.mkulesh.micromath.eval.TermCompiler;
 import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
 import com.mkulesh.micromath.formula.FormulaBase.FocusType;
 import com.mkulesh.micromath.formula.PaletteButton.Category;
@@ -31,6 +34,7 @@ import com.mkulesh.micromath.formula.terms.TermTypeIf;
 import com.mkulesh.micromath.formula.terms.UserFunctions;
 import com.mkulesh.micromath.io.XmlUtils;
 import com.mkulesh.micromath.math.CalculatedValue;
+import com.mkulesh.micromath.math.UnitConversion;
 import com.mkulesh.micromath.plus.R;
 import com.mkulesh.micromath.properties.MatrixProperties;
 import com.mkulesh.micromath.undo.FormulaState;
@@ -97,6 +101,13 @@ public class TermField implements TextChangeIf, FocusChangeIf, CalculatableIf
     private final TermParser parser = new TermParser();
     private Equation linkedVariable = null;
 
+    // units of a number, an argument or a linked variable resolved during the content check
+    private CalculatedValue numberValue = null;
+    private UnitConversion unitConversion = null;
+
+    // the last conversion of a linked value into the unit of this term
+    private volatile UnitConversion linkedConversion = null;
+
     // custom errors that can be set externally
     public enum ErrorNotification
     {
@@ -177,7 +188,10 @@ public class TermField implements TextChangeIf, FocusChangeIf, CalculatableIf
         errorNotification = ErrorNotification.COLOR;
         errorId = NO_ERROR_ID;
         linkedVariable = null;
-        if (text.isTextFragment() || text.isCalculatedValue() || text.isFileName())
+        numberValue = null;
+        unitConversion = null;
+        if (text.isTextFragment() || text.isCalculatedValue() || text.isFileName() || text.isFunctionReference()
+                || text.isDataType())
         {
             contentType = ContentType.INFO_TEXT;
             updateViewColor();
@@ -234,11 +248,32 @@ public class TermField implements TextChangeIf, FocusChangeIf, CalculatableIf
                     }
                 }
             }
+            resolveUnits();
         }
         updateViewColor();
         return contentType;
     }
 
+    /**
+     * Procedure resolves the unit conversion of this term and converts a number into its standard unit
+     */
+    private void resolveUnits()
+    {
+        if (parser.getUnit() != null)
+        {
+            unitConversion = UnitConversion.toStandard(parser.getUnit());
+        }
+        if (contentType == ContentType.NUMBER)
+        {
+            numberValue = new CalculatedValue();
+            numberValue.assign(parser.getValue());
+            if (unitConversion != null)
+            {
+                numberValue.convertUnit(unitConversion);
+            }
+        }
+    }
+
     /**
      * Procedure returns true if the calculation and content checking shall be skipped for this formula
      */
@@ -266,33 +301,36 @@ public class TermField implements TextChangeIf, FocusChangeIf, CalculatableIf
             switch (contentType)
             {
             case NUMBER:
-                outValue.assign(parser.getValue());
-                if (parser.getUnit() != null)
-                {
-                    outValue.convertUnit(parser.getUnit(), parser.getUnit().getStandardUnit());
-                }
-                return outValue.getValueType();
+                return outValue.assign(numberValue);
             case ARGUMENT:
-                outValue.assign(parser.getArgumentHolder().getArgumentValue(parser.getArgumentIndex()));
-                if (parser.getUnit() != null)
+                outValue.assign(EvalContext.get(thread).getArgument(
+                        parser.getArgumentHolder(), parser.getArgumentIndex()));
+                if (unitConversion != null)
                 {
-                    outValue.convertUnit(parser.getUnit(), parser.getUnit().getStandardUnit());
+                    outValue.convertUnit(unitConversion);
                 }
                 return outValue.multiply(parser.getSign());
             case VARIABLE_LINK:
                 if (linkedVariable.isInterval())
                 {
-                    outValue.assign(linkedVariable.getArgumentValue(0));
+                    outValue.assign(EvalContext.get(thread).getArgument(linkedVariable, 0));
                 }
                 else
                 {
                     linkedVariable.getValue(thread, outValue);
                 }
-                if (parser.getUnit() != null)
+                if (unitConversion != null)
                 {
-                    outValue.convertUnit(
-                            (outValue.getUnit() != null) ? outValue.getUnit() : parser.getUnit(),
-                            parser.getUnit().getStandardUnit());
+                    if (outValue.getUnit() != null)
+                    {
+                        final UnitConversion c = unitConversion.fromSource(outValue.getUnit(), linkedConversion);
+                        linkedConversion = c;
+                        outValue.convertUnit(c);
+                    }
+                    else
+                    {
+                        outValue.convertUnit(unitConversion);
+                    }
                 }
                 return outValue.multiply(parser.getSign());
             default:
@@ -301,6 +339,31 @@ public class TermField implements TextChangeIf, FocusChangeIf, CalculatableIf
         }
     }
 
+    /**
+     * Procedure compiles recursively this term into an evaluation node
+     */
+    public EvalNode compile(TermCompiler compiler)
+    {
+        if (isTerm())
+        {
+            return term.compile(compiler);
+        }
+        switch (contentType)
+        {
+        case NUMBER:
+            return compiler.constant(numberValue);
+        case ARGUMENT:
+            return compiler.argument(parser.getArgumentHolder(), parser.getArgumentIndex(),
+                    unitConversion, parser.getSign(), this);
+        case VARIABLE_LINK:
+            return linkedVariable.isInterval() ?
+                    compiler.interval(linkedVariable, unitConversion, parser.getSign()) :
+                    compiler.variable(linkedVariable, unitConversion, parser.getSign());
+        default:
+            return compiler.invalid();
+        }
+    }
+
     /**
      * Procedure checks whether this term holds a differentiable equation with respect to given variable name
      */
@@ -145,8 +145,8 @@ public class TermParser
             return;
         }
 
-        // For the file names, no additional check
-        if (editText.isFileName())
+        // For the file names, function references and data types, no additional check
+        if (editText.isFileName() || editText.isFunctionReference() || editText.isDataType())
         {
             return;
         }
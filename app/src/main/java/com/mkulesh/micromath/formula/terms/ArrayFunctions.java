@@ -21,6 +21,7 @@ import android.view.View;
 import android.widget.LinearLayout;
 
 import com.mkulesh.micromath.dialogs.DialogMatrixSettings;
+import com.mkulesh.micromath.eval.EvalContext;
 import com.mkulesh.micromath.fman.FileUtils;
 import com.mkulesh.micromath.formula.CalculatableIf;
 import com.mkulesh.micromath.formula.CalculaterTask;
@@ -28,15 +29,19 @@ import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
 import com.mkulesh.micromath.formula.Equation;
 import com.mkulesh.micromath.formula.FormulaBase;
 import com.mkulesh.micromath.formula.FormulaTerm;
+import com.mkulesh.micromath.formula.LinkHolder;
 import com.mkulesh.micromath.formula.Palette;
 import com.mkulesh.micromath.formula.PaletteButton;
 import com.mkulesh.micromath.formula.TermField;
 import com.mkulesh.micromath.math.CalculatedValue;
 import com.mkulesh.micromath.math.EquationArrayResult;
 import com.mkulesh.micromath.math.Fft;
+import com.mkulesh.micromath.math.LinearAlgebra;
+import com.mkulesh.micromath.math.OdeSolver;
 import com.mkulesh.micromath.plus.R;
 import com.mkulesh.micromath.properties.MatrixProperties;
 import com.mkulesh.micromath.undo.FormulaState;
+import com.mkulesh.micromath.utils.ViewUtils;
 import com.mkulesh.micromath.widgets.CustomEditText;
 import com.mkulesh.micromath.widgets.CustomLayout;
 import com.mkulesh.micromath.widgets.CustomTextView;
@@ -44,6 +49,7 @@ import com.mkulesh.micromath.widgets.FocusChangeIf;
 import com.mkulesh.micromath.widgets.MatrixLayout;
 
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Locale;
 
 import androidx.annotation.NonNull;
@@ -64,8 +70,19 @@ public class ArrayFunctions extends FunctionBase implements FocusChangeIf
     {
         MATRIX(-1, R.drawable.p_function_matrix, R.string.math_function_matrix, R.layout.formula_matrix),
         READ(1, R.drawable.p_function_read, R.string.math_function_read, R.layout.formula_function_read),
+        READRAW(3, R.drawable.p_function_readraw, R.string.math_function_readraw, R.layout.formula_function_readraw),
+        WRITE(2, R.drawable.p_function_write, R.string.math_function_write, R.layout.formula_function_write),
         FFT(1, R.drawable.p_function_fft, R.string.math_function_fft, R.layout.formula_function_array),
         IFFT(1, R.drawable.p_function_ifft, R.string.math_function_ifft, R.layout.formula_function_array),
+        ODE(3, R.drawable.p_function_ode, R.string.math_function_ode, R.layout.formula_function_ode),
+        MMUL(2, R.drawable.p_function_mmul, R.string.math_function_mmul, R.layout.formula_function_array2),
+        TRANSPOSE(1, R.drawable.p_function_transpose, R.string.math_function_transpose,
+                R.layout.formula_function_array),
+        INV(1, R.drawable.p_function_inv, R.string.math_function_inv, R.layout.formula_function_array),
+        DET(1, R.drawable.p_function_det, R.string.math_function_det, R.layout.formula_function_array),
+        LSOLVE(2, R.drawable.p_function_lsolve, R.string.math_function_lsolve, R.layout.formula_function_array2),
+        EIGENVALS(1, R.drawable.p_function_eigenvals, R.string.math_function_eigenvals,
+                R.layout.formula_function_array),
         ROWS(1, R.drawable.p_function_rows, R.string.math_function_rows, R.layout.formula_function_array),
         COLS(1, R.drawable.p_function_cols, R.string.math_function_cols, R.layout.formula_function_array);
 
@@ -126,12 +143,12 @@ public class ArrayFunctions extends FunctionBase implements FocusChangeIf
 
         public boolean isEnabled(CustomEditText field)
         {
-            return this != READ || field.isArrayFunctionEnabled();
+            return !isFileFunction() || field.isArrayFunctionEnabled();
         }
 
         public PaletteButton.Category getPaletteCategory()
         {
-            return this == MATRIX || this == READ || isArrayFunction()?
+            return this == MATRIX || isFileFunction() || isArrayFunction()?
                     PaletteButton.Category.TOP_LEVEL_TERM : PaletteButton.Category.CONVERSION;
         }
 
@@ -143,7 +160,24 @@ public class ArrayFunctions extends FunctionBase implements FocusChangeIf
 
         public boolean isArrayFunction()
         {
-            return this == FunctionType.FFT || this == FunctionType.IFFT;
+            return this == FunctionType.FFT || this == FunctionType.IFFT || this == FunctionType.ODE
+                    || isLinearAlgebra();
+        }
+
+        public boolean isLinearAlgebra()
+        {
+            return this == FunctionType.MMUL || this == FunctionType.TRANSPOSE || this == FunctionType.INV
+                    || this == FunctionType.LSOLVE || this == FunctionType.EIGENVALS;
+        }
+
+        public boolean isFileFunction()
+        {
+            return this == FunctionType.READ || this == FunctionType.READRAW || this == FunctionType.WRITE;
+        }
+
+        public boolean isTwoArrayFunction()
+        {
+            return this == FunctionType.MMUL || this == FunctionType.LSOLVE;
         }
     }
 
@@ -155,9 +189,27 @@ public class ArrayFunctions extends FunctionBase implements FocusChangeIf
     private TermField argTerm = null;
     private FileReader fileReader = null;
     private Equation linkedArray = null;
-    private CalculatedValue[] arrayResult = null;
+    private Equation linkedFunction = null;
+    private Equation secondArray = null;
+    private EquationArrayResult arrayResult = null;
+    private volatile Determinant determinant = null;
     private final Fft fft = new Fft();
 
+    /**
+     * Determinant of the linked array: it is only recalculated if the array elements are changed
+     */
+    private static final class Determinant
+    {
+        final double[] values;
+        final double value;
+
+        Determinant(double[] values, double value)
+        {
+            this.values = values;
+            this.value = value;
+        }
+    }
+
     /*--------------------------------------------------------*
      * Constructors
      *--------------------------------------------------------*/
@@ -221,7 +273,8 @@ public class ArrayFunctions extends FunctionBase implements FocusChangeIf
 
     private boolean isFile()
     {
-        return getFunctionType() == FunctionType.READ && fileReader != null;
+        return (getFunctionType() == FunctionType.READ || getFunctionType() == FunctionType.READRAW)
+                && fileReader != null;
     }
 
     private boolean isArrayResult()
@@ -246,9 +299,10 @@ public class ArrayFunctions extends FunctionBase implements FocusChangeIf
         }
         if (isArrayResult())
         {
+            final int[] d = arrayResult.getMatrixDimensions();
             final MatrixProperties dim = new MatrixProperties();
-            dim.cols = 1;
-            dim.rows = arrayResult.length;
+            dim.rows = d != null ? d[0] : 1;
+            dim.cols = d != null ? d[1] : 1;
             return dim;
         }
         return null;
@@ -273,6 +327,12 @@ public class ArrayFunctions extends FunctionBase implements FocusChangeIf
      * Re-implementation for methods for FormulaBase and FormulaTerm superclass's
      *--------------------------------------------------------*/
 
+    @Override
+    public boolean isVolatile()
+    {
+        return getFunctionType().isFileFunction() || super.isVolatile();
+    }
+
     @Override
     public boolean enableObjectProperties()
     {
@@ -351,12 +411,13 @@ public class ArrayFunctions extends FunctionBase implements FocusChangeIf
     @Override
     public CalculatedValue.ValueType getValue(CalculaterTask thread, CalculatedValue outValue) throws CancelException
     {
+        final CalculatedValue[] indexValues = getIndexValues(thread);
         switch (getFunctionType())
         {
         case MATRIX:
             if (isMatrix())
             {
-                final TermField tf = matrix.getTerm(getFirstIndex(), getSecondIndex());
+                final TermField tf = matrix.getTerm(getFirstIndex(indexValues), getSecondIndex(indexValues));
                 if (tf != null)
                 {
                     return tf.getValue(thread, outValue);
@@ -364,20 +425,42 @@ public class ArrayFunctions extends FunctionBase implements FocusChangeIf
             }
             break;
         case READ:
+        case READRAW:
             if (isFile())
             {
-                return fileReader.getFileElement(outValue, getFirstIndex(), getSecondIndex());
+                return fileReader.getFileElement(outValue, getFirstIndex(indexValues), getSecondIndex(indexValues));
             }
             break;
         case FFT:
         case IFFT:
-            if (isArrayResult())
+        case ODE:
+        case MMUL:
+        case TRANSPOSE:
+        case INV:
+        case LSOLVE:
+        case EIGENVALS:
+            if (isArrayResult() && indexValues != null)
             {
-                final int idx1 = getFirstIndex();
-                if (idx1 >= 0 && idx1 < arrayResult.length)
+                return arrayResult.getValue(indexValues, outValue);
+            }
+            break;
+        case WRITE:
+            if (fileReader != null && secondArray != null)
+            {
+                final int written = fileReader.writeArray(argTerm.getText(), secondArray.getArrayResult());
+                if (written >= 0)
+                {
+                    return outValue.setValue(written);
+                }
+            }
+            break;
+        case DET:
+            if (linkedArray != null)
+            {
+                final double value = getDeterminant(thread);
+                if (!Double.isNaN(value))
                 {
-                    return outValue.setComplexValue(
-                            arrayResult[idx1].getReal(), arrayResult[idx1].getImaginary());
+                    return outValue.setValue(value);
                 }
             }
             break;
@@ -428,6 +511,9 @@ public class ArrayFunctions extends FunctionBase implements FocusChangeIf
         {
         case VALIDATE_SINGLE_FORMULA:
             linkedArray = null;
+            linkedFunction = null;
+            secondArray = null;
+            determinant = null;
             // Do not call directly super.isContentValid(type) since this function shall NOT register any
             // dependencies from interval (call addLinkedEquation)
             for (TermField t : terms)
@@ -441,7 +527,7 @@ public class ArrayFunctions extends FunctionBase implements FocusChangeIf
             {
                 // no special checks currently
             }
-            else if (getFunctionType() == FunctionType.READ)
+            else if (getFunctionType() == FunctionType.READ || getFunctionType() == FunctionType.READRAW)
             {
                 if (fileReader == null)
                 {
@@ -460,30 +546,103 @@ public class ArrayFunctions extends FunctionBase implements FocusChangeIf
                     FileUtils.closeStream(fileStream);
                 }
             }
+            else if (getFunctionType() == FunctionType.WRITE)
+            {
+                if (fileReader == null)
+                {
+                    fileReader = new FileReader(getContext(), getFormulaRoot());
+                }
+                final TermField arrayTerm = terms.get(1);
+                final Equation arrayLink = arrayTerm.getLinkedArray();
+                if (argTerm.getText().isEmpty())
+                {
+                    errorMsg = String.format(getContext().getResources().getString(R.string.error_file_write),
+                            argTerm.getText());
+                }
+                else if (arrayLink == null)
+                {
+                    errorMsg = String.format(getContext().getResources().getString(R.string.error_unknown_array),
+                            arrayTerm.getText());
+                }
+                else
+                {
+                    // ok
+                    secondArray = arrayLink;
+                }
+            }
+            else if (getFunctionType() == FunctionType.ODE)
+            {
+                // the right-hand side shall be a function f(x, y) and the points shall be an array
+                final TermField pointsTerm = terms.get(1);
+                final Equation functionLink = searchLinkedEquation(argTerm.getText(), 2);
+                final Equation arrayLink = pointsTerm.getLinkedArray();
+                if (functionLink == null)
+                {
+                    errorMsg = String.format(getContext().getResources().getString(R.string.error_unknown_function),
+                            argTerm.getText());
+                }
+                else if (arrayLink == null)
+                {
+                    errorMsg = String.format(getContext().getResources().getString(R.string.error_unknown_array),
+                            pointsTerm.getText());
+                }
+                else
+                {
+                    // ok
+                    linkedFunction = functionLink;
+                    linkedArray = arrayLink;
+                    arrayResult = getInvalidResult();
+                }
+            }
             else
             {
                 final Equation arrayLink = argTerm.getLinkedArray();
-                if (arrayLink != null)
+                final TermField secondTerm = getFunctionType().isTwoArrayFunction() ? terms.get(1) : null;
+                final Equation secondLink = secondTerm != null ? secondTerm.getLinkedArray() : null;
+                if (arrayLink == null)
+                {
+                    errorMsg = String.format(getContext().getResources().getString(R.string.error_unknown_array),
+                            argTerm.getText());
+                }
+                else if (secondTerm != null && secondLink == null)
+                {
+                    errorMsg = String.format(getContext().getResources().getString(R.string.error_unknown_array),
+                            secondTerm.getText());
+                }
+                else
                 {
                     // ok
                     linkedArray = arrayLink;
+                    secondArray = secondLink;
                     if (getFunctionType().isArrayFunction())
                     {
                         // Initial size = 1, will be resized when calculated
-                        arrayResult = new CalculatedValue[]{ CalculatedValue.NaN };
+                        arrayResult = getInvalidResult();
                     }
                 }
-                else
-                {
-                    errorMsg = String.format(getContext().getResources().getString(R.string.error_unknown_array),
-                            argTerm.getText());
-                }
             }
             break;
         case VALIDATE_LINKS:
             break;
         }
 
+        if (type == FormulaBase.ValidationPassType.VALIDATE_SINGLE_FORMULA && errorMsg == null
+                && getFormulaRoot() instanceof LinkHolder)
+        {
+            // operands are not registered as intervals but the result depends on them
+            final LinkHolder root = (LinkHolder) getFormulaRoot();
+            root.addLinkedOperand(linkedArray);
+            root.addLinkedOperand(secondArray);
+            root.addLinkedOperand(linkedFunction);
+        }
+
+        if (type == FormulaBase.ValidationPassType.VALIDATE_SINGLE_FORMULA && getFunctionType().isFileFunction()
+                && getFormulaRoot() instanceof LinkHolder)
+        {
+            // a file can be written by one formula and read by another one
+            ((LinkHolder) getFormulaRoot()).setFileAccess();
+        }
+
         if (parentField != null && functionMainLayout != null)
         {
             parentField.setError(errorMsg, TermField.ErrorNotification.PARENT_LAYOUT, functionMainLayout);
@@ -500,8 +659,12 @@ public class ArrayFunctions extends FunctionBase implements FocusChangeIf
             final String val = v.getText().toString();
             if (val.equals(getContext().getResources().getString(R.string.formula_arg_term_key)))
             {
-                argTerm = addTerm(getFormulaRoot(), l, -1, v, this, 0);
-                argTerm.bracketsType = TermField.BracketsType.NEVER;
+                final TermField t = addTerm(getFormulaRoot(), l, -1, v, this, 0);
+                t.bracketsType = TermField.BracketsType.NEVER;
+                if (argTerm == null)
+                {
+                    argTerm = t;
+                }
             }
         }
         return v;
@@ -573,61 +736,229 @@ public class ArrayFunctions extends FunctionBase implements FocusChangeIf
      * Methods implementing array operations
      *--------------------------------------------------------*/
 
-    private int getFirstIndex()
+    /**
+     * Procedure returns the index values of the array element that is currently calculated by the root equation
+     */
+    private CalculatedValue[] getIndexValues(CalculaterTask thread)
     {
         if (getFormulaRoot() instanceof Equation)
         {
-            Equation eq = (Equation) getFormulaRoot();
-            final int argNumber = eq.getArgumentValues() != null ? eq.getArgumentValues().length : 0;
-            if (argNumber == 1 || argNumber == 2)
+            final CalculatedValue[] argValues = EvalContext.get(thread).getFrame((Equation) getFormulaRoot());
+            if (argValues != null && (argValues.length == 1 || argValues.length == 2))
             {
-                return eq.getArgumentValue(0).getInteger();
+                return argValues;
             }
         }
-        return -1;
+        return null;
     }
 
-    private int getSecondIndex()
+    private int getFirstIndex(CalculatedValue[] argValues)
     {
-        if (getFormulaRoot() instanceof Equation)
+        return argValues != null ? argValues[0].getInteger() : -1;
+    }
+
+    private int getSecondIndex(CalculatedValue[] argValues)
+    {
+        if (argValues != null)
         {
-            Equation eq = (Equation) getFormulaRoot();
-            final int argNumber = eq.getArgumentValues() != null ? eq.getArgumentValues().length : 0;
-            if (argNumber == 1 || argNumber == 2)
-            {
-                return (argNumber == 1) ? 0 : eq.getArgumentValue(1).getInteger();
-            }
+            return (argValues.length == 1) ? 0 : argValues[1].getInteger();
         }
         return -1;
     }
 
-    public void startArrayOperation()
+    public void startArrayOperation(CalculaterTask thread) throws CancelException
     {
-        if (isFile())
+        if (isFile() && getFunctionType() == FunctionType.READRAW)
         {
-            fileReader.prepare(argTerm.getText());
+            final CalculatedValue cols = new CalculatedValue();
+            cols.processRealTerm(thread, terms.get(2));
+            fileReader.prepareRaw(argTerm.getText(), terms.get(1).getText(), cols.isNaN() ? -1 : cols.getInteger());
         }
-        if (isArrayResult())
+        else if (isFile())
+        {
+            fileReader.prepare(argTerm.getText(), thread);
+        }
+        if (isArrayResult() && getFunctionType() == FunctionType.ODE)
+        {
+            arrayResult = solveOde(thread);
+        }
+        else if (isArrayResult() && getFunctionType().isLinearAlgebra())
+        {
+            final EquationArrayResult result = calculateLinearAlgebra(thread);
+            arrayResult = (result != null) ? result : getInvalidResult();
+        }
+        else if (isArrayResult())
         {
             if (linkedArray != null && linkedArray.getArrayResult() != null &&
                     linkedArray.getArrayResult().isArray1D())
             {
                 final EquationArrayResult arr = linkedArray.getArrayResult();
-                arrayResult = new CalculatedValue[arr.getRawValues().length];
-                if (getFunctionType() == FunctionType.FFT)
-                {
-                    fft.fft(arr.getRawValues(), arrayResult);
-                }
-                else if (getFunctionType() == FunctionType.IFFT)
-                {
-                    fft.ifft(arr.getRawValues(), arrayResult);
-                }
+                final int n = arr.getDimensions()[0];
+                final double[] re = new double[n];
+                final double[] im = new double[n];
+                arr.getRawValues(re, im);
+                fft.transform(re, im, getFunctionType() == FunctionType.IFFT);
+                arrayResult = new EquationArrayResult(n);
+                arrayResult.setRawValues(re, im);
             }
             else
             {
-                arrayResult = new CalculatedValue[]{ CalculatedValue.NaN };
+                arrayResult = getInvalidResult();
+            }
+        }
+    }
+
+    private static EquationArrayResult getInvalidResult()
+    {
+        final EquationArrayResult result = new EquationArrayResult(1);
+        result.setValue1D(0, CalculatedValue.NaN);
+        return result;
+    }
+
+    /**
+     * Procedure creates the result array with given dimensions: a matrix with a single column is a vector
+     */
+    private static EquationArrayResult createResult(int rows, int cols, double[] re, double[] im)
+    {
+        final EquationArrayResult result = (cols == 1) ? new EquationArrayResult(rows) :
+                new EquationArrayResult(rows, cols);
+        result.setRawValues(re, im);
+        return result;
+    }
+
+    /**
+     * Procedure calculates the matrix operation for the real elements of the linked arrays. Null is returned
+     * if the arrays are not suitable for this operation
+     */
+    private EquationArrayResult calculateLinearAlgebra(final CalculaterTask thread) throws CancelException
+    {
+        final EquationArrayResult arr1 = linkedArray != null ? linkedArray.getArrayResult() : null;
+        final int[] dim1 = arr1 != null ? arr1.getMatrixDimensions() : null;
+        final double[] a = dim1 != null ? arr1.getRealValues() : null;
+        if (a == null)
+        {
+            return null;
+        }
+        final int rows = dim1[0], cols = dim1[1];
+
+        int[] dim2 = null;
+        double[] b = null;
+        if (getFunctionType().isTwoArrayFunction())
+        {
+            final EquationArrayResult arr2 = secondArray != null ? secondArray.getArrayResult() : null;
+            dim2 = arr2 != null ? arr2.getMatrixDimensions() : null;
+            b = dim2 != null ? arr2.getRealValues() : null;
+            if (b == null)
+            {
+                return null;
+            }
+        }
+
+        switch (getFunctionType())
+        {
+        case MMUL:
+            if (cols == dim2[0])
+            {
+                final double[] c = LinearAlgebra.multiply(thread, a, rows, cols, b, dim2[1]);
+                return createResult(rows, dim2[1], c, null);
+            }
+            break;
+        case TRANSPOSE:
+            return createResult(cols, rows, LinearAlgebra.transpose(a, rows, cols), null);
+        case INV:
+            if (rows == cols)
+            {
+                final double[] c = LinearAlgebra.inverse(thread, a, rows);
+                return c != null ? createResult(rows, cols, c, null) : null;
             }
+            break;
+        case LSOLVE:
+            if (rows == dim2[0])
+            {
+                final double[] x = LinearAlgebra.solve(thread, a, rows, cols, b, dim2[1]);
+                return x != null ? createResult(cols, dim2[1], x, null) : null;
+            }
+            break;
+        case EIGENVALS:
+            if (rows == cols)
+            {
+                final double[][] ev = LinearAlgebra.eigenvalues(a, rows);
+                return ev != null ? createResult(rows, 1, ev[0], ev[1]) : null;
+            }
+            break;
+        }
+        return null;
+    }
+
+    /**
+     * Procedure returns the determinant of the linked array or NaN if it can not be calculated
+     */
+    private double getDeterminant(final CalculaterTask thread) throws CancelException
+    {
+        final EquationArrayResult arr = linkedArray.getArrayResult();
+        final int[] dim = arr != null ? arr.getMatrixDimensions() : null;
+        final double[] a = (dim != null && dim[0] == dim[1]) ? arr.getRealValues() : null;
+        if (a == null)
+        {
+            return Double.NaN;
+        }
+        final Determinant d = determinant;
+        if (d != null && Arrays.equals(d.values, a))
+        {
+            return d.value;
+        }
+        final double value = LinearAlgebra.determinant(thread, a, dim[0]);
+        determinant = new Determinant(a, value);
+        return value;
+    }
+
+    /**
+     * Procedure solves the equation y' = f(x, y) with the initial value y(x[0]) = y0 for the points x of the
+     * linked array. This array can be an interval or any array with a single row or column
+     */
+    private EquationArrayResult solveOde(final CalculaterTask thread) throws CancelException
+    {
+        final EquationArrayResult arr = linkedArray != null ? linkedArray.getArrayResult() : null;
+        final int[] dim = arr != null ? arr.getMatrixDimensions() : null;
+        final CalculatedValue[] points = (dim != null && (dim[0] == 1 || dim[1] == 1)) ? arr.getRawValues() : null;
+        final CalculatedValue initialValue = new CalculatedValue();
+        initialValue.processRealTerm(thread, terms.get(2));
+        if (points == null || linkedFunction == null || initialValue.isNaN())
+        {
+            return getInvalidResult();
+        }
+
+        final int n = points.length;
+        final double[] x = new double[n], y = new double[n];
+        for (int i = 0; i < n; i++)
+        {
+            x[i] = points[i].isReal() ? points[i].getReal() : Double.NaN;
         }
+        final EvalContext context = EvalContext.get(thread);
+        final CalculatedValue[] argValues = new CalculatedValue[]{ new CalculatedValue(), new CalculatedValue() };
+        final CalculatedValue value = new CalculatedValue();
+        final OdeSolver solver = new OdeSolver((xValue, yValue) ->
+        {
+            if (thread != null)
+            {
+                thread.checkCancelation();
+            }
+            argValues[0].setValue(xValue);
+            argValues[1].setValue(yValue);
+            linkedFunction.getValue(context, argValues, value);
+            return value.isReal() ? value.getReal() : Double.NaN;
+        }, getFormulaList().getDocumentSettings().getPrecision());
+        final boolean isSolved = solver.solve(initialValue.getReal(), x, y);
+        ViewUtils.Debug(this, "ODE solved: " + isSolved + ", steps: " + solver.getSteps() + ", evaluations: "
+                + solver.getEvaluations() + ", stiff: " + solver.isStiff());
+
+        final EquationArrayResult result = new EquationArrayResult(n);
+        for (int i = 0; i < n; i++)
+        {
+            result.setValue1D(i, Double.isNaN(y[i]) ? CalculatedValue.NaN :
+                    new CalculatedValue(CalculatedValue.ValueType.REAL, y[i], 0.0));
+        }
+        return result;
     }
 
     public void finishArrayOperation()
@@ -0,0 +1,243 @@
+/*
+ * microMathematics - Extended Visual Calculator
+ * Copyright (C) 2014-2022 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+package com.mkulesh.micromath.formula.terms;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*--------------------------------------------------------*
+ * Binary array files
+ *--------------------------------------------------------*/
+
+/**
+ * Class that provides the elements of a binary array file: a raw file of float64 or float32 values or a NumPy
+ * .npy file. The file content is given as a buffer, usually mapped into memory, and the elements are read
+ * directly from this buffer on access
+ */
+final class BinaryArray
+{
+    static final String NPY_EXTENSION = ".npy";
+
+    private static final byte[] NPY_MAGIC = { (byte) 0x93, 'N', 'U', 'M', 'P', 'Y' };
+    private static final int NPY_ALIGNMENT = 64;
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+    private static final Pattern DATA_TYPE = Pattern.compile("([<>=|]?)f([48])");
+    private static final Pattern NPY_DESCR = Pattern.compile("'descr'\\s*:\\s*'([^']*)'");
+    private static final Pattern NPY_ORDER = Pattern.compile("'fortran_order'\\s*:\\s*(True|False)");
+    private static final Pattern NPY_SHAPE = Pattern.compile("'shape'\\s*:\\s*\\(([^)]*)\\)");
+
+    // number of values that are written to the output stream at once
+    private static final int WRITE_BLOCK = 8192;
+
+    private final ByteBuffer buffer;
+    private final int dataOffset;
+    private final int elementSize;
+    private final boolean isColumnMajor;
+    final int rows, cols;
+
+    /*--------------------------------------------------------*
+     * Constructors
+     *--------------------------------------------------------*/
+
+    private BinaryArray(ByteBuffer buffer, int dataOffset, int elementSize, boolean isColumnMajor, int rows,
+                        int cols)
+    {
+        this.buffer = buffer;
+        this.dataOffset = dataOffset;
+        this.elementSize = elementSize;
+        this.isColumnMajor = isColumnMajor;
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    /**
+     * Procedure creates the array for a raw file with the given data type like "<f8" (little-endian float64)
+     * or ">f4" (big-endian float32) and the given number of columns. The number of rows follows from the
+     * file size. Null is returned if the data type is not supported
+     */
+    static BinaryArray fromRaw(ByteBuffer buffer, String dataType, int cols)
+    {
+        final int elementSize = getElementSize(dataType);
+        if (elementSize <= 0 || cols <= 0)
+        {
+            return null;
+        }
+        buffer.order(getByteOrder(dataType));
+        final int rows = buffer.capacity() / (elementSize * cols);
+        return new BinaryArray(buffer, 0, elementSize, false, rows, cols);
+    }
+
+    /**
+     * Procedure creates the array for a NumPy .npy file. The data type and the shape are taken from the
+     * file header; a file with more than two dimensions is not supported. Null is returned if the header
+     * is not valid
+     */
+    static BinaryArray fromNpy(ByteBuffer buffer)
+    {
+        final int size = buffer.capacity();
+        if (size < NPY_MAGIC.length + 4)
+        {
+            return null;
+        }
+        for (int i = 0; i < NPY_MAGIC.length; i++)
+        {
+            if (buffer.get(i) != NPY_MAGIC[i])
+            {
+                return null;
+            }
+        }
+        // version 1.0 has 2-byte header length, versions 2.0 and 3.0 have 4-byte header length
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        final int majorVersion = buffer.get(NPY_MAGIC.length);
+        final int headerStart = (majorVersion == 1) ? NPY_MAGIC.length + 4 : NPY_MAGIC.length + 6;
+        final int headerLength = (majorVersion == 1) ? (buffer.getShort(NPY_MAGIC.length + 2) & 0xFFFF) :
+                buffer.getInt(NPY_MAGIC.length + 2);
+        if (headerLength <= 0 || headerStart + headerLength > size)
+        {
+            return null;
+        }
+        final byte[] headerBytes = new byte[headerLength];
+        for (int i = 0; i < headerLength; i++)
+        {
+            headerBytes[i] = buffer.get(headerStart + i);
+        }
+        final String header = new String(headerBytes, LATIN1);
+
+        final Matcher descr = NPY_DESCR.matcher(header);
+        final Matcher order = NPY_ORDER.matcher(header);
+        final Matcher shape = NPY_SHAPE.matcher(header);
+        if (!descr.find() || !order.find() || !shape.find())
+        {
+            return null;
+        }
+        final int elementSize = getElementSize(descr.group(1));
+        if (elementSize <= 0)
+        {
+            return null;
+        }
+        final int[] dims = new int[]{ 1, 1 };
+        int dimNumber = 0;
+        for (String s : shape.group(1).split(","))
+        {
+            final String d = s.trim();
+            if (d.isEmpty())
+            {
+                continue;
+            }
+            if (dimNumber >= dims.length)
+            {
+                return null;
+            }
+            try
+            {
+                dims[dimNumber++] = Integer.parseInt(d.endsWith("L") ? d.substring(0, d.length() - 1) : d);
+            }
+            catch (NumberFormatException ex)
+            {
+                return null;
+            }
+        }
+        final int dataOffset = headerStart + headerLength;
+        if ((long) dims[0] * dims[1] * elementSize > size - dataOffset)
+        {
+            return null;
+        }
+        buffer.order(getByteOrder(descr.group(1)));
+        return new BinaryArray(buffer, dataOffset, elementSize, "True".equals(order.group(1)), dims[0], dims[1]);
+    }
+
+    /*--------------------------------------------------------*
+     * Methods
+     *--------------------------------------------------------*/
+
+    static boolean isNpyFile(String name)
+    {
+        return name != null && name.toLowerCase(Locale.ENGLISH).endsWith(NPY_EXTENSION);
+    }
+
+    private static int getElementSize(String dataType)
+    {
+        final Matcher m = DATA_TYPE.matcher(dataType != null ? dataType.trim() : "");
+        return m.matches() ? Integer.parseInt(m.group(2)) : -1;
+    }
+
+    private static ByteOrder getByteOrder(String dataType)
+    {
+        final String t = dataType.trim();
+        if (t.startsWith(">"))
+        {
+            return ByteOrder.BIG_ENDIAN;
+        }
+        return t.startsWith("=") ? ByteOrder.nativeOrder() : ByteOrder.LITTLE_ENDIAN;
+    }
+
+    /**
+     * Procedure returns the element with given row and column. This method only uses absolute reads of the
+     * buffer and can be called by several threads
+     */
+    double getValue(int row, int col)
+    {
+        final int idx = isColumnMajor ? col * rows + row : row * cols + col;
+        final int pos = dataOffset + idx * elementSize;
+        return (elementSize == 4) ? buffer.getFloat(pos) : buffer.getDouble(pos);
+    }
+
+    /**
+     * Procedure writes the given values as little-endian float64 values into the given stream. The values
+     * are given in the row-major order with the given dimensions. If the NumPy format is requested, the
+     * .npy header is written first
+     */
+    static void write(OutputStream stream, double[] values, int[] dimensions, boolean isNpy) throws IOException
+    {
+        if (isNpy)
+        {
+            final StringBuilder shape = new StringBuilder();
+            for (int d : dimensions)
+            {
+                shape.append(d).append(", ");
+            }
+            if (dimensions.length > 1)
+            {
+                shape.setLength(shape.length() - 2);
+            }
+            final StringBuilder header = new StringBuilder();
+            header.append("{'descr': '<f8', 'fortran_order': False, 'shape': (").append(shape.toString().trim())
+                    .append("), }");
+            // the header is padded with spaces and terminated by a newline
+            final int prefixLength = NPY_MAGIC.length + 4;
+            while ((prefixLength + header.length() + 1) % NPY_ALIGNMENT != 0)
+            {
+                header.append(' ');
+            }
+            header.append('\n');
+            stream.write(NPY_MAGIC);
+            stream.write(new byte[]{ 1, 0, (byte) (header.length() & 0xFF), (byte) (header.length() >> 8) });
+            stream.write(header.toString().getBytes(LATIN1));
+        }
+        final ByteBuffer block = ByteBuffer.allocate(WRITE_BLOCK * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (int start = 0; start < values.length; start += WRITE_BLOCK)
+        {
+            final int end = Math.min(start + WRITE_BLOCK, values.length);
+            block.clear();
+            block.asDoubleBuffer().put(values, start, end - start);
+            stream.write(block.array(), 0, 8 * (end - start));
+        }
+    }
+}
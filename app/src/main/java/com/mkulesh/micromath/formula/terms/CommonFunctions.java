@@ -19,6 +19,11 @@ import android.util.AttributeSet;
 import android.view.View;
 import android.widget.LinearLayout;
 
+import com.mkulesh.micromath.eval.DifferentiableFunctionIf;
+import com.mkulesh.micromath.eval.EvalFunctionIf;
+import com.mkulesh.micromath.eval.EvalNode;
+import com.mkulesh.micromath.eval.RealFunctionIf;
+import com.mkulesh.micromath.eval.TermCompiler;
 import com.mkulesh.micromath.formula.CalculatableIf;
 import com.mkulesh.micromath.formula.CalculaterTask;
 import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
@@ -33,6 +38,7 @@ import com.mkulesh.micromath.widgets.CustomTextView;
 import com.mkulesh.micromath.widgets.ScaledDimensions;
 
 import org.apache.commons.math3.util.CombinatoricsUtils;
+import org.apache.commons.math3.util.FastMath;
 
 import java.util.Locale;
 
@@ -48,7 +54,7 @@ public class CommonFunctions extends FunctionBase
     /**
      * Supported functions
      */
-    public enum FunctionType implements TermTypeIf
+    public enum FunctionType implements TermTypeIf, EvalFunctionIf, RealFunctionIf, DifferentiableFunctionIf
     {
         POWER(2, R.drawable.p_function_power, R.string.math_function_power,
                 R.string.formula_function_power, R.layout.formula_function_pow),
@@ -145,13 +151,33 @@ public class CommonFunctions extends FunctionBase
         {
             return new CommonFunctions(this, termField, layout, text, textIndex);
         }
-    }
 
-    /**
-     * Private attributes
-     */
-    // Attention: this is not thread-safety declaration!
-    private final CalculatedValue a0derVal = new CalculatedValue(), a1derVal = new CalculatedValue();
+        public CalculatedValue.ValueType apply(CalculatedValue[] args, CalculatedValue outValue)
+        {
+            return calculate(this, args, outValue);
+        }
+
+        public boolean isDeterministic()
+        {
+            return true;
+        }
+
+        public boolean isRealFunction()
+        {
+            return this != NTHRT_LAYOUT;
+        }
+
+        public double applyReal(double[] args)
+        {
+            return calculateReal(this, args);
+        }
+
+        public CalculatedValue.ValueType derivative(CalculatedValue[] args, CalculatedValue[] argDerivatives,
+                                                    CalculatedValue outValue)
+        {
+            return calculateDerivative(this, args, argDerivatives, outValue);
+        }
+    }
 
     /*--------------------------------------------------------*
      * Constructors
@@ -218,71 +244,129 @@ public class CommonFunctions extends FunctionBase
             {
                 terms.get(i).getValue(thread, argVal[i]);
             }
-            final CalculatedValue a0 = argVal[0];
-            switch (getFunctionType())
+            if (getFunctionType() == FunctionType.POWER && terms.get(0).isInputUnit())
             {
-            case POWER:
-                if (terms.get(0).isInputUnit())
+                final Unit<?> sourceUnit = terms.get(0).getParser().getUnit();
+                outValue.setValue(1.0, sourceUnit);
+                final Unit<?> targetUnit = outValue.powUnit(outValue, argVal[1]);
+                if (targetUnit != null)
                 {
-                    final Unit<?> sourceUnit = terms.get(0).getParser().getUnit();
-                    outValue.setValue(1.0, sourceUnit);
-                    final Unit<?> targetUnit = outValue.powUnit(outValue, argVal[1]);
-                    if (targetUnit != null)
-                    {
-                        outValue.assign(a0);
-                        outValue.convertUnit(sourceUnit, /*toBase=*/ false);
-                        outValue.setUnit(targetUnit);
-                        outValue.convertUnit(targetUnit.getStandardUnit(), /*toBase=*/ false);
-                        return outValue.getValueType();
-                    }
-                    else
-                    {
-                        return outValue.invalidate(CalculatedValue.ErrorType.INCOMPATIBLE_UNIT);
-                    }
+                    outValue.assign(argVal[0]);
+                    outValue.convertUnit(sourceUnit, /*toBase=*/ false);
+                    outValue.setUnit(targetUnit);
+                    outValue.convertUnit(targetUnit.getStandardUnit(), /*toBase=*/ false);
+                    return outValue.getValueType();
                 }
-                return outValue.pow(a0, argVal[1]);
-
-            case SQRT:
-            case SQRT_LAYOUT:
-                return outValue.sqrt(a0);
-            case NTHRT_LAYOUT:
-                return outValue.nthRoot(argVal[1], a0.getInteger());
-
-            case ABS:
-            case ABS_LAYOUT:
-                return outValue.abs(a0);
-            case CONJUGATE_LAYOUT:
-                return outValue.conj(a0);
-            case RE:
-                return outValue.setValue(a0.getReal());
-            case IM:
-                return outValue.setValue(a0.isComplex() ? a0.getImaginary() : 0.0);
-
-            case IF:
-                if (a0.isComplex())
+                else
                 {
-                    return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
+                    return outValue.invalidate(CalculatedValue.ErrorType.INCOMPATIBLE_UNIT);
                 }
-                return outValue.assign((a0.getReal() > 0) ? argVal[1] : argVal[2]);
+            }
+            return calculate(getFunctionType(), argVal, outValue);
+        }
+        return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
+    }
 
-            case FACTORIAL:
-                if (a0.isComplex())
-                {
-                    return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
-                }
-                try
-                {
-                    return outValue.setValue(CombinatoricsUtils.factorialDouble((int) a0.getReal()));
-                }
-                catch (Exception e)
-                {
-                    return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
-                }
+    /**
+     * Procedure calculates the function value for given argument values
+     */
+    static CalculatedValue.ValueType calculate(FunctionType type, CalculatedValue[] argVal, CalculatedValue outValue)
+    {
+        final CalculatedValue a0 = argVal[0];
+        switch (type)
+        {
+        case POWER:
+            return outValue.pow(a0, argVal[1]);
+
+        case SQRT:
+        case SQRT_LAYOUT:
+            return outValue.sqrt(a0);
+        case NTHRT_LAYOUT:
+            return outValue.nthRoot(argVal[1], a0.getInteger());
+
+        case ABS:
+        case ABS_LAYOUT:
+            return outValue.abs(a0);
+        case CONJUGATE_LAYOUT:
+            return outValue.conj(a0);
+        case RE:
+            return outValue.setValue(a0.getReal());
+        case IM:
+            return outValue.setValue(a0.isComplex() ? a0.getImaginary() : 0.0);
+
+        case IF:
+            if (a0.isComplex())
+            {
+                return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
+            }
+            return outValue.assign((a0.getReal() > 0) ? argVal[1] : argVal[2]);
+
+        case FACTORIAL:
+            if (a0.isComplex())
+            {
+                return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
+            }
+            try
+            {
+                return outValue.setValue(CombinatoricsUtils.factorialDouble((int) a0.getReal()));
+            }
+            catch (Exception e)
+            {
+                return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
             }
         }
         return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
     }
 
+    /**
+     * Procedure calculates the function value for real unit-free arguments
+     */
+    static double calculateReal(FunctionType type, double[] args)
+    {
+        final double a0 = args[0];
+        switch (type)
+        {
+        case POWER:
+            return FastMath.pow(a0, args[1]);
+        case SQRT:
+        case SQRT_LAYOUT:
+            // square root of a negative number is complex
+            return (a0 >= 0.0) ? FastMath.sqrt(a0) : Double.NaN;
+        case ABS:
+        case ABS_LAYOUT:
+            return FastMath.abs(a0);
+        case CONJUGATE_LAYOUT:
+        case RE:
+            return a0;
+        case IM:
+            return 0.0;
+        case IF:
+            return (a0 > 0) ? args[1] : args[2];
+        case FACTORIAL:
+            try
+            {
+                return CombinatoricsUtils.factorialDouble((int) a0);
+            }
+            catch (Exception e)
+            {
+                return Double.NaN;
+            }
+        default:
+            return Double.NaN;
+        }
+    }
+
+    @Override
+    public EvalNode compile(TermCompiler compiler)
+    {
+        if (getFunctionType() == FunctionType.POWER && terms.size() > 0 && terms.get(0).isInputUnit())
+        {
+            // power of an input unit is converted using the unit of the argument term
+            return super.compile(compiler);
+        }
+        return compileFunction(compiler, getFunctionType());
+    }
+
     @Override
     public CalculatableIf.DifferentiableType isDifferentiable(String var)
     {
@@ -321,8 +405,16 @@ public class CommonFunctions extends FunctionBase
                 retValue = (powValue == CalculatableIf.DifferentiableType.INDEPENDENT) ? retValue : CalculatableIf.DifferentiableType.NONE;
             }
             break;
-        // these functions are not differentiable if contain the given argument
+        // for this function, derivative is the derivative of the selected branch
         case IF:
+            retValue = CalculatableIf.DifferentiableType.INDEPENDENT;
+            for (int i = 1; i < terms.size(); i++)
+            {
+                final int dGrad = Math.min(retValue.ordinal(), terms.get(i).isDifferentiable(var).ordinal());
+                retValue = CalculatableIf.DifferentiableType.values()[dGrad];
+            }
+            break;
+        // these functions are not differentiable if contain the given argument
         case FACTORIAL:
         case CONJUGATE_LAYOUT:
             retValue = (argsProp == CalculatableIf.DifferentiableType.INDEPENDENT) ? CalculatableIf.DifferentiableType.INDEPENDENT
@@ -346,86 +438,14 @@ public class CommonFunctions extends FunctionBase
         if (termType != null && terms.size() > 0)
         {
             ensureArgValSize();
+            ensureArgDerSize();
             for (int i = 0; i < terms.size(); i++)
             {
                 terms.get(i).getValue(thread, argVal[i]);
             }
-            final CalculatedValue a0 = argVal[0];
-            terms.get(0).getDerivativeValue(var, thread, a0derVal);
             switch (getFunctionType())
             {
-            // for these functions, derivative can be calculated analytically
-            case POWER:
-            {
-                final CalculatedValue a1 = argVal[1];
-                terms.get(1).getDerivativeValue(var, thread, a1derVal);
-                if (a0derVal.isZero() && a1derVal.isZero())
-                {
-                    // the case a^a
-                    return outValue.setValue(0.0);
-                }
-                else if (!a0derVal.isZero() && a1derVal.isZero())
-                {
-                    // the case f^a: result = g * f^(g-1) * a0derVal;
-                    CalculatedValue tmp = new CalculatedValue();
-                    tmp.subtract(a1, CalculatedValue.ONE);
-                    tmp.pow(a0, tmp);
-                    outValue.multiply(a1, tmp);
-                    return outValue.multiply(outValue, a0derVal);
-                }
-                else if (a0derVal.isZero() && !a1derVal.isZero())
-                {
-                    // the case a^g: result = f^g * log(f) * a1derVal;
-                    CalculatedValue tmp = new CalculatedValue();
-                    tmp.log(a0);
-                    outValue.pow(a0, a1);
-                    outValue.multiply(outValue, tmp);
-                    return outValue.multiply(outValue, a1derVal);
-                }
-                else
-                {
-                    // case f^g: result = f^g * {a0derVal * g / f  +  a1derVal * log(f)}
-                    CalculatedValue tmp1 = new CalculatedValue(), tmp2 = new CalculatedValue();
-                    tmp1.multiply(a0derVal, a1);
-                    tmp1.divide(tmp1, a0);
-                    tmp2.log(a0);
-                    tmp2.multiply(a1derVal, tmp2);
-                    tmp1.add(tmp1, tmp2);
-                    outValue.pow(a0, a1);
-                    return outValue.multiply(outValue, tmp1);
-                }
-            }
-
-            case SQRT:
-            case SQRT_LAYOUT: // (1.0 / (2.0 * √a0)) * a0'
-                outValue.sqrt(a0);
-                outValue.multiply(2.0);
-                outValue.divide(CalculatedValue.ONE, outValue);
-                return outValue.multiply(outValue, a0derVal);
-            case NTHRT_LAYOUT: // ( n√ a1 )' = 1 / ( n n√ a1^(n-1) ) * a1'
-            {
-                final int n = a0.getInteger();
-                terms.get(1).getDerivativeValue(var, thread, a1derVal);
-                outValue.setValue(n - 1);
-                outValue.pow(argVal[1], outValue);
-                outValue.nthRoot(outValue, n);
-                outValue.multiply(n);
-                return outValue.divide(a1derVal, outValue);
-            }
-            case ABS:
-            case ABS_LAYOUT: // not defined for complex number
-                if (a0.isComplex())
-                {
-                    return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
-                }
-                return outValue.setValue((a0.getReal() >= 0 ? 1.0 : -1.0) * a0derVal.getReal());
-            case RE:
-                return outValue.setValue(a0derVal.getReal());
-            case IM:
-                return outValue.setValue(a0derVal.isComplex() ? a0derVal.getImaginary() : 0.0);
-
             // these functions are not differentiable if contain the given argument
-            case IF:
             case FACTORIAL:
             case CONJUGATE_LAYOUT:
                 CalculatableIf.DifferentiableType argsProp = CalculatableIf.DifferentiableType.INDEPENDENT;
@@ -442,7 +462,114 @@ public class CommonFunctions extends FunctionBase
                 {
                     return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
                 }
+            default:
+                for (int i = 0; i < terms.size(); i++)
+                {
+                    terms.get(i).getDerivativeValue(var, thread, argDer[i]);
+                }
+                return calculateDerivative(getFunctionType(), argVal, argDer, outValue);
+            }
+        }
+        return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
+    }
+
+    /**
+     * Procedure calculates the derivative of the function value from the argument values and their derivatives
+     */
+    static CalculatedValue.ValueType calculateDerivative(FunctionType type, CalculatedValue[] argVal,
+                                                         CalculatedValue[] argDer, CalculatedValue outValue)
+    {
+        final CalculatedValue a0 = argVal[0];
+        final CalculatedValue a0derVal = argDer[0];
+        switch (type)
+        {
+        // for these functions, derivative can be calculated analytically
+        case POWER:
+        {
+            final CalculatedValue a1 = argVal[1];
+            final CalculatedValue a1derVal = argDer[1];
+            if (a0derVal.isZero() && a1derVal.isZero())
+            {
+                // the case a^a
+                return outValue.setValue(0.0);
+            }
+            else if (!a0derVal.isZero() && a1derVal.isZero())
+            {
+                // the case f^a: result = g * f^(g-1) * a0derVal;
+                CalculatedValue tmp = new CalculatedValue();
+                tmp.subtract(a1, CalculatedValue.ONE);
+                tmp.pow(a0, tmp);
+                outValue.multiply(a1, tmp);
+                return outValue.multiply(outValue, a0derVal);
             }
+            else if (a0derVal.isZero() && !a1derVal.isZero())
+            {
+                // the case a^g: result = f^g * log(f) * a1derVal;
+                CalculatedValue tmp = new CalculatedValue();
+                tmp.log(a0);
+                outValue.pow(a0, a1);
+                outValue.multiply(outValue, tmp);
+                return outValue.multiply(outValue, a1derVal);
+            }
+            else
+            {
+                // case f^g: result = f^g * {a0derVal * g / f  +  a1derVal * log(f)}
+                CalculatedValue tmp1 = new CalculatedValue(), tmp2 = new CalculatedValue();
+                tmp1.multiply(a0derVal, a1);
+                tmp1.divide(tmp1, a0);
+                tmp2.log(a0);
+                tmp2.multiply(a1derVal, tmp2);
+                tmp1.add(tmp1, tmp2);
+                outValue.pow(a0, a1);
+                return outValue.multiply(outValue, tmp1);
+            }
+        }
+
+        case SQRT:
+        case SQRT_LAYOUT: // (1.0 / (2.0 * √a0)) * a0'
+            outValue.sqrt(a0);
+            outValue.multiply(2.0);
+            outValue.divide(CalculatedValue.ONE, outValue);
+            return outValue.multiply(outValue, a0derVal);
+        case NTHRT_LAYOUT: // ( n√ a1 )' = 1 / ( n n√ a1^(n-1) ) * a1'
+        {
+            if (!a0derVal.isZero())
+            {
+                // n-th root is only differentiable if the power does not depend on the given argument
+                return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
+            }
+            final int n = a0.getInteger();
+            outValue.setValue(n - 1);
+            outValue.pow(argVal[1], outValue);
+            outValue.nthRoot(outValue, n);
+            outValue.multiply(n);
+            return outValue.divide(argDer[1], outValue);
+        }
+        case ABS:
+        case ABS_LAYOUT: // not defined for complex number
+            if (a0.isComplex())
+            {
+                return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
+            }
+            return outValue.setValue((a0.getReal() >= 0 ? 1.0 : -1.0) * a0derVal.getReal());
+        case RE:
+            return outValue.setValue(a0derVal.getReal());
+        case IM:
+            return outValue.setValue(a0derVal.isComplex() ? a0derVal.getImaginary() : 0.0);
+
+        // the derivative of the selected branch; the condition is piecewise constant
+        case IF:
+            if (a0.isComplex())
+            {
+                return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
+            }
+            return outValue.assign((a0.getReal() > 0) ? argDer[1] : argDer[2]);
+
+        // these functions are not differentiable if contain the given argument
+        case FACTORIAL:
+        case CONJUGATE_LAYOUT:
+            return a0derVal.isZero() ? outValue.setValue(0.0) :
+                    outValue.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
         }
         return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
     }
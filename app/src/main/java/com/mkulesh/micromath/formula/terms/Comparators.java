@@ -17,6 +17,11 @@ import android.content.Context;
 import android.util.AttributeSet;
 import android.widget.LinearLayout;
 
+import com.mkulesh.micromath.eval.DifferentiableFunctionIf;
+import com.mkulesh.micromath.eval.EvalFunctionIf;
+import com.mkulesh.micromath.eval.EvalNode;
+import com.mkulesh.micromath.eval.RealFunctionIf;
+import com.mkulesh.micromath.eval.TermCompiler;
 import com.mkulesh.micromath.formula.CalculaterTask;
 import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
 import com.mkulesh.micromath.formula.FormulaTerm;
@@ -41,7 +46,7 @@ public class Comparators extends FormulaTerm
     /**
      * Supported comparators
      */
-    public enum ComparatorType implements TermTypeIf
+    public enum ComparatorType implements TermTypeIf, EvalFunctionIf, RealFunctionIf, DifferentiableFunctionIf
     {
         EQUAL(R.string.formula_comparator_equal, R.drawable.p_comparator_equal, R.string.math_comparator_equal),
         NOT_EQUAL(
@@ -119,6 +124,33 @@ public class Comparators extends FormulaTerm
         {
             return new Comparators(this, termField, layout, text, textIndex);
         }
+
+        public CalculatedValue.ValueType apply(CalculatedValue[] args, CalculatedValue outValue)
+        {
+            return calculate(this, args[0], args[1], outValue);
+        }
+
+        public boolean isDeterministic()
+        {
+            return true;
+        }
+
+        public boolean isRealFunction()
+        {
+            return true;
+        }
+
+        public double applyReal(double[] args)
+        {
+            return calculateReal(this, args);
+        }
+
+        public CalculatedValue.ValueType derivative(CalculatedValue[] args, CalculatedValue[] argDerivatives,
+                                                    CalculatedValue outValue)
+        {
+            // the comparator value is piecewise constant
+            return outValue.setValue(0.0);
+        }
     }
 
     /**
@@ -175,30 +207,78 @@ public class Comparators extends FormulaTerm
         {
             leftTerm.getValue(thread, leftTermValue);
             rightTerm.getValue(thread, rightTermValue);
-            // Do not check invalid value since a comparator can handle it!
-            switch (getComparatorType())
-            {
-            case EQUAL:
-                return outValue.setValue((leftTermValue.getReal() == rightTermValue.getReal()) ? 1 : 0);
-            case NOT_EQUAL:
-                return outValue.setValue((leftTermValue.getReal() != rightTermValue.getReal()) ? 1 : 0);
-            case LESS:
-                return outValue.setValue((leftTermValue.getReal() < rightTermValue.getReal()) ? 1 : 0);
-            case LESS_EQUAL:
-                return outValue.setValue((leftTermValue.getReal() <= rightTermValue.getReal()) ? 1 : 0);
-            case GREATER:
-                return outValue.setValue((leftTermValue.getReal() > rightTermValue.getReal()) ? 1 : 0);
-            case GREATER_EQUAL:
-                return outValue.setValue((leftTermValue.getReal() >= rightTermValue.getReal()) ? 1 : 0);
-            case COMPARATOR_AND:
-                return outValue.setValue((leftTermValue.getReal() > 0 && rightTermValue.getReal() > 0) ? 1 : 0);
-            case COMPARATOR_OR:
-                return outValue.setValue((leftTermValue.getReal() > 0 || rightTermValue.getReal() > 0) ? 1 : 0);
-            }
+            return calculate(getComparatorType(), leftTermValue, rightTermValue, outValue);
         }
         return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
     }
 
+    /**
+     * Procedure compares the given operand values
+     */
+    public static CalculatedValue.ValueType calculate(ComparatorType type, CalculatedValue fVal, CalculatedValue gVal,
+                                                      CalculatedValue outValue)
+    {
+        // Do not check invalid value since a comparator can handle it!
+        switch (type)
+        {
+        case EQUAL:
+            return outValue.setValue((fVal.getReal() == gVal.getReal()) ? 1 : 0);
+        case NOT_EQUAL:
+            return outValue.setValue((fVal.getReal() != gVal.getReal()) ? 1 : 0);
+        case LESS:
+            return outValue.setValue((fVal.getReal() < gVal.getReal()) ? 1 : 0);
+        case LESS_EQUAL:
+            return outValue.setValue((fVal.getReal() <= gVal.getReal()) ? 1 : 0);
+        case GREATER:
+            return outValue.setValue((fVal.getReal() > gVal.getReal()) ? 1 : 0);
+        case GREATER_EQUAL:
+            return outValue.setValue((fVal.getReal() >= gVal.getReal()) ? 1 : 0);
+        case COMPARATOR_AND:
+            return outValue.setValue((fVal.getReal() > 0 && gVal.getReal() > 0) ? 1 : 0);
+        case COMPARATOR_OR:
+            return outValue.setValue((fVal.getReal() > 0 || gVal.getReal() > 0) ? 1 : 0);
+        }
+        return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
+    }
+
+    /**
+     * Procedure calculates the comparator value for real unit-free arguments
+     */
+    public static double calculateReal(ComparatorType type, double[] args)
+    {
+        final double f = args[0], g = args[1];
+        switch (type)
+        {
+        case EQUAL:
+            return (f == g) ? 1 : 0;
+        case NOT_EQUAL:
+            return (f != g) ? 1 : 0;
+        case LESS:
+            return (f < g) ? 1 : 0;
+        case LESS_EQUAL:
+            return (f <= g) ? 1 : 0;
+        case GREATER:
+            return (f > g) ? 1 : 0;
+        case GREATER_EQUAL:
+            return (f >= g) ? 1 : 0;
+        case COMPARATOR_AND:
+            return (f > 0 && g > 0) ? 1 : 0;
+        case COMPARATOR_OR:
+            return (f > 0 || g > 0) ? 1 : 0;
+        }
+        return Double.NaN;
+    }
+
+    @Override
+    public EvalNode compile(TermCompiler compiler)
+    {
+        if (termType != null)
+        {
+            return compiler.apply(getComparatorType(), leftTerm, rightTerm);
+        }
+        return super.compile(compiler);
+    }
+
     @Override
     public DifferentiableType isDifferentiable(String var)
     {
@@ -0,0 +1,429 @@
+/*
+ * microMathematics - Extended Visual Calculator
+ * Copyright (C) 2014-2022 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+package com.mkulesh.micromath.formula.terms;
+
+import com.mkulesh.micromath.eval.ParallelRunner;
+import com.mkulesh.micromath.formula.CalculaterTask;
+import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
+import com.mkulesh.micromath.formula.TermParser;
+
+import org.apache.commons.math3.complex.Complex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*--------------------------------------------------------*
+ * Parser of numeric data files
+ *--------------------------------------------------------*/
+
+/**
+ * Class that parses a numeric data file into a matrix. The file is read in blocks that end at line boundaries;
+ * the blocks of a batch are parsed in parallel. The elements are separated by white space, comma or semicolon;
+ * an empty field between two commas or semicolons is an invalid element. Empty lines and comment lines that
+ * start with '#' or '%' are ignored
+ */
+final class FileParser
+{
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // powers of ten that are exactly representable as double
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    // maximum number of significant digits that are scanned into a long value
+    private static final int MAX_DIGITS = 18;
+
+    /**
+     * Parsed lines of a single block in the row-major order
+     */
+    private static final class Chunk
+    {
+        private double[] re;
+        private double[] im = null;
+        private long[] invalid = null;
+        private int count = 0;
+        private int[] rowEnds = new int[64];
+        private int rows = 0, cols = 0;
+
+        // the value found by the number scanner
+        private double value = 0.0;
+
+        Chunk(int capacity)
+        {
+            re = new double[Math.max(16, capacity)];
+        }
+
+        private void parse(final byte[] b, final int start, final int end)
+        {
+            int lineStart = start;
+            for (int i = start; i < end; i++)
+            {
+                if (b[i] == '\n' || b[i] == '\r')
+                {
+                    parseLine(b, lineStart, i);
+                    lineStart = i + 1;
+                }
+            }
+            parseLine(b, lineStart, end);
+        }
+
+        private void parseLine(final byte[] b, final int start, final int end)
+        {
+            int i = start;
+            while (i < end && isSpace(b[i]))
+            {
+                i++;
+            }
+            if (i == end || b[i] == '#' || b[i] == '%')
+            {
+                return;
+            }
+            final int rowStart = count;
+            boolean expectField = true;
+            while (i < end)
+            {
+                final byte c = b[i];
+                if (isSpace(c))
+                {
+                    i++;
+                }
+                else if (c == ',' || c == ';')
+                {
+                    if (expectField)
+                    {
+                        addInvalid();
+                    }
+                    expectField = true;
+                    i++;
+                }
+                else
+                {
+                    final int tokenStart = i;
+                    while (i < end && !isSpace(b[i]) && b[i] != ',' && b[i] != ';')
+                    {
+                        i++;
+                    }
+                    addToken(b, tokenStart, i);
+                    expectField = false;
+                }
+            }
+            if (rows == rowEnds.length)
+            {
+                rowEnds = Arrays.copyOf(rowEnds, 2 * rows);
+            }
+            rowEnds[rows++] = count;
+            cols = Math.max(cols, count - rowStart);
+        }
+
+        private void ensureCapacity()
+        {
+            if (count == re.length)
+            {
+                re = Arrays.copyOf(re, 2 * count);
+                im = (im != null) ? Arrays.copyOf(im, 2 * count) : null;
+                invalid = (invalid != null) ? Arrays.copyOf(invalid, (2 * count + 63) / 64) : null;
+            }
+        }
+
+        private void addInvalid()
+        {
+            ensureCapacity();
+            if (invalid == null)
+            {
+                invalid = new long[(re.length + 63) / 64];
+            }
+            invalid[count >> 6] |= 1L << count;
+            count++;
+        }
+
+        private void addToken(final byte[] b, final int start, final int end)
+        {
+            if (scanNumber(b, start, end))
+            {
+                ensureCapacity();
+                re[count++] = value;
+                return;
+            }
+            // numbers that can not be scanned exactly and complex numbers are converted from string
+            final String token = new String(b, start, end - start, UTF8);
+            try
+            {
+                final double v = Double.parseDouble(token);
+                ensureCapacity();
+                re[count++] = v;
+                return;
+            }
+            catch (Exception ex)
+            {
+                // nothing to do: we will try to convert it to complex
+            }
+            final Complex cmplValue = TermParser.complexValueOf(token);
+            if (cmplValue == null)
+            {
+                addInvalid();
+                return;
+            }
+            ensureCapacity();
+            if (cmplValue.getImaginary() != 0.0)
+            {
+                if (im == null)
+                {
+                    im = new double[re.length];
+                }
+                im[count] = cmplValue.getImaginary();
+            }
+            re[count++] = cmplValue.getReal();
+        }
+
+        /**
+         * Procedure scans a decimal number like -12.5e-3. The value is only accepted if it can be converted
+         * exactly, i.e. if the significant digits and the power of ten are exactly representable as double
+         */
+        private boolean scanNumber(final byte[] b, final int start, final int end)
+        {
+            int i = start;
+            final boolean isNegative = (i < end && b[i] == '-');
+            if (i < end && (b[i] == '-' || b[i] == '+'))
+            {
+                i++;
+            }
+            long mantissa = 0;
+            int digits = 0, exponent = 0;
+            boolean hasDigits = false;
+            for (; i < end && b[i] >= '0' && b[i] <= '9'; i++)
+            {
+                hasDigits = true;
+                if (mantissa == 0 && b[i] == '0')
+                {
+                    continue;
+                }
+                if (++digits > MAX_DIGITS)
+                {
+                    return false;
+                }
+                mantissa = 10 * mantissa + (b[i] - '0');
+            }
+            if (i < end && b[i] == '.')
+            {
+                for (i++; i < end && b[i] >= '0' && b[i] <= '9'; i++)
+                {
+                    hasDigits = true;
+                    exponent--;
+                    if (mantissa == 0 && b[i] == '0')
+                    {
+                        continue;
+                    }
+                    if (++digits > MAX_DIGITS)
+                    {
+                        return false;
+                    }
+                    mantissa = 10 * mantissa + (b[i] - '0');
+                }
+            }
+            if (!hasDigits)
+            {
+                return false;
+            }
+            if (i < end && (b[i] == 'e' || b[i] == 'E'))
+            {
+                i++;
+                final boolean isNegativeExp = (i < end && b[i] == '-');
+                if (i < end && (b[i] == '-' || b[i] == '+'))
+                {
+                    i++;
+                }
+                int exp = 0;
+                final int expStart = i;
+                for (; i < end && b[i] >= '0' && b[i] <= '9' && exp < 10000; i++)
+                {
+                    exp = 10 * exp + (b[i] - '0');
+                }
+                if (i == expStart)
+                {
+                    return false;
+                }
+                exponent += isNegativeExp ? -exp : exp;
+            }
+            if (i != end)
+            {
+                return false;
+            }
+            if (mantissa == 0)
+            {
+                value = isNegative ? -0.0 : 0.0;
+                return true;
+            }
+            if (mantissa >= (1L << 53) || exponent < -22 || exponent > 22)
+            {
+                return false;
+            }
+            final double v = (exponent >= 0) ? mantissa * POWERS_OF_TEN[exponent] :
+                    mantissa / POWERS_OF_TEN[-exponent];
+            value = isNegative ? -v : v;
+            return true;
+        }
+
+        private static boolean isSpace(final byte c)
+        {
+            return c == ' ' || c == '\t' || c == '\f' || c == 0x0B;
+        }
+    }
+
+    /**
+     * Procedure parses the given stream into a matrix. If a calculation thread is given, the blocks are parsed
+     * in parallel
+     */
+    static FileReader.FileData parse(final CalculaterTask thread, final InputStream stream, long fileSize,
+                                     long fileDate) throws CancelException, IOException
+    {
+        final int batchSize = (thread != null) ? ParallelRunner.getThreadsNumber() : 1;
+        final ArrayList<Chunk> chunks = new ArrayList<>();
+        byte[] pending = new byte[0];
+        boolean isEof = false;
+        boolean isFirstBlock = true;
+        while (!isEof)
+        {
+            if (thread != null)
+            {
+                thread.checkCancelation();
+            }
+
+            // read a batch of blocks, each block ends at a line boundary
+            final ArrayList<byte[]> blocks = new ArrayList<>(batchSize);
+            final ArrayList<int[]> ranges = new ArrayList<>(batchSize);
+            while (!isEof && blocks.size() < batchSize)
+            {
+                final byte[] buffer = Arrays.copyOf(pending, pending.length + BLOCK_SIZE);
+                final int length = pending.length + readBlock(stream, buffer, pending.length, BLOCK_SIZE);
+                isEof = length < buffer.length;
+                int cut = length;
+                if (!isEof)
+                {
+                    while (cut > 0 && buffer[cut - 1] != '\n' && buffer[cut - 1] != '\r')
+                    {
+                        cut--;
+                    }
+                }
+                pending = Arrays.copyOfRange(buffer, cut, length);
+                if (cut > 0)
+                {
+                    // skip the byte order mark
+                    final boolean hasBom = isFirstBlock && cut >= 3 && buffer[0] == (byte) 0xEF
+                            && buffer[1] == (byte) 0xBB && buffer[2] == (byte) 0xBF;
+                    isFirstBlock = false;
+                    blocks.add(buffer);
+                    ranges.add(new int[]{ hasBom ? 3 : 0, cut });
+                }
+            }
+
+            // parse the batch
+            final Chunk[] parsed = new Chunk[blocks.size()];
+            if (thread != null && parsed.length > 1)
+            {
+                ParallelRunner.run(thread, parsed.length, (context, tile) ->
+                        parsed[tile] = parseBlock(blocks.get(tile), ranges.get(tile)));
+            }
+            else
+            {
+                for (int tile = 0; tile < parsed.length; tile++)
+                {
+                    parsed[tile] = parseBlock(blocks.get(tile), ranges.get(tile));
+                }
+            }
+            chunks.addAll(Arrays.asList(parsed));
+        }
+        return getData(chunks, fileSize, fileDate);
+    }
+
+    private static Chunk parseBlock(final byte[] block, final int[] range)
+    {
+        // a number occupies several bytes: the initial capacity avoids most reallocations
+        final Chunk chunk = new Chunk((range[1] - range[0]) / 8);
+        chunk.parse(block, range[0], range[1]);
+        return chunk;
+    }
+
+    private static int readBlock(final InputStream stream, final byte[] buffer, final int offset, final int length)
+            throws IOException
+    {
+        int total = 0;
+        while (total < length)
+        {
+            final int n = stream.read(buffer, offset + total, length - total);
+            if (n < 0)
+            {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Procedure converts the parsed chunks into the column-major order. Missing elements of short lines are
+     * invalid
+     */
+    private static FileReader.FileData getData(final ArrayList<Chunk> chunks, long fileSize, long fileDate)
+    {
+        int rows = 0, cols = 0;
+        boolean isComplex = false;
+        for (Chunk chunk : chunks)
+        {
+            rows += chunk.rows;
+            cols = Math.max(cols, chunk.cols);
+            isComplex |= chunk.im != null;
+        }
+        final int size = rows * cols;
+        final double[] realParts = new double[size];
+        final double[] imaginaryParts = isComplex ? new double[size] : null;
+        long[] invalidBits = null;
+        int rowOffset = 0;
+        for (Chunk chunk : chunks)
+        {
+            for (int r = 0; r < chunk.rows; r++)
+            {
+                final int rowStart = (r == 0) ? 0 : chunk.rowEnds[r - 1];
+                final int rowEnd = chunk.rowEnds[r];
+                for (int c = 0; c < cols; c++)
+                {
+                    final int src = rowStart + c;
+                    final int dst = c * rows + rowOffset + r;
+                    if (src < rowEnd)
+                    {
+                        realParts[dst] = chunk.re[src];
+                        if (chunk.im != null)
+                        {
+                            imaginaryParts[dst] = chunk.im[src];
+                        }
+                    }
+                    if (src >= rowEnd || (chunk.invalid != null && (chunk.invalid[src >> 6] & (1L << src)) != 0))
+                    {
+                        if (invalidBits == null)
+                        {
+                            invalidBits = new long[(size + 63) / 64];
+                        }
+                        invalidBits[dst >> 6] |= 1L << dst;
+                    }
+                }
+            }
+            rowOffset += chunk.rows;
+        }
+        return new FileReader.FileData(fileSize, fileDate, rows, cols, realParts, imaginaryParts, invalidBits);
+    }
+}
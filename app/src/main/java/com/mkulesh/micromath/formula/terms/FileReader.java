@@ -17,19 +17,23 @@ import android.content.Context;
 import android.net.Uri;
 
 import com.mkulesh.micromath.fman.FileUtils;
+import com.mkulesh.micromath.formula.CalculaterTask;
+import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
 import com.mkulesh.micromath.formula.Equation;
 import com.mkulesh.micromath.formula.FormulaBase;
-import com.mkulesh.micromath.formula.TermParser;
 import com.mkulesh.micromath.math.CalculatedValue;
+import com.mkulesh.micromath.math.EquationArrayResult;
 import com.mkulesh.micromath.properties.MatrixProperties;
+import com.mkulesh.micromath.utils.ViewUtils;
 
-import org.apache.commons.math3.complex.Complex;
-
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /*--------------------------------------------------------*
  * File reader helper class
@@ -37,10 +41,58 @@ import java.util.ArrayList;
 
 final class FileReader
 {
+    // maximum memory used by all parsed files in the cache, in bytes
+    private static final long MAX_CACHE_SIZE = 32L * 1024L * 1024L;
+
+    // parsed files shared between all read() terms, in access order
+    private static final LinkedHashMap<String, FileData> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private static long cacheSize = 0;
+
     private final Context context;
     private final FormulaBase rootFormula;
-    private final ArrayList<ArrayList<String>> fileBuffer = new ArrayList<>();
     private final MatrixProperties dim = new MatrixProperties();
+    private FileData fileData = null;
+    private BinaryArray binaryArray = null;
+
+    /**
+     * Immutable content of a parsed file: the elements are stored in the column-major order. The imaginary
+     * parts and the invalid elements are only stored if the file contains such elements
+     */
+    static final class FileData
+    {
+        final long fileSize, fileDate;
+        final int rows, cols;
+        final double[] realParts;
+        final double[] imaginaryParts;
+        final long[] invalidBits;
+
+        FileData(long fileSize, long fileDate, int rows, int cols, double[] realParts, double[] imaginaryParts,
+                 long[] invalidBits)
+        {
+            this.fileSize = fileSize;
+            this.fileDate = fileDate;
+            this.rows = rows;
+            this.cols = cols;
+            this.realParts = realParts;
+            this.imaginaryParts = imaginaryParts;
+            this.invalidBits = invalidBits;
+        }
+
+        long getMemorySize()
+        {
+            long size = 8L * realParts.length;
+            size += (imaginaryParts != null) ? 8L * imaginaryParts.length : 0;
+            size += (invalidBits != null) ? 8L * invalidBits.length : 0;
+            return size;
+        }
+
+        boolean isUpToDate(long size, long date)
+        {
+            // a file can only be validated if both its size and its modification date are known: an edit
+            // that keeps the file size can not be detected otherwise
+            return size >= 0 && date >= 0 && size == fileSize && date == fileDate;
+        }
+    }
 
     FileReader(Context context, FormulaBase rootFormula)
     {
@@ -53,114 +105,213 @@ final class FileReader
         return dim;
     }
 
-    InputStream openStream(final String name)
+    private Uri getUri(final String name)
     {
         if (name == null || name.length() == 0)
         {
             return null;
         }
-
-        Uri imageUri;
         if (name.contains(FileUtils.ASSET_RESOURCE_PREFIX))
         {
-            imageUri = Uri.parse(name);
+            return Uri.parse(name);
+        }
+        return FileUtils.catUri(context, rootFormula.getFormulaList().getParentDirectory(), name);
+    }
+
+    InputStream openStream(final String name)
+    {
+        final Uri uri = getUri(name);
+        return (uri == null) ? null : FileUtils.getInputStream(context, uri, false);
+    }
+
+    /**
+     * Procedure provides the content of the given file. The file is only parsed if it is not in the cache
+     * or if it was changed since it was parsed
+     */
+    void prepare(final String name, final CalculaterTask thread) throws CancelException
+    {
+        fileData = null;
+        binaryArray = null;
+        final Uri uri = getUri(name);
+        if (uri == null)
+        {
+            return;
         }
-        else
+        if (BinaryArray.isNpyFile(name))
         {
-            imageUri = FileUtils.catUri(context, rootFormula.getFormulaList().getParentDirectory(), name);
+            final ByteBuffer buffer = FileUtils.mapFile(context, uri);
+            setBinaryArray(buffer != null ? BinaryArray.fromNpy(buffer) : null);
+            return;
         }
-
-        if (imageUri == null)
+        final String key = uri.toString();
+        final long[] attributes = FileUtils.getFileAttributes(context, uri);
+        synchronized (cache)
         {
-            return null;
+            final FileData d = cache.get(key);
+            if (d != null && d.isUpToDate(attributes[0], attributes[1]))
+            {
+                fileData = d;
+            }
+        }
+        if (fileData == null)
+        {
+            fileData = parseFile(thread, uri, attributes[0], attributes[1]);
+            if (fileData != null && fileData.isUpToDate(attributes[0], attributes[1]))
+            {
+                putToCache(key, fileData);
+            }
         }
+        if (fileData != null)
+        {
+            dim.rows = fileData.rows;
+            dim.cols = fileData.cols;
+        }
+    }
 
-        return FileUtils.getInputStream(context, imageUri, false);
+    /**
+     * Procedure maps the given raw binary file with given data type and number of columns
+     */
+    void prepareRaw(final String name, final String dataType, int cols)
+    {
+        fileData = null;
+        binaryArray = null;
+        final Uri uri = getUri(name);
+        final ByteBuffer buffer = (uri != null) ? FileUtils.mapFile(context, uri) : null;
+        setBinaryArray(buffer != null ? BinaryArray.fromRaw(buffer, dataType, cols) : null);
     }
 
-    void prepare(final String name)
+    private void setBinaryArray(final BinaryArray b)
     {
-        fileBuffer.clear();
-        final InputStream fileStream = openStream(name);
-        if (fileStream == null)
+        binaryArray = b;
+        if (binaryArray != null)
         {
-            return;
+            dim.rows = binaryArray.rows;
+            dim.cols = binaryArray.cols;
         }
+    }
 
+    private FileData parseFile(final CalculaterTask thread, final Uri uri, long fileSize, long fileDate)
+            throws CancelException
+    {
+        final InputStream fileStream = FileUtils.getInputStream(context, uri, false);
+        if (fileStream == null)
+        {
+            return null;
+        }
+        FileData d = null;
         try
         {
-            BufferedReader r = new BufferedReader(new InputStreamReader(fileStream));
-            String line;
-            while ((line = r.readLine()) != null)
-            {
-                // ignore empty strings
-                final String trimmedString = line.trim();
-                if (trimmedString.isEmpty())
-                {
-                    continue;
-                }
-                final String[] tokens = trimmedString.split("\\s+");
-                final ArrayList<String> tokenList = new ArrayList<>(tokens.length);
-                for (String s : tokens)
-                {
-                    final String s1 = s.trim();
-                    if (!s1.isEmpty())
-                    {
-                        tokenList.add(s1);
-                    }
-                }
-                fileBuffer.add(tokenList);
-                dim.rows = fileBuffer.size();
-                dim.cols = Math.max(dim.cols, tokenList.size());
-            }
+            d = FileParser.parse(thread, fileStream, fileSize, fileDate);
+            ViewUtils.Debug(this, "parsed file " + uri.toString() + ": " + d.rows + "x" + d.cols);
         }
         catch (IOException e)
         {
             // nothing to do
         }
+        finally
+        {
+            FileUtils.closeStream(fileStream);
+        }
+        return d;
+    }
 
-        FileUtils.closeStream(fileStream);
+    /**
+     * Procedure stores the parsed file in the cache and removes the least recently used files if the
+     * memory limit is exceeded
+     */
+    private static void putToCache(final String key, final FileData d)
+    {
+        synchronized (cache)
+        {
+            final FileData old = cache.remove(key);
+            if (old != null)
+            {
+                cacheSize -= old.getMemorySize();
+            }
+            if (d.getMemorySize() > MAX_CACHE_SIZE)
+            {
+                return;
+            }
+            cache.put(key, d);
+            cacheSize += d.getMemorySize();
+            final Iterator<Map.Entry<String, FileData>> it = cache.entrySet().iterator();
+            while (cacheSize > MAX_CACHE_SIZE && it.hasNext())
+            {
+                final FileData eldest = it.next().getValue();
+                if (eldest != d)
+                {
+                    cacheSize -= eldest.getMemorySize();
+                    it.remove();
+                }
+            }
+        }
     }
 
     void clear()
     {
-        fileBuffer.clear();
+        fileData = null;
+        binaryArray = null;
+    }
+
+    /**
+     * Procedure writes the real elements of the given array into a binary file: a NumPy .npy file or
+     * a raw file of little-endian float64 values. The number of written elements is returned, or -1
+     * if the array can not be written
+     */
+    synchronized int writeArray(final String name, final EquationArrayResult array)
+    {
+        final double[] values = (array != null) ? array.getRealValues() : null;
+        final Uri uri = getUri(name);
+        if (values == null || uri == null)
+        {
+            return -1;
+        }
+        final OutputStream stream = FileUtils.getOutputStream(context, uri);
+        if (stream == null)
+        {
+            return -1;
+        }
+        int result = -1;
+        try
+        {
+            final BufferedOutputStream os = new BufferedOutputStream(stream);
+            BinaryArray.write(os, values, array.getDimensions(), BinaryArray.isNpyFile(name));
+            os.flush();
+            result = values.length;
+        }
+        catch (IOException e)
+        {
+            ViewUtils.Debug(this, "cannot write file: " + e.getLocalizedMessage());
+        }
+        finally
+        {
+            FileUtils.closeStream(stream);
+        }
+        return result;
     }
 
     CalculatedValue.ValueType getFileElement(CalculatedValue outValue, int a0, int a1)
     {
         if (rootFormula instanceof Equation)
         {
-            String strValue = null;
-            if (a0 >= 0 && a0 < fileBuffer.size())
+            final BinaryArray b = binaryArray;
+            if (b != null)
             {
-                final ArrayList<String> line = fileBuffer.get(a0);
-                if (a1 >= 0 && a1 < line.size())
+                if (a0 >= 0 && a0 < b.rows && a1 >= 0 && a1 < b.cols)
                 {
-                    strValue = line.get(a1);
+                    return outValue.setValue(b.getValue(a0, a1));
                 }
+                return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
             }
-            if (strValue != null)
+            final FileData d = fileData;
+            if (d != null && a0 >= 0 && a0 < d.rows && a1 >= 0 && a1 < d.cols)
             {
-                try
-                {
-                    return outValue.setValue(Double.parseDouble(strValue));
-                }
-                catch (Exception ex)
-                {
-                    // nothing to do: we will try to convert it to complex
-                }
-                Complex cmplValue = TermParser.complexValueOf(strValue);
-                if (cmplValue != null)
+                final int idx = a1 * d.rows + a0;
+                if (d.invalidBits == null || (d.invalidBits[idx >> 6] & (1L << idx)) == 0)
                 {
-                    if (cmplValue.getImaginary() != 0.0)
-                    {
-                        return outValue.setComplexValue(cmplValue.getReal(), cmplValue.getImaginary());
-                    }
-                    else
-                    {
-                        return outValue.setValue(cmplValue.getReal());
-                    }
+                    final double im = (d.imaginaryParts != null) ? d.imaginaryParts[idx] : 0.0;
+                    return (im != 0.0) ? outValue.setComplexValue(d.realParts[idx], im) :
+                            outValue.setValue(d.realParts[idx]);
                 }
             }
             return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
@@ -17,6 +17,9 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.widget.LinearLayout;
 
+import com.mkulesh.micromath.eval.EvalFunctionIf;
+import com.mkulesh.micromath.eval.EvalNode;
+import com.mkulesh.micromath.eval.TermCompiler;
 import com.mkulesh.micromath.formula.BracketParser;
 import com.mkulesh.micromath.formula.FormulaTerm;
 import com.mkulesh.micromath.formula.TermField;
@@ -56,6 +59,7 @@ public abstract class FunctionBase extends FormulaTerm
 
     CustomTextView functionTerm = null;
     CalculatedValue[] argVal = null;
+    CalculatedValue[] argDer = null;
 
     /*--------------------------------------------------------*
      * Constructors
@@ -127,6 +131,31 @@ public abstract class FunctionBase extends FormulaTerm
         }
     }
 
+    void ensureArgDerSize()
+    {
+        final int termsSize = terms.size();
+        if (argDer == null || argDer.length != termsSize)
+        {
+            argDer = new CalculatedValue[termsSize];
+            for (int i = 0; i < termsSize; i++)
+            {
+                argDer[i] = new CalculatedValue();
+            }
+        }
+    }
+
+    /**
+     * Procedure compiles this function into the node that applies the given function to all arguments
+     */
+    EvalNode compileFunction(TermCompiler compiler, EvalFunctionIf function)
+    {
+        if (termType != null && terms.size() > 0)
+        {
+            return compiler.apply(function, terms.toArray(new TermField[0]));
+        }
+        return compiler.legacy(this);
+    }
+
     @Override
     protected CustomTextView initializeSymbol(CustomTextView v)
     {
@@ -153,6 +182,11 @@ public abstract class FunctionBase extends FormulaTerm
                         getFormulaRoot().getFormulaList().getActivity(), this);
                 v.setText("."); // this text defines view width/height
             }
+            else if (t.equals(res.getString(R.string.formula_term_separator)))
+            {
+                v.prepare(CustomTextView.SymbolType.TEXT,
+                        getFormulaRoot().getFormulaList().getActivity(), this);
+            }
         }
         return v;
     }
@@ -270,6 +304,9 @@ public abstract class FunctionBase extends FormulaTerm
             throw new Exception("invalid size for argument list");
         }
 
+        // a layout can already contain several arguments: each one needs a unique key
+        reIndexTerms();
+
         // set texts for left and right parts (in editing mode only)
         final String arg = BracketParser.removeBrackets(getContext(), s, BracketParser.FUNCTION_BRACKETS);
         if (splitIntoTerms(arg, termType, pasteFromClipboard))
@@ -17,6 +17,7 @@ import android.content.Context;
 import android.util.AttributeSet;
 import android.widget.LinearLayout;
 
+import com.mkulesh.micromath.eval.EvalContext;
 import com.mkulesh.micromath.formula.CalculaterTask;
 import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
 import com.mkulesh.micromath.formula.Equation;
@@ -177,7 +178,7 @@ public class Intervals extends FormulaTerm
                 return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_REAL);
             }
             final CalculatedValue calcDelta = getDelta(minValue.getReal(), nextValue.getReal(), maxValue.getReal());
-            final CalculatedValue ravArg = ((Equation) getFormulaRoot()).getArgumentValue(0);
+            final CalculatedValue ravArg = EvalContext.get(thread).getArgument((Equation) getFormulaRoot(), 0);
             if (calcDelta.isNaN() || ravArg.isNaN())
             {
                 return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_REAL);
@@ -325,13 +326,13 @@ public class Intervals extends FormulaTerm
         }
         final int N = getNumberOfPoints(minValue.getReal(), maxValue.getReal(), calcDelta.getReal());
         arrayResult.resize1D(N + 1);
+        final CalculatedValue cv = new CalculatedValue();
         for (int idx = 0; idx <= N; idx++)
         {
             if (thread != null)
             {
                 thread.checkCancelation();
             }
-            final CalculatedValue cv = arrayResult.getValue1D(idx);
             if (idx == 0)
             {
                 cv.setValue(minValue.getReal(), units.getFirst());
@@ -345,6 +346,7 @@ public class Intervals extends FormulaTerm
                 final double val = minValue.getReal() + calcDelta.getReal() * (double) idx;
                 cv.setValue(val, units.getFirst());
             }
+            arrayResult.setValue1D(idx, cv);
         }
     }
 
@@ -17,6 +17,11 @@ import android.content.Context;
 import android.util.AttributeSet;
 import android.widget.LinearLayout;
 
+import com.mkulesh.micromath.eval.DifferentiableFunctionIf;
+import com.mkulesh.micromath.eval.EvalFunctionIf;
+import com.mkulesh.micromath.eval.EvalNode;
+import com.mkulesh.micromath.eval.RealFunctionIf;
+import com.mkulesh.micromath.eval.TermCompiler;
 import com.mkulesh.micromath.formula.CalculatableIf;
 import com.mkulesh.micromath.formula.CalculaterTask;
 import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
@@ -42,7 +47,7 @@ public class LogFunctions extends FunctionBase
     /**
      * Supported functions
      */
-    public enum FunctionType implements ObsoleteFunctionIf
+    public enum FunctionType implements ObsoleteFunctionIf, EvalFunctionIf, RealFunctionIf, DifferentiableFunctionIf
     {
         EXP(1, R.drawable.p_function_exp, R.string.math_function_exp),
         LN(1, R.drawable.p_function_ln, R.string.math_function_ln, 1, "LOG"),
@@ -137,13 +142,33 @@ public class LogFunctions extends FunctionBase
         {
             return new LogFunctions(this, termField, layout, text, textIndex);
         }
-    }
 
-    /**
-     * Private attributes
-     */
-    // Attention: this is not thread-safety declaration!
-    private final CalculatedValue a0derVal = new CalculatedValue(), tmpVal = new CalculatedValue();
+        public CalculatedValue.ValueType apply(CalculatedValue[] args, CalculatedValue outValue)
+        {
+            return calculate(this, args, outValue);
+        }
+
+        public boolean isDeterministic()
+        {
+            return true;
+        }
+
+        public boolean isRealFunction()
+        {
+            return true;
+        }
+
+        public double applyReal(double[] args)
+        {
+            return calculateReal(this, args);
+        }
+
+        public CalculatedValue.ValueType derivative(CalculatedValue[] args, CalculatedValue[] argDerivatives,
+                                                    CalculatedValue outValue)
+        {
+            return calculateDerivative(this, args, argDerivatives, outValue);
+        }
+    }
 
     /*--------------------------------------------------------*
      * Constructors
@@ -199,38 +224,90 @@ public class LogFunctions extends FunctionBase
             {
                 terms.get(i).getValue(thread, argVal[i]);
             }
-            final CalculatedValue a0 = argVal[0];
-            switch (getFunctionType())
-            {
-            case SINH:
-                return outValue.sinh(a0);
-            case COSH:
-                return outValue.cosh(a0);
-            case TANH:
-                return outValue.tanh(a0);
-
-            case CSCH:
-                return outValue.csch(a0);
-            case SECH:
-                return outValue.sech(a0);
-            case COTH:
-                return outValue.coth(a0);
-
-            case EXP:
-                return outValue.exp(a0);
-            case LN:
-                return outValue.log(a0);
-            case LOG:
-                outValue.log(a0);
-                tmpVal.log(argVal[1]);
-                return outValue.divide(outValue, tmpVal);
-            case LOG10:
-                return outValue.log10(a0);
-            }
+            return calculate(getFunctionType(), argVal, outValue);
         }
         return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
     }
 
+    /**
+     * Procedure calculates the function value for given argument values
+     */
+    static CalculatedValue.ValueType calculate(FunctionType type, CalculatedValue[] argVal, CalculatedValue outValue)
+    {
+        final CalculatedValue a0 = argVal[0];
+        switch (type)
+        {
+        case SINH:
+            return outValue.sinh(a0);
+        case COSH:
+            return outValue.cosh(a0);
+        case TANH:
+            return outValue.tanh(a0);
+
+        case CSCH:
+            return outValue.csch(a0);
+        case SECH:
+            return outValue.sech(a0);
+        case COTH:
+            return outValue.coth(a0);
+
+        case EXP:
+            return outValue.exp(a0);
+        case LN:
+            return outValue.log(a0);
+        case LOG:
+        {
+            final CalculatedValue a1 = argVal[1];
+            outValue.log(a0);
+            a1.log(a1);
+            a1.setUnit(null);
+            return outValue.divide(outValue, a1);
+        }
+        case LOG10:
+            return outValue.log10(a0);
+        }
+        return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
+    }
+
+    /**
+     * Procedure calculates the function value for real unit-free arguments
+     */
+    static double calculateReal(FunctionType type, double[] args)
+    {
+        final double a0 = args[0];
+        switch (type)
+        {
+        case SINH:
+            return FastMath.sinh(a0);
+        case COSH:
+            return FastMath.cosh(a0);
+        case TANH:
+            return FastMath.tanh(a0);
+        case CSCH:
+            return 1.0 / FastMath.sinh(a0);
+        case SECH:
+            return 1.0 / FastMath.cosh(a0);
+        case COTH:
+            return 1.0 / FastMath.tanh(a0);
+        case EXP:
+            return FastMath.exp(a0);
+        // logarithm of a non-positive number is complex
+        case LN:
+            return (a0 > 0.0) ? FastMath.log(a0) : Double.NaN;
+        case LOG:
+            return (a0 > 0.0 && args[1] > 0.0) ? FastMath.log(a0) / FastMath.log(args[1]) : Double.NaN;
+        case LOG10:
+            return (a0 > 0.0) ? FastMath.log10(a0) : Double.NaN;
+        }
+        return Double.NaN;
+    }
+
+    @Override
+    public EvalNode compile(TermCompiler compiler)
+    {
+        return compileFunction(compiler, getFunctionType());
+    }
+
     @Override
     public CalculatableIf.DifferentiableType isDifferentiable(String var)
     {
@@ -280,61 +357,79 @@ public class LogFunctions extends FunctionBase
         if (termType != null && terms.size() > 0)
         {
             ensureArgValSize();
+            ensureArgDerSize();
             for (int i = 0; i < terms.size(); i++)
             {
                 terms.get(i).getValue(thread, argVal[i]);
+                terms.get(i).getDerivativeValue(var, thread, argDer[i]);
             }
-            final CalculatedValue a0 = argVal[0];
-            terms.get(0).getDerivativeValue(var, thread, a0derVal);
-            switch (getFunctionType())
+            return calculateDerivative(getFunctionType(), argVal, argDer, outValue);
+        }
+        return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
+    }
+
+    /**
+     * Procedure calculates the derivative of the function value from the argument values and their derivatives
+     */
+    static CalculatedValue.ValueType calculateDerivative(FunctionType type, CalculatedValue[] argVal,
+                                                         CalculatedValue[] argDer, CalculatedValue outValue)
+    {
+        final CalculatedValue a0 = argVal[0];
+        final CalculatedValue a0derVal = argDer[0];
+        final CalculatedValue tmpVal = new CalculatedValue();
+        switch (type)
+        {
+        case SINH: // cosh(a0) * a0'
+            outValue.cosh(a0);
+            return outValue.multiply(outValue, a0derVal);
+        case COSH: // sinh(a0) * a0'
+            outValue.sinh(a0);
+            return outValue.multiply(outValue, a0derVal);
+        case TANH: // (1.0 / (cosh(a0) * cosh(a0))) * a0'
+            outValue.cosh(a0);
+            outValue.multiply(outValue, outValue);
+            outValue.divide(CalculatedValue.ONE, outValue);
+            return outValue.multiply(outValue, a0derVal);
+
+        case CSCH: // -1.0 * coth(a0) * csch(a0) * a0'
+            outValue.coth(a0);
+            tmpVal.csch(a0);
+            outValue.multiply(outValue, tmpVal);
+            outValue.multiply(CalculatedValue.MINUS_ONE, outValue);
+            return outValue.multiply(outValue, a0derVal);
+        case SECH: // -1.0 * tanh(a0) * sech(a0) * a0'
+            outValue.tanh(a0);
+            tmpVal.sech(a0);
+            outValue.multiply(outValue, tmpVal);
+            outValue.multiply(CalculatedValue.MINUS_ONE, outValue);
+            return outValue.multiply(outValue, a0derVal);
+        case COTH: // (-1.0 / (sinh(a0) * sinh(a0))) * a0'
+            outValue.sinh(a0);
+            outValue.multiply(outValue, outValue);
+            outValue.divide(CalculatedValue.MINUS_ONE, outValue);
+            return outValue.multiply(outValue, a0derVal);
+
+        case EXP: // exp(a0) * a0'
+            outValue.exp(a0);
+            return outValue.multiply(outValue, a0derVal);
+        case LN: // (1.0 / a0) * a0'
+            outValue.divide(CalculatedValue.ONE, a0);
+            return outValue.multiply(outValue, a0derVal);
+        case LOG: // (1.0 / (a0 * FastMath.log(a1))) * a0'
+            if (!argDer[1].isZero())
             {
-            case SINH: // cosh(a0) * a0'
-                outValue.cosh(a0);
-                return outValue.multiply(outValue, a0derVal);
-            case COSH: // sinh(a0) * a0'
-                outValue.sinh(a0);
-                return outValue.multiply(outValue, a0derVal);
-            case TANH: // (1.0 / (cosh(a0) * cosh(a0))) * a0'
-                outValue.cosh(a0);
-                outValue.multiply(outValue, outValue);
-                outValue.divide(CalculatedValue.ONE, outValue);
-                return outValue.multiply(outValue, a0derVal);
-
-            case CSCH: // -1.0 * coth(a0) * csch(a0) * a0'
-                outValue.coth(a0);
-                tmpVal.csch(a0);
-                outValue.multiply(outValue, tmpVal);
-                outValue.multiply(CalculatedValue.MINUS_ONE, outValue);
-                return outValue.multiply(outValue, a0derVal);
-            case SECH: // -1.0 * tanh(a0) * sech(a0) * a0'
-                outValue.tanh(a0);
-                tmpVal.sech(a0);
-                outValue.multiply(outValue, tmpVal);
-                outValue.multiply(CalculatedValue.MINUS_ONE, outValue);
-                return outValue.multiply(outValue, a0derVal);
-            case COTH: // (-1.0 / (sinh(a0) * sinh(a0))) * a0'
-                outValue.sinh(a0);
-                outValue.multiply(outValue, outValue);
-                outValue.divide(CalculatedValue.MINUS_ONE, outValue);
-                return outValue.multiply(outValue, a0derVal);
-
-            case EXP: // exp(a0) * a0'
-                outValue.exp(a0);
-                return outValue.multiply(outValue, a0derVal);
-            case LN: // (1.0 / a0) * a0'
-                outValue.divide(CalculatedValue.ONE, a0);
-                return outValue.multiply(outValue, a0derVal);
-            case LOG: // (1.0 / (a0 * FastMath.log(a1))) * a0'
-                tmpVal.log(argVal[1]);
-                outValue.multiply(a0, tmpVal);
-                outValue.divide(CalculatedValue.ONE, outValue);
-                return outValue.multiply(outValue, a0derVal);
-            case LOG10: // (1.0 / (a0 * FastMath.log(10.0))) * a0'
-                outValue.assign(a0);
-                outValue.multiply(FastMath.log(10.0));
-                outValue.divide(CalculatedValue.ONE, outValue);
-                return outValue.multiply(outValue, a0derVal);
+                // the base shall not depend on the given argument
+                return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
             }
+            tmpVal.log(argVal[1]);
+            outValue.multiply(a0, tmpVal);
+            outValue.divide(CalculatedValue.ONE, outValue);
+            return outValue.multiply(outValue, a0derVal);
+        case LOG10: // (1.0 / (a0 * FastMath.log(10.0))) * a0'
+            outValue.assign(a0);
+            outValue.multiply(FastMath.log(10.0));
+            outValue.divide(CalculatedValue.ONE, outValue);
+            return outValue.multiply(outValue, a0derVal);
         }
         return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
     }
@@ -17,6 +17,10 @@ import android.content.Context;
 import android.util.AttributeSet;
 import android.widget.LinearLayout;
 
+import com.mkulesh.micromath.eval.EvalFunctionIf;
+import com.mkulesh.micromath.eval.EvalNode;
+import com.mkulesh.micromath.eval.RealFunctionIf;
+import com.mkulesh.micromath.eval.TermCompiler;
 import com.mkulesh.micromath.formula.CalculatableIf;
 import com.mkulesh.micromath.formula.CalculaterTask;
 import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
@@ -43,7 +47,7 @@ public class NumberFunctions extends FunctionBase
     /**
      * Supported functions
      */
-    public enum FunctionType implements ObsoleteFunctionIf
+    public enum FunctionType implements ObsoleteFunctionIf, EvalFunctionIf, RealFunctionIf
     {
         MAX(2, R.drawable.p_function_max, R.string.math_function_max),
         MIN(2, R.drawable.p_function_min, R.string.math_function_min),
@@ -138,6 +142,26 @@ public class NumberFunctions extends FunctionBase
         {
             return new NumberFunctions(this, termField, layout, text, textIndex);
         }
+
+        public CalculatedValue.ValueType apply(CalculatedValue[] args, CalculatedValue outValue)
+        {
+            return calculate(this, args, outValue);
+        }
+
+        public boolean isDeterministic()
+        {
+            return this != RANDOM;
+        }
+
+        public boolean isRealFunction()
+        {
+            return true;
+        }
+
+        public double applyReal(double[] args)
+        {
+            return calculateReal(this, args);
+        }
     }
 
     /**
@@ -200,76 +224,129 @@ public class NumberFunctions extends FunctionBase
             {
                 terms.get(i).getValue(thread, argVal[i]);
             }
-            final CalculatedValue a0 = argVal[0];
-            switch (getFunctionType())
-            {
-            case CEIL:
-                return outValue.ceil(a0);
-            case FLOOR:
-                return outValue.floor(a0);
-            case ROUND:
+            return calculate(getFunctionType(), argVal, outValue);
+        }
+        return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
+    }
+
+    /**
+     * Procedure calculates the function value for given argument values
+     */
+    static CalculatedValue.ValueType calculate(FunctionType type, CalculatedValue[] argVal, CalculatedValue outValue)
+    {
+        final CalculatedValue a0 = argVal[0];
+        switch (type)
+        {
+        case CEIL:
+            return outValue.ceil(a0);
+        case FLOOR:
+            return outValue.floor(a0);
+        case ROUND:
+        {
+            final CalculatedValue a1 = argVal[1];
+            if (a0.isComplex() || a1.isComplex())
             {
-                final CalculatedValue a1 = argVal[1];
-                if (a0.isComplex() || a1.isComplex())
-                {
-                    return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
-                }
-                return outValue.setValue(Precision.round(a0.getReal(), a1.getInteger()));
+                return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
             }
-            case TRUNC:
+            return outValue.setValue(Precision.round(a0.getReal(), a1.getInteger()));
+        }
+        case TRUNC:
+        {
+            if (a0.isComplex())
             {
-                if (a0.isComplex())
-                {
-                    return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
-                }
-                return outValue.setValue(a0.getInteger());
+                return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
             }
+            return outValue.setValue(a0.getInteger());
+        }
 
-            case RANDOM:
-                return outValue.random(a0);
+        case RANDOM:
+            return outValue.random(a0);
 
-            case MAX:
-            case MIN:
+        case MAX:
+        case MIN:
+        {
+            final CalculatedValue a1 = argVal[1];
+            if (a0.isComplex() || a1.isComplex())
             {
-                final CalculatedValue a1 = argVal[1];
-                if (a0.isComplex() || a1.isComplex())
-                {
-                    return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
-                }
-                final double res = (termType == FunctionType.MAX) ? FastMath.max(a0.getReal(), a1.getReal())
-                        : FastMath.min(a0.getReal(), a1.getReal());
-                return outValue.setValue(res);
+                return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
             }
+            final double res = (type == FunctionType.MAX) ? FastMath.max(a0.getReal(), a1.getReal())
+                    : FastMath.min(a0.getReal(), a1.getReal());
+            return outValue.setValue(res);
+        }
 
-            case SIGN:
-                if (a0.isComplex())
-                {
-                    return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
-                }
-                return outValue.setValue(FastMath.signum(a0.getReal()));
-
-            case MOD:
+        case SIGN:
+            if (a0.isComplex())
             {
-                final CalculatedValue a1 = argVal[1];
-                if (a0.isComplex() || a1.isComplex())
-                {
-                    return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
-                }
-                return outValue.setValue(a0.getReal() % a1.getReal());
+                return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
             }
+            return outValue.setValue(FastMath.signum(a0.getReal()));
 
-            case PERC:
+        case MOD:
+        {
+            final CalculatedValue a1 = argVal[1];
+            if (a0.isComplex() || a1.isComplex())
             {
-                tmpVal.assign(argVal[1]);
-                tmpVal.multiply(0.01);
-                return outValue.multiply(tmpVal, a0);
+                return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
             }
+            return outValue.setValue(a0.getReal() % a1.getReal());
+        }
+
+        case PERC:
+        {
+            final CalculatedValue a1 = argVal[1];
+            a1.multiply(0.01);
+            return outValue.multiply(a1, a0);
+        }
 
-            }
         }
         return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
     }
 
+    /**
+     * Procedure calculates the function value for real unit-free arguments
+     */
+    static double calculateReal(FunctionType type, double[] args)
+    {
+        final double a0 = args[0];
+        switch (type)
+        {
+        case CEIL:
+            return FastMath.ceil(a0);
+        case FLOOR:
+            return FastMath.floor(a0);
+        case ROUND:
+            return Precision.round(a0, (int) args[1]);
+        case TRUNC:
+            return (int) a0;
+        case RANDOM:
+            return FastMath.random() * a0;
+        case MAX:
+            return FastMath.max(a0, args[1]);
+        case MIN:
+            return FastMath.min(a0, args[1]);
+        case SIGN:
+            return FastMath.signum(a0);
+        case MOD:
+            return a0 % args[1];
+        case PERC:
+            return (args[1] * 0.01) * a0;
+        }
+        return Double.NaN;
+    }
+
+    @Override
+    public boolean isVolatile()
+    {
+        return termType == FunctionType.RANDOM || super.isVolatile();
+    }
+
+    @Override
+    public EvalNode compile(TermCompiler compiler)
+    {
+        return compileFunction(compiler, getFunctionType());
+    }
+
     @Override
     public CalculatableIf.DifferentiableType isDifferentiable(String var)
     {
@@ -17,6 +17,11 @@ import android.content.Context;
 import android.util.AttributeSet;
 import android.widget.LinearLayout;
 
+import com.mkulesh.micromath.eval.DifferentiableFunctionIf;
+import com.mkulesh.micromath.eval.EvalFunctionIf;
+import com.mkulesh.micromath.eval.EvalNode;
+import com.mkulesh.micromath.eval.RealFunctionIf;
+import com.mkulesh.micromath.eval.TermCompiler;
 import com.mkulesh.micromath.formula.CalculaterTask;
 import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
 import com.mkulesh.micromath.formula.FormulaTerm;
@@ -41,7 +46,7 @@ public class Operators extends FormulaTerm
     /**
      * Supported operators
      */
-    public enum OperatorType implements TermTypeIf
+    public enum OperatorType implements TermTypeIf, EvalFunctionIf, RealFunctionIf, DifferentiableFunctionIf
     {
         PLUS(R.string.formula_operator_plus,
                 R.drawable.p_operator_plus,
@@ -129,6 +134,32 @@ public class Operators extends FormulaTerm
         {
             return new Operators(this, termField, layout, text, textIndex);
         }
+
+        public CalculatedValue.ValueType apply(CalculatedValue[] args, CalculatedValue outValue)
+        {
+            return calculate(this, args[0], args[1], outValue);
+        }
+
+        public boolean isDeterministic()
+        {
+            return true;
+        }
+
+        public boolean isRealFunction()
+        {
+            return true;
+        }
+
+        public double applyReal(double[] args)
+        {
+            return calculateReal(this, args);
+        }
+
+        public CalculatedValue.ValueType derivative(CalculatedValue[] args, CalculatedValue[] argDerivatives,
+                                                    CalculatedValue outValue)
+        {
+            return calculateDerivative(this, args[0], args[1], argDerivatives[0], argDerivatives[1], outValue);
+        }
     }
 
     /**
@@ -186,22 +217,96 @@ public class Operators extends FormulaTerm
         {
             leftTerm.getValue(thread, fVal);
             rightTerm.getValue(thread, gVal);
-            switch (getOperatorType())
-            {
-            case PLUS:
-                return outValue.add(fVal, gVal);
-            case MINUS:
-                return outValue.subtract(fVal, gVal);
-            case MULT:
-                return outValue.multiply(fVal, gVal);
-            case DIVIDE:
-            case DIVIDE_SLASH:
-                return outValue.divide(fVal, gVal);
-            }
+            return calculate(getOperatorType(), fVal, gVal, outValue);
+        }
+        return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
+    }
+
+    /**
+     * Procedure applies the given operator to the given operand values
+     */
+    public static CalculatedValue.ValueType calculate(OperatorType type, CalculatedValue fVal, CalculatedValue gVal,
+                                                      CalculatedValue outValue)
+    {
+        switch (type)
+        {
+        case PLUS:
+            return outValue.add(fVal, gVal);
+        case MINUS:
+            return outValue.subtract(fVal, gVal);
+        case MULT:
+            return outValue.multiply(fVal, gVal);
+        case DIVIDE:
+        case DIVIDE_SLASH:
+            return outValue.divide(fVal, gVal);
+        }
+        return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
+    }
+
+    /**
+     * Procedure calculates the derivative of the operator value from the operand values and their derivatives
+     */
+    public static CalculatedValue.ValueType calculateDerivative(OperatorType type, CalculatedValue fVal,
+                                                                CalculatedValue gVal, CalculatedValue fDer,
+                                                                CalculatedValue gDer, CalculatedValue outValue)
+    {
+        switch (type)
+        {
+        case PLUS:
+            return outValue.add(fDer, gDer);
+        case MINUS:
+            return outValue.subtract(fDer, gDer);
+        case MULT:
+        {
+            final CalculatedValue tmp = new CalculatedValue();
+            tmp.multiply(fVal, gDer);
+            outValue.multiply(fDer, gVal);
+            return outValue.add(outValue, tmp);
+        }
+        case DIVIDE:
+        case DIVIDE_SLASH:
+        {
+            final CalculatedValue tmp = new CalculatedValue();
+            tmp.multiply(fVal, gDer);
+            outValue.multiply(fDer, gVal);
+            outValue.subtract(outValue, tmp);
+            tmp.multiply(gVal, gVal);
+            return outValue.divide(outValue, tmp);
+        }
         }
         return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
     }
 
+    /**
+     * Procedure calculates the operator value for real unit-free arguments
+     */
+    public static double calculateReal(OperatorType type, double[] args)
+    {
+        switch (type)
+        {
+        case PLUS:
+            return args[0] + args[1];
+        case MINUS:
+            return args[0] - args[1];
+        case MULT:
+            return args[0] * args[1];
+        case DIVIDE:
+        case DIVIDE_SLASH:
+            return args[0] / args[1];
+        }
+        return Double.NaN;
+    }
+
+    @Override
+    public EvalNode compile(TermCompiler compiler)
+    {
+        if (termType != null && leftTerm != null && rightTerm != null)
+        {
+            return compiler.apply(getOperatorType(), leftTerm, rightTerm);
+        }
+        return super.compile(compiler);
+    }
+
     @Override
     public DifferentiableType isDifferentiable(String var)
     {
@@ -217,32 +322,9 @@ public class Operators extends FormulaTerm
         {
             leftTerm.getDerivativeValue(var, thread, fDer);
             rightTerm.getDerivativeValue(var, thread, gDer);
-            switch (getOperatorType())
-            {
-            case PLUS:
-                return outValue.add(fDer, gDer);
-            case MINUS:
-                return outValue.subtract(fDer, gDer);
-            case MULT:
-            {
-                leftTerm.getValue(thread, fVal);
-                rightTerm.getValue(thread, gVal);
-                fDer.multiply(fDer, gVal);
-                fVal.multiply(fVal, gDer);
-                return outValue.add(fDer, fVal);
-            }
-            case DIVIDE:
-            case DIVIDE_SLASH:
-            {
-                leftTerm.getValue(thread, fVal);
-                rightTerm.getValue(thread, gVal);
-                fDer.multiply(fDer, gVal);
-                fVal.multiply(fVal, gDer);
-                gDer.subtract(fDer, fVal);
-                fDer.multiply(gVal, gVal);
-                return outValue.divide(gDer, fDer);
-            }
-            }
+            leftTerm.getValue(thread, fVal);
+            rightTerm.getValue(thread, gVal);
+            return calculateDerivative(getOperatorType(), fVal, gVal, fDer, gDer, outValue);
         }
         return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
     }
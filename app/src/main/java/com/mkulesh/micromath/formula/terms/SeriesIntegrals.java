@@ -19,6 +19,14 @@ import android.view.View;
 import android.widget.LinearLayout;
 import android.widget.Toast;
 
+import com.mkulesh.micromath.eval.Cubature;
+import com.mkulesh.micromath.eval.DifferentiableLoopIf;
+import com.mkulesh.micromath.eval.EvalContext;
+import com.mkulesh.micromath.eval.EvalLoopIf;
+import com.mkulesh.micromath.eval.EvalNode;
+import com.mkulesh.micromath.eval.OpCode;
+import com.mkulesh.micromath.eval.ParallelRunner;
+import com.mkulesh.micromath.eval.TermCompiler;
 import com.mkulesh.micromath.formula.ArgumentHolderIf;
 import com.mkulesh.micromath.formula.CalculaterTask;
 import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
@@ -29,7 +37,9 @@ import com.mkulesh.micromath.formula.TermField;
 import com.mkulesh.micromath.formula.TermField.BracketsType;
 import com.mkulesh.micromath.math.CalculatedValue;
 import com.mkulesh.micromath.math.CalculatedValue.ValueType;
+import com.mkulesh.micromath.math.SeriesAcceleration;
 import com.mkulesh.micromath.plus.R;
+import com.mkulesh.micromath.properties.DocumentProperties;
 import com.mkulesh.micromath.utils.ViewUtils;
 import com.mkulesh.micromath.widgets.CustomEditText;
 import com.mkulesh.micromath.widgets.CustomTextView;
@@ -37,13 +47,15 @@ import com.mkulesh.micromath.widgets.ScaledDimensions;
 
 import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.util.FastMath;
+import org.apache.commons.math3.util.Precision;
 
 import java.util.ArrayList;
 import java.util.Locale;
+import java.util.PriorityQueue;
 
 import javax.measure.unit.Unit;
 
-public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
+public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf, DifferentiableLoopIf
 {
     public TermTypeIf.GroupType getGroupType()
     {
@@ -145,6 +157,24 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
     private static final String MIN_VALUE_LAYOUT_TAG = "MIN_VALUE_LAYOUT_TAG";
     private static final String MAX_VALUE_LAYOUT_TAG = "MAX_VALUE_LAYOUT_TAG";
 
+    /**
+     * Nodes and weights of the 7-point Gauss and 15-point Kronrod rules (QUADPACK, routine qk15). The odd
+     * Kronrod nodes and the last one (center) are the Gauss nodes
+     */
+    private static final double[] KRONROD_NODES = new double[]{
+            0.991455371120812639206854697526329, 0.949107912342758524526189684047851,
+            0.864864423359769072789712788640926, 0.741531185599394439863864773280788,
+            0.586087235467691130294144845693013, 0.405845151377397166906606412076961,
+            0.207784955007898467600689403773245, 0.000000000000000000000000000000000 };
+    private static final double[] KRONROD_WEIGHTS = new double[]{
+            0.022935322010529224963732008058970, 0.063092092629978553290700663189204,
+            0.104790010322250183839876322541518, 0.140653259715525918745189590510238,
+            0.169004726639267902826583426598550, 0.190350578064785409913256402421014,
+            0.204432940075298892414161999234649, 0.209482141084727828012999174891714 };
+    private static final double[] GAUSS_WEIGHTS = new double[]{
+            0.129484966168869693270611432679082, 0.279705391489276667901467771423780,
+            0.381830050505118944950369775488975, 0.417959183673469387755102040816327 };
+
     /**
      * Private attributes
      */
@@ -152,14 +182,21 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
     private LinearLayout symbolLayout = null, minValueLayout = null, maxValueLayout = null;
     private CustomTextView functionTerm = null;
 
-    private final LoopCalculator loopCalculator = new LoopCalculator();
     private DifferentiableType differentiableType = null;
-
-    // Attention: this is not thread-safety declaration!
-    private final CalculatedValue minValue = new CalculatedValue(), maxValue = new CalculatedValue(),
-            calcVal = new CalculatedValue(), argValue = new CalculatedValue();
     private CalculationStatus calcStatus = CalculationStatus.NONE;
 
+    // statistics of the last adaptive integration: the loop can be evaluated by several threads
+    private volatile int integrandEvaluations = 0;
+    private volatile double integrationError = 0.0;
+
+    // statistics of the last root search
+    private volatile int rootIterations = 0;
+    private volatile int rootEvaluations = 0;
+
+    // statistics of the last accelerated infinite summation
+    private volatile int seriesTerms = 0;
+    private volatile double seriesError = 0.0;
+
     /*--------------------------------------------------------*
      * Constructors
      *--------------------------------------------------------*/
@@ -219,28 +256,24 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
     {
         if (termType != null)
         {
-            if (!calculateBoundaries(thread))
-            {
-                return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_REAL);
-            }
-            loopCalculator.setCalculaterTask(thread);
-            switch (getLoopType())
-            {
-            case SUMMATION:
-                return loopCalculator.summation(minValue.getInteger(), maxValue.getInteger(), outValue);
-            case PRODUCT:
-                return loopCalculator.product(minValue.getInteger(), maxValue.getInteger(), outValue);
-            case INTEGRAL:
-                return loopCalculator.integrate(getFormulaList().getDocumentSettings().getPrecision(), outValue);
-            case DERIVATIVE:
-                return loopCalculator.derivative(differentiableType, getIndexName(), outValue);
-            case SOLVE:
-                return loopCalculator.solve(getFormulaList().getDocumentSettings().getPrecision(), outValue);
-            }
+            // this term is a part of a term that is not compiled: its own terms are not compiled as well
+            return getValue(EvalContext.get(thread), getLegacyNodes(), outValue);
         }
         return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
     }
 
+    @Override
+    public EvalNode compile(TermCompiler compiler)
+    {
+        if (termType == null)
+        {
+            return super.compile(compiler);
+        }
+        return (termType == LoopType.DERIVATIVE) ?
+                compiler.loop(this, argTerm, indexTerm) :
+                compiler.loop(this, argTerm, minValueTerm, maxValueTerm);
+    }
+
     @Override
     public DifferentiableType isDifferentiable(String var)
     {
@@ -257,22 +290,39 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
     {
         if (isLoopDifferentiable(var))
         {
-            if (!calculateBoundaries(thread))
+            final EvalContext context = EvalContext.get(thread);
+            final EvalNode[] args = getLegacyNodes();
+            final CalculatedValue minValue = new CalculatedValue(), maxValue = new CalculatedValue();
+            if (!calculateBoundaries(context, args, minValue, maxValue))
             {
                 return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_REAL);
             }
-            loopCalculator.setCalculaterTask(thread);
-            switch (getLoopType())
+            if (isInfinite(minValue, maxValue))
             {
-            case SUMMATION:
-                return loopCalculator.summationDerivative(var, minValue.getInteger(), maxValue.getInteger(), outValue);
+                return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
+            }
+            final LoopCalculator loopCalculator = new LoopCalculator(context, args[0]);
+            context.pushFrame(this, loopCalculator.frame);
+            try
+            {
+                switch (getLoopType())
+                {
+                case SUMMATION:
+                    return loopCalculator.summationDerivative(var, minValue.getInteger(), maxValue.getInteger(),
+                            outValue);
 
-            case PRODUCT:
-                return loopCalculator.productDerivative(var, minValue.getInteger(), maxValue.getInteger(), outValue);
+                case PRODUCT:
+                    return loopCalculator.productDerivative(var, minValue.getInteger(), maxValue.getInteger(),
+                            outValue);
 
-            case DERIVATIVE:
-            case INTEGRAL:
-                return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
+                case DERIVATIVE:
+                case INTEGRAL:
+                    return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
+                }
+            }
+            finally
+            {
+                context.popFrame();
             }
         }
         return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
@@ -416,6 +466,27 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
             Toast.makeText(getContext(), getContext().getResources().getString(calcStatus.descriptionId),
                     Toast.LENGTH_LONG).show();
         }
+        else if (isSelected && termType == LoopType.INTEGRAL && integrandEvaluations > 0)
+        {
+            final String message = String.format(
+                    getContext().getResources().getString(R.string.message_integral_evaluations),
+                    integrandEvaluations, String.format(Locale.ENGLISH, "%.3g", integrationError));
+            Toast.makeText(getContext(), message, Toast.LENGTH_LONG).show();
+        }
+        else if (isSelected && termType == LoopType.SOLVE && rootEvaluations > 0)
+        {
+            final String message = String.format(
+                    getContext().getResources().getString(R.string.message_solve_iterations),
+                    rootIterations, rootEvaluations);
+            Toast.makeText(getContext(), message, Toast.LENGTH_LONG).show();
+        }
+        else if (isSelected && termType == LoopType.SUMMATION && seriesTerms > 0)
+        {
+            final String message = String.format(
+                    getContext().getResources().getString(R.string.message_series_terms),
+                    seriesTerms, String.format(Locale.ENGLISH, "%.3g", seriesError));
+            Toast.makeText(getContext(), message, Toast.LENGTH_LONG).show();
+        }
     }
 
     @Override
@@ -454,14 +525,123 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
         return ViewUtils.INVALID_INDEX;
     }
 
+    /*--------------------------------------------------------*
+     * Implementation of EvalLoopIf and DifferentiableLoopIf interfaces
+     *--------------------------------------------------------*/
+
     @Override
-    public CalculatedValue getArgumentValue(int idx)
+    public CalculatedValue.ValueType getValue(EvalContext context, EvalNode[] args, CalculatedValue outValue)
+            throws CancelException
     {
-        if (idx != 0)
+        // all intermediate values are local: the same loop can be evaluated by several threads
+        final LoopCalculator loopCalculator = new LoopCalculator(context, args[0]);
+        if (getLoopType() == LoopType.DERIVATIVE)
+        {
+            final CalculatedValue point = new CalculatedValue();
+            args[1].getValue(context, point);
+            context.pushFrame(this, loopCalculator.frame);
+            try
+            {
+                return loopCalculator.derivative(differentiableType, point, outValue);
+            }
+            finally
+            {
+                context.popFrame();
+            }
+        }
+
+        final CalculatedValue minValue = new CalculatedValue(), maxValue = new CalculatedValue();
+        if (!calculateBoundaries(context, args, minValue, maxValue))
         {
-            argValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
+            return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_REAL);
+        }
+        final DocumentProperties settings = getFormulaList().getDocumentSettings();
+        final boolean isKronrod = getLoopType() == LoopType.INTEGRAL &&
+                settings.integrationMethod == DocumentProperties.IntegrationMethod.GAUSS_KRONROD;
+        final boolean isInfinite = isInfinite(minValue, maxValue);
+        if (isInfinite && getLoopType() != LoopType.SUMMATION && !isKronrod)
+        {
+            // only summations and Gauss-Kronrod integrals support infinite boundaries
+            return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_REAL);
+        }
+        if (getLoopType() == LoopType.INTEGRAL)
+        {
+            // the multidimensional integration does not depend on the selected one-dimensional method
+            final CalculatedValue.ValueType nested = calculateNested(context, args, minValue, maxValue,
+                    settings.getPrecision(), outValue);
+            if (nested != null)
+            {
+                return nested;
+            }
+        }
+        context.pushFrame(this, loopCalculator.frame);
+        try
+        {
+            switch (getLoopType())
+            {
+            case SUMMATION:
+                return isInfinite ?
+                        loopCalculator.infiniteSummation(minValue.getReal(), maxValue.getReal(),
+                                settings.getPrecision(), outValue) :
+                        loopCalculator.summation(minValue.getInteger(), maxValue.getInteger(), outValue);
+            case PRODUCT:
+                return loopCalculator.product(minValue.getInteger(), maxValue.getInteger(), outValue);
+            case INTEGRAL:
+                return loopCalculator.integrate(minValue, maxValue, settings.getPrecision(),
+                        settings.integrationMethod, outValue);
+            case SOLVE:
+                return loopCalculator.solve(minValue, maxValue, settings.getPrecision(), outValue);
+            default:
+                return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
+            }
+        }
+        finally
+        {
+            context.popFrame();
+        }
+    }
+
+    @Override
+    public boolean getDualValue(EvalContext context, EvalNode[] args, CalculatedValue outValue,
+                                CalculatedValue outDerivative) throws CancelException
+    {
+        final LoopType loopType = getLoopType();
+        if (loopType != LoopType.SUMMATION && loopType != LoopType.PRODUCT)
+        {
+            // derivatives of other loops are not calculated analytically
+            getValue(context, args, outValue);
+            outDerivative.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
+            return true;
+        }
+
+        // the boundaries are integer: their derivative is zero
+        final CalculatedValue minValue = new CalculatedValue(), maxValue = new CalculatedValue();
+        if (!calculateBoundaries(context, args, minValue, maxValue))
+        {
+            outValue.invalidate(CalculatedValue.ErrorType.NOT_A_REAL);
+            return false;
+        }
+        if (isInfinite(minValue, maxValue))
+        {
+            // the accelerated infinite summation is not differentiated analytically
+            getValue(context, args, outValue);
+            outDerivative.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
+            return true;
+        }
+        final LoopCalculator loopCalculator = new LoopCalculator(context, args[0]);
+        context.pushFrame(this, loopCalculator.frame);
+        try
+        {
+            return (loopType == LoopType.SUMMATION) ?
+                    loopCalculator.dualSummation(minValue.getInteger(), maxValue.getInteger(), outValue,
+                            outDerivative) :
+                    loopCalculator.dualProduct(minValue.getInteger(), maxValue.getInteger(), outValue,
+                            outDerivative);
+        }
+        finally
+        {
+            context.popFrame();
         }
-        return argValue;
     }
 
     /*--------------------------------------------------------*
@@ -561,35 +741,137 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
         return false;
     }
 
+    /**
+     * Procedure returns the loop terms wrapped into the nodes that evaluate them using the formula view tree
+     */
+    private EvalNode[] getLegacyNodes()
+    {
+        final TermCompiler compiler = new TermCompiler(null);
+        if (termType == LoopType.DERIVATIVE)
+        {
+            return new EvalNode[]{ compiler.legacy(argTerm), compiler.legacy(indexTerm) };
+        }
+        return new EvalNode[]{ compiler.legacy(argTerm), compiler.legacy(minValueTerm),
+                compiler.legacy(maxValueTerm) };
+    }
+
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
-    private boolean calculateBoundaries(CalculaterTask thread) throws CancelException
+    private boolean calculateBoundaries(EvalContext context, EvalNode[] args, CalculatedValue minValue,
+                                        CalculatedValue maxValue) throws CancelException
     {
         minValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
-        if (minValueTerm != null)
+        if (args.length > 1)
         {
-            minValue.processRealTerm(thread, minValueTerm);
-            if (minValue.isNaN())
+            minValue.processRealTerm(context, args[1]);
+            if (!minValue.isReal() || Double.isNaN(minValue.getReal()))
             {
                 return false;
             }
         }
 
         maxValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
-        if (maxValueTerm != null)
+        if (args.length > 2)
         {
-            maxValue.processRealTerm(thread, maxValueTerm);
-            return !maxValue.isNaN();
+            maxValue.processRealTerm(context, args[2]);
+            return maxValue.isReal() && !Double.isNaN(maxValue.getReal());
         }
         return true;
     }
 
+    /**
+     * Procedure checks whether one of the given boundaries is infinite
+     */
+    private static boolean isInfinite(CalculatedValue minValue, CalculatedValue maxValue)
+    {
+        return (minValue.isReal() && Double.isInfinite(minValue.getReal())) ||
+                (maxValue.isReal() && Double.isInfinite(maxValue.getReal()));
+    }
+
+    /**
+     * Procedure calculates the directly nested integrals with constant inner bounds as a single multidimensional
+     * integral. It returns null if this integral does not contain such nested integrals
+     */
+    private CalculatedValue.ValueType calculateNested(EvalContext context, EvalNode[] args, CalculatedValue minValue,
+                                                      CalculatedValue maxValue, double absoluteAccuracy,
+                                                      CalculatedValue outValue) throws CancelException
+    {
+        final ArrayList<ArgumentHolderIf> holders = new ArrayList<>();
+        final ArrayList<CalculatedValue> minValues = new ArrayList<>(), maxValues = new ArrayList<>();
+        holders.add(this);
+        minValues.add(minValue);
+        maxValues.add(maxValue);
+        EvalNode body = args[0];
+        while (body.getOpCode() == OpCode.LOOP && body.getArgNumber() == 3 &&
+                body.getLoop() instanceof SeriesIntegrals &&
+                ((SeriesIntegrals) body.getLoop()).getLoopType() == LoopType.INTEGRAL)
+        {
+            final EvalNode[] innerArgs = new EvalNode[]{ body.getArg(0), body.getArg(1), body.getArg(2) };
+            for (ArgumentHolderIf h : holders)
+            {
+                if (innerArgs[1].dependsOn(h) || innerArgs[2].dependsOn(h))
+                {
+                    return null;
+                }
+            }
+            final CalculatedValue innerMin = new CalculatedValue(), innerMax = new CalculatedValue();
+            if (!calculateBoundaries(context, innerArgs, innerMin, innerMax))
+            {
+                return null;
+            }
+            holders.add((SeriesIntegrals) body.getLoop());
+            minValues.add(innerMin);
+            maxValues.add(innerMax);
+            body = innerArgs[0];
+        }
+        if (holders.size() < 2)
+        {
+            return null;
+        }
+
+        final int dim = holders.size();
+        final double[] lowerBounds = new double[dim], upperBounds = new double[dim];
+        final Unit<?>[] argUnits = new Unit<?>[dim];
+        for (int i = 0; i < dim; i++)
+        {
+            final CalculatedValue min = minValues.get(i), max = maxValues.get(i);
+            if (Double.isInfinite(min.getReal()) || Double.isInfinite(max.getReal()) ||
+                    (min.getUnit() != null && max.getUnit() != null && !min.getUnit().equals(max.getUnit())))
+            {
+                // infinite bounds and unit errors are handled by the one-dimensional integration
+                return null;
+            }
+            lowerBounds[i] = min.getReal();
+            upperBounds[i] = max.getReal();
+            argUnits[i] = min.getUnit();
+        }
+
+        final Cubature cubature = new Cubature(context, body,
+                holders.toArray(new ArgumentHolderIf[0]), argUnits, lowerBounds, upperBounds);
+        cubature.integrate(absoluteAccuracy, outValue);
+        integrandEvaluations = cubature.getEvaluations();
+        integrationError = cubature.getError();
+        if (outValue.isNaN())
+        {
+            return outValue.getValueType();
+        }
+        final CalculatedValue argUnit = new CalculatedValue();
+        for (int i = 0; i < dim; i++)
+        {
+            argUnit.assign(CalculatedValue.ONE);
+            argUnit.setUnit(argUnits[i]);
+            outValue.multiply(outValue, argUnit);
+        }
+        return outValue.getValueType();
+    }
+
     public CustomTextView getFunctionTerm()
     {
         return functionTerm;
     }
 
     /**
-     * Helper class that implements loop calculator
+     * Helper class that implements loop calculator. A new instance is created for each loop evaluation:
+     * the loop index is stored in its own frame that is pushed into the evaluation context
      */
     class LoopCalculator
     {
@@ -597,6 +879,15 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
         private static final int RIDDER_MAX_ITERATIONS_COUNT = 10;
         private static final double RIDDER_INITIAL_STEP = 0.05;
         private static final int ROOT_MAX_ITERATIONS_COUNT = 60;
+        private static final int ROOT_SCAN_INTERVALS_COUNT = 32;
+        private static final int KRONROD_MAX_SEGMENTS_COUNT = 500;
+        private static final int TRAPEZOID_MIN_TILE_POINTS = 32;
+        private static final int TRAPEZOID_TILES_PER_THREAD = 4;
+        private static final int REDUCTION_MIN_CHUNK_SIZE = 1024;
+        private static final int REDUCTION_MAX_CHUNKS_COUNT = 4096;
+        private static final int PRODUCT_MAX_EXPONENT = 512;
+        private static final int SERIES_MAX_TERMS_COUNT = 100;
+
 
         /**
          * Intermediate result.
@@ -604,9 +895,22 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
         private final CalculatedValue qtrapResult = new CalculatedValue(ValueType.REAL, 0, 0);
 
         /**
-         * Owner calculation thread.
+         * Evaluation context and the loop body.
+         */
+        private final EvalContext context;
+        private final EvalNode body;
+
+        /**
+         * Evaluation frame of this loop: it holds the current value of the loop index.
          */
-        private CalculaterTask calculaterTask = null;
+        final CalculatedValue[] frame = new CalculatedValue[]{ new CalculatedValue() };
+        private final CalculatedValue argValue = frame[0];
+
+        LoopCalculator(EvalContext context, EvalNode body)
+        {
+            this.context = context;
+            this.body = body;
+        }
 
         /**
          * Class holding intermediate calculation value that can have a complex part
@@ -642,22 +946,118 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
             }
         }
 
-        void setCalculaterTask(CalculaterTask calculaterTask)
-        {
-            this.calculaterTask = calculaterTask;
-        }
-
         /**
          * Calculate summation
          */
         CalculatedValue.ValueType summation(long minValue, long maxValue, CalculatedValue outValue)
                 throws CancelException
         {
+            seriesTerms = 0;
+            return reduce(minValue, maxValue, false, outValue);
+        }
+
+        /**
+         * Calculate summation with at least one infinite boundary. The limit of the partial sums is estimated
+         * using the convergence acceleration: the terms are calculated until the estimate is converged
+         */
+        CalculatedValue.ValueType infiniteSummation(double minValue, double maxValue, double precision,
+                                                    CalculatedValue outValue) throws CancelException
+        {
+            seriesTerms = 0;
+            seriesError = 0.0;
+            calcStatus = CalculationStatus.NONE;
+            if (maxValue < minValue)
+            {
+                return outValue.setValue(0.0);
+            }
+            if (Double.isInfinite(minValue) && Double.isInfinite(maxValue))
+            {
+                // the series is split into the positive and negative parts
+                final CalculatedValue negative = new CalculatedValue();
+                if (acceleratedSeries(0, 1, precision, outValue) == ValueType.INVALID ||
+                        acceleratedSeries(-1, -1, precision, negative) == ValueType.INVALID)
+                {
+                    return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
+                }
+                return outValue.add(outValue, negative);
+            }
+            return Double.isInfinite(maxValue) ?
+                    acceleratedSeries((long) minValue, 1, precision, outValue) :
+                    acceleratedSeries((long) maxValue, -1, precision, outValue);
+        }
+
+        /**
+         * Procedure calculates the infinite series with the terms at first, first + step, first + 2 * step, etc.
+         * The real and imaginary parts are accelerated separately
+         */
+        private CalculatedValue.ValueType acceleratedSeries(long first, int step, double precision,
+                                                            CalculatedValue outValue) throws CancelException
+        {
+            final SeriesAcceleration re = new SeriesAcceleration(SERIES_MAX_TERMS_COUNT);
+            final SeriesAcceleration im = new SeriesAcceleration(SERIES_MAX_TERMS_COUNT);
+            final CalculatedValue calcVal = new CalculatedValue();
+            Unit<?> unit = null;
+            boolean isComplex = false;
+            for (long idx = first; !re.isFull(); idx += step)
+            {
+                argValue.setValue((double) idx);
+                body.getValue(context, calcVal);
+                if (calcVal.isNaN())
+                {
+                    return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
+                }
+                final Unit<?> termUnit = calcVal.getUnit();
+                if (idx == first)
+                {
+                    unit = termUnit;
+                }
+                else if (termUnit != unit &&
+                        (termUnit == null || unit == null || !unit.isCompatible(termUnit)))
+                {
+                    return outValue.invalidate(CalculatedValue.ErrorType.INCOMPATIBLE_UNIT);
+                }
+                isComplex |= calcVal.isComplex();
+                final double tolerance = precision * FastMath.max(1.0,
+                        FastMath.hypot(re.getValue(), im.getValue()));
+                re.addTerm(calcVal.getReal(), tolerance);
+                im.addTerm(calcVal.isComplex() ? calcVal.getImaginary() : 0.0, tolerance);
+                if (re.isConverged() && (!isComplex || im.isConverged()))
+                {
+                    break;
+                }
+            }
+            seriesTerms += re.getTermsCount();
+            seriesError += FastMath.hypot(re.getError(), isComplex ? im.getError() : 0.0);
+            if (!re.isConverged() || (isComplex && !im.isConverged()))
+            {
+                ViewUtils.Debug(this, "Series is not converged after " + re.getTermsCount() + " terms");
+                calcStatus = CalculationStatus.MAX_ITERATIONS;
+                return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
+            }
+            if (isComplex)
+            {
+                outValue.setComplexValue(re.getValue(), im.getValue());
+            }
+            else
+            {
+                outValue.setValue(re.getValue());
+            }
+            outValue.setUnit(unit);
+            return outValue.getValueType();
+        }
+
+        /**
+         * Calculate derivative of summation operator
+         */
+        CalculatedValue.ValueType summationDerivative(String var, long minValue, long maxValue,
+                                                      CalculatedValue outValue) throws CancelException
+        {
+            final CalculatedValue calcVal = new CalculatedValue();
             outValue.setValue(0.0);
             for (long idx = minValue; idx <= maxValue; idx++)
             {
                 argValue.setValue((double) idx);
-                argTerm.getValue(calculaterTask, calcVal);
+                argTerm.getDerivativeValue(var, context.getThread(), calcVal);
                 if (idx == minValue)
                 {
                     // For the first term, use assign in oder to set units
@@ -676,16 +1076,29 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
         }
 
         /**
-         * Calculate derivative of summation operator
+         * Calculate summation together with its derivative. Returns false if the derivative is identically zero
          */
-        CalculatedValue.ValueType summationDerivative(String var, long minValue, long maxValue,
-                                                      CalculatedValue outValue) throws CancelException
+        boolean dualSummation(long minValue, long maxValue, CalculatedValue outValue, CalculatedValue outDerivative)
+                throws CancelException
         {
+            final CalculatedValue calcVal = new CalculatedValue(), calcDer = new CalculatedValue();
+            boolean isDifferentiated = false;
             outValue.setValue(0.0);
             for (long idx = minValue; idx <= maxValue; idx++)
             {
                 argValue.setValue((double) idx);
-                argTerm.getDerivativeValue(var, calculaterTask, calcVal);
+                if (body.getDualValue(context, calcVal, calcDer))
+                {
+                    if (isDifferentiated)
+                    {
+                        outDerivative.add(outDerivative, calcDer);
+                    }
+                    else
+                    {
+                        outDerivative.assign(calcDer);
+                        isDifferentiated = true;
+                    }
+                }
                 if (idx == minValue)
                 {
                     // For the first term, use assign in oder to set units
@@ -700,7 +1113,7 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
                     break;
                 }
             }
-            return outValue.getValueType();
+            return isDifferentiated;
         }
 
         /**
@@ -709,11 +1122,256 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
         CalculatedValue.ValueType product(long minValue, long maxValue, CalculatedValue outValue)
                 throws CancelException
         {
+            return reduce(minValue, maxValue, true, outValue);
+        }
+
+        /**
+         * Partial result of a summation or a product over a chunk of the index range
+         */
+        private final class ReductionChunk
+        {
+            final boolean isProduct;
+
+            // summation: compensated sums of the real and imaginary parts
+            // product: mantissa of the partial product, its binary exponent is stored separately
+            double re, im, reComp = 0.0, imComp = 0.0;
+            long exponent = 0;
+            Unit<?> unit = null;
+            boolean isFirst = true, isComplex = false;
+            CalculatedValue.ErrorType error = null;
+
+            ReductionChunk(boolean isProduct)
+            {
+                this.isProduct = isProduct;
+                re = isProduct ? 1.0 : 0.0;
+                im = 0.0;
+            }
+
+            /**
+             * Procedure adds the given term to this partial result
+             */
+            void add(double termRe, double termIm, long termExponent, Unit<?> termUnit, boolean termComplex)
+            {
+                isComplex |= termComplex;
+                if (isProduct)
+                {
+                    if (termUnit != null)
+                    {
+                        unit = (unit == null) ? termUnit : unit.times(termUnit);
+                    }
+                    final double r = re * termRe - im * termIm;
+                    im = re * termIm + im * termRe;
+                    re = r;
+                    exponent += termExponent;
+                    normalize();
+                }
+                else
+                {
+                    if (isFirst)
+                    {
+                        unit = termUnit;
+                    }
+                    // the unit compatibility is only checked if the unit is changed within the chunk
+                    else if (termUnit != unit &&
+                            (termUnit == null || unit == null || !unit.isCompatible(termUnit)))
+                    {
+                        error = CalculatedValue.ErrorType.INCOMPATIBLE_UNIT;
+                    }
+                    reComp += neumaierCompensation(re, termRe);
+                    re += termRe;
+                    imComp += neumaierCompensation(im, termIm);
+                    im += termIm;
+                }
+                isFirst = false;
+            }
+
+            /**
+             * Procedure adds another partial result calculated for the following chunk
+             */
+            void add(ReductionChunk c)
+            {
+                if (c.error != null)
+                {
+                    error = c.error;
+                    return;
+                }
+                add(c.re, c.im, c.exponent, c.unit, c.isComplex);
+                reComp += c.reComp;
+                imComp += c.imComp;
+            }
+
+            /**
+             * Procedure keeps the mantissa of a product in a moderate range: the binary exponent is accumulated
+             * separately, so that long products do not overflow or underflow in between
+             */
+            private void normalize()
+            {
+                final double m = FastMath.max(FastMath.abs(re), FastMath.abs(im));
+                if (m == 0.0 || Double.isNaN(m) || Double.isInfinite(m))
+                {
+                    return;
+                }
+                final int e = FastMath.getExponent(m);
+                if (e > PRODUCT_MAX_EXPONENT || e < -PRODUCT_MAX_EXPONENT)
+                {
+                    re = FastMath.scalb(re, -e);
+                    im = FastMath.scalb(im, -e);
+                    exponent += e;
+                }
+            }
+
+            CalculatedValue.ValueType getValue(CalculatedValue outValue)
+            {
+                if (error != null)
+                {
+                    return outValue.invalidate(error);
+                }
+                double r = re + reComp, i = im + imComp;
+                if (isProduct)
+                {
+                    final int e = (int) FastMath.max(FastMath.min(exponent, 4 * PRODUCT_MAX_EXPONENT),
+                            -4 * PRODUCT_MAX_EXPONENT);
+                    r = FastMath.scalb(r, e);
+                    i = FastMath.scalb(i, e);
+                    if (unit != null && unit.isCompatible(Unit.ONE))
+                    {
+                        unit = null;
+                    }
+                }
+                if (isComplex)
+                {
+                    outValue.setComplexValue(r, i);
+                }
+                else
+                {
+                    outValue.setValue(r);
+                }
+                outValue.setUnit(unit);
+                return outValue.getValueType();
+            }
+        }
+
+        /**
+         * Procedure returns the rounding error of the sum of the given values (Neumaier's algorithm)
+         */
+        private double neumaierCompensation(double sum, double value)
+        {
+            final double t = sum + value;
+            return (FastMath.abs(sum) >= FastMath.abs(value)) ? (sum - t) + value : (value - t) + sum;
+        }
+
+        /**
+         * Procedure calculates a summation or a product. The index range is split into chunks that only depend
+         * on the range size; the chunks are calculated in parallel if possible and are combined in their order,
+         * so that the result does not depend on the number of threads
+         */
+        private CalculatedValue.ValueType reduce(final long minValue, final long maxValue, final boolean isProduct,
+                                                 CalculatedValue outValue) throws CancelException
+        {
+            final ReductionChunk result = new ReductionChunk(isProduct);
+            if (maxValue < minValue)
+            {
+                return result.getValue(outValue);
+            }
+            final long count = maxValue - minValue + 1;
+            final long chunkSize = FastMath.max(REDUCTION_MIN_CHUNK_SIZE,
+                    (count + REDUCTION_MAX_CHUNKS_COUNT - 1) / REDUCTION_MAX_CHUNKS_COUNT);
+            final int chunksNumber = (int) ((count + chunkSize - 1) / chunkSize);
+            final ReductionChunk[] chunks = new ReductionChunk[chunksNumber];
+            if (chunksNumber > 1 && ParallelRunner.getThreadsNumber() > 1 && body.isConcurrent())
+            {
+                ParallelRunner.run(context.getThread(), chunksNumber, (chunkContext, chunk) ->
+                {
+                    // each thread has its own loop frame
+                    final CalculatedValue[] chunkFrame = new CalculatedValue[]{ new CalculatedValue() };
+                    chunkContext.pushFrame(SeriesIntegrals.this, chunkFrame);
+                    try
+                    {
+                        final long first = minValue + chunk * chunkSize;
+                        chunks[chunk] = reduceChunk(chunkContext, chunkFrame[0], isProduct, first,
+                                FastMath.min(maxValue, first + chunkSize - 1));
+                    }
+                    finally
+                    {
+                        chunkContext.popFrame();
+                    }
+                });
+            }
+            else
+            {
+                for (int chunk = 0; chunk < chunksNumber; chunk++)
+                {
+                    final long first = minValue + chunk * chunkSize;
+                    chunks[chunk] = reduceChunk(context, argValue, isProduct, first,
+                            FastMath.min(maxValue, first + chunkSize - 1));
+                    if (chunks[chunk].error != null)
+                    {
+                        return outValue.invalidate(chunks[chunk].error);
+                    }
+                }
+            }
+            for (ReductionChunk c : chunks)
+            {
+                result.add(c);
+            }
+            return result.getValue(outValue);
+        }
+
+        /**
+         * Procedure calculates the partial result for indices from first to last (inclusive) using the given
+         * context and the loop index value bound in this context
+         */
+        private ReductionChunk reduceChunk(EvalContext ctx, CalculatedValue index, boolean isProduct, long first,
+                                           long last) throws CancelException
+        {
+            final ReductionChunk r = new ReductionChunk(isProduct);
+            final CalculatedValue calcVal = new CalculatedValue();
+            for (long idx = first; idx <= last && r.error == null; idx++)
+            {
+                index.setValue((double) idx);
+                body.getValue(ctx, calcVal);
+                if (calcVal.isNaN())
+                {
+                    r.error = CalculatedValue.ErrorType.NOT_A_NUMBER;
+                    break;
+                }
+                r.add(calcVal.getReal(), calcVal.getImaginary(), 0, calcVal.getUnit(), calcVal.isComplex());
+            }
+            return r;
+        }
+
+        /**
+         * Calculate product together with its derivative: (P * f)' = P' * f + P * f'. Returns false if the
+         * derivative is identically zero
+         */
+        boolean dualProduct(long minValue, long maxValue, CalculatedValue outValue, CalculatedValue outDerivative)
+                throws CancelException
+        {
+            final CalculatedValue calcVal = new CalculatedValue(), calcDer = new CalculatedValue();
+            final CalculatedValue tmp = new CalculatedValue();
+            boolean isDifferentiated = false;
             outValue.setValue(1.0);
             for (long idx = minValue; idx <= maxValue; idx++)
             {
                 argValue.setValue((double) idx);
-                argTerm.getValue(calculaterTask, calcVal);
+                final boolean isDer = body.getDualValue(context, calcVal, calcDer);
+                if (isDifferentiated)
+                {
+                    outDerivative.multiply(outDerivative, calcVal);
+                }
+                if (isDer)
+                {
+                    tmp.multiply(outValue, calcDer);
+                    if (isDifferentiated)
+                    {
+                        outDerivative.add(outDerivative, tmp);
+                    }
+                    else
+                    {
+                        outDerivative.assign(tmp);
+                        isDifferentiated = true;
+                    }
+                }
                 if (idx == minValue)
                 {
                     // For the first term, use assign in oder to set units
@@ -728,7 +1386,7 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
                     break;
                 }
             }
-            return outValue.getValueType();
+            return isDifferentiated;
         }
 
         /**
@@ -737,6 +1395,7 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
         CalculatedValue.ValueType productDerivative(String var, long minValue, long maxValue,
                                                     CalculatedValue outValue) throws CancelException
         {
+            final CalculatedValue calcVal = new CalculatedValue();
             outValue.setValue(0.0);
             final CalculatedValue tmp1 = new CalculatedValue();
             tmp1.setValue(1.0);
@@ -748,7 +1407,7 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
                 for (long m = k + 1; m <= maxValue; m++)
                 {
                     argValue.setValue((double) m);
-                    argTerm.getValue(calculaterTask, calcVal);
+                    body.getValue(context, calcVal);
                     tmp2.multiply(tmp2, calcVal);
                     if (tmp2.isNaN())
                     {
@@ -757,7 +1416,7 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
                 }
 
                 argValue.setValue((double) k);
-                argTerm.getDerivativeValue(var, calculaterTask, calcVal);
+                argTerm.getDerivativeValue(var, context.getThread(), calcVal);
                 calcVal.multiply(calcVal, tmp1);
                 calcVal.multiply(calcVal, tmp2);
                 outValue.add(outValue, calcVal);
@@ -766,7 +1425,7 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
                     break;
                 }
 
-                argTerm.getValue(calculaterTask, calcVal);
+                body.getValue(context, calcVal);
                 tmp1.multiply(tmp1, calcVal);
             }
             return outValue.getValueType();
@@ -775,26 +1434,49 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
         /**
          * Calculate derivative
          */
-        CalculatedValue.ValueType derivative(DifferentiableType differentiableType, String indexName,
+        CalculatedValue.ValueType derivative(DifferentiableType differentiableType, CalculatedValue point,
                                              CalculatedValue outValue) throws CancelException
         {
-            indexTerm.getValue(calculaterTask, calcVal);
-            if (!calcVal.isNaN())
+            if (!point.isNaN())
             {
+                // the exact derivative is calculated using the forward-mode automatic differentiation; the view
+                // tree or the numerical method are only used if some nodes of the body can not be differentiated
+                argValue.assign(point);
+                final CalculatedValue value = new CalculatedValue(), der = new CalculatedValue();
+                context.pushFrame(SeriesIntegrals.this, frame, new CalculatedValue[]{ CalculatedValue.ONE });
+                final boolean isDifferentiated;
+                try
+                {
+                    isDifferentiated = body.getDualValue(context, value, der);
+                }
+                finally
+                {
+                    context.popFrame();
+                }
+                if (!isDifferentiated)
+                {
+                    return outValue.setValue(0.0);
+                }
+                else if (!der.isNaN())
+                {
+                    return outValue.assign(der);
+                }
+
+                final String indexName = getIndexName();
                 if (indexName != null && differentiableType == DifferentiableType.ANALYTICAL)
                 {
-                    argValue.assign(calcVal);
-                    return argTerm.getDerivativeValue(getIndexName(), calculaterTask, outValue);
+                    argValue.assign(point);
+                    return argTerm.getDerivativeValue(indexName, context.getThread(), outValue);
                 }
                 else if (differentiableType == DifferentiableType.NUMERICAL)
                 {
-                    final Complex z = calcVal.getComplex();
-                    final IntermediateValue re = loopCalculator.riddersDerivative(CalculatedValue.PartType.RE, z,
-                            LoopCalculator.RIDDER_INITIAL_STEP);
+                    final Complex z = point.getComplex();
+                    final IntermediateValue re = riddersDerivative(CalculatedValue.PartType.RE, z,
+                            RIDDER_INITIAL_STEP);
                     if (re.isComplex())
                     {
-                        final IntermediateValue im = loopCalculator.riddersDerivative(CalculatedValue.PartType.IM, z,
-                                LoopCalculator.RIDDER_INITIAL_STEP);
+                        final IntermediateValue im = riddersDerivative(CalculatedValue.PartType.IM, z,
+                                RIDDER_INITIAL_STEP);
                         return outValue.setComplexValue(re.value, im.value);
                     }
                     else
@@ -809,7 +1491,9 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
         /**
          * Calculate defined integral
          */
-        ValueType integrate(double absoluteAccuracy, CalculatedValue outValue) throws CancelException
+        ValueType integrate(CalculatedValue minValue, CalculatedValue maxValue, double absoluteAccuracy,
+                            DocumentProperties.IntegrationMethod method, CalculatedValue outValue)
+                throws CancelException
         {
             if (minValue.getUnit() != null && maxValue.getUnit() != null &&
                     !minValue.getUnit().equals(maxValue.getUnit()))
@@ -821,6 +1505,12 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
             argUnit.assign(CalculatedValue.ONE);
             argUnit.setUnit(minValue.getUnit());
 
+            if (method == DocumentProperties.IntegrationMethod.GAUSS_KRONROD)
+            {
+                return integrateGaussKronrod(minValue.getReal(), maxValue.getReal(), absoluteAccuracy,
+                        argUnit, outValue);
+            }
+
             final IntermediateValue re = integrateSimpsons(CalculatedValue.PartType.RE, minValue.getReal(),
                     maxValue.getReal(), absoluteAccuracy, argUnit.getUnit());
             if (Double.isNaN(re.value))
@@ -856,11 +1546,11 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
             {
                 final CalculatedValue minVal = new CalculatedValue();
                 argValue.setValue(min, argUnit);
-                argTerm.getValue(calculaterTask, minVal);
+                body.getValue(context, minVal);
 
                 final CalculatedValue maxVal = new CalculatedValue();
                 argValue.setValue(max, argUnit);
-                argTerm.getValue(calculaterTask, maxVal);
+                body.getValue(context, maxVal);
 
                 qtrapResult.setValue(0.5 * (max - min) * (minVal.getPart(partType) + maxVal.getPart(partType)));
                 if (minVal.getUnit() != null && maxVal.getUnit() != null &&
@@ -877,32 +1567,94 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
             }
             else
             {
-                boolean complexDetexted = false;
-                final CalculatedValue xVal = new CalculatedValue();
-
-                final long np = 1L << (n - 1); // number of new points in this stage
-                double sum = 0;
+                final int np = 1 << (n - 1); // number of new points in this stage
                 // spacing between adjacent new points
                 final double spacing = (max - min) / np;
-                double x = min + 0.5 * spacing; // the first new point
-                for (long i = 0; i < np; i++)
-                {
-                    argValue.setValue(x);
-                    argTerm.getValue(calculaterTask, xVal);
-                    sum += xVal.getPart(partType);
-                    x += spacing;
-                    if (xVal.isComplex())
+                final double[] values = new double[np];
+                boolean complexDetexted;
+                if (np >= 2 * TRAPEZOID_MIN_TILE_POINTS && ParallelRunner.getThreadsNumber() > 1 &&
+                        body.isConcurrent())
+                {
+                    // the new points are independent: they are calculated by all processor cores
+                    final int tilesNumber = Math.min(np / TRAPEZOID_MIN_TILE_POINTS,
+                            TRAPEZOID_TILES_PER_THREAD * ParallelRunner.getThreadsNumber());
+                    final boolean[] tileComplex = new boolean[tilesNumber];
+                    ParallelRunner.run(context.getThread(), tilesNumber, (tileContext, tile) ->
                     {
-                        complexDetexted = true;
+                        // each thread has its own loop frame
+                        final CalculatedValue[] tileFrame = new CalculatedValue[]{ new CalculatedValue() };
+                        tileContext.pushFrame(SeriesIntegrals.this, tileFrame);
+                        try
+                        {
+                            tileComplex[tile] = qtrapPoints(tileContext, tileFrame[0], partType, min, spacing,
+                                    (int) ((long) np * tile / tilesNumber),
+                                    (int) ((long) np * (tile + 1) / tilesNumber), argUnit, values);
+                        }
+                        finally
+                        {
+                            tileContext.popFrame();
+                        }
+                    });
+                    complexDetexted = false;
+                    for (boolean c : tileComplex)
+                    {
+                        complexDetexted |= c;
                     }
                 }
-                // add the new sum to previously calculated result
-                final double r = 0.5 * (qtrapResult.getReal() + sum * spacing);
+                else
+                {
+                    complexDetexted = qtrapPoints(context, argValue, partType, min, spacing, 0, np, argUnit, values);
+                }
+                // add the new sum to previously calculated result: the pairwise sum does not depend
+                // on the number of threads
+                final double r = 0.5 * (qtrapResult.getReal() + pairwiseSum(values, 0, np) * spacing);
                 qtrapResult.setValue(r);
                 return complexDetexted;
             }
         }
 
+        /**
+         * Procedure calculates the new points of a trapezoid stage with indices from first (inclusive) to
+         * last (exclusive) using the given context and the loop index value bound in this context
+         */
+        private boolean qtrapPoints(EvalContext ctx, CalculatedValue index, CalculatedValue.PartType partType,
+                                    final double min, final double spacing, final int first, final int last,
+                                    final Unit<?> argUnit, final double[] values) throws CancelException
+        {
+            boolean complexDetexted = false;
+            final CalculatedValue xVal = new CalculatedValue();
+            for (int i = first; i < last; i++)
+            {
+                index.setValue(min + (0.5 + i) * spacing, argUnit);
+                body.getValue(ctx, xVal);
+                values[i] = xVal.getPart(partType);
+                if (xVal.isComplex())
+                {
+                    complexDetexted = true;
+                }
+            }
+            return complexDetexted;
+        }
+
+        /**
+         * Procedure calculates the sum of the given values by recursive halving
+         */
+        private double pairwiseSum(final double[] values, final int first, final int last)
+        {
+            final int n = last - first;
+            if (n <= 8)
+            {
+                double sum = 0;
+                for (int i = first; i < last; i++)
+                {
+                    sum += values[i];
+                }
+                return sum;
+            }
+            final int middle = first + n / 2;
+            return pairwiseSum(values, first, middle) + pairwiseSum(values, middle, last);
+        }
+
         /**
          * Integrate the function in the given interval. Implements <a
          * href="http://mathworld.wolfram.com/SimpsonsRule.html"> Simpson's Rule</a> for integration of real univariate
@@ -951,6 +1703,229 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
             return ans;
         }
 
+        /**
+         * A sub-interval of the adaptive Gauss-Kronrod integration
+         */
+        private final class KronrodSegment implements Comparable<KronrodSegment>
+        {
+            final double min, max;
+            double re, im, error;
+
+            KronrodSegment(double min, double max)
+            {
+                this.min = min;
+                this.max = max;
+            }
+
+            @Override
+            public int compareTo(KronrodSegment s)
+            {
+                // the segment with the largest error is the head of the queue
+                return Double.compare(s.error, error);
+            }
+        }
+
+        /**
+         * Integrand of the adaptive Gauss-Kronrod integration: infinite limits are mapped to the finite
+         * interval by a variable transformation
+         */
+        private final class KronrodIntegrand
+        {
+            final double min, max;
+            final Unit<?> argUnit;
+            final CalculatedValue fVal = new CalculatedValue();
+            Unit<?> unit = null;
+            boolean isComplex = false;
+            boolean isValid = true;
+            boolean isUnitValid = true;
+            int evaluations = 0;
+            double re, im;
+
+            KronrodIntegrand(double min, double max, Unit<?> argUnit)
+            {
+                this.min = min;
+                this.max = max;
+                this.argUnit = argUnit;
+            }
+
+            /**
+             * Procedure returns the transformed integration limits
+             */
+            double getMin()
+            {
+                return Double.isInfinite(min) ? (Double.isInfinite(max) ? -1.0 : 0.0) : min;
+            }
+
+            double getMax()
+            {
+                return (Double.isInfinite(min) || Double.isInfinite(max)) ? 1.0 : max;
+            }
+
+            /**
+             * Procedure calculates the integrand at the given point of the transformed interval and stores it
+             * into re and im fields
+             */
+            void calculate(double t) throws CancelException
+            {
+                double x = t, dx = 1.0;
+                if (Double.isInfinite(min) && Double.isInfinite(max))
+                {
+                    // x = t / (1 - t^2), t in (-1, 1)
+                    final double d = 1.0 - t * t;
+                    x = t / d;
+                    dx = (1.0 + t * t) / (d * d);
+                }
+                else if (Double.isInfinite(max))
+                {
+                    // x = min + t / (1 - t), t in [0, 1)
+                    x = min + t / (1.0 - t);
+                    dx = 1.0 / ((1.0 - t) * (1.0 - t));
+                }
+                else if (Double.isInfinite(min))
+                {
+                    // x = max - (1 - t) / t, t in (0, 1]
+                    x = max - (1.0 - t) / t;
+                    dx = 1.0 / (t * t);
+                }
+                argValue.setValue(x, argUnit);
+                body.getValue(context, fVal);
+                evaluations++;
+                if (fVal.isNaN())
+                {
+                    isValid = false;
+                    re = im = 0.0;
+                    return;
+                }
+                if (evaluations == 1)
+                {
+                    unit = fVal.getUnit();
+                }
+                else if (unit == null ? fVal.getUnit() != null :
+                        (fVal.getUnit() == null || !unit.isCompatible(fVal.getUnit())))
+                {
+                    // the values with incompatible units can not be summed up
+                    isUnitValid = false;
+                }
+                isComplex |= fVal.isComplex();
+                re = fVal.getReal() * dx;
+                im = fVal.getImaginary() * dx;
+            }
+
+            /**
+             * Procedure applies the 15-point Kronrod rule to the given segment. The difference to the embedded
+             * 7-point Gauss rule is used as the error estimate. The integrand is calculated once per node for both
+             * real and imaginary parts
+             */
+            void apply(KronrodSegment s) throws CancelException
+            {
+                final double center = 0.5 * (s.min + s.max);
+                final double halfLength = 0.5 * (s.max - s.min);
+                calculate(center);
+                double kRe = re * KRONROD_WEIGHTS[7], kIm = im * KRONROD_WEIGHTS[7];
+                double gRe = re * GAUSS_WEIGHTS[3], gIm = im * GAUSS_WEIGHTS[3];
+                for (int j = 0; j < 7; j++)
+                {
+                    final double dx = halfLength * KRONROD_NODES[j];
+                    calculate(center - dx);
+                    double sumRe = re, sumIm = im;
+                    calculate(center + dx);
+                    sumRe += re;
+                    sumIm += im;
+                    kRe += KRONROD_WEIGHTS[j] * sumRe;
+                    kIm += KRONROD_WEIGHTS[j] * sumIm;
+                    if (j % 2 == 1)
+                    {
+                        gRe += GAUSS_WEIGHTS[j / 2] * sumRe;
+                        gIm += GAUSS_WEIGHTS[j / 2] * sumIm;
+                    }
+                }
+                s.re = kRe * halfLength;
+                s.im = kIm * halfLength;
+                s.error = FastMath.hypot(kRe - gRe, kIm - gIm) * FastMath.abs(halfLength);
+            }
+        }
+
+        /**
+         * Integrate the function in the given interval using the adaptive Gauss-Kronrod (G7K15) rule: the segment
+         * with the largest error estimate is bisected until the total error estimate achieves the given accuracy
+         */
+        private ValueType integrateGaussKronrod(double min, double max, final double absoluteAccuracy,
+                                                final CalculatedValue argUnit, CalculatedValue outValue)
+                throws CancelException
+        {
+            if (Double.isNaN(min) || Double.isNaN(max))
+            {
+                return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
+            }
+            if (min == max)
+            {
+                outValue.setValue(0.0);
+                return outValue.multiply(outValue, argUnit);
+            }
+            final double sign = min < max ? 1.0 : -1.0;
+            final KronrodIntegrand integrand = new KronrodIntegrand(FastMath.min(min, max),
+                    FastMath.max(min, max), argUnit.getUnit());
+
+            final PriorityQueue<KronrodSegment> segments = new PriorityQueue<>();
+            final KronrodSegment first = new KronrodSegment(integrand.getMin(), integrand.getMax());
+            integrand.apply(first);
+            segments.add(first);
+            double re = first.re, im = first.im, error = first.error;
+            while (integrand.isValid && integrand.isUnitValid && segments.size() < KRONROD_MAX_SEGMENTS_COUNT &&
+                    error > FastMath.max(absoluteAccuracy, 1.0E-14 * FastMath.hypot(re, im)))
+            {
+                final KronrodSegment s = segments.poll();
+                final double center = 0.5 * (s.min + s.max);
+                if (center <= s.min || center >= s.max)
+                {
+                    // the segment can not be divided anymore
+                    segments.add(s);
+                    break;
+                }
+                final KronrodSegment left = new KronrodSegment(s.min, center);
+                final KronrodSegment right = new KronrodSegment(center, s.max);
+                integrand.apply(left);
+                integrand.apply(right);
+                segments.add(left);
+                segments.add(right);
+                re += left.re + right.re - s.re;
+                im += left.im + right.im - s.im;
+                error += left.error + right.error - s.error;
+            }
+
+            if (!integrand.isValid)
+            {
+                return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
+            }
+            if (!integrand.isUnitValid)
+            {
+                return outValue.invalidate(CalculatedValue.ErrorType.INCOMPATIBLE_UNIT);
+            }
+
+            // the final sum is re-calculated in order to avoid the accumulation of rounding errors
+            re = im = error = 0.0;
+            for (KronrodSegment s : segments)
+            {
+                re += s.re;
+                im += s.im;
+                error += s.error;
+            }
+            integrandEvaluations = integrand.evaluations;
+            integrationError = error;
+
+            final CalculatedValue res = new CalculatedValue();
+            if (integrand.isComplex)
+            {
+                res.setComplexValue(sign * re, sign * im);
+            }
+            else
+            {
+                res.setValue(sign * re);
+            }
+            res.setUnit(integrand.unit);
+            return outValue.multiply(res, argUnit);
+        }
+
         /**
          * Returns the derivative of a function func at a point x by Ridders’ method of polynomial extrapolation. The
          * value h is input as an estimated initial stepsize; it need not be small, but rather should be an increment in
@@ -973,9 +1948,9 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
             final CalculatedValue rightVal = new CalculatedValue();
 
             argValue.setComplexValue(z.getReal() + hh, z.getImaginary());
-            argTerm.getValue(calculaterTask, leftVal);
+            body.getValue(context, leftVal);
             argValue.setComplexValue(z.getReal() - hh, z.getImaginary());
-            argTerm.getValue(calculaterTask, rightVal);
+            body.getValue(context, rightVal);
             a[1][1] = (leftVal.getPart(partType) - rightVal.getPart(partType)) / (2.0 * hh);
             if (leftVal.isComplex() || rightVal.isComplex())
             {
@@ -987,9 +1962,9 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
                 hh /= CON;
 
                 argValue.setComplexValue(z.getReal() + hh, z.getImaginary());
-                argTerm.getValue(calculaterTask, leftVal);
+                body.getValue(context, leftVal);
                 argValue.setComplexValue(z.getReal() - hh, z.getImaginary());
-                argTerm.getValue(calculaterTask, rightVal);
+                body.getValue(context, rightVal);
                 a[1][i] = (leftVal.getPart(partType) - rightVal.getPart(partType)) / (2.0 * hh);
                 if (leftVal.isComplex() || rightVal.isComplex())
                 {
@@ -1017,14 +1992,18 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
             return ans;
         }
 
-        public ValueType solve(double absoluteAccuracy, CalculatedValue outValue) throws CancelException
+        public ValueType solve(CalculatedValue minValue, CalculatedValue maxValue, double absoluteAccuracy,
+                               CalculatedValue outValue) throws CancelException
         {
             if (minValue.isComplex() || maxValue.isComplex())
             {
                 calcStatus = CalculationStatus.IS_COMPLEX;
                 return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
             }
-            final IntermediateValue val = riddersRoot(minValue.getReal(), maxValue.getReal(), absoluteAccuracy);
+            final RootFunction func = new RootFunction();
+            final IntermediateValue val = findRoot(func, minValue.getReal(), maxValue.getReal(), absoluteAccuracy);
+            rootIterations = func.iterations;
+            rootEvaluations = func.evaluations;
             calcStatus = val.status;
             switch (val.status)
             {
@@ -1039,96 +2018,256 @@ public class SeriesIntegrals extends FormulaTerm implements ArgumentHolderIf
         }
 
         /**
-         * Ridders’ Method from Numerical Recipes
-         * Using Ridders’ method, return the root of a function func known to lie between x1 and x2.
-         * The root, returned in this method, will be refined to an approximate accuracy xacc.
+         * The function which root is searched: the loop body as a function of the loop index
          */
-        private IntermediateValue riddersRoot(double x1, double x2, double xacc) throws CancelException
+        private final class RootFunction
         {
-            final IntermediateValue retValue = new IntermediateValue();
-            final CalculatedValue fVal = new CalculatedValue();
-            final double UNUSED = -1.11e30;
-            double ans, fh, fl, fm, fnew, s, xh, xl, xm, xnew;
+            final CalculatedValue fVal = new CalculatedValue(), dfVal = new CalculatedValue();
+            final CalculatedValue[] seed = new CalculatedValue[]{ CalculatedValue.ONE };
+            double f = Double.NaN, df = Double.NaN;
+            int iterations = 0;
+            int evaluations = 0;
+
+            /**
+             * Procedure calculates the function value at the given point. Returns false if the value is complex
+             */
+            boolean calculate(double x) throws CancelException
+            {
+                argValue.setValue(x);
+                body.getValue(context, fVal);
+                evaluations++;
+                f = fVal.getReal();
+                return !fVal.isComplex();
+            }
 
-            //fl=(*func)(x1);
-            argValue.setValue(x1);
-            argTerm.getValue(calculaterTask, fVal);
-            if (fVal.isComplex())
+            /**
+             * Procedure calculates the function value and its derivative at the given point. The derivative is
+             * calculated using the automatic differentiation; it is NaN if it can not be calculated in this way.
+             * Returns false if the value is complex
+             */
+            boolean calculateDual(double x) throws CancelException
             {
-                return retValue.setStatus(CalculationStatus.IS_COMPLEX);
+                argValue.setValue(x);
+                final boolean isDifferentiated;
+                context.pushFrame(SeriesIntegrals.this, frame, seed);
+                try
+                {
+                    isDifferentiated = body.getDualValue(context, fVal, dfVal);
+                }
+                finally
+                {
+                    context.popFrame();
+                }
+                evaluations++;
+                f = fVal.getReal();
+                df = !isDifferentiated ? 0.0 : (dfVal.isNaN() || dfVal.isComplex()) ? Double.NaN : dfVal.getReal();
+                return !fVal.isComplex();
             }
-            fl = fVal.getReal();
+        }
 
-            //fh=(*func)(x2);
-            argValue.setValue(x2);
-            argTerm.getValue(calculaterTask, fVal);
-            if (fVal.isComplex())
+        /**
+         * Procedure searches the root of the loop body between x1 and x2. If the function has the same sign
+         * at both ends, the interval is scanned and the first sub-interval with a sign change is used.
+         * Within the bracket, the safeguarded Newton method is used if the derivative can be calculated
+         * analytically, and the Brent method otherwise
+         */
+        private IntermediateValue findRoot(RootFunction func, double x1, double x2, double xacc)
+                throws CancelException
+        {
+            final IntermediateValue retValue = new IntermediateValue();
+            if (!func.calculate(x1))
+            {
+                return retValue.setStatus(CalculationStatus.IS_COMPLEX);
+            }
+            double fl = func.f;
+            if (!func.calculate(x2))
             {
                 return retValue.setStatus(CalculationStatus.IS_COMPLEX);
             }
-            fh = fVal.getReal();
+            double fh = func.f;
 
-            if ((fl > 0.0 && fh < 0.0) || (fl < 0.0 && fh > 0.0))
+            if (!isBracketed(fl, fh))
             {
-                xl = x1;
-                xh = x2;
-                ans = UNUSED;
-                for (int j = 1; j <= ROOT_MAX_ITERATIONS_COUNT; j++)
+                if (fl == 0.0) return retValue.setReal(x1);
+                if (fh == 0.0) return retValue.setReal(x2);
+                // multi-root scanning: search the first sub-interval where the function changes its sign
+                final double xmin = x1, step = (x2 - x1) / ROOT_SCAN_INTERVALS_COUNT;
+                boolean isFound = false;
+                for (int i = 1; i < ROOT_SCAN_INTERVALS_COUNT; i++)
                 {
-                    xm = 0.5 * (xl + xh);
-
-                    //fm=(*func)(xm);
-                    argValue.setValue(xm);
-                    argTerm.getValue(calculaterTask, fVal);
-                    if (fVal.isComplex())
+                    final double x = xmin + i * step;
+                    if (!func.calculate(x))
                     {
                         return retValue.setStatus(CalculationStatus.IS_COMPLEX);
                     }
-                    fm = fVal.getReal();
-
-                    s = FastMath.sqrt(fm * fm - fl * fh);
-                    if (s == 0.0) return retValue.setReal(ans);
-                    xnew = xm + (xm - xl) * ((fl >= fh ? 1.0 : -1.0) * fm / s);
-                    if (FastMath.abs(xnew - ans) <= xacc) return retValue.setReal(ans);
-                    ans = xnew;
-
-                    //fnew=(*func)(ans);
-                    argValue.setValue(ans);
-                    argTerm.getValue(calculaterTask, fVal);
-                    if (fVal.isComplex())
+                    if (func.f == 0.0) return retValue.setReal(x);
+                    if (isBracketed(fl, func.f))
                     {
-                        return retValue.setStatus(CalculationStatus.IS_COMPLEX);
+                        x2 = x;
+                        fh = func.f;
+                        isFound = true;
+                        break;
                     }
-                    fnew = fVal.getReal();
+                    x1 = x;
+                    fl = func.f;
+                }
+                if (!isFound && !isBracketed(fl, fh))
+                {
+                    return retValue.setStatus(CalculationStatus.ROOT_NOT_BRACKETED);
+                }
+            }
+
+            // the derivative at the middle point decides which method is used
+            final double xm = 0.5 * (x1 + x2);
+            if (!func.calculateDual(xm))
+            {
+                return retValue.setStatus(CalculationStatus.IS_COMPLEX);
+            }
+            if (func.f == 0.0) return retValue.setReal(xm);
+            return Double.isNaN(func.df) ? brentRoot(func, x1, x2, fl, fh, xacc) :
+                    newtonRoot(func, x1, x2, fl, xm, xacc);
+        }
 
-                    if (fnew == 0.0) return retValue.setReal(ans);
-                    if (SIGN(fm, fnew) != fm)
+        private boolean isBracketed(double fl, double fh)
+        {
+            return (fl > 0.0 && fh < 0.0) || (fl < 0.0 && fh > 0.0);
+        }
+
+        /**
+         * Newton-Raphson method combined with bisection from Numerical Recipes (rtsafe). The root is known to lie
+         * between x1 and x2, the function value and its derivative at the point rts are already calculated
+         */
+        private IntermediateValue newtonRoot(RootFunction func, double x1, double x2, double fl, double rts,
+                                             double xacc) throws CancelException
+        {
+            final IntermediateValue retValue = new IntermediateValue();
+            // orient the search so that f(xl) < 0
+            double xl = (fl < 0.0) ? x1 : x2;
+            double xh = (fl < 0.0) ? x2 : x1;
+            double dxold = FastMath.abs(x2 - x1);
+            double dx = dxold;
+            double f = func.f, df = func.df;
+            for (int j = 1; j <= ROOT_MAX_ITERATIONS_COUNT; j++)
+            {
+                func.iterations++;
+                if (Double.isNaN(df) || (((rts - xh) * df - f) * ((rts - xl) * df - f) > 0.0)
+                        || (FastMath.abs(2.0 * f) > FastMath.abs(dxold * df)))
+                {
+                    // bisect if Newton is out of range, not decreasing fast enough, or the derivative is unknown
+                    dxold = dx;
+                    dx = 0.5 * (xh - xl);
+                    rts = xl + dx;
+                    if (xl == rts) return retValue.setReal(rts);
+                }
+                else
+                {
+                    dxold = dx;
+                    dx = f / df;
+                    final double temp = rts;
+                    rts -= dx;
+                    if (temp == rts) return retValue.setReal(rts);
+                }
+                if (FastMath.abs(dx) < xacc) return retValue.setReal(rts);
+                if (!func.calculateDual(rts))
+                {
+                    return retValue.setStatus(CalculationStatus.IS_COMPLEX);
+                }
+                f = func.f;
+                df = func.df;
+                if (f == 0.0) return retValue.setReal(rts);
+                if (f < 0.0)
+                {
+                    xl = rts;
+                }
+                else
+                {
+                    xh = rts;
+                }
+            }
+            return retValue.setStatus(CalculationStatus.MAX_ITERATIONS);
+        }
+
+        /**
+         * Brent’s Method from Numerical Recipes (zbrent): the root is known to lie between x1 and x2
+         * where the function values are fa and fb. Inverse quadratic interpolation is combined with bisection
+         */
+        private IntermediateValue brentRoot(RootFunction func, double x1, double x2, double fa, double fb,
+                                            double xacc) throws CancelException
+        {
+            final IntermediateValue retValue = new IntermediateValue();
+            double a = x1, b = x2, c = x2, d = 0.0, e = 0.0, fc = fb;
+            double p, q, r, s, tol1, xm;
+            for (int iter = 1; iter <= ROOT_MAX_ITERATIONS_COUNT; iter++)
+            {
+                func.iterations++;
+                if ((fb > 0.0 && fc > 0.0) || (fb < 0.0 && fc < 0.0))
+                {
+                    // rename a, b, c and adjust bounding interval d
+                    c = a;
+                    fc = fa;
+                    e = d = b - a;
+                }
+                if (FastMath.abs(fc) < FastMath.abs(fb))
+                {
+                    a = b;
+                    b = c;
+                    c = a;
+                    fa = fb;
+                    fb = fc;
+                    fc = fa;
+                }
+                tol1 = 2.0 * Precision.EPSILON * FastMath.abs(b) + 0.5 * xacc;
+                xm = 0.5 * (c - b);
+                if (FastMath.abs(xm) <= tol1 || fb == 0.0) return retValue.setReal(b);
+                if (FastMath.abs(e) >= tol1 && FastMath.abs(fa) > FastMath.abs(fb))
+                {
+                    // attempt inverse quadratic interpolation
+                    s = fb / fa;
+                    if (a == c)
+                    {
+                        p = 2.0 * xm * s;
+                        q = 1.0 - s;
+                    }
+                    else
                     {
-                        xl = xm;
-                        fl = fm;
-                        xh = ans;
-                        fh = fnew;
+                        q = fa / fc;
+                        r = fb / fc;
+                        p = s * (2.0 * xm * q * (q - r) - (b - a) * (r - 1.0));
+                        q = (q - 1.0) * (r - 1.0) * (s - 1.0);
                     }
-                    else if (SIGN(fl, fnew) != fl)
+                    if (p > 0.0) q = -q;
+                    p = FastMath.abs(p);
+                    final double min1 = 3.0 * xm * q - FastMath.abs(tol1 * q);
+                    final double min2 = FastMath.abs(e * q);
+                    if (2.0 * p < FastMath.min(min1, min2))
                     {
-                        xh = ans;
-                        fh = fnew;
+                        // accept interpolation
+                        e = d;
+                        d = p / q;
                     }
-                    else if (SIGN(fh, fnew) != fh)
+                    else
                     {
-                        xl = ans;
-                        fl = fnew;
+                        // interpolation failed, use bisection
+                        d = xm;
+                        e = d;
                     }
-                    if (FastMath.abs(xh - xl) <= xacc) return retValue.setReal(ans);
                 }
-                return retValue.setStatus(CalculationStatus.MAX_ITERATIONS);
-            }
-            else
-            {
-                if (fl == 0.0) return retValue.setReal(x1);
-                if (fh == 0.0) return retValue.setReal(x2);
-                return retValue.setStatus(CalculationStatus.ROOT_NOT_BRACKETED);
+                else
+                {
+                    // bounds decreasing too slowly, use bisection
+                    d = xm;
+                    e = d;
+                }
+                a = b;
+                fa = fb;
+                b += (FastMath.abs(d) > tol1) ? d : SIGN(tol1, xm);
+                if (!func.calculate(b))
+                {
+                    return retValue.setStatus(CalculationStatus.IS_COMPLEX);
+                }
+                fb = func.f;
             }
+            return retValue.setStatus(CalculationStatus.MAX_ITERATIONS);
         }
 
         private double SIGN(double a, double b)
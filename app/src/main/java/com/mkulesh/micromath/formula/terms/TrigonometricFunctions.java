@@ -17,6 +17,11 @@ import android.content.Context;
 import android.util.AttributeSet;
 import android.widget.LinearLayout;
 
+import com.mkulesh.micromath.eval.DifferentiableFunctionIf;
+import com.mkulesh.micromath.eval.EvalFunctionIf;
+import com.mkulesh.micromath.eval.EvalNode;
+import com.mkulesh.micromath.eval.RealFunctionIf;
+import com.mkulesh.micromath.eval.TermCompiler;
 import com.mkulesh.micromath.formula.CalculatableIf;
 import com.mkulesh.micromath.formula.CalculaterTask;
 import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
@@ -42,7 +47,7 @@ public class TrigonometricFunctions extends FunctionBase
     /**
      * Supported functions
      */
-    public enum FunctionType implements TermTypeIf
+    public enum FunctionType implements TermTypeIf, EvalFunctionIf, RealFunctionIf, DifferentiableFunctionIf
     {
         SIN(1, R.drawable.p_function_sin, R.string.math_function_sin),
         COS(1, R.drawable.p_function_cos, R.string.math_function_cos),
@@ -121,13 +126,33 @@ public class TrigonometricFunctions extends FunctionBase
         {
             return new TrigonometricFunctions(this, termField, layout, text, textIndex);
         }
-    }
 
-    /**
-     * Private attributes
-     */
-    // Attention: this is not thread-safety declaration!
-    private final CalculatedValue a0derVal = new CalculatedValue(), tmpVal = new CalculatedValue();
+        public CalculatedValue.ValueType apply(CalculatedValue[] args, CalculatedValue outValue)
+        {
+            return calculate(this, args, outValue);
+        }
+
+        public boolean isDeterministic()
+        {
+            return true;
+        }
+
+        public boolean isRealFunction()
+        {
+            return true;
+        }
+
+        public double applyReal(double[] args)
+        {
+            return calculateReal(this, args);
+        }
+
+        public CalculatedValue.ValueType derivative(CalculatedValue[] args, CalculatedValue[] argDerivatives,
+                                                    CalculatedValue outValue)
+        {
+            return calculateDerivative(this, args, argDerivatives, outValue);
+        }
+    }
 
     /*--------------------------------------------------------*
      * Constructors
@@ -183,59 +208,112 @@ public class TrigonometricFunctions extends FunctionBase
             {
                 terms.get(i).getValue(thread, argVal[i]);
             }
-            final CalculatedValue a0 = argVal[0];
-            switch (getFunctionType())
-            {
-            case SIN:
-                return outValue.sin(a0);
-            case CSC:
-                return outValue.csc(a0);
-            case ASIN:
-                return outValue.asin(a0);
-            case ACSC:
-            {
-                outValue.divide(CalculatedValue.ONE, a0);
-                return outValue.asin(outValue);
-            }
+            return calculate(getFunctionType(), argVal, outValue);
+        }
+        return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
+    }
 
-            case COS:
-                return outValue.cos(a0);
-            case SEC:
-                return outValue.sec(a0);
-            case ACOS:
-                return outValue.acos(a0);
-            case ASEC:
-            {
-                outValue.divide(CalculatedValue.ONE, a0);
-                return outValue.acos(outValue);
-            }
+    /**
+     * Procedure calculates the function value for given argument values
+     */
+    static CalculatedValue.ValueType calculate(FunctionType type, CalculatedValue[] argVal, CalculatedValue outValue)
+    {
+        final CalculatedValue a0 = argVal[0];
+        switch (type)
+        {
+        case SIN:
+            return outValue.sin(a0);
+        case CSC:
+            return outValue.csc(a0);
+        case ASIN:
+            return outValue.asin(a0);
+        case ACSC:
+        {
+            outValue.divide(CalculatedValue.ONE, a0);
+            return outValue.asin(outValue);
+        }
 
-            case TAN:
-                return outValue.tan(a0);
-            case COT:
-                return outValue.cot(a0);
-            case ATAN:
-                return outValue.atan(a0);
-            case ATAN2:
-            {
-                final CalculatedValue a1 = argVal[1];
-                if (a0.isComplex() || a1.isComplex())
-                {
-                    return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
-                }
-                return outValue.setValue(FastMath.atan2(a0.getReal(), a1.getReal()));
-            }
-            case ACOT:
+        case COS:
+            return outValue.cos(a0);
+        case SEC:
+            return outValue.sec(a0);
+        case ACOS:
+            return outValue.acos(a0);
+        case ASEC:
+        {
+            outValue.divide(CalculatedValue.ONE, a0);
+            return outValue.acos(outValue);
+        }
+
+        case TAN:
+            return outValue.tan(a0);
+        case COT:
+            return outValue.cot(a0);
+        case ATAN:
+            return outValue.atan(a0);
+        case ATAN2:
+        {
+            final CalculatedValue a1 = argVal[1];
+            if (a0.isComplex() || a1.isComplex())
             {
-                outValue.atan(a0);
-                tmpVal.setValue(FastMath.PI / 2.0f);
-                return outValue.subtract(tmpVal, outValue);
-            }
+                return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
             }
+            return outValue.setValue(FastMath.atan2(a0.getReal(), a1.getReal()));
+        }
+        case ACOT:
+        {
+            outValue.atan(a0);
+            a0.setValue(FastMath.PI / 2.0f, null);
+            return outValue.subtract(a0, outValue);
+        }
         }
         return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
     }
 
+    /**
+     * Procedure calculates the function value for real unit-free arguments
+     */
+    static double calculateReal(FunctionType type, double[] args)
+    {
+        final double a0 = args[0];
+        switch (type)
+        {
+        case SIN:
+            return FastMath.sin(a0);
+        case CSC:
+            return 1.0 / FastMath.sin(a0);
+        case ASIN:
+            return FastMath.asin(a0);
+        case ACSC:
+            return FastMath.asin(1.0 / a0);
+        case COS:
+            return FastMath.cos(a0);
+        case SEC:
+            return 1.0 / FastMath.cos(a0);
+        case ACOS:
+            return FastMath.acos(a0);
+        case ASEC:
+            return FastMath.acos(1.0 / a0);
+        case TAN:
+            return FastMath.tan(a0);
+        case COT:
+            return 1.0 / FastMath.tan(a0);
+        case ATAN:
+            return FastMath.atan(a0);
+        case ATAN2:
+            return FastMath.atan2(a0, args[1]);
+        case ACOT:
+            return FastMath.PI / 2.0f - FastMath.atan(a0);
+        }
+        return Double.NaN;
+    }
+
+    @Override
+    public EvalNode compile(TermCompiler compiler)
+    {
+        return compileFunction(compiler, getFunctionType());
+    }
+
     @Override
     public CalculatableIf.DifferentiableType isDifferentiable(String var)
     {
@@ -265,14 +343,10 @@ public class TrigonometricFunctions extends FunctionBase
         case TAN:
         case COT:
         case ATAN:
+        case ATAN2:
         case ACOT:
             retValue = argsProp;
             break;
-        // these functions are not differentiable if contain the given argument
-        case ATAN2:
-            retValue = (argsProp == CalculatableIf.DifferentiableType.INDEPENDENT) ? CalculatableIf.DifferentiableType.INDEPENDENT
-                    : CalculatableIf.DifferentiableType.NONE;
-            break;
         }
         // set the error code to be displayed
         ErrorCode errorCode = ErrorCode.NO_ERROR;
@@ -291,102 +365,112 @@ public class TrigonometricFunctions extends FunctionBase
         if (termType != null && terms.size() > 0)
         {
             ensureArgValSize();
+            ensureArgDerSize();
             for (int i = 0; i < terms.size(); i++)
             {
                 terms.get(i).getValue(thread, argVal[i]);
+                terms.get(i).getDerivativeValue(var, thread, argDer[i]);
             }
-            final CalculatedValue a0 = argVal[0];
-            terms.get(0).getDerivativeValue(var, thread, a0derVal);
-            switch (getFunctionType())
+            return calculateDerivative(getFunctionType(), argVal, argDer, outValue);
+        }
+        return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
+    }
+
+    /**
+     * Procedure calculates the derivative of the function value from the argument values and their derivatives
+     */
+    static CalculatedValue.ValueType calculateDerivative(FunctionType type, CalculatedValue[] argVal,
+                                                         CalculatedValue[] argDer, CalculatedValue outValue)
+    {
+        final CalculatedValue a0 = argVal[0];
+        final CalculatedValue a0derVal = argDer[0];
+        final CalculatedValue tmpVal = new CalculatedValue();
+        switch (type)
+        {
+        case SIN: // cos(a0) * a0'
+            outValue.cos(a0);
+            return outValue.multiply(outValue, a0derVal);
+        case CSC: // -csc(a0) * cot(a0) * a0'
+            outValue.csc(a0);
+            tmpVal.cot(a0);
+            outValue.multiply(outValue, tmpVal);
+            outValue.multiply(-1.0);
+            return outValue.multiply(outValue, a0derVal);
+        case ASIN: // (1.0 / sqrt(1.0 - a0 * a0)) * a0'
+            outValue.multiply(a0, a0);
+            outValue.subtract(CalculatedValue.ONE, outValue);
+            outValue.sqrt(outValue);
+            outValue.divide(CalculatedValue.ONE, outValue);
+            return outValue.multiply(outValue, a0derVal);
+        case ACSC: // -1/(z^2 * sqrt(1 - 1/z^2))
+            outValue.multiply(a0, a0);
+            outValue.divide(CalculatedValue.ONE, outValue);
+            outValue.subtract(CalculatedValue.ONE, outValue);
+            outValue.sqrt(outValue);
+            outValue.multiply(outValue, a0);
+            outValue.multiply(outValue, a0);
+            outValue.divide(CalculatedValue.ONE, outValue);
+            outValue.multiply(-1.0);
+            return outValue.multiply(outValue, a0derVal);
+        case COS: // -1 * sin(a0) * a0'
+            outValue.sin(a0);
+            outValue.multiply(-1.0);
+            return outValue.multiply(outValue, a0derVal);
+        case SEC: // sec(a0) * tan(a0) * a0'
+            outValue.sec(a0);
+            tmpVal.tan(a0);
+            outValue.multiply(outValue, tmpVal);
+            return outValue.multiply(outValue, a0derVal);
+        case ACOS: // (-1.0 / sqrt(1.0 - a0 * a0)) * a0'
+            outValue.multiply(a0, a0);
+            outValue.subtract(CalculatedValue.ONE, outValue);
+            outValue.sqrt(outValue);
+            outValue.divide(CalculatedValue.MINUS_ONE, outValue);
+            return outValue.multiply(outValue, a0derVal);
+        case ASEC: // +1/(z^2 * sqrt(1 - 1/z^2))
+            outValue.multiply(a0, a0);
+            outValue.divide(CalculatedValue.ONE, outValue);
+            outValue.subtract(CalculatedValue.ONE, outValue);
+            outValue.sqrt(outValue);
+            outValue.multiply(outValue, a0);
+            outValue.multiply(outValue, a0);
+            outValue.divide(CalculatedValue.ONE, outValue);
+            return outValue.multiply(outValue, a0derVal);
+        case TAN: // (1.0 + tan(a0) * tan(a0)) * a0'
+            outValue.tan(a0);
+            outValue.multiply(outValue, outValue);
+            outValue.add(CalculatedValue.ONE, outValue);
+            return outValue.multiply(outValue, a0derVal);
+        case COT: // - csc^2(a0) * a0
+            outValue.csc(a0);
+            tmpVal.csc(a0);
+            outValue.multiply(outValue, tmpVal);
+            outValue.multiply(-1.0);
+            return outValue.multiply(outValue, a0derVal);
+        case ATAN: // (1.0 / (1.0 + a0 * a0)) * a0'
+            outValue.multiply(a0, a0);
+            outValue.add(CalculatedValue.ONE, outValue);
+            outValue.divide(CalculatedValue.ONE, outValue);
+            return outValue.multiply(outValue, a0derVal);
+        case ACOT: // (-1.0 / (1.0 + a0 * a0)) * a0'
+            outValue.multiply(a0, a0);
+            outValue.add(CalculatedValue.ONE, outValue);
+            outValue.divide(CalculatedValue.ONE, outValue);
+            outValue.multiply(-1.0);
+            return outValue.multiply(outValue, a0derVal);
+        case ATAN2: // (a1 * a0' - a0 * a1') / (a0 * a0 + a1 * a1)
+        {
+            final CalculatedValue a1 = argVal[1];
+            if (a0.isComplex() || a1.isComplex())
             {
-            case SIN: // cos(a0) * a0'
-                outValue.cos(a0);
-                return outValue.multiply(outValue, a0derVal);
-            case CSC: // -csc(a0) * cot(a0) * a0'
-                outValue.csc(a0);
-                tmpVal.cot(a0);
-                outValue.multiply(outValue, tmpVal);
-                outValue.multiply(-1.0);
-                return outValue.multiply(outValue, a0derVal);
-            case ASIN: // (1.0 / sqrt(1.0 - a0 * a0)) * a0'
-                outValue.multiply(a0, a0);
-                outValue.subtract(CalculatedValue.ONE, outValue);
-                outValue.sqrt(outValue);
-                outValue.divide(CalculatedValue.ONE, outValue);
-                return outValue.multiply(outValue, a0derVal);
-            case ACSC: // -1/(z^2 * sqrt(1 - 1/z^2))
-                outValue.multiply(a0, a0);
-                outValue.divide(CalculatedValue.ONE, outValue);
-                outValue.subtract(CalculatedValue.ONE, outValue);
-                outValue.sqrt(outValue);
-                outValue.multiply(outValue, a0);
-                outValue.multiply(outValue, a0);
-                outValue.divide(CalculatedValue.ONE, outValue);
-                outValue.multiply(-1.0);
-                return outValue.multiply(outValue, a0derVal);
-            case COS: // -1 * sin(a0) * a0'
-                outValue.sin(a0);
-                outValue.multiply(-1.0);
-                return outValue.multiply(outValue, a0derVal);
-            case SEC: // sec(a0) * tan(a0) * a0'
-                outValue.sec(a0);
-                tmpVal.tan(a0);
-                outValue.multiply(outValue, tmpVal);
-                return outValue.multiply(outValue, a0derVal);
-            case ACOS: // (-1.0 / sqrt(1.0 - a0 * a0)) * a0'
-                outValue.multiply(a0, a0);
-                outValue.subtract(CalculatedValue.ONE, outValue);
-                outValue.sqrt(outValue);
-                outValue.divide(CalculatedValue.MINUS_ONE, outValue);
-                return outValue.multiply(outValue, a0derVal);
-            case ASEC: // +1/(z^2 * sqrt(1 - 1/z^2))
-                outValue.multiply(a0, a0);
-                outValue.divide(CalculatedValue.ONE, outValue);
-                outValue.subtract(CalculatedValue.ONE, outValue);
-                outValue.sqrt(outValue);
-                outValue.multiply(outValue, a0);
-                outValue.multiply(outValue, a0);
-                outValue.divide(CalculatedValue.ONE, outValue);
-                return outValue.multiply(outValue, a0derVal);
-            case TAN: // (1.0 + tan(a0) * tan(a0)) * a0'
-                outValue.tan(a0);
-                outValue.multiply(outValue, outValue);
-                outValue.add(CalculatedValue.ONE, outValue);
-                return outValue.multiply(outValue, a0derVal);
-            case COT: // - csc^2(a0) * a0
-                outValue.csc(a0);
-                tmpVal.csc(a0);
-                outValue.multiply(outValue, tmpVal);
-                outValue.multiply(-1.0);
-                return outValue.multiply(outValue, a0derVal);
-            case ATAN: // (1.0 / (1.0 + a0 * a0)) * a0'
-                outValue.multiply(a0, a0);
-                outValue.add(CalculatedValue.ONE, outValue);
-                outValue.divide(CalculatedValue.ONE, outValue);
-                return outValue.multiply(outValue, a0derVal);
-            case ACOT: // (-1.0 / (1.0 + a0 * a0)) * a0'
-                outValue.multiply(a0, a0);
-                outValue.add(CalculatedValue.ONE, outValue);
-                outValue.divide(CalculatedValue.ONE, outValue);
-                outValue.multiply(-1.0);
-                return outValue.multiply(outValue, a0derVal);
-            // these functions are not differentiable if contain the given argument
-            case ATAN2:
-                CalculatableIf.DifferentiableType argsProp = CalculatableIf.DifferentiableType.INDEPENDENT;
-                for (int i = 0; i < terms.size(); i++)
-                {
-                    final int dGrad = Math.min(argsProp.ordinal(), terms.get(i).isDifferentiable(var).ordinal());
-                    argsProp = CalculatableIf.DifferentiableType.values()[dGrad];
-                }
-                if (argsProp == CalculatableIf.DifferentiableType.INDEPENDENT)
-                {
-                    return outValue.setValue(0.0);
-                }
-                else
-                {
-                    return outValue.invalidate(CalculatedValue.ErrorType.NOT_A_NUMBER);
-                }
+                return outValue.invalidate(CalculatedValue.ErrorType.PASSED_COMPLEX);
             }
+            tmpVal.multiply(a0, argDer[1]);
+            outValue.multiply(a1, a0derVal);
+            outValue.subtract(outValue, tmpVal);
+            return outValue.setValue(outValue.getReal() /
+                    (a0.getReal() * a0.getReal() + a1.getReal() * a1.getReal()));
+        }
         }
         return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
     }
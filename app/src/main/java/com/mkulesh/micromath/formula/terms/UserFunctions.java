@@ -18,6 +18,9 @@ import android.content.res.Resources;
 import android.util.AttributeSet;
 import android.widget.LinearLayout;
 
+import com.mkulesh.micromath.eval.EvalContext;
+import com.mkulesh.micromath.eval.EvalNode;
+import com.mkulesh.micromath.eval.TermCompiler;
 import com.mkulesh.micromath.formula.BracketParser;
 import com.mkulesh.micromath.formula.CalculatableIf;
 import com.mkulesh.micromath.formula.CalculaterTask;
@@ -222,9 +225,9 @@ public class UserFunctions extends FunctionBase
 
             case FUNCTION_LINK:
             case FUNCTION_INDEX:
-                if (linkedFunction != null && linkedFunction.setArgumentValues(argVal))
+                if (linkedFunction != null)
                 {
-                    return linkedFunction.getValue(thread, outValue);
+                    return linkedFunction.getValue(EvalContext.get(thread), argVal, outValue);
                 }
                 break;
             }
@@ -232,6 +235,25 @@ public class UserFunctions extends FunctionBase
         return outValue.invalidate(CalculatedValue.ErrorType.TERM_NOT_READY);
     }
 
+    @Override
+    public EvalNode compile(TermCompiler compiler)
+    {
+        if (termType != null && terms.size() > 0)
+        {
+            final TermField[] args = terms.toArray(new TermField[0]);
+            switch (getFunctionType())
+            {
+            case IDENTITY:
+                return compiler.compile(args[0]);
+            case FUNCTION_LINK:
+                return linkedFunction != null ? compiler.call(linkedFunction, args) : compiler.invalid();
+            case FUNCTION_INDEX:
+                return linkedFunction != null ? compiler.arrayElement(linkedFunction, args) : compiler.invalid();
+            }
+        }
+        return super.compile(compiler);
+    }
+
     @Override
     public CalculatableIf.DifferentiableType isDifferentiable(String var)
     {
@@ -295,18 +317,27 @@ public class UserFunctions extends FunctionBase
             case IDENTITY:
                 return outValue.assign(a0derVal);
             case FUNCTION_LINK:
-                if (linkedFunction != null && linkedFunction.setArgumentValues(argVal))
+                if (linkedFunction != null)
                 {
                     if (linkedFunction.getArguments() == null || linkedFunction.getArguments().size() != terms.size())
                     {
                         return outValue.setValue(0.0);
                     }
                     outValue.setValue(0.0);
+                    final EvalContext context = EvalContext.get(thread);
                     final CalculatedValue tmp = new CalculatedValue();
                     for (int i = 0; i < terms.size(); i++)
                     {
                         final String s = linkedFunction.getArguments().get(i);
-                        linkedFunction.getDerivativeValue(s, thread, tmp);
+                        context.pushFrame(linkedFunction, argVal);
+                        try
+                        {
+                            linkedFunction.getDerivativeValue(s, thread, tmp);
+                        }
+                        finally
+                        {
+                            context.popFrame();
+                        }
                         if (i > 0)
                         {
                             terms.get(i).getDerivativeValue(var, thread, a0derVal);
@@ -0,0 +1,474 @@
+/*
+ * microMathematics - Extended Visual Calculator
+ * Copyright (C) 2014-2022 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+package com.mkulesh.micromath.io;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/*--------------------------------------------------------*
+ * Recorded XML element
+ *--------------------------------------------------------*/
+
+/**
+ * Class that holds the recorded XML events of a single element. The events are recorded by a background
+ * thread from the document parser and can later be replayed by the UI thread using the XmlPullParser
+ * interface, i.e. without parsing the XML document again
+ */
+public final class XmlEventParser implements XmlPullParser
+{
+    private static final class Event
+    {
+        final int type;
+        final int depth;
+        final String name;
+        final String text;
+        final String[] attributes;
+
+        Event(int type, int depth, String name, String text, String[] attributes)
+        {
+            this.type = type;
+            this.depth = depth;
+            this.name = name;
+            this.text = text;
+            this.attributes = attributes;
+        }
+    }
+
+    private static final String[] NO_ATTRIBUTES = new String[0];
+
+    private final ArrayList<Event> events = new ArrayList<>();
+
+    // replay state
+    private int position = 0;
+    private int eventType = START_TAG;
+    private String text = null;
+
+    /*--------------------------------------------------------*
+     * Recording
+     *--------------------------------------------------------*/
+
+    private XmlEventParser()
+    {
+        // empty
+    }
+
+    /**
+     * Procedure records the element the given parser is currently positioned on, including all its content.
+     * After this call, the given parser is positioned on the end tag of this element
+     */
+    public static XmlEventParser record(XmlPullParser parser) throws Exception
+    {
+        parser.require(START_TAG, null, null);
+        final XmlEventParser p = new XmlEventParser();
+        final int depth = parser.getDepth();
+        p.addStartTag(parser);
+        while (true)
+        {
+            final int token = parser.nextToken();
+            switch (token)
+            {
+            case START_TAG:
+                p.addStartTag(parser);
+                break;
+            case END_TAG:
+                p.events.add(new Event(END_TAG, parser.getDepth(), parser.getName(), null, null));
+                if (parser.getDepth() == depth)
+                {
+                    return p;
+                }
+                break;
+            case TEXT:
+            case CDSECT:
+                p.events.add(new Event(token, parser.getDepth(), null, parser.getText(), null));
+                break;
+            case ENTITY_REF:
+            case IGNORABLE_WHITESPACE:
+                p.events.add(new Event(TEXT, parser.getDepth(), null, parser.getText(), null));
+                break;
+            case END_DOCUMENT:
+                throw new XmlPullParserException("unexpected end of document", parser, null);
+            default:
+                // comments, processing instructions and document declarations are not recorded
+                break;
+            }
+        }
+    }
+
+    /**
+     * Procedure records the start tag the given parser is currently positioned on, without its content.
+     * The parser position is not changed
+     */
+    public static XmlEventParser recordStartTag(XmlPullParser parser) throws Exception
+    {
+        parser.require(START_TAG, null, null);
+        final XmlEventParser p = new XmlEventParser();
+        p.addStartTag(parser);
+        p.events.add(new Event(END_TAG, parser.getDepth(), parser.getName(), null, null));
+        return p;
+    }
+
+    private void addStartTag(XmlPullParser parser)
+    {
+        final int n = parser.getAttributeCount();
+        final String[] attributes = (n > 0) ? new String[2 * n] : NO_ATTRIBUTES;
+        for (int i = 0; i < n; i++)
+        {
+            attributes[2 * i] = parser.getAttributeName(i);
+            attributes[2 * i + 1] = parser.getAttributeValue(i);
+        }
+        events.add(new Event(START_TAG, parser.getDepth(), parser.getName(), null, attributes));
+    }
+
+    /*--------------------------------------------------------*
+     * Replay
+     *--------------------------------------------------------*/
+
+    private Event current()
+    {
+        return (position < events.size()) ? events.get(position) : null;
+    }
+
+    private static boolean isText(Event e)
+    {
+        return e != null && (e.type == TEXT || e.type == CDSECT);
+    }
+
+    private String[] attributes()
+    {
+        final Event e = current();
+        return (eventType == START_TAG && e != null) ? e.attributes : null;
+    }
+
+    @Override
+    public int next() throws XmlPullParserException
+    {
+        if (eventType == END_DOCUMENT)
+        {
+            throw new XmlPullParserException("end of document reached");
+        }
+        position++;
+        final Event e = current();
+        if (e == null)
+        {
+            text = null;
+            return eventType = END_DOCUMENT;
+        }
+        if (isText(e))
+        {
+            // adjacent text and CDATA sections are reported as a single text event
+            final StringBuilder sb = new StringBuilder(e.text);
+            while (isText(position + 1 < events.size() ? events.get(position + 1) : null))
+            {
+                sb.append(events.get(++position).text);
+            }
+            text = sb.toString();
+            return eventType = TEXT;
+        }
+        text = null;
+        return eventType = e.type;
+    }
+
+    @Override
+    public int nextToken() throws XmlPullParserException
+    {
+        if (eventType == END_DOCUMENT)
+        {
+            throw new XmlPullParserException("end of document reached");
+        }
+        position++;
+        final Event e = current();
+        text = (e != null) ? e.text : null;
+        return eventType = (e != null) ? e.type : END_DOCUMENT;
+    }
+
+    @Override
+    public int nextTag() throws XmlPullParserException
+    {
+        next();
+        if (eventType == TEXT && isWhitespace())
+        {
+            next();
+        }
+        if (eventType != START_TAG && eventType != END_TAG)
+        {
+            throw new XmlPullParserException("expected start or end tag", this, null);
+        }
+        return eventType;
+    }
+
+    @Override
+    public String nextText() throws XmlPullParserException
+    {
+        if (eventType != START_TAG)
+        {
+            throw new XmlPullParserException("parser must be on start tag to read next text", this, null);
+        }
+        int t = next();
+        if (t == TEXT)
+        {
+            final String result = text;
+            t = next();
+            if (t != END_TAG)
+            {
+                throw new XmlPullParserException("event type must be end tag after reading text", this, null);
+            }
+            return result;
+        }
+        else if (t == END_TAG)
+        {
+            return "";
+        }
+        throw new XmlPullParserException("parser must be on start tag or text to read text", this, null);
+    }
+
+    @Override
+    public void require(int type, String namespace, String name) throws XmlPullParserException
+    {
+        if (type != eventType || (name != null && !name.equals(getName())))
+        {
+            throw new XmlPullParserException("expected " + TYPES[type] + (name != null ? " " + name : ""), this,
+                    null);
+        }
+    }
+
+    @Override
+    public int getEventType()
+    {
+        return eventType;
+    }
+
+    @Override
+    public int getDepth()
+    {
+        final Event e = current();
+        return (e != null) ? e.depth : 0;
+    }
+
+    @Override
+    public String getName()
+    {
+        final Event e = current();
+        return (e != null && (eventType == START_TAG || eventType == END_TAG)) ? e.name : null;
+    }
+
+    @Override
+    public String getText()
+    {
+        return (eventType == START_TAG || eventType == END_TAG || eventType == END_DOCUMENT) ? null : text;
+    }
+
+    @Override
+    public char[] getTextCharacters(int[] holderForStartAndLength)
+    {
+        final String t = getText();
+        if (t == null)
+        {
+            holderForStartAndLength[0] = -1;
+            holderForStartAndLength[1] = -1;
+            return null;
+        }
+        holderForStartAndLength[0] = 0;
+        holderForStartAndLength[1] = t.length();
+        return t.toCharArray();
+    }
+
+    @Override
+    public boolean isWhitespace() throws XmlPullParserException
+    {
+        if (eventType != TEXT && eventType != CDSECT && eventType != IGNORABLE_WHITESPACE)
+        {
+            throw new XmlPullParserException("no text available", this, null);
+        }
+        return text == null || text.trim().isEmpty();
+    }
+
+    @Override
+    public String getPositionDescription()
+    {
+        final String n = getName();
+        return TYPES[eventType] + (n != null ? " <" + n + ">" : "") + " @event " + position;
+    }
+
+    @Override
+    public int getAttributeCount()
+    {
+        final String[] a = attributes();
+        return (a != null) ? a.length / 2 : -1;
+    }
+
+    @Override
+    public String getAttributeName(int index)
+    {
+        return attributes()[2 * index];
+    }
+
+    @Override
+    public String getAttributeValue(int index)
+    {
+        return attributes()[2 * index + 1];
+    }
+
+    @Override
+    public String getAttributeValue(String namespace, String name)
+    {
+        final String[] a = attributes();
+        if (a == null)
+        {
+            throw new IndexOutOfBoundsException("parser is not on start tag");
+        }
+        for (int i = 0; i < a.length; i += 2)
+        {
+            if (a[i].equals(name))
+            {
+                return a[i + 1];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String getAttributeNamespace(int index)
+    {
+        return "";
+    }
+
+    @Override
+    public String getAttributePrefix(int index)
+    {
+        return null;
+    }
+
+    @Override
+    public String getAttributeType(int index)
+    {
+        return "CDATA";
+    }
+
+    @Override
+    public boolean isAttributeDefault(int index)
+    {
+        return false;
+    }
+
+    @Override
+    public boolean isEmptyElementTag()
+    {
+        return false;
+    }
+
+    @Override
+    public String getNamespace()
+    {
+        return (eventType == START_TAG || eventType == END_TAG) ? "" : null;
+    }
+
+    @Override
+    public String getPrefix()
+    {
+        return null;
+    }
+
+    @Override
+    public String getNamespace(String prefix)
+    {
+        return null;
+    }
+
+    @Override
+    public int getNamespaceCount(int depth)
+    {
+        return 0;
+    }
+
+    @Override
+    public String getNamespacePrefix(int pos) throws XmlPullParserException
+    {
+        throw new XmlPullParserException("namespaces are not recorded");
+    }
+
+    @Override
+    public String getNamespaceUri(int pos) throws XmlPullParserException
+    {
+        throw new XmlPullParserException("namespaces are not recorded");
+    }
+
+    @Override
+    public int getLineNumber()
+    {
+        return -1;
+    }
+
+    @Override
+    public int getColumnNumber()
+    {
+        return -1;
+    }
+
+    /*--------------------------------------------------------*
+     * Input and features are not supported by recorded events
+     *--------------------------------------------------------*/
+
+    @Override
+    public void setFeature(String name, boolean state) throws XmlPullParserException
+    {
+        throw new XmlPullParserException("features are not supported");
+    }
+
+    @Override
+    public boolean getFeature(String name)
+    {
+        return false;
+    }
+
+    @Override
+    public void setProperty(String name, Object value) throws XmlPullParserException
+    {
+        throw new XmlPullParserException("properties are not supported");
+    }
+
+    @Override
+    public Object getProperty(String name)
+    {
+        return null;
+    }
+
+    @Override
+    public void setInput(Reader in) throws XmlPullParserException
+    {
+        throw new XmlPullParserException("input can not be changed");
+    }
+
+    @Override
+    public void setInput(InputStream inputStream, String inputEncoding) throws XmlPullParserException
+    {
+        throw new XmlPullParserException("input can not be changed");
+    }
+
+    @Override
+    public String getInputEncoding()
+    {
+        return null;
+    }
+
+    @Override
+    public void defineEntityReplacementText(String entityName, String replacementText)
+            throws XmlPullParserException
+    {
+        throw new XmlPullParserException("entity replacement is not supported");
+    }
+}
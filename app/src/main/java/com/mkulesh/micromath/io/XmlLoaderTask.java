@@ -33,10 +33,9 @@ import org.xmlpull.v1.XmlPullParser;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Locale;
 
-import androidx.annotation.Nullable;
-
 public class XmlLoaderTask extends AppTask implements Runnable
 {
     public enum PostAction
@@ -53,14 +52,34 @@ public class XmlLoaderTask extends AppTask implements Runnable
         SMATH_STUDIO
     }
 
+    /**
+     * Formula that is parsed by the background thread but not yet added to the list
+     */
+    private static final class FormulaEntry
+    {
+        final FormulaBase.BaseType type;
+        final XmlEventParser content;
+
+        FormulaEntry(FormulaBase.BaseType type, XmlEventParser content)
+        {
+            this.type = type;
+            this.content = content;
+        }
+    }
+
+    // time slice of the UI thread used to add formulas into the list: one frame at 60 fps
+    private static final long INFLATE_SLICE_MS = 16;
+
     private final FormulaList list;
     private final Uri uri;
-    private InputStream stream = null;
     private final String name;
-    private XmlPullParser parser = null;
     private int firstFormulaId = ViewUtils.INVALID_INDEX;
     private final int[] headerNumber;
 
+    // parsed document
+    private XmlEventParser documentHeader = null;
+    private final ArrayList<FormulaEntry> documentFormulas = new ArrayList<>();
+
     // result of operation
     public String error = null;
     public PostAction postAction = null;
@@ -125,6 +144,7 @@ public class XmlLoaderTask extends AppTask implements Runnable
     public void run()
     {
         onPreExecute();
+        InputStream stream = null;
         try
         {
             fileFormat = getFileFormat();
@@ -145,120 +165,170 @@ public class XmlLoaderTask extends AppTask implements Runnable
                 error = String.format(list.getActivity().getResources().getString(R.string.error_unknown_file_format),
                         name);
                 ViewUtils.Debug(this, error);
+                FileUtils.closeStream(stream);
                 onPostExecute();
                 return;
             }
-
-            parser = Xml.newPullParser();
-            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
-            parser.setInput(stream, null);
-            parser.nextTag();
-            parser.require(XmlPullParser.START_TAG, FormulaList.XML_NS, FormulaList.XML_MAIN_TAG);
-            while (parser.next() != XmlPullParser.END_TAG)
-            {
-                if (parser.getEventType() != XmlPullParser.START_TAG)
-                {
-                    continue;
-                }
-                final String n1 = parser.getName();
-                if (n1.equals(FormulaList.XML_LIST_TAG))
-                {
-                    parser.require(XmlPullParser.START_TAG, FormulaList.XML_NS, FormulaList.XML_LIST_TAG);
-                    publishProgress(true, null);
-                    ViewUtils.Debug(this, "Document version: " + DocumentProperties.getDocumentVersion());
-                    while (parser.next() != XmlPullParser.END_TAG)
-                    {
-                        if (parser.getEventType() != XmlPullParser.START_TAG)
-                        {
-                            continue;
-                        }
-                        final String n2 = parser.getName();
-                        FormulaBase.BaseType t = null;
-                        try
-                        {
-                            t = FormulaBase.BaseType.valueOf(n2.toUpperCase(Locale.ENGLISH));
-                        }
-                        catch (Exception ex)
-                        {
-                            // nothing to do
-                        }
-                        if (t != null)
-                        {
-                            parser.require(XmlPullParser.START_TAG, FormulaList.XML_NS, n2);
-                            publishProgress(false, t);
-                        }
-                        else
-                        {
-                            XmlUtils.skipEntry(parser);
-                        }
-                        if (isCancelled())
-                        {
-                            error = null;
-                            postAction = PostAction.INTERRUPT;
-                            onPostExecute();
-                            return;
-                        }
-                    }
-                }
-                else
-                {
-                    XmlUtils.skipEntry(parser);
-                }
-            }
+            parseDocument(stream);
         }
         catch (Exception e)
         {
             error = String.format(list.getActivity().getResources().getString(R.string.error_file_read), name);
             ViewUtils.Debug(this, error + ", " + e.getLocalizedMessage());
         }
+        if (stream != null)
+        {
+            FileUtils.closeStream(stream);
+        }
+
+        // formulas parsed before a read error are added as well
+        if (!isCancelled())
+        {
+            inflateDocument();
+        }
+        if (isCancelled())
+        {
+            error = null;
+            postAction = PostAction.INTERRUPT;
+        }
         onPostExecute();
     }
 
-    protected void publishProgress(final boolean isHeader, @Nullable FormulaBase.BaseType t)
+    /**
+     * Procedure parses the whole document within the background thread. The document header and the content
+     * of each formula are stored as recorded XML events that are later replayed by the UI thread
+     */
+    private void parseDocument(InputStream stream) throws Exception
     {
-        final SynchronizedBoolean isPublishRuns = new SynchronizedBoolean();
-        isPublishRuns.set(true);
-        list.getActivity().runOnUiThread(() ->
+        final XmlPullParser parser = Xml.newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+        parser.setInput(stream, null);
+        parser.nextTag();
+        parser.require(XmlPullParser.START_TAG, FormulaList.XML_NS, FormulaList.XML_MAIN_TAG);
+        while (parser.next() != XmlPullParser.END_TAG)
         {
-            if (isHeader)
+            if (parser.getEventType() != XmlPullParser.START_TAG)
             {
-                list.getDocumentSettings().readFromXml(parser);
-                isPublishRuns.set(false);
-                return;
+                continue;
             }
-            if (t == null)
+            final String n1 = parser.getName();
+            if (n1.equals(FormulaList.XML_LIST_TAG))
             {
-                isPublishRuns.set(false);
-                return;
+                parser.require(XmlPullParser.START_TAG, FormulaList.XML_NS, FormulaList.XML_LIST_TAG);
+                documentHeader = XmlEventParser.recordStartTag(parser);
+                while (parser.next() != XmlPullParser.END_TAG)
+                {
+                    if (parser.getEventType() != XmlPullParser.START_TAG)
+                    {
+                        continue;
+                    }
+                    final String n2 = parser.getName();
+                    FormulaBase.BaseType t = null;
+                    try
+                    {
+                        t = FormulaBase.BaseType.valueOf(n2.toUpperCase(Locale.ENGLISH));
+                    }
+                    catch (Exception ex)
+                    {
+                        // nothing to do
+                    }
+                    if (t != null)
+                    {
+                        parser.require(XmlPullParser.START_TAG, FormulaList.XML_NS, n2);
+                        documentFormulas.add(new FormulaEntry(t, XmlEventParser.record(parser)));
+                    }
+                    else
+                    {
+                        XmlUtils.skipEntry(parser);
+                    }
+                    if (isCancelled())
+                    {
+                        return;
+                    }
+                }
             }
-            FormulaBase f = list.addBaseFormula(t);
-            try
+            else
             {
-                f.readFromXml(parser);
+                XmlUtils.skipEntry(parser);
             }
-            catch (Exception e)
+        }
+    }
+
+    /**
+     * Procedure adds the parsed formulas into the list. The UI thread processes the formulas in slices
+     * that take about one frame; between the slices, the UI thread is free to layout and draw the list.
+     * The background thread waits until all formulas are added or the task is cancelled
+     */
+    private void inflateDocument()
+    {
+        final SynchronizedBoolean isInflateRuns = new SynchronizedBoolean();
+        isInflateRuns.set(true);
+        list.getActivity().runOnUiThread(new Runnable()
+        {
+            private int next = 0;
+
+            @Override
+            public void run()
             {
-                if (error == null)
+                if (next == 0 && documentHeader != null)
                 {
-                    error = String.format(list.getActivity().getResources().getString(R.string.error_file_read), name);
+                    list.getDocumentSettings().readFromXml(documentHeader);
+                    ViewUtils.Debug(XmlLoaderTask.this, "Document version: " + DocumentProperties.getDocumentVersion());
                 }
-                ViewUtils.Debug(this, error + ", " + e.getLocalizedMessage());
-            }
-            if (f != null)
-            {
-                if (f instanceof TextFragment)
+                final long sliceEnd = System.currentTimeMillis() + INFLATE_SLICE_MS;
+                while (next < documentFormulas.size() && !isCancelled())
+                {
+                    inflateFormula(documentFormulas.get(next));
+                    documentFormulas.set(next++, null);
+                    if (System.currentTimeMillis() >= sliceEnd)
+                    {
+                        break;
+                    }
+                }
+                if (next < documentFormulas.size() && !isCancelled())
                 {
-                    ((TextFragment) f).numbering(headerNumber);
+                    list.getFormulaListView().getList().post(this);
                 }
-                list.getFormulaListView().add(f, null, Position.AFTER); // add to the end
-                if (firstFormulaId < 0)
+                else
                 {
-                    firstFormulaId = f.getId();
+                    isInflateRuns.set(false);
                 }
             }
-            isPublishRuns.set(false);
         });
-        isPublishRuns.waitUntil(false);
+        isInflateRuns.waitUntil(false);
+    }
+
+    /**
+     * Procedure creates a formula from the parsed entry and adds it to the end of the list
+     */
+    private void inflateFormula(FormulaEntry entry)
+    {
+        FormulaBase f = list.addBaseFormula(entry.type);
+        if (f == null)
+        {
+            return;
+        }
+        try
+        {
+            f.readFromXml(entry.content);
+        }
+        catch (Exception e)
+        {
+            if (error == null)
+            {
+                error = String.format(list.getActivity().getResources().getString(R.string.error_file_read), name);
+            }
+            ViewUtils.Debug(this, error + ", " + e.getLocalizedMessage());
+        }
+        if (f instanceof TextFragment)
+        {
+            ((TextFragment) f).numbering(headerNumber);
+        }
+        list.getFormulaListView().add(f, null, Position.AFTER); // add to the end
+        if (firstFormulaId < 0)
+        {
+            firstFormulaId = f.getId();
+        }
     }
 
     protected void onPostExecute()
@@ -266,10 +336,6 @@ public class XmlLoaderTask extends AppTask implements Runnable
         ViewUtils.Debug(this, "thread finished");
         list.getActivity().runOnUiThread(() ->
         {
-            if (stream != null)
-            {
-                FileUtils.closeStream(stream);
-            }
             DocumentProperties.setDocumentVersion(DocumentProperties.LATEST_DOCUMENT_VERSION);
             if (list.getSelectedFormulaId() == ViewUtils.INVALID_INDEX)
             {
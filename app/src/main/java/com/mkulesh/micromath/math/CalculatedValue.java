@@ -13,6 +13,9 @@
  */
 package com.mkulesh.micromath.math;
 
+import com.mkulesh.micromath.eval.CompiledTerm;
+import com.mkulesh.micromath.eval.EvalContext;
+import com.mkulesh.micromath.eval.EvalNode;
 import com.mkulesh.micromath.formula.CalculaterTask;
 import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
 import com.mkulesh.micromath.formula.TermField;
@@ -31,8 +34,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
-import javax.measure.DecimalMeasure;
-import javax.measure.Measure;
 import javax.measure.unit.NonSI;
 import javax.measure.unit.SI;
 import javax.measure.unit.Unit;
@@ -100,6 +101,18 @@ public class CalculatedValue
         return valueType;
     }
 
+    /**
+     * Procedure sets all fields of this value: used to restore a value that is stored in primitive arrays
+     */
+    ValueType assign(ValueType valueType, double real, double imaginary, Unit<?> unit)
+    {
+        this.valueType = valueType;
+        this.real = real;
+        this.imaginary = imaginary;
+        this.unit = unit;
+        return valueType;
+    }
+
     public Unit<?> getUnit()
     {
         return unit;
@@ -110,30 +123,32 @@ public class CalculatedValue
         this.unit = unit;
     }
 
-    @SuppressWarnings("unchecked")
     public void convertUnit(@NonNull Unit<?> sourceUnit, @NonNull Unit<?> targetUnit)
     {
         if (valueType == ValueType.INVALID)
         {
             return;
         }
-        if (sourceUnit.isCompatible(targetUnit))
+        convertUnit(UnitConversion.get(sourceUnit, targetUnit));
+    }
+
+    /**
+     * Procedure converts this value using a conversion that was resolved in advance
+     */
+    public void convertUnit(@NonNull UnitConversion conversion)
+    {
+        if (valueType == ValueType.INVALID)
         {
-            try
-            {
-                final Measure realV = DecimalMeasure.valueOf(real, sourceUnit);
-                real = realV.doubleValue(targetUnit);
-                if (isComplex())
-                {
-                    final Measure imaginaryV = DecimalMeasure.valueOf(imaginary, sourceUnit);
-                    imaginary = imaginaryV.doubleValue(targetUnit);
-                }
-                unit = (targetUnit.toString() == null || targetUnit.toString().isEmpty()) ? null : targetUnit;
-            }
-            catch (Exception ex)
+            return;
+        }
+        if (conversion.isCompatible())
+        {
+            real = conversion.convert(real);
+            if (isComplex())
             {
-                invalidate(ErrorType.INCOMPATIBLE_UNIT);
+                imaginary = conversion.convert(imaginary);
             }
+            unit = conversion.getResultUnit();
         }
         else
         {
@@ -471,6 +486,24 @@ public class CalculatedValue
         }
     }
 
+    public void processRealTerm(EvalContext context, CompiledTerm term) throws CancelException
+    {
+        term.getValue(context, null, this);
+        if (!isReal())
+        {
+            invalidate(ErrorType.NOT_A_REAL);
+        }
+    }
+
+    public void processRealTerm(EvalContext context, EvalNode term) throws CancelException
+    {
+        term.getValue(context, this);
+        if (!isReal())
+        {
+            invalidate(ErrorType.NOT_A_REAL);
+        }
+    }
+
     public ValueType add(CalculatedValue f, CalculatedValue g)
     {
         if (unitExists(f, g))
@@ -13,6 +13,8 @@
  */
 package com.mkulesh.micromath.math;
 
+import com.mkulesh.micromath.eval.CompiledTerm;
+import com.mkulesh.micromath.eval.EvalContext;
 import com.mkulesh.micromath.formula.CalculaterTask;
 import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
 import com.mkulesh.micromath.formula.Equation;
@@ -20,6 +22,9 @@ import com.mkulesh.micromath.formula.TermField;
 import com.mkulesh.micromath.utils.ViewUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.measure.unit.Unit;
 
 /*--------------------------------------------------------*
  * Array result for equation
@@ -33,8 +38,20 @@ public class EquationArrayResult
     private final static int D2 = 2;
 
     private int[] dimensions = null;
-    private CalculatedValue[] values = null;
-    private int[] idxValues = null;
+    private int size = 0;
+
+    // The values are not stored as CalculatedValue objects but in the primitive arrays: real parts, imaginary
+    // parts (only allocated if a complex value is stored), bit sets of invalid and complex elements, and
+    // a unit that is common for all elements with the bit set of elements having this unit. If the elements
+    // have different units, all units are stored in a separate array
+    private double[] realParts = null;
+    private double[] imaginaryParts = null;
+    private long[] invalidBits = null;
+    private long[] complexBits = null;
+    private Unit<?> unit = null;
+    private long[] unitBits = null;
+    private Unit<?>[] units = null;
+
     private final Equation equation;
     private final TermField equationTerm;
 
@@ -75,14 +92,104 @@ public class EquationArrayResult
         return dimensions;
     }
 
+    /**
+     * Procedure returns the copies of all array elements in the order of their storage
+     */
     public CalculatedValue[] getRawValues()
     {
+        if (realParts == null)
+        {
+            return null;
+        }
+        final CalculatedValue[] values = new CalculatedValue[size];
+        for (int i = 0; i < size; i++)
+        {
+            values[i] = new CalculatedValue();
+            get(i, values[i]);
+        }
         return values;
     }
 
+    /**
+     * Procedure copies the real and imaginary parts of all array elements into the given arrays
+     * that shall have the length of the array
+     */
+    public void getRawValues(double[] re, double[] im)
+    {
+        System.arraycopy(realParts, 0, re, 0, size);
+        if (imaginaryParts != null)
+        {
+            System.arraycopy(imaginaryParts, 0, im, 0, size);
+        }
+        else
+        {
+            Arrays.fill(im, 0, size, 0.0);
+        }
+    }
+
+    /**
+     * Procedure returns a copy of all array elements in the order of their storage if all elements are valid
+     * real values without units. Otherwise, null is returned
+     */
+    public double[] getRealValues()
+    {
+        if (realParts == null || units != null)
+        {
+            return null;
+        }
+        for (int w = 0; w < invalidBits.length; w++)
+        {
+            if ((invalidBits[w] | complexBits[w] | unitBits[w]) != 0)
+            {
+                return null;
+            }
+        }
+        return Arrays.copyOf(realParts, size);
+    }
+
+    /**
+     * Procedure stores the given real and imaginary parts of all array elements in the order of their storage.
+     * The imaginary parts can be null: in this case, all elements are real
+     */
+    public void setRawValues(double[] re, double[] im)
+    {
+        resize(dimensions);
+        System.arraycopy(re, 0, realParts, 0, size);
+        if (im == null)
+        {
+            return;
+        }
+        for (int i = 0; i < size; i++)
+        {
+            if (im[i] != 0.0)
+            {
+                if (imaginaryParts == null)
+                {
+                    imaginaryParts = new double[size];
+                }
+                imaginaryParts[i] = im[i];
+                setBit(complexBits, i, true);
+            }
+        }
+    }
+
+    /**
+     * Procedure returns the number of rows and columns if this array is a vector or a matrix. A vector is
+     * a matrix with a single column. Otherwise, null is returned
+     */
+    public int[] getMatrixDimensions()
+    {
+        final int dimNumber = getDimNumber();
+        if (realParts == null || size == 0 || dimNumber < 1 || dimNumber > 2)
+        {
+            return null;
+        }
+        return new int[]{ dimensions[D0], dimNumber == 1 ? 1 : dimensions[D1] };
+    }
+
     public void calculate(CalculaterTask thread, ArrayList<String> args, boolean useArgsAsDimension, final EquationArrayResult mergedArray) throws CancelException
     {
-        values = null;
+        realParts = null;
 
         final ArrayList<String> arguments = new ArrayList<>(args);
 
@@ -193,7 +300,9 @@ public class EquationArrayResult
 
 
         // calculate array
-        equation.setArgumentValues(argValues);
+        final EvalContext context = EvalContext.get(thread);
+        final CompiledTerm term = equation.getCompiledTerm();
+        final CalculatedValue value = new CalculatedValue();
         for (final CalculatedValue d0 : intervalValues.get(D0))
         {
             final int i0 = d0.getInteger();
@@ -207,7 +316,8 @@ public class EquationArrayResult
             {
                 if (calc0)
                 {
-                    equationTerm.getValue(thread, values[i0]);
+                    term.getValue(context, argValues, value);
+                    set(i0, value);
                 }
                 continue;
             }
@@ -224,7 +334,8 @@ public class EquationArrayResult
                 {
                     if (calc0 && calc1)
                     {
-                        equationTerm.getValue(thread, values[getIndex(i0, i1)]);
+                        term.getValue(context, argValues, value);
+                        set(getIndex(i0, i1), value);
                     }
                     continue;
                 }
@@ -239,7 +350,8 @@ public class EquationArrayResult
                     final boolean calc2 = fixedIndex[D2] < 0 || fixedIndex[D2] == i2;
                     if (calc0 && calc1 && calc2)
                     {
-                        equationTerm.getValue(thread, values[getIndex(i0, i1, i2)]);
+                        term.getValue(context, argValues, value);
+                        set(getIndex(i0, i1, i2), value);
                     }
                 }
             }
@@ -248,28 +360,43 @@ public class EquationArrayResult
 
     private void mergeValues(EquationArrayResult mergedArray, int[] mergedDimensions)
     {
+        if (mergedArray.realParts == null)
+        {
+            return;
+        }
+        final CalculatedValue value = new CalculatedValue();
         for (int i0 = 0; i0 < mergedDimensions[D0]; i0++)
         {
             if (mergedDimensions.length == 1)
             {
-                values[i0].merge(mergedArray.values[i0]);
+                mergeValue(i0, mergedArray, i0, value);
                 continue;
             }
             for (int i1 = 0; i1 < mergedDimensions[D1]; i1++)
             {
                 if (mergedDimensions.length == 2)
                 {
-                    values[getIndex(i0, i1)].merge(mergedArray.values[mergedArray.getIndex(i0, i1)]);
+                    mergeValue(getIndex(i0, i1), mergedArray, mergedArray.getIndex(i0, i1), value);
                     continue;
                 }
                 for (int i2 = 0; i2 < mergedDimensions[D2]; i2++)
                 {
-                    values[getIndex(i0, i1, i2)].merge(mergedArray.values[mergedArray.getIndex(i0, i1, i2)]);
+                    mergeValue(getIndex(i0, i1, i2), mergedArray, mergedArray.getIndex(i0, i1, i2), value);
                 }
             }
         }
     }
 
+    private void mergeValue(int idx, EquationArrayResult mergedArray, int mergedIdx, CalculatedValue tmp)
+    {
+        mergedArray.get(mergedIdx, tmp);
+        if (tmp.isNaN())
+        {
+            tmp.assign(CalculatedValue.ZERO);
+        }
+        set(idx, tmp);
+    }
+
     private int getIndex(int i0, int i1)
     {
         return i0 * dimensions[1] + i1;
@@ -288,43 +415,163 @@ public class EquationArrayResult
         resize(dimValues);
     }
 
+    /**
+     * Procedure sets new dimensions: all elements are real zero values without unit
+     */
     private void resize(int[] dimValues)
     {
         dimensions = dimValues;
-        int size = 1;
+        size = 1;
         for (int dim : dimensions)
         {
             size *= dim;
         }
-        values = new CalculatedValue[size];
-        for (int i = 0; i < size; i++)
+        final int bitWords = (size + 63) / 64;
+        realParts = new double[size];
+        imaginaryParts = null;
+        invalidBits = new long[bitWords];
+        complexBits = new long[bitWords];
+        unit = null;
+        unitBits = new long[bitWords];
+        units = null;
+    }
+
+    /*--------------------------------------------------------*
+     * Access to the primitive storage
+     *--------------------------------------------------------*/
+
+    private static boolean getBit(long[] bits, int idx)
+    {
+        return (bits[idx >> 6] & (1L << idx)) != 0;
+    }
+
+    private static void setBit(long[] bits, int idx, boolean value)
+    {
+        if (value)
+        {
+            bits[idx >> 6] |= (1L << idx);
+        }
+        else
+        {
+            bits[idx >> 6] &= ~(1L << idx);
+        }
+    }
+
+    /**
+     * Procedure copies the element with given flat index into the given value
+     */
+    private CalculatedValue.ValueType get(int idx, CalculatedValue outValue)
+    {
+        final CalculatedValue.ValueType valueType = getBit(invalidBits, idx) ? CalculatedValue.ValueType.INVALID :
+                (getBit(complexBits, idx) ? CalculatedValue.ValueType.COMPLEX : CalculatedValue.ValueType.REAL);
+        final Unit<?> u = (units != null) ? units[idx] : (getBit(unitBits, idx) ? unit : null);
+        return outValue.assign(valueType, realParts[idx],
+                imaginaryParts != null ? imaginaryParts[idx] : 0.0, u);
+    }
+
+    /**
+     * Procedure stores the given value into the element with given flat index
+     */
+    private void set(int idx, CalculatedValue value)
+    {
+        realParts[idx] = value.getReal();
+        final double im = value.getImaginary();
+        if (imaginaryParts == null && im != 0.0)
+        {
+            imaginaryParts = new double[size];
+        }
+        if (imaginaryParts != null)
+        {
+            imaginaryParts[idx] = im;
+        }
+        setBit(invalidBits, idx, value.getValueType() == CalculatedValue.ValueType.INVALID);
+        setBit(complexBits, idx, value.getValueType() == CalculatedValue.ValueType.COMPLEX);
+
+        final Unit<?> u = value.getUnit();
+        if (units != null)
+        {
+            units[idx] = u;
+        }
+        else if (u == null)
+        {
+            setBit(unitBits, idx, false);
+        }
+        else if (unit == null || unit.equals(u))
         {
-            values[i] = new CalculatedValue(CalculatedValue.ValueType.REAL, 0.0, 0.0);
+            unit = u;
+            setBit(unitBits, idx, true);
+        }
+        else
+        {
+            // the elements have different units: switch to a separate unit array
+            units = new Unit<?>[size];
+            for (int i = 0; i < size; i++)
+            {
+                units[i] = getBit(unitBits, i) ? unit : null;
+            }
+            units[idx] = u;
         }
-        idxValues = new int[dimensions.length];
     }
 
+    /*--------------------------------------------------------*
+     * Element access
+     *--------------------------------------------------------*/
+
+    /**
+     * Procedure returns a copy of the vector element: the changes of the returned value are not stored
+     * in the array. Use setValue1D in order to change an element
+     */
     public CalculatedValue getValue1D(int idx)
     {
         final int dimNumber = getDimNumber();
-        if (values == null || dimNumber != 1 || idx < 0 || idx >= dimensions[D0])
+        if (realParts == null || dimNumber != 1 || idx < 0 || idx >= dimensions[D0])
         {
             return CalculatedValue.NaN;
         }
-        return values[idx];
+        final CalculatedValue v = new CalculatedValue();
+        get(idx, v);
+        return v;
     }
 
+    public void setValue1D(int idx, CalculatedValue value)
+    {
+        final int dimNumber = getDimNumber();
+        if (realParts != null && dimNumber == 1 && idx >= 0 && idx < dimensions[D0])
+        {
+            set(idx, value);
+        }
+    }
+
+    /**
+     * Procedure returns a copy of the matrix element: the changes of the returned value are not stored
+     * in the array. Use setValue2D in order to change an element
+     */
     public CalculatedValue getValue2D(int idx1, int idx2)
     {
         final int dimNumber = getDimNumber();
-        if (values == null || dimNumber != 2 || idx1 < 0 || idx1 >= dimensions[D0] || idx2 < 0 || idx2 >= dimensions[D1])
+        if (realParts == null || dimNumber != 2 || idx1 < 0 || idx1 >= dimensions[D0] || idx2 < 0 || idx2 >= dimensions[D1])
         {
             return CalculatedValue.NaN;
         }
-        return values[getIndex(idx1, idx2)];
+        final CalculatedValue v = new CalculatedValue();
+        get(getIndex(idx1, idx2), v);
+        return v;
+    }
+
+    public void setValue2D(int idx1, int idx2, CalculatedValue value)
+    {
+        final int dimNumber = getDimNumber();
+        if (realParts != null && dimNumber == 2 && idx1 >= 0 && idx1 < dimensions[D0] && idx2 >= 0
+                && idx2 < dimensions[D1])
+        {
+            set(getIndex(idx1, idx2), value);
+        }
     }
 
-    public CalculatedValue getValue(final CalculatedValue[] args)
+    /**
+     * Procedure copies the element addressed by the given argument values into the output value
+     */
+    public CalculatedValue.ValueType getValue(final CalculatedValue[] args, CalculatedValue outValue)
     {
         final int dimNumber = getDimNumber();
         CalculatedValue[] argValues = args.length == dimNumber ? args : null;
@@ -336,41 +583,38 @@ public class EquationArrayResult
                     new CalculatedValue[]{ CalculatedValue.ZERO, args[0] } :
                     new CalculatedValue[]{ args[0], CalculatedValue.ZERO };
         }
-        if (values == null || argValues == null)
+        if (realParts == null || argValues == null)
         {
-            return CalculatedValue.NaN;
+            return outValue.assign(CalculatedValue.NaN);
         }
 
+        if (dimNumber < 1 || dimNumber > MAX_DIMENSION)
+        {
+            return outValue.assign(CalculatedValue.NaN);
+        }
+
+        // the flat index is accumulated locally since this method can be called by several threads
+        int flatIdx = 0;
         for (int i = 0; i < dimNumber; i++)
         {
             final CalculatedValue argValue = argValues[i];
             if (!argValue.isReal())
             {
-                return CalculatedValue.NaN;
+                return outValue.assign(CalculatedValue.NaN);
             }
             final int idx = argValue.getInteger();
             if (idx < 0 || idx >= dimensions[i])
             {
-                return CalculatedValue.NaN;
+                return outValue.assign(CalculatedValue.NaN);
             }
-            idxValues[i] = idx;
-        }
-        switch (dimNumber)
-        {
-        case 1:
-            return values[idxValues[D0]];
-        case 2:
-            return values[getIndex(idxValues[D0], idxValues[D1])];
-        case 3:
-            return values[getIndex(idxValues[D0], idxValues[D1], idxValues[D2])];
-        default:
-            return CalculatedValue.NaN;
+            flatIdx = flatIdx * dimensions[i] + idx;
         }
+        return get(flatIdx, outValue);
     }
 
     public boolean isArray1D()
     {
-        return getDimNumber() == 1 && values != null && values.length > 0;
+        return getDimNumber() == 1 && realParts != null && size > 0;
     }
 
     private boolean isVectorAsMatrix()
@@ -2,154 +2,359 @@ package com.mkulesh.micromath.math;
 
 import org.apache.commons.math3.util.FastMath;
 
-import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+/*--------------------------------------------------------*
+ * Fast Fourier transform of arbitrary length: a mixed-radix algorithm is
+ * used if the length has only small prime factors, otherwise the
+ * Bluestein algorithm reduces the transform to a power-of-two one.
+ * The twiddle tables are cached for the recently used lengths.
+ *--------------------------------------------------------*/
 public class Fft
 {
-    // Direct Fourier Transform (no normalization by default)
-    public void fft(CalculatedValue[] x, CalculatedValue[] out)
-    {
-        _ft(x, out, -1, false);
-    }
+    // prime factors greater than this value are not transformed directly but using the Bluestein algorithm
+    private final static int MAX_RADIX = 31;
+
+    // maximum number of cached transform plans
+    private final static int MAX_PLANS = 16;
 
-    // Inverse Fourier Transform (normalization 1/N by default)
-    public void ifft(CalculatedValue[] x, CalculatedValue[] out)
+    private final static Map<Integer, Plan> plans = new LinkedHashMap<Integer, Plan>(MAX_PLANS, 0.75f, true)
     {
-        _ft(x, out, 1, true);
-    }
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Plan> eldest)
+        {
+            return size() > MAX_PLANS;
+        }
+    };
 
-    void _ft(CalculatedValue[] x, CalculatedValue[] out, double isign, boolean normalization)
+    /**
+     * Immutable data for the transform of a given length
+     */
+    private static final class Plan
     {
-        if (x.length == 0)
+        final int n;
+        final int[] factors;
+        final double[] cos;
+        final double[] sin;
+
+        // Bluestein algorithm: the power-of-two plan, the chirp and the transformed convolution kernel
+        final Plan convolution;
+        final double[] chirpCos;
+        final double[] chirpSin;
+        final double[] kernelRe;
+        final double[] kernelIm;
+
+        Plan(int n)
         {
-            return;
+            this.n = n;
+            final int[] f = factorize(n);
+            if (f == null)
+            {
+                factors = null;
+                cos = null;
+                sin = null;
+                int m = 1;
+                while (m < 2 * n - 1)
+                {
+                    m <<= 1;
+                }
+                convolution = getPlan(m);
+                chirpCos = new double[n];
+                chirpSin = new double[n];
+                final long n2 = 2L * n;
+                for (int k = 0; k < n; k++)
+                {
+                    // k^2 is reduced modulo 2n in order to keep the argument small and precise
+                    final double a = FastMath.PI * (double) (((long) k * (long) k) % n2) / n;
+                    chirpCos[k] = FastMath.cos(a);
+                    chirpSin[k] = FastMath.sin(a);
+                }
+                kernelRe = new double[m];
+                kernelIm = new double[m];
+                kernelRe[0] = chirpCos[0];
+                kernelIm[0] = chirpSin[0];
+                for (int k = 1; k < n; k++)
+                {
+                    kernelRe[k] = kernelRe[m - k] = chirpCos[k];
+                    kernelIm[k] = kernelIm[m - k] = chirpSin[k];
+                }
+                forward(convolution, kernelRe, kernelIm);
+            }
+            else
+            {
+                factors = f;
+                cos = new double[n];
+                sin = new double[n];
+                for (int k = 0; k < n; k++)
+                {
+                    final double a = 2.0 * FastMath.PI * k / n;
+                    cos[k] = FastMath.cos(a);
+                    sin[k] = FastMath.sin(a);
+                }
+                convolution = null;
+                chirpCos = null;
+                chirpSin = null;
+                kernelRe = null;
+                kernelIm = null;
+            }
         }
-        if (!_isPowerOf2(x.length))
+    }
+
+    /**
+     * Procedure returns the list of radices for given length, or null if the length has a prime factor that is
+     * greater than MAX_RADIX
+     */
+    private static int[] factorize(int n)
+    {
+        final int[] f = new int[32];
+        int size = 0;
+        int rest = n;
+        while (rest % 4 == 0)
         {
-            _dft(x, out, isign, normalization);
+            f[size++] = 4;
+            rest /= 4;
         }
-        else
+        for (int p = 2; rest > 1; p++)
         {
-            _fftNumericalRecipes(x, out, isign, normalization);
+            if (p > MAX_RADIX)
+            {
+                return null;
+            }
+            while (rest % p == 0)
+            {
+                f[size++] = p;
+                rest /= p;
+            }
         }
+        final int[] factors = new int[size];
+        System.arraycopy(f, 0, factors, 0, size);
+        return factors;
     }
 
-    boolean _isPowerOf2(int n)
+    private static Plan getPlan(int n)
     {
-        return (n & (n - 1)) == 0;
+        synchronized (plans)
+        {
+            Plan plan = plans.get(n);
+            if (plan == null)
+            {
+                plan = new Plan(n);
+                plans.put(n, plan);
+            }
+            return plan;
+        }
     }
 
-    // FFT algorithm from the Numerical Recipes
-    double[] _nrData = new double[]{ 0 };
-
-    void _fftNumericalRecipes(CalculatedValue[] x, CalculatedValue[] out, double isign, boolean normalization)
+    /**
+     * Procedure transforms the given complex vector in place. The direct transform is not normalized,
+     * the inverse transform is normalized by 1/N
+     */
+    public void transform(double[] re, double[] im, boolean inverse)
     {
-        // Prepare arrays
-        final int nrDataSize = 2 * x.length + 1;
-        if (_nrData.length != nrDataSize)
+        final int n = re.length;
+        if (n <= 1)
         {
-            _nrData = new double[nrDataSize];
-            Arrays.fill(_nrData, 0);
+            return;
         }
-
-        // Convert complex list to _nrData array
-        _nrData[0] = 0;
-        for (int k = 1; k < _nrData.length; k++)
+        if (inverse)
+        {
+            // the inverse transform is the conjugated direct transform of the conjugated vector
+            for (int k = 0; k < n; k++)
+            {
+                im[k] = -im[k];
+            }
+        }
+        forward(getPlan(n), re, im);
+        if (inverse)
         {
-            _nrData[k] = k % 2 == 1 ? x[(k - 1) / 2].getReal() : x[(k - 1) / 2].getImaginary();
+            final double norm = 1.0 / n;
+            for (int k = 0; k < n; k++)
+            {
+                re[k] *= norm;
+                im[k] *= -norm;
+            }
         }
+    }
 
-        // Call the method from Numerical Recipes
-        _four1(_nrData, x.length, isign);
-
-        // Convert _nrData back to complex list
-        double norm = normalization ? x.length : 1.0;
-        for (int k = 0; k < out.length; k++)
+    private static void forward(Plan plan, double[] re, double[] im)
+    {
+        if (plan.factors == null)
         {
-            out[k] = new CalculatedValue(CalculatedValue.ValueType.COMPLEX,
-                    _nrData[2 * k + 1] / norm, _nrData[2 * k + 2] / norm);
+            bluestein(plan, re, im);
+            return;
         }
+        final double[] outRe = new double[plan.n];
+        final double[] outIm = new double[plan.n];
+        final int maxRadix = plan.factors[plan.factors.length - 1];
+        final double[] scratch = new double[4 * maxRadix];
+        mixedRadix(plan, re, im, 0, 1, outRe, outIm, 0, plan.n, 0, scratch);
+        System.arraycopy(outRe, 0, re, 0, plan.n);
+        System.arraycopy(outIm, 0, im, 0, plan.n);
     }
 
-    void _four1(double[] data, int nn, double isign)
+    /**
+     * Procedure implements the recursive decimation-in-time transform of n elements that are taken from
+     * the input arrays with given offset and stride and are written into the output arrays with given offset
+     */
+    private static void mixedRadix(Plan plan, double[] inRe, double[] inIm, int inOffset, int stride,
+                                   double[] outRe, double[] outIm, int outOffset, int n, int factorIdx, double[] scratch)
     {
-        int n, mmax, m, j, istep, i;
-        double wtemp, wr, wpr, wpi, wi, theta;
-        double tempr, tempi;
+        final int p = plan.factors[factorIdx];
+        final int m = n / p;
+        if (m == 1)
+        {
+            for (int q = 0; q < p; q++)
+            {
+                outRe[outOffset + q] = inRe[inOffset + q * stride];
+                outIm[outOffset + q] = inIm[inOffset + q * stride];
+            }
+        }
+        else
+        {
+            for (int q = 0; q < p; q++)
+            {
+                mixedRadix(plan, inRe, inIm, inOffset + q * stride, stride * p,
+                        outRe, outIm, outOffset + q * m, m, factorIdx + 1, scratch);
+            }
+        }
 
-        n = nn << 1;
-        j = 1;
-        for (i = 1; i < n; i += 2)
+        final int fstride = plan.n / n;
+        final double[] cos = plan.cos;
+        final double[] sin = plan.sin;
+        switch (p)
+        {
+        case 2:
+            for (int k = 0; k < m; k++)
+            {
+                final int i0 = outOffset + k, i1 = i0 + m;
+                final int t = k * fstride;
+                final double r1 = outRe[i1] * cos[t] + outIm[i1] * sin[t];
+                final double j1 = outIm[i1] * cos[t] - outRe[i1] * sin[t];
+                outRe[i1] = outRe[i0] - r1;
+                outIm[i1] = outIm[i0] - j1;
+                outRe[i0] += r1;
+                outIm[i0] += j1;
+            }
+            break;
+        case 3:
         {
-            if (j > i)
+            final double s3 = FastMath.sqrt(3.0) / 2.0;
+            for (int k = 0; k < m; k++)
             {
-                _swap(data, j, i);
-                _swap(data, j + 1, i + 1);
+                final int i0 = outOffset + k, i1 = i0 + m, i2 = i1 + m;
+                final int t1 = k * fstride, t2 = 2 * t1;
+                final double r1 = outRe[i1] * cos[t1] + outIm[i1] * sin[t1];
+                final double j1 = outIm[i1] * cos[t1] - outRe[i1] * sin[t1];
+                final double r2 = outRe[i2] * cos[t2] + outIm[i2] * sin[t2];
+                final double j2 = outIm[i2] * cos[t2] - outRe[i2] * sin[t2];
+                final double sr = r1 + r2, sj = j1 + j2;
+                final double dr = s3 * (r1 - r2), dj = s3 * (j1 - j2);
+                final double hr = outRe[i0] - 0.5 * sr, hj = outIm[i0] - 0.5 * sj;
+                outRe[i0] += sr;
+                outIm[i0] += sj;
+                outRe[i1] = hr + dj;
+                outIm[i1] = hj - dr;
+                outRe[i2] = hr - dj;
+                outIm[i2] = hj + dr;
             }
-            m = nn;
-            while (m >= 2 && j > m)
+            break;
+        }
+        case 4:
+            for (int k = 0; k < m; k++)
             {
-                j -= m;
-                m >>= 1;
+                final int i0 = outOffset + k, i1 = i0 + m, i2 = i1 + m, i3 = i2 + m;
+                final int t1 = k * fstride, t2 = 2 * t1, t3 = 3 * t1;
+                final double r1 = outRe[i1] * cos[t1] + outIm[i1] * sin[t1];
+                final double j1 = outIm[i1] * cos[t1] - outRe[i1] * sin[t1];
+                final double r2 = outRe[i2] * cos[t2] + outIm[i2] * sin[t2];
+                final double j2 = outIm[i2] * cos[t2] - outRe[i2] * sin[t2];
+                final double r3 = outRe[i3] * cos[t3] + outIm[i3] * sin[t3];
+                final double j3 = outIm[i3] * cos[t3] - outRe[i3] * sin[t3];
+                final double ar = outRe[i0] + r2, aj = outIm[i0] + j2;
+                final double br = outRe[i0] - r2, bj = outIm[i0] - j2;
+                final double cr = r1 + r3, cj = j1 + j3;
+                final double dr = r1 - r3, dj = j1 - j3;
+                outRe[i0] = ar + cr;
+                outIm[i0] = aj + cj;
+                outRe[i2] = ar - cr;
+                outIm[i2] = aj - cj;
+                // multiplication by -i for the direct transform
+                outRe[i1] = br + dj;
+                outIm[i1] = bj - dr;
+                outRe[i3] = br - dj;
+                outIm[i3] = bj + dr;
             }
-            j += m;
-        }
-        mmax = 2;
-        while (n > mmax)
-        {
-            istep = mmax << 1;
-            theta = isign * (6.28318530717959 / mmax);
-            wtemp = FastMath.sin(0.5 * theta);
-            wpr = -2.0 * wtemp * wtemp;
-            wpi = FastMath.sin(theta);
-            wr = 1.0;
-            wi = 0.0;
-            for (m = 1; m < mmax; m += 2)
+            break;
+        default:
+            // generic radix: the scratch contains the twiddled inputs followed by the outputs
+            for (int k = 0; k < m; k++)
             {
-                for (i = m; i <= n; i += istep)
+                for (int q = 0; q < p; q++)
+                {
+                    final int i = outOffset + k + q * m;
+                    final int t = q * k * fstride;
+                    scratch[2 * q] = outRe[i] * cos[t] + outIm[i] * sin[t];
+                    scratch[2 * q + 1] = outIm[i] * cos[t] - outRe[i] * sin[t];
+                }
+                for (int s = 0; s < p; s++)
                 {
-                    j = i + mmax;
-                    tempr = wr * data[j] - wi * data[j + 1];
-                    tempi = wr * data[j + 1] + wi * data[j];
-                    data[j] = data[i] - tempr;
-                    data[j + 1] = data[i + 1] - tempi;
-                    data[i] += tempr;
-                    data[i + 1] += tempi;
+                    double sr = 0.0, sj = 0.0;
+                    for (int q = 0; q < p; q++)
+                    {
+                        final int t = ((q * s) % p) * m * fstride;
+                        sr += scratch[2 * q] * cos[t] + scratch[2 * q + 1] * sin[t];
+                        sj += scratch[2 * q + 1] * cos[t] - scratch[2 * q] * sin[t];
+                    }
+                    scratch[2 * (p + s)] = sr;
+                    scratch[2 * (p + s) + 1] = sj;
+                }
+                for (int s = 0; s < p; s++)
+                {
+                    final int i = outOffset + k + s * m;
+                    outRe[i] = scratch[2 * (p + s)];
+                    outIm[i] = scratch[2 * (p + s) + 1];
                 }
-                wr = (wtemp = wr) * wpr - wi * wpi + wr;
-                wi = wi * wpr + wtemp * wpi + wi;
             }
-            mmax = istep;
+            break;
         }
     }
 
-    void _swap(double[] data, int i, int j)
-    {
-        final double t = data[i];
-        data[i] = data[j];
-        data[j] = t;
-    }
-
-    // Computes the discrete Fourier transform (DFT) of the given complex vector.
-    void _dft(CalculatedValue[] x, CalculatedValue[] out, double isign, boolean normalization)
+    /**
+     * Procedure implements the Bluestein algorithm: the transform is expressed as a convolution with a chirp
+     * that is calculated using the power-of-two transform
+     */
+    private static void bluestein(Plan plan, double[] re, double[] im)
     {
-        final int n = x.length;
-        final double factor = isign * 2 * FastMath.PI / n;
-        final CalculatedValue a = CalculatedValue.ZERO;
+        final int n = plan.n;
+        final int m = plan.convolution.n;
+        final double[] aRe = new double[m];
+        final double[] aIm = new double[m];
         for (int k = 0; k < n; k++)
         {
-            out[k] = new CalculatedValue(CalculatedValue.ValueType.COMPLEX, 0.0, 0.0);
-            for (int t = 0; t < n; t++)
-            {
-                a.setComplexValue(0.0, factor * t * k);
-                a.exp(a);
-                a.multiply(a, x[t]);
-                out[k].add(out[k], a);
-            }
-            if (normalization)
-            {
-                out[k].multiply(1.0 / x.length);
-            }
+            // multiplication by the conjugated chirp
+            aRe[k] = re[k] * plan.chirpCos[k] + im[k] * plan.chirpSin[k];
+            aIm[k] = im[k] * plan.chirpCos[k] - re[k] * plan.chirpSin[k];
+        }
+        forward(plan.convolution, aRe, aIm);
+        for (int k = 0; k < m; k++)
+        {
+            // multiplication by the kernel, conjugated for the following inverse transform
+            final double r = aRe[k] * plan.kernelRe[k] - aIm[k] * plan.kernelIm[k];
+            final double j = aRe[k] * plan.kernelIm[k] + aIm[k] * plan.kernelRe[k];
+            aRe[k] = r;
+            aIm[k] = -j;
+        }
+        forward(plan.convolution, aRe, aIm);
+        final double norm = 1.0 / m;
+        for (int k = 0; k < n; k++)
+        {
+            final double r = aRe[k] * norm;
+            final double j = -aIm[k] * norm;
+            re[k] = r * plan.chirpCos[k] + j * plan.chirpSin[k];
+            im[k] = j * plan.chirpCos[k] - r * plan.chirpSin[k];
         }
     }
 }
@@ -0,0 +1,435 @@
+/*
+ * microMathematics - Extended Visual Calculator
+ * Copyright (C) 2014-2022 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+package com.mkulesh.micromath.math;
+
+import com.mkulesh.micromath.eval.ParallelRunner;
+import com.mkulesh.micromath.formula.CalculaterTask;
+import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.QRDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.Arrays;
+
+/**
+ * Class that implements the operations of the linear algebra on real matrices. All matrices are stored as flat
+ * arrays in the row-major order, the given arrays are never changed. The multiplication and the LU decomposition
+ * are processed in blocks that fit into the processor cache; large matrices are split into row or column blocks
+ * that are calculated in parallel
+ */
+public final class LinearAlgebra
+{
+    // number of rows or columns in a single block
+    private static final int BLOCK_SIZE = 64;
+
+    // minimal number of multiplications that is calculated in parallel
+    private static final long PARALLEL_MIN_OPERATIONS = 1L << 18;
+
+    /**
+     * Result of the LU decomposition with partial pivoting: the unit lower triangular matrix L and the upper
+     * triangular matrix U are stored in the same array
+     */
+    private static final class LuDecomposition
+    {
+        final int n;
+        final double[] lu;
+        final int[] pivot;
+        boolean isSingular = false;
+        boolean isEven = true;
+
+        LuDecomposition(double[] a, int n)
+        {
+            this.n = n;
+            this.lu = Arrays.copyOf(a, n * n);
+            this.pivot = new int[n];
+            for (int i = 0; i < n; i++)
+            {
+                pivot[i] = i;
+            }
+        }
+    }
+
+    /*--------------------------------------------------------*
+     * Public methods
+     *--------------------------------------------------------*/
+
+    /**
+     * Procedure returns the product of the matrix a with the dimension n x m and the matrix b with the
+     * dimension m x p
+     */
+    public static double[] multiply(final CalculaterTask thread, final double[] a, final int n, final int m,
+                                    final double[] b, final int p) throws CancelException
+    {
+        final double[] c = new double[n * p];
+        runBlocks(thread, n, (long) n * m * p, (int r0, int r1) -> multiplyRows(a, m, b, p, c, r0, r1));
+        return c;
+    }
+
+    /**
+     * Procedure returns the transposed matrix of the matrix a with the dimension n x m
+     */
+    public static double[] transpose(final double[] a, final int n, final int m)
+    {
+        final double[] t = new double[m * n];
+        for (int i0 = 0; i0 < n; i0 += BLOCK_SIZE)
+        {
+            final int i1 = Math.min(i0 + BLOCK_SIZE, n);
+            for (int j0 = 0; j0 < m; j0 += BLOCK_SIZE)
+            {
+                final int j1 = Math.min(j0 + BLOCK_SIZE, m);
+                for (int i = i0; i < i1; i++)
+                {
+                    for (int j = j0; j < j1; j++)
+                    {
+                        t[j * n + i] = a[i * m + j];
+                    }
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Procedure returns the determinant of the square matrix a with the dimension n x n
+     */
+    public static double determinant(final CalculaterTask thread, final double[] a, final int n)
+            throws CancelException
+    {
+        final LuDecomposition d = decompose(thread, a, n);
+        if (d.isSingular)
+        {
+            return 0.0;
+        }
+        double det = d.isEven ? 1.0 : -1.0;
+        for (int i = 0; i < n; i++)
+        {
+            det *= d.lu[i * n + i];
+        }
+        return det;
+    }
+
+    /**
+     * Procedure returns the inverse matrix of the square matrix a with the dimension n x n or null if this
+     * matrix is singular
+     */
+    public static double[] inverse(final CalculaterTask thread, final double[] a, final int n) throws CancelException
+    {
+        final double[] identity = new double[n * n];
+        for (int i = 0; i < n; i++)
+        {
+            identity[i * n + i] = 1.0;
+        }
+        return solve(thread, a, n, n, identity, n);
+    }
+
+    /**
+     * Procedure solves the linear system a * x = b, where a has the dimension n x m and b has the dimension n x p.
+     * A square system is solved using the LU decomposition; an overdetermined system is solved in the
+     * least-squares sense using the QR decomposition. Null is returned if the system has no unique solution
+     */
+    public static double[] solve(final CalculaterTask thread, final double[] a, final int n, final int m,
+                                 final double[] b, final int p) throws CancelException
+    {
+        if (n == m)
+        {
+            final LuDecomposition d = decompose(thread, a, n);
+            return d.isSingular ? null : substitute(thread, d, b, p);
+        }
+        if (n < m)
+        {
+            return null;
+        }
+        try
+        {
+            final RealMatrix x = new QRDecomposition(toRealMatrix(a, n, m)).getSolver().solve(toRealMatrix(b, n, p));
+            return fromRealMatrix(x);
+        }
+        catch (Exception ex)
+        {
+            // nothing to do
+        }
+        return null;
+    }
+
+    /**
+     * Procedure returns the real parts (index 0) and the imaginary parts (index 1) of the eigenvalues of the
+     * square matrix a with the dimension n x n or null if these can not be calculated
+     */
+    public static double[][] eigenvalues(final double[] a, final int n)
+    {
+        try
+        {
+            final EigenDecomposition d = new EigenDecomposition(toRealMatrix(a, n, n));
+            return new double[][]{ d.getRealEigenvalues(), d.getImagEigenvalues() };
+        }
+        catch (Exception ex)
+        {
+            // nothing to do
+        }
+        return null;
+    }
+
+    /*--------------------------------------------------------*
+     * Kernels
+     *--------------------------------------------------------*/
+
+    /**
+     * Interface for a kernel that calculates a range of rows or columns
+     */
+    private interface BlockIf
+    {
+        void calculate(int start, int end);
+    }
+
+    /**
+     * Procedure splits the given number of rows or columns into blocks and calculates them. If the number of
+     * multiplications is large, the blocks are calculated in parallel
+     */
+    private static void runBlocks(final CalculaterTask thread, final int size, final long operations,
+                                  final BlockIf block) throws CancelException
+    {
+        final int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (thread != null && blocks > 1 && operations >= PARALLEL_MIN_OPERATIONS
+                && ParallelRunner.getThreadsNumber() > 1)
+        {
+            ParallelRunner.run(thread, blocks, (context, tile) ->
+            {
+                thread.checkCancelation();
+                block.calculate(tile * BLOCK_SIZE, Math.min((tile + 1) * BLOCK_SIZE, size));
+            });
+            return;
+        }
+        for (int start = 0; start < size; start += BLOCK_SIZE)
+        {
+            if (thread != null)
+            {
+                thread.checkCancelation();
+            }
+            block.calculate(start, Math.min(start + BLOCK_SIZE, size));
+        }
+    }
+
+    /**
+     * Procedure calculates the rows r0..r1-1 of the product c = a * b. The inner loop runs along the rows of b
+     * and c, and the blocks of b are reused for all rows of the range
+     */
+    private static void multiplyRows(double[] a, int m, double[] b, int p, double[] c, int r0, int r1)
+    {
+        for (int k0 = 0; k0 < m; k0 += BLOCK_SIZE)
+        {
+            final int k1 = Math.min(k0 + BLOCK_SIZE, m);
+            for (int j0 = 0; j0 < p; j0 += BLOCK_SIZE)
+            {
+                final int j1 = Math.min(j0 + BLOCK_SIZE, p);
+                for (int i = r0; i < r1; i++)
+                {
+                    final int ci = i * p;
+                    for (int k = k0; k < k1; k++)
+                    {
+                        final double aik = a[i * m + k];
+                        if (aik == 0.0)
+                        {
+                            continue;
+                        }
+                        final int bk = k * p;
+                        for (int j = j0; j < j1; j++)
+                        {
+                            c[ci + j] += aik * b[bk + j];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Procedure calculates the blocked right-looking LU decomposition with partial pivoting. Each column panel
+     * is factorized directly; the update of the trailing matrix is a matrix product calculated in row blocks
+     */
+    private static LuDecomposition decompose(final CalculaterTask thread, final double[] a, final int n)
+            throws CancelException
+    {
+        final LuDecomposition d = new LuDecomposition(a, n);
+        final double[] lu = d.lu;
+        for (int k0 = 0; k0 < n; k0 += BLOCK_SIZE)
+        {
+            final int k1 = Math.min(k0 + BLOCK_SIZE, n);
+
+            // factorization of the panel k0..k1-1
+            for (int k = k0; k < k1; k++)
+            {
+                int p = k;
+                double max = FastMath.abs(lu[k * n + k]);
+                for (int i = k + 1; i < n; i++)
+                {
+                    final double v = FastMath.abs(lu[i * n + k]);
+                    if (v > max)
+                    {
+                        max = v;
+                        p = i;
+                    }
+                }
+                if (max == 0.0 || Double.isNaN(max) || Double.isInfinite(max))
+                {
+                    d.isSingular = true;
+                    return d;
+                }
+                if (p != k)
+                {
+                    swapRows(lu, n, p, k);
+                    final int tmp = d.pivot[p];
+                    d.pivot[p] = d.pivot[k];
+                    d.pivot[k] = tmp;
+                    d.isEven = !d.isEven;
+                }
+                final double pivot = lu[k * n + k];
+                for (int i = k + 1; i < n; i++)
+                {
+                    final double lik = lu[i * n + k] / pivot;
+                    lu[i * n + k] = lik;
+                    for (int j = k + 1; j < k1; j++)
+                    {
+                        lu[i * n + j] -= lik * lu[k * n + j];
+                    }
+                }
+            }
+            if (k1 == n)
+            {
+                break;
+            }
+
+            // rows k0..k1-1 of U right of the panel
+            for (int k = k0; k < k1; k++)
+            {
+                for (int i = k + 1; i < k1; i++)
+                {
+                    final double lik = lu[i * n + k];
+                    for (int j = k1; j < n; j++)
+                    {
+                        lu[i * n + j] -= lik * lu[k * n + j];
+                    }
+                }
+            }
+
+            // update of the trailing matrix
+            final int panel = k0;
+            final int rows = n - k1;
+            runBlocks(thread, rows, (long) rows * rows * (k1 - k0), (int r0, int r1) ->
+            {
+                for (int i = k1 + r0; i < k1 + r1; i++)
+                {
+                    for (int k = panel; k < k1; k++)
+                    {
+                        final double lik = lu[i * n + k];
+                        if (lik == 0.0)
+                        {
+                            continue;
+                        }
+                        for (int j = k1; j < n; j++)
+                        {
+                            lu[i * n + j] -= lik * lu[k * n + j];
+                        }
+                    }
+                }
+            });
+        }
+        return d;
+    }
+
+    private static void swapRows(double[] a, int n, int r1, int r2)
+    {
+        final int o1 = r1 * n, o2 = r2 * n;
+        for (int j = 0; j < n; j++)
+        {
+            final double tmp = a[o1 + j];
+            a[o1 + j] = a[o2 + j];
+            a[o2 + j] = tmp;
+        }
+    }
+
+    /**
+     * Procedure solves the system L * U * x = P * b with p right-hand sides by forward and back substitution.
+     * The columns of b are independent and are calculated in column blocks
+     */
+    private static double[] substitute(final CalculaterTask thread, final LuDecomposition d, final double[] b,
+                                       final int p) throws CancelException
+    {
+        final int n = d.n;
+        final double[] lu = d.lu;
+        final double[] x = new double[n * p];
+        for (int i = 0; i < n; i++)
+        {
+            System.arraycopy(b, d.pivot[i] * p, x, i * p, p);
+        }
+        runBlocks(thread, p, (long) n * n * p, (int c0, int c1) ->
+        {
+            for (int i = 1; i < n; i++)
+            {
+                for (int k = 0; k < i; k++)
+                {
+                    final double lik = lu[i * n + k];
+                    for (int j = c0; j < c1; j++)
+                    {
+                        x[i * p + j] -= lik * x[k * p + j];
+                    }
+                }
+            }
+            for (int i = n - 1; i >= 0; i--)
+            {
+                for (int k = i + 1; k < n; k++)
+                {
+                    final double uik = lu[i * n + k];
+                    for (int j = c0; j < c1; j++)
+                    {
+                        x[i * p + j] -= uik * x[k * p + j];
+                    }
+                }
+                final double uii = lu[i * n + i];
+                for (int j = c0; j < c1; j++)
+                {
+                    x[i * p + j] /= uii;
+                }
+            }
+        });
+        return x;
+    }
+
+    /*--------------------------------------------------------*
+     * Conversion
+     *--------------------------------------------------------*/
+
+    private static RealMatrix toRealMatrix(double[] a, int n, int m)
+    {
+        final double[][] rows = new double[n][];
+        for (int i = 0; i < n; i++)
+        {
+            rows[i] = Arrays.copyOfRange(a, i * m, (i + 1) * m);
+        }
+        return new Array2DRowRealMatrix(rows, false);
+    }
+
+    private static double[] fromRealMatrix(RealMatrix x)
+    {
+        final int n = x.getRowDimension(), m = x.getColumnDimension();
+        final double[] a = new double[n * m];
+        for (int i = 0; i < n; i++)
+        {
+            System.arraycopy(x.getRow(i), 0, a, i * m, m);
+        }
+        return a;
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * microMathematics - Extended Visual Calculator
+ * Copyright (C) 2014-2022 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+package com.mkulesh.micromath.math;
+
+import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
+
+import org.apache.commons.math3.util.FastMath;
+
+/**
+ * Class that solves the initial value problem y' = f(x, y) for a real function y(x). The solution is
+ * calculated with adaptive step size by the Dormand-Prince method of order 5(4); its values at the given
+ * points are interpolated using the dense output of order 4. If the problem is detected to be stiff, the
+ * solver switches to the L-stable Rosenbrock method of order 2(3)
+ */
+public class OdeSolver
+{
+    /**
+     * Interface for the right-hand side of the equation
+     */
+    public interface RightHandSideIf
+    {
+        double calculate(double x, double y) throws CancelException;
+    }
+
+    private static final int MAX_STEPS_COUNT = 100000;
+
+    // the problem is stiff if h * |df/dy| is close to the stability boundary 3.3 of the Dormand-Prince method
+    // for the given number of steps: the step size is then limited by the stability but not by the accuracy
+    private static final double STIFF_BOUNDARY = 2.5;
+    private static final int STIFF_STEPS_COUNT = 15;
+    private static final int NON_STIFF_STEPS_COUNT = 6;
+
+    private static final double SAFETY_FACTOR = 0.9;
+    private static final double MIN_STEP_FACTOR = 0.2;
+    private static final double MAX_STEP_FACTOR = 10.0;
+
+    // the error is relative to the solution; for small values, it is relative to the maximal value so far
+    private static final double ABSOLUTE_ERROR_FACTOR = 1.0e-3;
+
+    // Dormand-Prince coefficients
+    private static final double C2 = 1.0 / 5.0, C3 = 3.0 / 10.0, C4 = 4.0 / 5.0, C5 = 8.0 / 9.0;
+    private static final double A21 = 1.0 / 5.0;
+    private static final double A31 = 3.0 / 40.0, A32 = 9.0 / 40.0;
+    private static final double A41 = 44.0 / 45.0, A42 = -56.0 / 15.0, A43 = 32.0 / 9.0;
+    private static final double A51 = 19372.0 / 6561.0, A52 = -25360.0 / 2187.0, A53 = 64448.0 / 6561.0,
+            A54 = -212.0 / 729.0;
+    private static final double A61 = 9017.0 / 3168.0, A62 = -355.0 / 33.0, A63 = 46732.0 / 5247.0,
+            A64 = 49.0 / 176.0, A65 = -5103.0 / 18656.0;
+    private static final double A71 = 35.0 / 384.0, A73 = 500.0 / 1113.0, A74 = 125.0 / 192.0,
+            A75 = -2187.0 / 6784.0, A76 = 11.0 / 84.0;
+    private static final double E1 = 71.0 / 57600.0, E3 = -71.0 / 16695.0, E4 = 71.0 / 1920.0,
+            E5 = -17253.0 / 339200.0, E6 = 22.0 / 525.0, E7 = -1.0 / 40.0;
+    private static final double D1 = -12715105075.0 / 11282082432.0, D3 = 87487479700.0 / 32700410799.0,
+            D4 = -10690763975.0 / 1880347072.0, D5 = 701980252875.0 / 199316789632.0,
+            D6 = -1453857185.0 / 822651844.0, D7 = 69997945.0 / 29380423.0;
+
+    // Rosenbrock coefficients
+    private static final double RB_D = 1.0 / (2.0 + FastMath.sqrt(2.0));
+    private static final double RB_E32 = 6.0 + FastMath.sqrt(2.0);
+
+    private final RightHandSideIf function;
+    private final double tolerance;
+    private int steps = 0, evaluations = 0;
+    private boolean isStiff = false;
+
+    // the last accepted step and the coefficients of its dense output
+    private double x, y, h, f0, yScale;
+    private final double[] dense = new double[5];
+
+    /*--------------------------------------------------------*
+     * Constructors
+     *--------------------------------------------------------*/
+
+    public OdeSolver(RightHandSideIf function, double tolerance)
+    {
+        this.function = function;
+        this.tolerance = tolerance;
+    }
+
+    /*--------------------------------------------------------*
+     * Methods
+     *--------------------------------------------------------*/
+
+    public int getSteps()
+    {
+        return steps;
+    }
+
+    public int getEvaluations()
+    {
+        return evaluations;
+    }
+
+    public boolean isStiff()
+    {
+        return isStiff;
+    }
+
+    /**
+     * Procedure solves the problem with initial value y0 at the point xValues[0] and stores the solution at all
+     * given points into yValues. The points shall be monotone. The procedure returns false if the solution can
+     * not be calculated; the values that are not calculated are set to NaN
+     */
+    public boolean solve(double y0, double[] xValues, double[] yValues) throws CancelException
+    {
+        final int n = xValues.length;
+        for (int i = 0; i < n; i++)
+        {
+            yValues[i] = Double.NaN;
+        }
+        if (n == 0 || Double.isNaN(y0) || Double.isInfinite(y0))
+        {
+            return false;
+        }
+        final double xEnd = xValues[n - 1];
+        final double direction = FastMath.signum(xEnd - xValues[0]);
+        for (int i = 1; i < n; i++)
+        {
+            if ((xValues[i] - xValues[i - 1]) * direction < 0.0 || Double.isNaN(xValues[i]))
+            {
+                return false;
+            }
+        }
+
+        x = xValues[0];
+        y = y0;
+        yScale = (y0 != 0.0) ? FastMath.abs(y0) : 1.0;
+        yValues[0] = y0;
+        int idx = 1;
+        while (idx < n && xValues[idx] == x)
+        {
+            yValues[idx++] = y;
+        }
+        if (idx == n)
+        {
+            return true;
+        }
+
+        f0 = evaluate(x, y);
+        h = initialStep(xEnd, direction);
+        int stiffSteps = 0, nonStiffSteps = 0;
+        while (idx < n)
+        {
+            if (steps >= MAX_STEPS_COUNT || Double.isNaN(f0) || FastMath.abs(h) <= FastMath.ulp(x))
+            {
+                return false;
+            }
+            if ((x + h - xEnd) * direction > 0.0)
+            {
+                h = xEnd - x;
+            }
+            final double xOld = x;
+            final double hLambda = isStiff ? rosenbrockStep() : dormandPrinceStep();
+            if (Double.isNaN(hLambda))
+            {
+                // the step is rejected and its size is reduced
+                continue;
+            }
+            steps++;
+
+            // dense output for the points within the accepted step
+            final double hAccepted = x - xOld;
+            while (idx < n && (xValues[idx] - x) * direction <= 0.0)
+            {
+                yValues[idx] = interpolate((xValues[idx] - xOld) / hAccepted);
+                idx++;
+            }
+
+            if (!isStiff)
+            {
+                if (hLambda > STIFF_BOUNDARY)
+                {
+                    nonStiffSteps = 0;
+                    isStiff = ++stiffSteps >= STIFF_STEPS_COUNT;
+                }
+                else if (++nonStiffSteps >= NON_STIFF_STEPS_COUNT)
+                {
+                    stiffSteps = 0;
+                }
+            }
+        }
+        return true;
+    }
+
+    private double evaluate(double xv, double yv) throws CancelException
+    {
+        evaluations++;
+        return function.calculate(xv, yv);
+    }
+
+    /**
+     * Procedure estimates the initial step size from the first and second derivatives at the initial point
+     * (Hairer, Norsett, Wanner)
+     */
+    private double initialStep(double xEnd, double direction) throws CancelException
+    {
+        final double maxStep = FastMath.abs(xEnd - x);
+        final double sk = errorScale(y, y);
+        final double d0 = FastMath.abs(y) / sk, d1 = FastMath.abs(f0) / sk;
+        double h0 = (d0 < 1.0e-5 || d1 < 1.0e-5) ? 1.0e-6 : 0.01 * d0 / d1;
+        h0 = FastMath.min(h0, maxStep);
+        final double f1 = evaluate(x + direction * h0, y + direction * h0 * f0);
+        final double d2 = FastMath.abs(f1 - f0) / sk / h0;
+        final double der = FastMath.max(d1, d2);
+        final double h1 = (der <= 1.0e-15) ? FastMath.max(1.0e-6, h0 * 1.0e-3) : FastMath.pow(0.01 / der, 0.2);
+        return direction * FastMath.min(FastMath.min(100.0 * h0, h1), maxStep);
+    }
+
+    /**
+     * Procedure returns the allowed local error of the step from y to y1
+     */
+    private double errorScale(double y, double y1)
+    {
+        return tolerance * (FastMath.max(FastMath.abs(y), FastMath.abs(y1)) + ABSOLUTE_ERROR_FACTOR * yScale);
+    }
+
+    /**
+     * Procedure returns the factor of the new step size for the given normalized error
+     */
+    private double stepFactor(double error, double order, boolean isRejected)
+    {
+        if (error == 0.0)
+        {
+            return MAX_STEP_FACTOR;
+        }
+        final double factor = SAFETY_FACTOR * FastMath.pow(error, -1.0 / order);
+        return FastMath.max(MIN_STEP_FACTOR, FastMath.min(isRejected ? 1.0 : MAX_STEP_FACTOR, factor));
+    }
+
+    /**
+     * Procedure performs a step of the Dormand-Prince method. If the step is accepted, it returns the estimate
+     * of h * |df/dy| used for the stiffness detection; otherwise NaN
+     */
+    private double dormandPrinceStep() throws CancelException
+    {
+        final double k1 = f0;
+        final double k2 = evaluate(x + C2 * h, y + h * A21 * k1);
+        final double k3 = evaluate(x + C3 * h, y + h * (A31 * k1 + A32 * k2));
+        final double k4 = evaluate(x + C4 * h, y + h * (A41 * k1 + A42 * k2 + A43 * k3));
+        final double k5 = evaluate(x + C5 * h, y + h * (A51 * k1 + A52 * k2 + A53 * k3 + A54 * k4));
+        final double y6 = y + h * (A61 * k1 + A62 * k2 + A63 * k3 + A64 * k4 + A65 * k5);
+        final double k6 = evaluate(x + h, y6);
+        final double y1 = y + h * (A71 * k1 + A73 * k3 + A74 * k4 + A75 * k5 + A76 * k6);
+        final double k7 = evaluate(x + h, y1);
+
+        final double sk = errorScale(y, y1);
+        final double error = FastMath.abs(h * (E1 * k1 + E3 * k3 + E4 * k4 + E5 * k5 + E6 * k6 + E7 * k7)) / sk;
+        if (Double.isNaN(error) || Double.isInfinite(error) || error > 1.0)
+        {
+            h *= Double.isNaN(error) || Double.isInfinite(error) ? MIN_STEP_FACTOR : stepFactor(error, 5.0, true);
+            return Double.NaN;
+        }
+
+        final double dy = y1 - y, bspl = h * k1 - dy;
+        dense[0] = y;
+        dense[1] = dy;
+        dense[2] = bspl;
+        dense[3] = dy - h * k7 - bspl;
+        dense[4] = h * (D1 * k1 + D3 * k3 + D4 * k4 + D5 * k5 + D6 * k6 + D7 * k7);
+
+        final double hLambda = (y1 != y6) ? FastMath.abs(h * (k7 - k6) / (y1 - y6)) : 0.0;
+        x += h;
+        y = y1;
+        yScale = FastMath.max(yScale, FastMath.abs(y1));
+        f0 = k7;
+        h *= stepFactor(error, 5.0, false);
+        return hLambda;
+    }
+
+    /**
+     * Procedure performs a step of the Rosenbrock method of Shampine and Reichelt. The derivatives of the
+     * function are calculated numerically. If the step is accepted, it returns zero; otherwise NaN
+     */
+    private double rosenbrockStep() throws CancelException
+    {
+        final double dy = FastMath.sqrt(FastMath.ulp(1.0)) * FastMath.max(FastMath.abs(y), 1.0);
+        final double dx = FastMath.sqrt(FastMath.ulp(1.0)) * FastMath.max(FastMath.abs(x), 1.0);
+        final double jacobian = (evaluate(x, y + dy) - f0) / dy;
+        final double dfdx = (evaluate(x + dx, y) - f0) / dx;
+
+        final double w = 1.0 - h * RB_D * jacobian;
+        final double k1 = (f0 + h * RB_D * dfdx) / w;
+        final double f1 = evaluate(x + 0.5 * h, y + 0.5 * h * k1);
+        final double k2 = (f1 - k1) / w + k1;
+        final double y1 = y + h * k2;
+        final double f2 = evaluate(x + h, y1);
+        final double k3 = (f2 - RB_E32 * (k2 - f1) - 2.0 * (k1 - f0) + h * RB_D * dfdx) / w;
+
+        final double sk = errorScale(y, y1);
+        final double error = FastMath.abs(h / 6.0 * (k1 - 2.0 * k2 + k3)) / sk;
+        if (Double.isNaN(error) || Double.isInfinite(error) || error > 1.0)
+        {
+            h *= Double.isNaN(error) || Double.isInfinite(error) ? MIN_STEP_FACTOR : stepFactor(error, 3.0, true);
+            return Double.NaN;
+        }
+
+        // the continuous extension of order 2 is stored in the form of the Dormand-Prince dense output
+        dense[0] = y;
+        dense[1] = h * k2;
+        dense[2] = h * (k1 - k2) / (1.0 - 2.0 * RB_D);
+        dense[3] = 0.0;
+        dense[4] = 0.0;
+
+        x += h;
+        y = y1;
+        yScale = FastMath.max(yScale, FastMath.abs(y1));
+        f0 = f2;
+        h *= stepFactor(error, 3.0, false);
+        return 0.0;
+    }
+
+    /**
+     * Procedure calculates the dense output at the relative position theta within the last accepted step
+     */
+    private double interpolate(double theta)
+    {
+        final double theta1 = 1.0 - theta;
+        return dense[0] + theta * (dense[1] + theta1 * (dense[2] + theta * (dense[3] + theta1 * dense[4])));
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * microMathematics - Extended Visual Calculator
+ * Copyright (C) 2014-2022 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+package com.mkulesh.micromath.math;
+
+import org.apache.commons.math3.util.FastMath;
+
+/**
+ * Class that accelerates the convergence of a real series. The partial sums are passed term by term; the
+ * limit is estimated using the Levin u-transformation, which handles both alternating and logarithmically
+ * converging series. If the Levin transformation degenerates, the Wynn epsilon algorithm is used instead.
+ * Zero terms do not change the partial sum and are skipped; a long run of zero terms means that the series
+ * terminates
+ */
+public class SeriesAcceleration
+{
+    private static final double SMALL = 10.0 * Double.MIN_NORMAL;
+    private static final double BIG = Double.MAX_VALUE;
+
+    // number of successive estimates within the tolerance required for the convergence
+    private static final int LEVIN_CONVERGED_COUNT = 2;
+    private static final int WYNN_CONVERGED_COUNT = 3;
+
+    // minimal number of non-zero terms before the convergence can be detected
+    private static final int MIN_TERMS_COUNT = 5;
+
+    // number of successive zero terms that terminates the series
+    private static final int ZERO_TERMS_COUNT = 16;
+
+    private final int maxTerms;
+    private final double[] numer, denom, epsilon;
+    private int terms = 0, n = 0, zeroTerms = 0;
+    private double sum = 0.0;
+    private boolean isLevin = true;
+    private double levinValue = 0.0, wynnValue = 0.0;
+    private double levinError = Double.POSITIVE_INFINITY, wynnError = Double.POSITIVE_INFINITY;
+    private int levinConverged = 0, wynnConverged = 0;
+
+    /*--------------------------------------------------------*
+     * Constructors
+     *--------------------------------------------------------*/
+
+    public SeriesAcceleration(int maxTerms)
+    {
+        this.maxTerms = maxTerms;
+        numer = new double[maxTerms];
+        denom = new double[maxTerms];
+        epsilon = new double[maxTerms];
+    }
+
+    /*--------------------------------------------------------*
+     * Methods
+     *--------------------------------------------------------*/
+
+    public int getTermsCount()
+    {
+        return terms;
+    }
+
+    public boolean isFull()
+    {
+        return terms >= maxTerms;
+    }
+
+    public boolean isTerminated()
+    {
+        return zeroTerms >= ZERO_TERMS_COUNT;
+    }
+
+    /**
+     * Procedure adds the next term of the series and updates the estimates of its limit. The given tolerance
+     * is used for the convergence check
+     */
+    public void addTerm(double a, double tolerance)
+    {
+        if (isFull())
+        {
+            return;
+        }
+        terms++;
+        if (a == 0.0)
+        {
+            zeroTerms++;
+            return;
+        }
+        zeroTerms = 0;
+        sum += a;
+        if (isLevin)
+        {
+            final double value = nextLevin(a);
+            isLevin = !Double.isNaN(value) && !Double.isInfinite(value);
+            if (isLevin)
+            {
+                levinError = FastMath.abs(value - levinValue);
+                levinValue = value;
+                levinConverged = (n >= MIN_TERMS_COUNT && levinError <= tolerance) ? levinConverged + 1 : 0;
+            }
+        }
+        final double value = nextWynn();
+        wynnError = FastMath.abs(value - wynnValue);
+        wynnValue = value;
+        wynnConverged = (n >= MIN_TERMS_COUNT && wynnError <= tolerance) ? wynnConverged + 1 : 0;
+        n++;
+    }
+
+    /**
+     * Procedure checks whether the estimate of the limit is converged
+     */
+    public boolean isConverged()
+    {
+        if (isTerminated())
+        {
+            return true;
+        }
+        return isLevin ? levinConverged >= LEVIN_CONVERGED_COUNT : wynnConverged >= WYNN_CONVERGED_COUNT;
+    }
+
+    public double getValue()
+    {
+        if (isTerminated() || n == 0)
+        {
+            return sum;
+        }
+        return isLevin ? levinValue : wynnValue;
+    }
+
+    public double getError()
+    {
+        if (isTerminated())
+        {
+            return 0.0;
+        }
+        return isLevin ? levinError : wynnError;
+    }
+
+    /**
+     * Levin u-transformation from Numerical Recipes: the remainder estimate is (n + beta) * a_n with beta = 1.
+     * NaN is returned if the transformation degenerates
+     */
+    private double nextLevin(double a)
+    {
+        final double beta = 1.0;
+        final double omega = (beta + n) * a;
+        double term = 1.0 / (beta + n);
+        denom[n] = term / omega;
+        numer[n] = sum * denom[n];
+        if (n > 0)
+        {
+            final double ratio = (beta + n - 1) * term;
+            for (int j = 1; j <= n; j++)
+            {
+                final double fact = (n - j + beta) * term;
+                numer[n - j] = numer[n - j + 1] - fact * numer[n - j];
+                denom[n - j] = denom[n - j + 1] - fact * denom[n - j];
+                term *= ratio;
+            }
+        }
+        return (FastMath.abs(denom[0]) < SMALL) ? Double.NaN : numer[0] / denom[0];
+    }
+
+    /**
+     * Wynn epsilon algorithm from Numerical Recipes: only the last diagonal of the epsilon table is stored
+     */
+    private double nextWynn()
+    {
+        epsilon[n] = sum;
+        double temp2 = 0.0;
+        for (int j = n; j > 0; j--)
+        {
+            final double temp1 = temp2;
+            temp2 = epsilon[j - 1];
+            final double diff = epsilon[j] - temp2;
+            epsilon[j - 1] = (FastMath.abs(diff) <= SMALL) ? BIG : temp1 + 1.0 / diff;
+        }
+        final double value = ((n & 1) == 0) ? epsilon[0] : epsilon[1];
+        return (FastMath.abs(value) > 0.01 * BIG) ? wynnValue : value;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * microMathematics - Extended Visual Calculator
+ * Copyright (C) 2014-2022 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+package com.mkulesh.micromath.math;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.measure.converter.UnitConverter;
+import javax.measure.unit.Unit;
+
+/**
+ * Immutable conversion between two units. The conversions are cached so that the unit converter
+ * and the resulting unit are only resolved once for each pair of units. A linear conversion is applied
+ * as a multiplication by a constant factor without calling the unit converter
+ */
+public final class UnitConversion
+{
+    private static final ConcurrentHashMap<Unit<?>, ConcurrentHashMap<Unit<?>, UnitConversion>> cache =
+            new ConcurrentHashMap<>();
+
+    // Converter is null if the units are not compatible
+    private final UnitConverter converter;
+
+    // Factor of a linear conversion, NaN if the conversion is not linear
+    private final double factor;
+
+    private final Unit<?> sourceUnit;
+    private final Unit<?> targetUnit;
+
+    // The unit of a converted value: it is null if the target unit is dimensionless
+    private final Unit<?> resultUnit;
+
+    private UnitConversion(UnitConverter converter, Unit<?> sourceUnit, Unit<?> targetUnit, Unit<?> resultUnit)
+    {
+        this.converter = converter;
+        this.factor = (converter != null && converter.isLinear()) ? converter.convert(1.0) : Double.NaN;
+        this.sourceUnit = sourceUnit;
+        this.targetUnit = targetUnit;
+        this.resultUnit = resultUnit;
+    }
+
+    /**
+     * Procedure returns the conversion from the source unit into the target unit
+     */
+    public static UnitConversion get(Unit<?> sourceUnit, Unit<?> targetUnit)
+    {
+        ConcurrentHashMap<Unit<?>, UnitConversion> targets = cache.get(sourceUnit);
+        if (targets == null)
+        {
+            targets = new ConcurrentHashMap<>();
+            final ConcurrentHashMap<Unit<?>, UnitConversion> prev = cache.putIfAbsent(sourceUnit, targets);
+            if (prev != null)
+            {
+                targets = prev;
+            }
+        }
+        UnitConversion c = targets.get(targetUnit);
+        if (c == null)
+        {
+            c = create(sourceUnit, targetUnit);
+            targets.put(targetUnit, c);
+        }
+        return c;
+    }
+
+    /**
+     * Procedure returns the conversion from the given source unit into the target unit of this conversion.
+     * The given last conversion is returned if it has the same source unit: the units are compared by
+     * reference so that the inner evaluation loop does not calculate their hash codes
+     */
+    public UnitConversion fromSource(Unit<?> sourceUnit, UnitConversion last)
+    {
+        return (last != null && last.sourceUnit == sourceUnit && last.targetUnit == targetUnit) ?
+                last : get(sourceUnit, targetUnit);
+    }
+
+    /**
+     * Procedure returns the conversion from the given unit into its standard unit
+     */
+    public static UnitConversion toStandard(Unit<?> sourceUnit)
+    {
+        return get(sourceUnit, sourceUnit.getStandardUnit());
+    }
+
+    private static UnitConversion create(Unit<?> sourceUnit, Unit<?> targetUnit)
+    {
+        UnitConverter converter = null;
+        if (sourceUnit.isCompatible(targetUnit))
+        {
+            try
+            {
+                converter = sourceUnit.getConverterTo(targetUnit);
+            }
+            catch (Exception ex)
+            {
+                converter = null;
+            }
+        }
+        final String name = targetUnit.toString();
+        return new UnitConversion(converter, sourceUnit, targetUnit,
+                (name == null || name.isEmpty()) ? null : targetUnit);
+    }
+
+    public boolean isCompatible()
+    {
+        return converter != null;
+    }
+
+    public double convert(double value)
+    {
+        return Double.isNaN(factor) ? converter.convert(value) : value * factor;
+    }
+
+    public Unit<?> getTargetUnit()
+    {
+        return targetUnit;
+    }
+
+    public Unit<?> getResultUnit()
+    {
+        return resultUnit;
+    }
+}
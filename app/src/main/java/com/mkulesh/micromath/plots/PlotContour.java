@@ -23,6 +23,10 @@ import android.widget.LinearLayout;
 import com.mkulesh.micromath.dialogs.DialogAxisSettings;
 import com.mkulesh.micromath.dialogs.DialogColorMapSettings;
 import com.mkulesh.micromath.dialogs.DialogPlotSettings;
+import com.mkulesh.micromath.eval.CompiledTerm;
+import com.mkulesh.micromath.eval.EvalContext;
+import com.mkulesh.micromath.eval.ParallelRunner;
+import com.mkulesh.micromath.eval.TermCompiler;
 import com.mkulesh.micromath.formula.CalculaterTask;
 import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
 import com.mkulesh.micromath.formula.CalculationResult;
@@ -52,6 +56,7 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlSerializer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Locale;
 
 public class PlotContour extends CalculationResult implements SizeChangingLayout.SizeChangedIf, PlotPropertiesChangeIf,
@@ -64,6 +69,13 @@ public class PlotContour extends CalculationResult implements SizeChangingLayout
     private static final String STATE_PLOT_STYLE = "two_d_plot_style";
     private static final String STATE_FUNCTIONVIEW_PARAMETERS = "functionview_parameters";
 
+    /*
+     * Parameters of the parallel calculation: number of tiles per thread and
+     * the minimal time between two updates of the partially calculated plot, in milliseconds
+     */
+    private static final int TILES_PER_THREAD = 4;
+    private static final long PROGRESS_INTERVAL = 250;
+
     // visual components
     private TwoDPlotStyle twoDPlotStyle = TwoDPlotStyle.CONTOUR;
     private TermField yMin = null, yMax = null, xMin = null, functionTerm = null, xMax = null;
@@ -160,6 +172,12 @@ public class PlotContour extends CalculationResult implements SizeChangingLayout
         updatePlotView();
     }
 
+    @Override
+    public void setInViewport(boolean inViewport)
+    {
+        functionView.setInViewport(inViewport);
+    }
+
     /*--------------------------------------------------------*
      * Re-implementation for methods for CalculationResult superclass
      *--------------------------------------------------------*/
@@ -191,18 +209,27 @@ public class PlotContour extends CalculationResult implements SizeChangingLayout
     @Override
     public void showResult()
     {
-        final boolean b1 = setEmptyBorders(FunctionIf.X, xMin, xMax);
-        final boolean b2 = setEmptyBorders(FunctionIf.Y, yMin, yMax);
+        showFunction(function);
+    }
+
+    /**
+     * Procedure shows the given function, i.e. either the calculated function or a snapshot of a partially
+     * calculated contour plot
+     */
+    private void showFunction(FunctionIf f)
+    {
+        final boolean b1 = setEmptyBorders(f.getMinMaxValues(FunctionIf.X), xMin, xMax);
+        final boolean b2 = setEmptyBorders(f.getMinMaxValues(FunctionIf.Y), yMin, yMax);
         if (b1 && b2)
         {
             functionView.setSignificantDigits(getFormulaList().getDocumentSettings().significantDigits);
-            functionView.setFunction(function);
+            functionView.setFunction(f);
             if (functionView instanceof SurfacePlotView)
             {
                 final SurfacePlotView spv = (SurfacePlotView) functionView;
                 if (!spv.isRendered())
                 {
-                    spv.renderSurface(function);
+                    spv.renderSurface(f);
                 }
             }
             // updatePlotBoundaries needs valid function set
@@ -584,11 +611,6 @@ public class PlotContour extends CalculationResult implements SizeChangingLayout
         layout.getLayoutParams().height = Math.round(functionView.getPlotParameters().height * scale);
     }
 
-    private boolean setEmptyBorders(int idx, TermField f1, TermField f2)
-    {
-        return super.setEmptyBorders(function.getMinMaxValues(idx), f1, f2);
-    }
-
     /*--------------------------------------------------------*
      * Helper class that implements function interface
      *--------------------------------------------------------*/
@@ -599,9 +621,13 @@ public class PlotContour extends CalculationResult implements SizeChangingLayout
         private double[] yValues = new double[1];
         private double[][] zValues = new double[1][1];
         private final double[][] minMaxValues = new double[3][2];
-        private final CalculatedValue[][] argValues = new CalculatedValue[2][1];
+        private final CalculatedValue[] argValues = new CalculatedValue[]{ new CalculatedValue() };
         private final String[] labels = new String[3];
 
+        // state of the parallel calculation of the grid
+        private int finishedTiles = 0;
+        private long lastProgressTime = 0;
+
         @Override
         public Type getType()
         {
@@ -707,11 +733,6 @@ public class PlotContour extends CalculationResult implements SizeChangingLayout
             labels[FunctionIf.Z] = "";
 
             // calculate z values
-            if (argValues[0][0] == null)
-            {
-                argValues[0][0] = new CalculatedValue();
-                argValues[1][0] = new CalculatedValue();
-            }
             zValues = new double[xValues.length][yValues.length];
             if (isFunction1D)
             {
@@ -727,59 +748,226 @@ public class PlotContour extends CalculationResult implements SizeChangingLayout
         private void calculate1D(Equation xValuesEq, CalculaterTask thread) throws CancelException
         {
             final CalculatedValue calcVal = new CalculatedValue();
-            for (int i = 0; i < xValues.length; i++)
+            final EvalContext context = EvalContext.get(thread);
+            final CompiledTerm term = new TermCompiler(null).compileTerm(functionTerm, 0);
+            context.pushFrame(xValuesEq, argValues);
+            try
             {
-                for (int j = 0; j < yValues.length; j++)
+                for (int i = 0; i < xValues.length; i++)
                 {
-                    zValues[i][j] = Double.NaN;
-                }
+                    for (int j = 0; j < yValues.length; j++)
+                    {
+                        zValues[i][j] = Double.NaN;
+                    }
 
-                argValues[0][0].setValue(xValues[i]);
-                xValuesEq.setArgumentValues(argValues[0]);
-                calcVal.processRealTerm(thread, functionTerm);
-                final double zVal = calcVal.getReal();
-                zValues[i][i] = zVal;
-                if (i == 0)
-                {
-                    minMaxValues[FunctionIf.Z][FunctionIf.MIN] = minMaxValues[FunctionIf.Z][FunctionIf.MAX] = zVal;
-                }
-                else
-                {
-                    minMaxValues[FunctionIf.Z][FunctionIf.MIN] = Math.min(
-                            minMaxValues[FunctionIf.Z][FunctionIf.MIN], zVal);
-                    minMaxValues[FunctionIf.Z][FunctionIf.MAX] = Math.max(
-                            minMaxValues[FunctionIf.Z][FunctionIf.MAX], zVal);
+                    argValues[0].setValue(xValues[i]);
+                    calcVal.processRealTerm(context, term);
+                    final double zVal = calcVal.getReal();
+                    zValues[i][i] = zVal;
+                    if (i == 0)
+                    {
+                        minMaxValues[FunctionIf.Z][FunctionIf.MIN] = minMaxValues[FunctionIf.Z][FunctionIf.MAX] = zVal;
+                    }
+                    else
+                    {
+                        minMaxValues[FunctionIf.Z][FunctionIf.MIN] = Math.min(
+                                minMaxValues[FunctionIf.Z][FunctionIf.MIN], zVal);
+                        minMaxValues[FunctionIf.Z][FunctionIf.MAX] = Math.max(
+                                minMaxValues[FunctionIf.Z][FunctionIf.MAX], zVal);
+                    }
                 }
             }
+            finally
+            {
+                context.popFrame();
+            }
         }
 
         private void calculate2D(Equation xValuesEq, Equation yValuesEq, CalculaterTask thread) throws CancelException
         {
-            final CalculatedValue calcVal = new CalculatedValue();
-            for (int i = 0; i < xValues.length; i++)
+            if (xValues.length == 0)
             {
-                argValues[0][0].setValue(xValues[i]);
-                xValuesEq.setArgumentValues(argValues[0]);
-                for (int j = 0; j < yValues.length; j++)
+                return;
+            }
+            final CompiledTerm term = new TermCompiler(null).compileTerm(functionTerm, 0);
+
+            // The grid is split into tiles of rows: several tiles per thread in order to balance the load.
+            // Terms that are evaluated using the formula view tree are calculated within a single tile
+            final int maxTiles = isConcurrentlyCalculable(term) ?
+                    TILES_PER_THREAD * ParallelRunner.getThreadsNumber() : 1;
+            final int tileSize = (xValues.length + maxTiles - 1) / maxTiles;
+            final int tilesNumber = (xValues.length + tileSize - 1) / tileSize;
+
+            // finished tiles of the contour plot are shown immediately: rows that are not yet calculated
+            // contain NaN values and are hence not drawn
+            final boolean progressive = tilesNumber > 1 && !(functionView instanceof SurfacePlotView);
+            if (progressive)
+            {
+                for (double[] row : zValues)
                 {
-                    argValues[1][0].setValue(yValues[j]);
-                    yValuesEq.setArgumentValues(argValues[1]);
-                    calcVal.processRealTerm(thread, functionTerm);
-                    final double zVal = calcVal.getReal();
-                    zValues[i][j] = zVal;
-                    if (i == 0 && j == 0)
+                    Arrays.fill(row, Double.NaN);
+                }
+            }
+            final boolean[] isTileFinished = new boolean[tilesNumber];
+            finishedTiles = 0;
+            lastProgressTime = System.currentTimeMillis();
+
+            ParallelRunner.run(thread, tilesNumber, (context, tile) ->
+            {
+                final int firstRow = tile * tileSize;
+                final double[] tileMinMax = new double[2];
+                if (!calculateRows(context, term, xValuesEq, yValuesEq, firstRow,
+                        Math.min(xValues.length, firstRow + tileSize), tileMinMax))
+                {
+                    return;
+                }
+                final double[] zMinMax = minMaxValues[FunctionIf.Z];
+                synchronized (this)
+                {
+                    if (finishedTiles == 0)
                     {
-                        minMaxValues[FunctionIf.Z][FunctionIf.MIN] = minMaxValues[FunctionIf.Z][FunctionIf.MAX] = zVal;
+                        zMinMax[FunctionIf.MIN] = tileMinMax[FunctionIf.MIN];
+                        zMinMax[FunctionIf.MAX] = tileMinMax[FunctionIf.MAX];
                     }
                     else
                     {
-                        minMaxValues[FunctionIf.Z][FunctionIf.MIN] = Math.min(
-                                minMaxValues[FunctionIf.Z][FunctionIf.MIN], zVal);
-                        minMaxValues[FunctionIf.Z][FunctionIf.MAX] = Math.max(
-                                minMaxValues[FunctionIf.Z][FunctionIf.MAX], zVal);
+                        zMinMax[FunctionIf.MIN] = Math.min(zMinMax[FunctionIf.MIN], tileMinMax[FunctionIf.MIN]);
+                        zMinMax[FunctionIf.MAX] = Math.max(zMinMax[FunctionIf.MAX], tileMinMax[FunctionIf.MAX]);
+                    }
+                    finishedTiles++;
+                    isTileFinished[tile] = true;
+                    final long time = System.currentTimeMillis();
+                    if (progressive && finishedTiles < tilesNumber && time - lastProgressTime >= PROGRESS_INTERVAL
+                            && zMinMax[FunctionIf.MIN] < zMinMax[FunctionIf.MAX])
+                    {
+                        lastProgressTime = time;
+                        // the UI thread gets its own copy of the finished rows since other tiles are still
+                        // written by the worker threads
+                        final FunctionIf snapshot = new GridSnapshot(this, isTileFinished, tileSize);
+                        getFormulaList().getActivity().runOnUiThread(() -> showFunction(snapshot));
                     }
                 }
+            });
+        }
+
+        /**
+         * Procedure calculates z values for the rows from firstRow (inclusive) to lastRow (exclusive) and
+         * stores the minimum and maximum of these values in the given array
+         */
+        private boolean calculateRows(EvalContext context, CompiledTerm term, Equation xValuesEq,
+                                      Equation yValuesEq, int firstRow, int lastRow, double[] zMinMax)
+                throws CancelException
+        {
+            final CalculatedValue calcVal = new CalculatedValue();
+            final CalculatedValue[] xArg = new CalculatedValue[]{ new CalculatedValue() };
+            final CalculatedValue[] yArg = new CalculatedValue[]{ new CalculatedValue() };
+            boolean isCalculated = false;
+            context.pushFrame(xValuesEq, xArg);
+            context.pushFrame(yValuesEq, yArg);
+            try
+            {
+                for (int i = firstRow; i < lastRow; i++)
+                {
+                    xArg[0].setValue(xValues[i]);
+                    for (int j = 0; j < yValues.length; j++)
+                    {
+                        yArg[0].setValue(yValues[j]);
+                        calcVal.processRealTerm(context, term);
+                        final double zVal = calcVal.getReal();
+                        zValues[i][j] = zVal;
+                        if (!isCalculated)
+                        {
+                            zMinMax[FunctionIf.MIN] = zMinMax[FunctionIf.MAX] = zVal;
+                            isCalculated = true;
+                        }
+                        else
+                        {
+                            zMinMax[FunctionIf.MIN] = Math.min(zMinMax[FunctionIf.MIN], zVal);
+                            zMinMax[FunctionIf.MAX] = Math.max(zMinMax[FunctionIf.MAX], zVal);
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                context.popFrame();
+                context.popFrame();
+            }
+            return isCalculated;
+        }
+    }
+
+    /**
+     * Helper class that holds a copy of a partially calculated grid: the rows of the finished tiles are copied,
+     * all other rows contain NaN values
+     */
+    private static final class GridSnapshot implements FunctionIf
+    {
+        private final double[] xValues;
+        private final double[] yValues;
+        private final double[][] zValues;
+        private final double[][] minMaxValues = new double[3][];
+        private final String[] labels;
+
+        GridSnapshot(FunctionIf f, boolean[] isTileFinished, int tileSize)
+        {
+            xValues = f.getXValues();
+            yValues = f.getYValues();
+            labels = f.getLabels().clone();
+            for (int i = 0; i < minMaxValues.length; i++)
+            {
+                minMaxValues[i] = f.getMinMaxValues(i).clone();
             }
+            final double[][] z = f.getZValues();
+            final double[] emptyRow = new double[yValues.length];
+            Arrays.fill(emptyRow, Double.NaN);
+            zValues = new double[z.length][];
+            for (int i = 0; i < z.length; i++)
+            {
+                zValues[i] = isTileFinished[i / tileSize] ? z[i].clone() : emptyRow;
+            }
+        }
+
+        @Override
+        public Type getType()
+        {
+            return Type.FUNCTION_3D;
+        }
+
+        @Override
+        public double[] getXValues()
+        {
+            return xValues;
+        }
+
+        @Override
+        public double[] getYValues()
+        {
+            return yValues;
+        }
+
+        @Override
+        public double[][] getZValues()
+        {
+            return zValues;
+        }
+
+        @Override
+        public double[] getMinMaxValues(int idx)
+        {
+            return (idx < minMaxValues.length) ? minMaxValues[idx] : null;
+        }
+
+        @Override
+        public LineProperties getLineParameters()
+        {
+            return null;
+        }
+
+        @Override
+        public String[] getLabels()
+        {
+            return labels;
         }
     }
 }
@@ -29,6 +29,9 @@ import com.mkulesh.micromath.dialogs.DialogLineSettings;
 import com.mkulesh.micromath.dialogs.DialogPlotSettings;
 import com.mkulesh.micromath.dialogs.DialogRadioGroup;
 import com.mkulesh.micromath.dialogs.DialogResultDetails;
+import com.mkulesh.micromath.eval.CompiledTerm;
+import com.mkulesh.micromath.eval.EvalContext;
+import com.mkulesh.micromath.eval.TermCompiler;
 import com.mkulesh.micromath.formula.CalculaterTask;
 import com.mkulesh.micromath.formula.CalculaterTask.CancelException;
 import com.mkulesh.micromath.formula.CalculationResult;
@@ -62,6 +65,8 @@ import org.xmlpull.v1.XmlSerializer;
 import java.util.ArrayList;
 import java.util.Collections;
 
+import javax.measure.unit.Unit;
+
 public class PlotFunction extends CalculationResult implements SizeChangingLayout.SizeChangedIf,
         PlotPropertiesChangeIf, AxisPropertiesChangeIf, LinePropertiesChangeIf
 {
@@ -71,6 +76,17 @@ public class PlotFunction extends CalculationResult implements SizeChangingLayou
     private static final String STATE_FUNCTIONVIEW_PARAMETERS = "functionview_parameters";
     private static final String STATE_FUNCTIONS_NUMBER = "functions_number";
     private static final String STATE_LINE_PARAMETERS = "line_parameters";
+
+    /*
+     * Parameters of adaptive sampling: maximal deviation of a segment from the curve and minimal length
+     * of a segment whose angle is checked (both in pixels), maximal angle between two neighbour segments,
+     * maximal number of refinement levels and maximal number of points per function
+     */
+    private static final double ADAPTIVE_TOLERANCE = 0.5;
+    private static final double ADAPTIVE_MIN_SEGMENT = 1.0;
+    private static final double ADAPTIVE_ANGLE_COS = Math.cos(Math.toRadians(10.0));
+    private static final int ADAPTIVE_MAX_DEPTH = 10;
+    private static final int ADAPTIVE_MAX_POINTS = 5000;
     public static final String XML_PROP_FUNCTIONS_NUMBER = "functionsNumber";
 
     // expandable layouts
@@ -173,6 +189,12 @@ public class PlotFunction extends CalculationResult implements SizeChangingLayou
         return true;
     }
 
+    @Override
+    public void setInViewport(boolean inViewport)
+    {
+        functionView.setInViewport(inViewport);
+    }
+
     /*--------------------------------------------------------*
      * Re-implementation for methods for CalculationResult superclass
      *--------------------------------------------------------*/
@@ -416,6 +438,7 @@ public class PlotFunction extends CalculationResult implements SizeChangingLayou
             DialogResultDetails d = new DialogResultDetails(getFormulaList().getActivity(),
                     f.getXValues(), f.getYValues(),
                     getFormulaList().getDocumentSettings(), null);
+            d.setCacheStatistics(getCacheStatistics());
             d.show();
         }
     }
@@ -1059,6 +1082,18 @@ public class PlotFunction extends CalculationResult implements SizeChangingLayou
                 {
                     return;
                 }
+                final CompiledTerm xTerm = new TermCompiler(null).compileTerm(x, 0);
+                final CompiledTerm yTerm = new TermCompiler(null).compileTerm(y, 0);
+                // a function that uses the interval as an array index can not be calculated between its points
+                if (functionView.getPlotParameters().adaptiveSampling && par.length > 1
+                        && !xTerm.getRoot().usesAsArrayIndex(linkedInterval)
+                        && !yTerm.getRoot().usesAsArrayIndex(linkedInterval))
+                {
+                    calculateAdaptive(thread, par, xTerm, yTerm, xType, yType);
+                    updateEqualBorders(xMinMaxValues);
+                    updateEqualBorders(yMinMaxValues);
+                    return;
+                }
                 if (xValues.length != par.length)
                 {
                     xValues = new double[par.length];
@@ -1067,32 +1102,216 @@ public class PlotFunction extends CalculationResult implements SizeChangingLayou
                 {
                     yValues = new double[par.length];
                 }
-                for (int i = 0; i < par.length; i++)
+                final EvalContext context = EvalContext.get(thread);
+                context.pushFrame(linkedInterval, argValues);
+                try
+                {
+                    for (int i = 0; i < par.length; i++)
+                    {
+                        argValues[0].assign(par[i]);
+                        calcVal.processRealTerm(context, xTerm);
+                        final double xVal = AxisTypeConverter.toSpecialType(calcVal.getReal(), xType);
+                        calcVal.processRealTerm(context, yTerm);
+                        final double yVal = AxisTypeConverter.toSpecialType(calcVal.getReal(), yType);
+                        xValues[i] = xVal;
+                        yValues[i] = yVal;
+                        if (i == 0)
+                        {
+                            xMinMaxValues[FunctionIf.MIN] = xMinMaxValues[FunctionIf.MAX] = xVal;
+                            yMinMaxValues[FunctionIf.MIN] = yMinMaxValues[FunctionIf.MAX] = yVal;
+                        }
+                        else
+                        {
+                            xMinMaxValues[FunctionIf.MIN] = Math.min(xMinMaxValues[FunctionIf.MIN], xVal);
+                            xMinMaxValues[FunctionIf.MAX] = Math.max(xMinMaxValues[FunctionIf.MAX], xVal);
+                            yMinMaxValues[FunctionIf.MIN] = Math.min(yMinMaxValues[FunctionIf.MIN], yVal);
+                            yMinMaxValues[FunctionIf.MAX] = Math.max(yMinMaxValues[FunctionIf.MAX], yVal);
+                        }
+                    }
+                }
+                finally
+                {
+                    context.popFrame();
+                }
+            }
+            updateEqualBorders(xMinMaxValues);
+            updateEqualBorders(yMinMaxValues);
+        }
+
+        /**
+         * Procedure calculates the function using adaptive sampling: the points of the linked interval are used
+         * as a coarse grid, and each segment whose midpoint deviates from the straight line by more than
+         * ADAPTIVE_TOLERANCE pixels or that bends by more than ADAPTIVE_ANGLE is divided into two halves.
+         * All segments are refined level by level until no segment needs to be refined, ADAPTIVE_MAX_DEPTH is
+         * reached, or the number of points exceeds ADAPTIVE_MAX_POINTS
+         */
+        private void calculateAdaptive(CalculaterTask thread, CalculatedValue[] par, CompiledTerm xTerm,
+                                       CompiledTerm yTerm, AxisTypeConverter.Type xType, AxisTypeConverter.Type yType)
+                throws CancelException
+        {
+            final EvalContext context = EvalContext.get(thread);
+            final Unit<?> unit = par[0].getUnit();
+            final double[] point = new double[2];
+
+            // coarse grid
+            int n = par.length;
+            double[] t = new double[n];
+            double[] xv = new double[n];
+            double[] yv = new double[n];
+            boolean[] refine = new boolean[n];
+            context.pushFrame(linkedInterval, argValues);
+            try
+            {
+                for (int i = 0; i < n; i++)
                 {
                     argValues[0].assign(par[i]);
-                    linkedInterval.setArgumentValues(argValues);
-                    calcVal.processRealTerm(thread, x);
-                    final double xVal = AxisTypeConverter.toSpecialType(calcVal.getReal(), xType);
-                    calcVal.processRealTerm(thread, y);
-                    final double yVal = AxisTypeConverter.toSpecialType(calcVal.getReal(), yType);
-                    xValues[i] = xVal;
-                    yValues[i] = yVal;
-                    if (i == 0)
+                    calculatePoint(context, xTerm, yTerm, xType, yType, point);
+                    t[i] = par[i].getReal();
+                    xv[i] = point[0];
+                    yv[i] = point[1];
+                    refine[i] = true;
+                }
+
+                // the size of a pixel is estimated from the range of the coarse grid and the plot size
+                final double xScale = getPixelScale(xv, n, functionView.getPlotParameters().width);
+                final double yScale = getPixelScale(yv, n, functionView.getPlotParameters().height);
+
+                for (int depth = 0; depth < ADAPTIVE_MAX_DEPTH && n < ADAPTIVE_MAX_POINTS; depth++)
+                {
+                    int segments = 0;
+                    for (int i = 0; i < n - 1; i++)
                     {
-                        xMinMaxValues[FunctionIf.MIN] = xMinMaxValues[FunctionIf.MAX] = xVal;
-                        yMinMaxValues[FunctionIf.MIN] = yMinMaxValues[FunctionIf.MAX] = yVal;
+                        segments += refine[i] ? 1 : 0;
                     }
-                    else
+                    segments = Math.min(segments, ADAPTIVE_MAX_POINTS - n);
+                    if (segments == 0)
+                    {
+                        break;
+                    }
+
+                    final int size = n + segments;
+                    final double[] t1 = new double[size];
+                    final double[] xv1 = new double[size];
+                    final double[] yv1 = new double[size];
+                    final boolean[] refine1 = new boolean[size];
+                    int k = 0;
+                    for (int i = 0; i < n; i++)
                     {
-                        xMinMaxValues[FunctionIf.MIN] = Math.min(xMinMaxValues[FunctionIf.MIN], xVal);
-                        xMinMaxValues[FunctionIf.MAX] = Math.max(xMinMaxValues[FunctionIf.MAX], xVal);
-                        yMinMaxValues[FunctionIf.MIN] = Math.min(yMinMaxValues[FunctionIf.MIN], yVal);
-                        yMinMaxValues[FunctionIf.MAX] = Math.max(yMinMaxValues[FunctionIf.MAX], yVal);
+                        t1[k] = t[i];
+                        xv1[k] = xv[i];
+                        yv1[k] = yv[i];
+                        k++;
+                        if (i == n - 1 || !refine[i] || segments == 0)
+                        {
+                            continue;
+                        }
+                        final double tm = 0.5 * (t[i] + t[i + 1]);
+                        argValues[0].setValue(tm, unit);
+                        calculatePoint(context, xTerm, yTerm, xType, yType, point);
+                        segments--;
+                        final boolean r = isRefinementNeeded(xScale * xv[i], yScale * yv[i],
+                                xScale * point[0], yScale * point[1], xScale * xv[i + 1], yScale * yv[i + 1]);
+                        refine1[k - 1] = r;
+                        refine1[k] = r;
+                        t1[k] = tm;
+                        xv1[k] = point[0];
+                        yv1[k] = point[1];
+                        k++;
                     }
+                    n = size;
+                    t = t1;
+                    xv = xv1;
+                    yv = yv1;
+                    refine = refine1;
                 }
             }
-            updateEqualBorders(xMinMaxValues);
-            updateEqualBorders(yMinMaxValues);
+            finally
+            {
+                context.popFrame();
+            }
+
+            xValues = xv;
+            yValues = yv;
+            for (int i = 0; i < n; i++)
+            {
+                if (i == 0)
+                {
+                    xMinMaxValues[FunctionIf.MIN] = xMinMaxValues[FunctionIf.MAX] = xv[i];
+                    yMinMaxValues[FunctionIf.MIN] = yMinMaxValues[FunctionIf.MAX] = yv[i];
+                }
+                else
+                {
+                    xMinMaxValues[FunctionIf.MIN] = Math.min(xMinMaxValues[FunctionIf.MIN], xv[i]);
+                    xMinMaxValues[FunctionIf.MAX] = Math.max(xMinMaxValues[FunctionIf.MAX], xv[i]);
+                    yMinMaxValues[FunctionIf.MIN] = Math.min(yMinMaxValues[FunctionIf.MIN], yv[i]);
+                    yMinMaxValues[FunctionIf.MAX] = Math.max(yMinMaxValues[FunctionIf.MAX], yv[i]);
+                }
+            }
+        }
+
+        private void calculatePoint(EvalContext context, CompiledTerm xTerm, CompiledTerm yTerm,
+                                    AxisTypeConverter.Type xType, AxisTypeConverter.Type yType, double[] point)
+                throws CancelException
+        {
+            final CalculatedValue calcVal = new CalculatedValue();
+            calcVal.processRealTerm(context, xTerm);
+            point[0] = AxisTypeConverter.toSpecialType(calcVal.getReal(), xType);
+            calcVal.processRealTerm(context, yTerm);
+            point[1] = AxisTypeConverter.toSpecialType(calcVal.getReal(), yType);
+        }
+
+        /**
+         * Procedure returns the number of pixels per unit for the finite values of the given array
+         */
+        private double getPixelScale(double[] values, int n, int pixels)
+        {
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++)
+            {
+                if (!Double.isNaN(values[i]) && !Double.isInfinite(values[i]))
+                {
+                    min = Math.min(min, values[i]);
+                    max = Math.max(max, values[i]);
+                }
+            }
+            return (max > min) ? Math.max(1, pixels) / (max - min) : 0.0;
+        }
+
+        /**
+         * Procedure checks whether the segment (x0, y0) - (x1, y1) with the midpoint (xm, ym), all given in pixels,
+         * shall be divided in order to be drawn smoothly
+         */
+        private boolean isRefinementNeeded(double x0, double y0, double xm, double ym, double x1, double y1)
+        {
+            final boolean v0 = isFinite(x0) && isFinite(y0);
+            final boolean vm = isFinite(xm) && isFinite(ym);
+            final boolean v1 = isFinite(x1) && isFinite(y1);
+            if (!v0 || !vm || !v1)
+            {
+                // a pole or a border of the function domain is within this segment
+                return v0 || vm || v1;
+            }
+
+            // deviation of the midpoint from the chord
+            final double cx = x1 - x0, cy = y1 - y0;
+            final double ax = xm - x0, ay = ym - y0;
+            final double chord = Math.hypot(cx, cy);
+            final double deviation = (chord > 0) ? Math.abs(cx * ay - cy * ax) / chord : Math.hypot(ax, ay);
+            if (deviation > ADAPTIVE_TOLERANCE)
+            {
+                return true;
+            }
+
+            // angle between both halves of the segment
+            final double bx = x1 - xm, by = y1 - ym;
+            final double a = Math.hypot(ax, ay), b = Math.hypot(bx, by);
+            return a > ADAPTIVE_MIN_SEGMENT && b > ADAPTIVE_MIN_SEGMENT
+                    && (ax * bx + ay * by) < ADAPTIVE_ANGLE_COS * a * b;
+        }
+
+        private boolean isFinite(double v)
+        {
+            return !Double.isNaN(v) && !Double.isInfinite(v);
         }
     }
 }
@@ -204,6 +204,10 @@ public abstract class PlanePlotView extends PlotView
     @Override
     protected void onDraw(Canvas can)
     {
+        if (isDrawingSkipped(can))
+        {
+            return;
+        }
         try
         {
             if (drawingCache == null)
@@ -274,6 +278,7 @@ public abstract class PlanePlotView extends PlotView
                 // c.drawRect(rect, paint);
             }
             can.drawBitmap(drawingCache, 0, 0, paint);
+            releaseDrawingCache();
         }
         catch (OutOfMemoryError ex)
         {
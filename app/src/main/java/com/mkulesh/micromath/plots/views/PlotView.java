@@ -17,6 +17,7 @@ import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.util.AttributeSet;
@@ -51,6 +52,7 @@ public abstract class PlotView extends CustomTextView
 
     // cache
     Bitmap drawingCache = null;
+    private boolean inViewport = true;
 
     // data
     ArrayList<FunctionIf> functions = null;
@@ -255,6 +257,39 @@ public abstract class PlotView extends CustomTextView
         drawingCache = null;
     }
 
+    /**
+     * Procedure sets whether this plot is near the visible area of the formula list. A plot outside of this
+     * area is not rendered into the display list and releases its drawing cache
+     */
+    public void setInViewport(boolean inViewport)
+    {
+        if (this.inViewport != inViewport)
+        {
+            this.inViewport = inViewport;
+            invalidate();
+        }
+    }
+
+    /**
+     * Procedure checks whether the plot shall be drawn on the given canvas. Off-screen rendering, like an
+     * export into an image, is always performed
+     */
+    boolean isDrawingSkipped(Canvas can)
+    {
+        return !inViewport && can.isHardwareAccelerated();
+    }
+
+    /**
+     * Procedure releases the drawing cache after it was drawn if this plot is outside of the viewport
+     */
+    void releaseDrawingCache()
+    {
+        if (!inViewport)
+        {
+            drawingCache = null;
+        }
+    }
+
     @Override
     public void invalidate()
     {
@@ -258,6 +258,10 @@ public class SurfacePlotView extends PlotView
     @Override
     protected void onDraw(Canvas can)
     {
+        if (isDrawingSkipped(can))
+        {
+            return;
+        }
         try
         {
             if (drawingCache == null)
@@ -313,6 +317,7 @@ public class SurfacePlotView extends PlotView
 
             }
             can.drawBitmap(drawingCache, 0, 0, paint);
+            releaseDrawingCache();
         }
         catch (OutOfMemoryError ex)
         {
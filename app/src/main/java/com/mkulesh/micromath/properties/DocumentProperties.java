@@ -26,9 +26,19 @@ import org.xmlpull.v1.XmlSerializer;
 
 import java.text.DecimalFormat;
 import java.text.ParseException;
+import java.util.Locale;
 
 public class DocumentProperties
 {
+    /**
+     * Supported methods of numerical integration
+     */
+    public enum IntegrationMethod
+    {
+        SIMPSON,
+        GAUSS_KRONROD
+    }
+
     /**
      * Constants used to save/restore the instance state.
      */
@@ -41,6 +51,8 @@ public class DocumentProperties
     private static final String STATE_DOCUMENT_SIGNIFICANT_DIGITS = "document_significant_digits";
     private static final String STATE_DOCUMENT_SCALE_FACTOR = "document_scale_factor";
     private static final String STATE_DOCUMENT_REDEFINE_ALLOWED = "document_redefine_allowed";
+    private static final String STATE_DOCUMENT_CACHE_FUNCTIONS = "document_cache_functions";
+    private static final String STATE_DOCUMENT_INTEGRATION_METHOD = "document_integration_method";
 
     /**
      * Constants used to write/read the XML file.
@@ -54,6 +66,8 @@ public class DocumentProperties
     private static final String XML_PROP_SIGNIFICANT_DIGITS = "significantDigits";
     private static final String XML_PROP_SCALE = "scale";
     public static final String XML_PROP_REDEFINE_ALLOWED = "redefineAllowed";
+    private static final String XML_PROP_CACHE_FUNCTIONS = "cacheFunctions";
+    private static final String XML_PROP_INTEGRATION_METHOD = "integrationMethod";
 
     /**
      * Document versions
@@ -75,6 +89,8 @@ public class DocumentProperties
     public int significantDigits = 6;
     private ScaledDimensions scaledDimensions = null;
     public boolean redefineAllowed = true;
+    public boolean cacheFunctions = false;
+    public IntegrationMethod integrationMethod = IntegrationMethod.SIMPSON;
 
     // flag that controls term insertion mode: not saved in state, set from the context menu
     public boolean insertBefore = false;
@@ -107,6 +123,9 @@ public class DocumentProperties
         significantDigits = inState.getInt(STATE_DOCUMENT_SIGNIFICANT_DIGITS);
         scaledDimensions.setScaleFactor(inState.getFloat(STATE_DOCUMENT_SCALE_FACTOR));
         redefineAllowed = inState.getBoolean(STATE_DOCUMENT_REDEFINE_ALLOWED);
+        cacheFunctions = inState.getBoolean(STATE_DOCUMENT_CACHE_FUNCTIONS, false);
+        integrationMethod = IntegrationMethod.values()[inState.getInt(STATE_DOCUMENT_INTEGRATION_METHOD,
+                IntegrationMethod.SIMPSON.ordinal())];
     }
 
     public void writeToBundle(Bundle outState)
@@ -121,6 +140,8 @@ public class DocumentProperties
         outState.putInt(STATE_DOCUMENT_SIGNIFICANT_DIGITS, significantDigits);
         outState.putFloat(STATE_DOCUMENT_SCALE_FACTOR, scaledDimensions.getScaleFactor());
         outState.putBoolean(STATE_DOCUMENT_REDEFINE_ALLOWED, redefineAllowed);
+        outState.putBoolean(STATE_DOCUMENT_CACHE_FUNCTIONS, cacheFunctions);
+        outState.putInt(STATE_DOCUMENT_INTEGRATION_METHOD, integrationMethod.ordinal());
     }
 
     public void readFromXml(XmlPullParser parser)
@@ -163,6 +184,21 @@ public class DocumentProperties
         {
             redefineAllowed = Boolean.parseBoolean(attr);
         }
+        attr = parser.getAttributeValue(null, XML_PROP_CACHE_FUNCTIONS);
+        cacheFunctions = (attr != null) && Boolean.parseBoolean(attr);
+        integrationMethod = IntegrationMethod.SIMPSON;
+        attr = parser.getAttributeValue(null, XML_PROP_INTEGRATION_METHOD);
+        if (attr != null)
+        {
+            try
+            {
+                integrationMethod = IntegrationMethod.valueOf(attr.toUpperCase(Locale.ENGLISH));
+            }
+            catch (Exception e)
+            {
+                // nothing to do
+            }
+        }
     }
 
     public void writeToXml(XmlSerializer serializer) throws Exception
@@ -177,6 +213,12 @@ public class DocumentProperties
         serializer.attribute(FormulaList.XML_NS, XML_PROP_SIGNIFICANT_DIGITS, String.valueOf(significantDigits));
         serializer.attribute(FormulaList.XML_NS, XML_PROP_SCALE, df.format(scaledDimensions.getScaleFactor()));
         serializer.attribute(FormulaList.XML_NS, XML_PROP_REDEFINE_ALLOWED, String.valueOf(redefineAllowed));
+        serializer.attribute(FormulaList.XML_NS, XML_PROP_CACHE_FUNCTIONS, String.valueOf(cacheFunctions));
+        if (integrationMethod != IntegrationMethod.SIMPSON)
+        {
+            serializer.attribute(FormulaList.XML_NS, XML_PROP_INTEGRATION_METHOD,
+                    integrationMethod.toString().toLowerCase(Locale.ENGLISH));
+        }
     }
 
     public static void setDocumentVersion(int version)
@@ -39,6 +39,7 @@ public class PlotProperties implements Parcelable
     private static final String XML_PROP_MESH_OPACITY = "meshOpacity";
     private static final String XML_PROP_ROTATION = "rotation";
     private static final String XML_PROP_ELEVATION = "elevation";
+    private static final String XML_PROP_ADAPTIVE_SAMPLING = "adaptiveSampling";
 
     public enum AxesStyle
     {
@@ -69,6 +70,9 @@ public class PlotProperties implements Parcelable
     public int rotation = 35;
     public int elevation = 20;
 
+    // state- and XML-related attributes for function plot
+    public boolean adaptiveSampling = false;
+
     /**
      * Parcelable interface
      */
@@ -95,6 +99,7 @@ public class PlotProperties implements Parcelable
         dest.writeInt(meshOpacity);
         dest.writeInt(rotation);
         dest.writeInt(elevation);
+        dest.writeString(String.valueOf(adaptiveSampling));
     }
 
     private void readFromParcel(Parcel in)
@@ -107,6 +112,7 @@ public class PlotProperties implements Parcelable
         meshOpacity = in.readInt();
         rotation = in.readInt();
         elevation = in.readInt();
+        adaptiveSampling = Boolean.parseBoolean(in.readString());
     }
 
     public static final Parcelable.Creator<PlotProperties> CREATOR = new Parcelable.Creator<PlotProperties>()
@@ -142,6 +148,7 @@ public class PlotProperties implements Parcelable
             meshOpacity = a.meshOpacity;
             rotation = a.rotation;
             elevation = a.elevation;
+            adaptiveSampling = a.adaptiveSampling;
         }
     }
 
@@ -204,6 +211,11 @@ public class PlotProperties implements Parcelable
         {
             elevation = Integer.parseInt(attr);
         }
+        attr = parser.getAttributeValue(null, XML_PROP_ADAPTIVE_SAMPLING);
+        if (attr != null)
+        {
+            adaptiveSampling = Boolean.parseBoolean(attr);
+        }
     }
 
     public void writeToXml(XmlSerializer serializer) throws Exception
@@ -221,6 +233,10 @@ public class PlotProperties implements Parcelable
             serializer.attribute(FormulaList.XML_NS, XML_PROP_ROTATION, String.valueOf(rotation));
             serializer.attribute(FormulaList.XML_NS, XML_PROP_ELEVATION, String.valueOf(elevation));
         }
+        if (adaptiveSampling)
+        {
+            serializer.attribute(FormulaList.XML_NS, XML_PROP_ADAPTIVE_SAMPLING, String.valueOf(true));
+        }
     }
 
     public boolean isCrossedAxes()
@@ -218,6 +218,17 @@ public class TestSession extends AppTask implements Runnable
         formulas.writeToFile(FileUtils.ensureScheme(Uri.fromFile(docFile)));
     }
 
+    /**
+     * Procedure returns the directory where test scripts can write and read back their files
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public Uri getWorkingDirectory()
+    {
+        final File docDir = CompatUtils.getStorageDir(formulas.getActivity(), EXPORT_SCRIPS_DIR);
+        docDir.mkdir();
+        return FileUtils.ensureScheme(Uri.fromFile(docDir));
+    }
+
     @NonNull
     private String getScriptName(final CharSequence uri)
     {
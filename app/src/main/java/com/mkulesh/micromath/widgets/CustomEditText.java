@@ -64,6 +64,8 @@ public class CustomEditText extends AppCompatEditText implements OnLongClickList
     private boolean calculatedValue = false;
     private boolean requesFocusEnabled = true;
     private boolean fileName = false;
+    private boolean functionReference = false;
+    private boolean dataType = false;
 
     // custom content types
     private boolean emptyEnabled = false;
@@ -111,6 +113,8 @@ public class CustomEditText extends AppCompatEditText implements OnLongClickList
             intermediateArgument = a.getBoolean(R.styleable.CustomViewExtension_intermediateArgument, false);
             calculatedValue = a.getBoolean(R.styleable.CustomViewExtension_calculatedValue, false);
             fileName = a.getBoolean(R.styleable.CustomViewExtension_fileName, false);
+            functionReference = a.getBoolean(R.styleable.CustomViewExtension_functionReference, false);
+            dataType = a.getBoolean(R.styleable.CustomViewExtension_dataType, false);
             // custom content types
             emptyEnabled = a.getBoolean(R.styleable.CustomViewExtension_emptyEnabled, false);
             intervalEnabled = a.getBoolean(R.styleable.CustomViewExtension_intervalEnabled, false);
@@ -264,7 +268,7 @@ public class CustomEditText extends AppCompatEditText implements OnLongClickList
     public boolean isConversionEnabled()
     {
         return !isEquationName() && !isIndexName() && !isIntermediateArgument() && !isTextFragment()
-                && !isCalculatedValue() && !isFileName();
+                && !isCalculatedValue() && !isFileName() && !isFunctionReference() && !isDataType();
     }
 
     public void updateTextSize(ScaledDimensions dimen, int termDepth, ScaledDimensions.Type paddingType)
@@ -301,6 +305,16 @@ public class CustomEditText extends AppCompatEditText implements OnLongClickList
         return fileName;
     }
 
+    public boolean isFunctionReference()
+    {
+        return functionReference;
+    }
+
+    public boolean isDataType()
+    {
+        return dataType;
+    }
+
     /*--------------------------------------------------------*
      * Painting
      *--------------------------------------------------------*/
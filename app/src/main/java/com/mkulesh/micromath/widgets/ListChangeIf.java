@@ -48,6 +48,11 @@ public interface ListChangeIf
      */
     void onScale(float scaleFactor);
 
+    /**
+     * Procedure will be called if the visible vertical area of the list is changed
+     */
+    void onViewportChanged(int top, int bottom);
+
     /**
      * Procedure is called if a palette button is pressed
      */
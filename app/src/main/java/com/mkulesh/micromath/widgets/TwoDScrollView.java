@@ -1216,6 +1216,25 @@ public class TwoDScrollView extends FrameLayout
 
         // Calling this with the present values causes it to re-claim them
         scrollTo(getScrollX(), getScrollY());
+        notifyViewportChanged();
+    }
+
+    @Override
+    protected void onScrollChanged(int l, int t, int oldl, int oldt)
+    {
+        super.onScrollChanged(l, t, oldl, oldt);
+        if (t != oldt)
+        {
+            notifyViewportChanged();
+        }
+    }
+
+    private void notifyViewportChanged()
+    {
+        if (listChangeIf != null && getChildCount() > 0)
+        {
+            listChangeIf.onViewportChanged(getScrollY(), getScrollY() + getHeight());
+        }
     }
 
     @Override